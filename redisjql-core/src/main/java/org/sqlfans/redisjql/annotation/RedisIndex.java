@@ -1,5 +1,7 @@
 package org.sqlfans.redisjql.annotation;
 
+import org.apache.ibatis.type.JdbcType;
+
 import java.lang.annotation.*;
 
 /**
@@ -20,6 +22,11 @@ public @interface RedisIndex {
      */
     String primaryKey() default "id";
     
+    /**
+     * 主键字段的JDBC类型，默认按ResultMap推断
+     */
+    JdbcType primaryKeyType() default JdbcType.UNDEFINED;
+    
     /**
      * 版本字段
      */
@@ -55,5 +62,11 @@ public @interface RedisIndex {
          * 是否是唯一索引
          */
         boolean unique() default false;
+        
+        /**
+         * 索引是否包含表中全部行，拦截器开启trustCompleteIndexes时完整索引上的条件不再由数据库重复判断；
+         * CaffeineCacheOperationService会淘汰或过期键，不支持完整索引
+         */
+        boolean complete() default false;
     }
 }
\ No newline at end of file
@@ -0,0 +1,95 @@
+package org.sqlfans.redisjql.cache;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 异步缓存操作服务接口
+ * 与CacheOperationService中写路径使用的操作一一对应，调用立即返回，操作完成或失败时完成返回的CompletionStage，
+ * 调用方可以连续发出多个命令，由同一连接同时处理，不必逐个等待往返
+ *
+ * <p>同一调用方依次发出的命令不保证按顺序执行，有先后依赖的命令应在前一个完成后再发出。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public interface AsyncCacheOperationService {
+    /**
+     * 添加索引记录
+     * @param indexKey 索引键
+     * @param primaryKey 主键值
+     * @param score 分数（用于排序）
+     * @return 操作完成时完成
+     */
+    CompletionStage<Void> addIndexRecord(String indexKey, String primaryKey, double score);
+    
+    /**
+     * 添加主键到索引的映射
+     * @param tableName 表名
+     * @param primaryKey 主键值
+     * @param indexKey 索引键
+     * @return 操作完成时完成
+     */
+    CompletionStage<Void> addPrimaryKeyToIndexMapping(String tableName, String primaryKey, String indexKey);
+    
+    /**
+     * 批量添加索引记录及主键到索引的映射
+     * @param tableName 表名
+     * @param primaryKeysByIndex 索引键到其新增主键及分数的映射
+     * @return 全部写入完成时完成
+     */
+    CompletionStage<Void> addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex);
+    
+    /**
+     * 删除索引记录
+     * @param indexKey 索引键
+     * @param primaryKey 主键值
+     * @return 操作完成时完成
+     */
+    CompletionStage<Void> removeIndexRecord(String indexKey, String primaryKey);
+    
+    /**
+     * 获取主键对应的所有索引键
+     * @param tableName 表名
+     * @param primaryKey 主键值
+     * @return 索引键集合
+     */
+    CompletionStage<Set<String>> getPrimaryKeyMappings(String tableName, String primaryKey);
+    
+    /**
+     * 原子地替换主键的全部索引成员关系，版本较旧的写入不生效
+     * @param tableName 表名
+     * @param primaryKey 主键值
+     * @param indexScores 新的索引键及其分数
+     * @param version 行版本号，负数表示不比较版本
+     * @return 是否已替换，已有更新的版本时为false
+     */
+    CompletionStage<Boolean> replaceIndexMemberships(String tableName, String primaryKey,
+            Map<String, Double> indexScores, long version);
+    
+    /**
+     * 标记记录为删除状态
+     * @param tableName 表名
+     * @param primaryKey 主键值
+     * @return 操作完成时完成
+     */
+    CompletionStage<Void> markForDeletion(String tableName, String primaryKey);
+    
+    /**
+     * 添加数据字段
+     * @param dataKey 数据键
+     * @param fieldName 字段名
+     * @param fieldValue 字段值
+     * @return 操作完成时完成
+     */
+    CompletionStage<Void> addDataField(String dataKey, String fieldName, String fieldValue);
+    
+    /**
+     * 删除数据字段
+     * @param dataKey 数据键
+     * @param fieldName 字段名
+     * @return 操作完成时完成
+     */
+    CompletionStage<Void> removeDataField(String dataKey, String fieldName);
+}
@@ -1,10 +1,12 @@
 package org.sqlfans.redisjql.cache;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * 缓存操作服务接口
- * 用于处理缓存的读写操作
+ * 用于处理缓存的读写操作，接口不提供默认实现，全部方法由实现类按各自的存储完成
  *
  * @author vincentruan
  * @version 1.0.0
@@ -26,6 +28,13 @@ public interface CacheOperationService {
      */
     void addPrimaryKeyToIndexMapping(String tableName, String primaryKey, String indexKey);
     
+    /**
+     * 批量添加索引记录及主键到索引的映射，实现类应在一次网络往返内完成全部写入
+     * @param tableName 表名
+     * @param primaryKeysByIndex 索引键到其新增主键及分数的映射
+     */
+    void addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex);
+    
     /**
      * 根据索引键查询主键列表
      * @param indexKey 索引键
@@ -35,6 +44,66 @@ public interface CacheOperationService {
      */
     Set<String> queryPrimaryKeysByIndex(String indexKey, long start, long end);
     
+    /**
+     * 批量查询多个索引键的主键列表，实现类应在一次网络往返内完成全部查询
+     * @param ranges 索引查询范围列表
+     * @return 索引键到主键列表的映射，按ranges顺序排列，主键按索引中的顺序排列
+     */
+    Map<String, List<String>> queryPrimaryKeysByIndexes(List<IndexRange> ranges);
+    
+    /**
+     * 按分数区间查询索引键的主键（ZRANGEBYSCORE/ZREVRANGEBYSCORE）
+     * @param indexKey 索引键
+     * @param range 分数区间
+     * @param reverse 是否按分数从大到小返回
+     * @return 分数在区间内的主键，按分数排序
+     */
+    List<String> queryPrimaryKeysByScore(String indexKey, ScoreRange range, boolean reverse);
+    
+    /**
+     * 批量查询多个索引键的主键及其分数（ZRANGE WITHSCORES），实现类应在一次网络往返内完成全部查询
+     * @param ranges 索引查询范围列表
+     * @return 索引键到 主键-分数 映射的映射，按ranges顺序排列，主键按索引中的顺序排列
+     */
+    Map<String, Map<String, Double>> queryScoredPrimaryKeys(List<IndexRange> ranges);
+    
+    /**
+     * 批量获取多个索引键的成员数量（ZCARD），实现类应在一次网络往返内完成
+     * @param indexKeys 索引键列表
+     * @return 索引键到成员数量的映射，按indexKeys顺序排列，不存在的索引为0
+     */
+    Map<String, Long> countPrimaryKeysByIndexes(List<String> indexKeys);
+    
+    /**
+     * 过滤出同时存在于全部索引键中的主键（ZMSCORE探测），不下载索引的全部成员
+     * @param primaryKeys 候选主键列表
+     * @param indexKeys 索引键列表
+     * @return 存在于全部索引中的主键，保持候选列表的顺序
+     */
+    List<String> filterPrimaryKeysByIndexes(List<String> primaryKeys, List<String> indexKeys);
+    
+    /**
+     * 过滤出满足全部索引子句的主键，主键存在于子句中任一索引键即满足该子句（ZMSCORE探测）
+     * @param primaryKeys 候选主键列表
+     * @param indexKeyUnions 索引子句列表，每个子句为需要取并集的索引键
+     * @return 满足全部子句的主键，保持候选列表的顺序
+     */
+    List<String> filterPrimaryKeysByIndexUnions(List<String> primaryKeys, List<List<String>> indexKeyUnions);
+    
+    /**
+     * 求多个索引键的主键并集，实现类应在服务端完成计算（ZUNION，成员分数取最小值）
+     * @param indexKeys 索引键列表
+     * @return 存在于任一索引中的主键，按分数升序排列
+     */
+    List<String> unionPrimaryKeys(List<String> indexKeys);
+    
+    /**
+     * 求多个索引键的主键交集，实现类应在服务端完成计算，只返回交集结果
+     * @param indexKeys 索引键列表
+     * @return 同时存在于全部索引中的主键，按分数（多个索引时为分数之和）升序排列，任一索引为空时返回空列表
+     */
+    List<String> intersectPrimaryKeys(List<String> indexKeys);
+    
     /**
      * 标记删除记录
      * @param tableName 表名
@@ -42,6 +111,14 @@ public interface CacheOperationService {
      */
     void markForDeletion(String tableName, String primaryKey);
     
+    /**
+     * 批量查询已标记删除的主键，实现类应在一次网络往返内完成全部查询
+     * @param tableName 表名
+     * @param primaryKeys 主键列表
+     * @return 删除标记仍存在的主键
+     */
+    Set<String> getMarkedForDeletion(String tableName, List<String> primaryKeys);
+    
     /**
      * 清理标记为删除的记录
      */
@@ -52,16 +129,40 @@ public interface CacheOperationService {
      */
     void removeIndexRecord(String indexKey, String primaryKey);
     
+    /**
+     * 删除整个索引键，索引由同步服务重建，期间相关查询回退到数据库
+     * @param indexKeys 索引键列表
+     */
+    void removeIndexes(List<String> indexKeys);
+    
     /**
      * 获取主键对应的索引键集合
      */
     Set<String> getPrimaryKeyMappings(String tableName, String primaryKey);
     
+    /**
+     * 原子地替换主键的全部索引成员关系：从不再属于的索引中移除主键，添加到新的索引中，并重建主键到索引的映射
+     * 带版本号时与已写入的版本比较，版本较旧的写入不生效，避免并发更新乱序到达时旧值覆盖新值
+     * @param tableName 表名
+     * @param primaryKey 主键值
+     * @param indexScores 新的索引键及其分数，为空时移除全部索引成员关系
+     * @param version 行版本号，负数表示不比较版本
+     * @return 是否已替换，已有更新的版本时返回false
+     */
+    boolean replaceIndexMemberships(String tableName, String primaryKey, Map<String, Double> indexScores, long version);
+    
     /**
      * 添加数据字段
      */
     void addDataField(String dataKey, String fieldName, String fieldValue);
     
+    /**
+     * 删除数据字段
+     * @param dataKey 数据键
+     * @param fieldName 字段名
+     */
+    void removeDataField(String dataKey, String fieldName);
+    
     /**
      * 获取指定数据键的字段值
      * @param dataKey 数据键
@@ -70,6 +171,21 @@ public interface CacheOperationService {
      */
     String getFieldValue(String dataKey, String fieldName);
     
+    /**
+     * 批量获取多个数据键的多个字段值，实现类应在一次网络往返内完成全部查询
+     * @param dataKeys 数据键列表
+     * @param fieldNames 字段名列表
+     * @return 数据键到字段值的映射，按dataKeys顺序排列，不存在的字段值为null
+     */
+    Map<String, Map<String, String>> getFieldValues(List<String> dataKeys, List<String> fieldNames);
+    
+    /**
+     * 批量获取多个数据键的全部字段（HGETALL），实现类应在一次网络往返内完成全部查询
+     * @param dataKeys 数据键列表
+     * @return 数据键到全部字段的映射，按dataKeys顺序排列，不存在的数据键为空映射
+     */
+    Map<String, Map<String, String>> getAllFieldValues(List<String> dataKeys);
+    
     /**
      * 获取匹配模式的所有键
      * @param pattern 匹配模式
@@ -0,0 +1,135 @@
+package org.sqlfans.redisjql.cache;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 基于同步实现的异步缓存操作服务
+ * 用于没有原生异步接口的实现：Jedis实现在有界线程池中执行，每个线程从连接池取得各自的连接，
+ * 线程数即同时进行的命令数；Caffeine等本地实现在调用线程上直接执行，返回已完成的CompletionStage
+ *
+ * <p>包装两级缓存服务时，写操作同样会失效本地缓存并发布失效消息。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class ExecutorAsyncCacheOperationService implements AsyncCacheOperationService, AutoCloseable {
+    private static final AtomicInteger POOL_SEQUENCE = new AtomicInteger();
+    
+    private final CacheOperationService delegate;
+    private final Executor executor;
+    
+    /**
+     * 本服务创建的线程池，使用外部Executor时为null
+     */
+    private final ExecutorService ownedExecutor;
+    
+    /**
+     * 在调用线程上直接执行，用于本地实现
+     * @param delegate 同步缓存操作服务
+     */
+    public ExecutorAsyncCacheOperationService(CacheOperationService delegate) {
+        this(delegate, Runnable::run);
+    }
+    
+    /**
+     * 在指定的Executor中执行
+     * @param delegate 同步缓存操作服务
+     * @param executor 执行同步操作的Executor
+     */
+    public ExecutorAsyncCacheOperationService(CacheOperationService delegate, Executor executor) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.ownedExecutor = null;
+    }
+    
+    /**
+     * 在本服务创建的守护线程池中执行，线程数不应超过连接池的最大连接数
+     * @param delegate 同步缓存操作服务
+     * @param parallelism 线程数
+     */
+    public ExecutorAsyncCacheOperationService(CacheOperationService delegate, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        int poolId = POOL_SEQUENCE.incrementAndGet();
+        AtomicInteger threadSequence = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable,
+                            "redisjql-cache-" + poolId + "-" + threadSequence.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        this.delegate = delegate;
+        this.executor = pool;
+        this.ownedExecutor = pool;
+    }
+    
+    @Override
+    public CompletionStage<Void> addIndexRecord(String indexKey, String primaryKey, double score) {
+        return CompletableFuture.runAsync(() -> delegate.addIndexRecord(indexKey, primaryKey, score), executor);
+    }
+    
+    @Override
+    public CompletionStage<Void> addPrimaryKeyToIndexMapping(String tableName, String primaryKey, String indexKey) {
+        return CompletableFuture.runAsync(
+                () -> delegate.addPrimaryKeyToIndexMapping(tableName, primaryKey, indexKey), executor);
+    }
+    
+    @Override
+    public CompletionStage<Void> addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex) {
+        return CompletableFuture.runAsync(() -> delegate.addIndexRecords(tableName, primaryKeysByIndex), executor);
+    }
+    
+    @Override
+    public CompletionStage<Void> removeIndexRecord(String indexKey, String primaryKey) {
+        return CompletableFuture.runAsync(() -> delegate.removeIndexRecord(indexKey, primaryKey), executor);
+    }
+    
+    @Override
+    public CompletionStage<Set<String>> getPrimaryKeyMappings(String tableName, String primaryKey) {
+        return CompletableFuture.supplyAsync(() -> delegate.getPrimaryKeyMappings(tableName, primaryKey), executor);
+    }
+    
+    @Override
+    public CompletionStage<Boolean> replaceIndexMemberships(String tableName, String primaryKey,
+            Map<String, Double> indexScores, long version) {
+        return CompletableFuture.supplyAsync(
+                () -> delegate.replaceIndexMemberships(tableName, primaryKey, indexScores, version), executor);
+    }
+    
+    @Override
+    public CompletionStage<Void> markForDeletion(String tableName, String primaryKey) {
+        return CompletableFuture.runAsync(() -> delegate.markForDeletion(tableName, primaryKey), executor);
+    }
+    
+    @Override
+    public CompletionStage<Void> addDataField(String dataKey, String fieldName, String fieldValue) {
+        return CompletableFuture.runAsync(() -> delegate.addDataField(dataKey, fieldName, fieldValue), executor);
+    }
+    
+    @Override
+    public CompletionStage<Void> removeDataField(String dataKey, String fieldName) {
+        return CompletableFuture.runAsync(() -> delegate.removeDataField(dataKey, fieldName), executor);
+    }
+    
+    /**
+     * 关闭本服务创建的线程池，已提交的操作执行完成后线程退出
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.sqlfans.redisjql.cache;
+
+import java.util.Objects;
+
+/**
+ * 索引查询范围
+ * 描述对单个索引键（有序集合）按位置区间的一次查询，用于批量查询索引。
+ * 逆序查询时位置按分数从大到小计算，与ZREVRANGE一致
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class IndexRange {
+    private final String indexKey;
+    private final long start;
+    private final long end;
+    private final boolean reverse;
+
+    private IndexRange(String indexKey, long start, long end, boolean reverse) {
+        this.indexKey = Objects.requireNonNull(indexKey, "indexKey");
+        this.start = start;
+        this.end = end;
+        this.reverse = reverse;
+    }
+
+    /**
+     * 查询索引键的全部成员
+     * @param indexKey 索引键
+     * @return 查询范围
+     */
+    public static IndexRange all(String indexKey) {
+        return new IndexRange(indexKey, 0, -1, false);
+    }
+
+    /**
+     * 按位置区间查询索引键，区间含义与ZRANGE一致，end为-1表示到末尾
+     * @param indexKey 索引键
+     * @param start 起始位置
+     * @param end 结束位置
+     * @return 查询范围
+     */
+    public static IndexRange of(String indexKey, long start, long end) {
+        return new IndexRange(indexKey, start, end, false);
+    }
+
+    /**
+     * 按分数从大到小的位置区间查询索引键，区间含义与ZREVRANGE一致
+     * @param indexKey 索引键
+     * @param start 起始位置
+     * @param end 结束位置
+     * @return 查询范围
+     */
+    public static IndexRange reverse(String indexKey, long start, long end) {
+        return new IndexRange(indexKey, start, end, true);
+    }
+
+    public String getIndexKey() {
+        return indexKey;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public boolean isReverse() {
+        return reverse;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof IndexRange)) {
+            return false;
+        }
+        IndexRange that = (IndexRange) o;
+        return start == that.start && end == that.end && reverse == that.reverse && indexKey.equals(that.indexKey);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(indexKey, start, end, reverse);
+    }
+
+    @Override
+    public String toString() {
+        return indexKey + (reverse ? " rev" : "") + "[" + start + ", " + end + "]";
+    }
+}
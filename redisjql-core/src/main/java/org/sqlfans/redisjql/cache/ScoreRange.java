@@ -0,0 +1,149 @@
+package org.sqlfans.redisjql.cache;
+
+/**
+ * 索引分数区间
+ * 描述对有序集合按分数的一次查询，含义与ZRANGEBYSCORE一致，
+ * 边界可以是开区间，无界时使用正负无穷
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class ScoreRange {
+    private static final ScoreRange ALL = new ScoreRange(Double.NEGATIVE_INFINITY, false,
+            Double.POSITIVE_INFINITY, false);
+
+    private final double min;
+    private final boolean minExclusive;
+    private final double max;
+    private final boolean maxExclusive;
+
+    private ScoreRange(double min, boolean minExclusive, double max, boolean maxExclusive) {
+        this.min = min;
+        this.minExclusive = minExclusive;
+        this.max = max;
+        this.maxExclusive = maxExclusive;
+    }
+
+    /**
+     * 不限制分数的区间
+     * @return 分数区间
+     */
+    public static ScoreRange all() {
+        return ALL;
+    }
+
+    /**
+     * 创建分数区间
+     * @param min 下界，无界时为负无穷
+     * @param minExclusive 是否不包含下界
+     * @param max 上界，无界时为正无穷
+     * @param maxExclusive 是否不包含上界
+     * @return 分数区间
+     */
+    public static ScoreRange of(double min, boolean minExclusive, double max, boolean maxExclusive) {
+        return new ScoreRange(min, minExclusive, max, maxExclusive);
+    }
+
+    /**
+     * 与另一个区间求交，用于合并同一字段上的多个范围条件
+     * @param other 另一个区间
+     * @return 两个区间的交集
+     */
+    public ScoreRange intersect(ScoreRange other) {
+        double newMin = min;
+        boolean newMinExclusive = minExclusive;
+        if (other.min > min || (other.min == min && other.minExclusive)) {
+            newMin = other.min;
+            newMinExclusive = other.minExclusive;
+        }
+
+        double newMax = max;
+        boolean newMaxExclusive = maxExclusive;
+        if (other.max < max || (other.max == max && other.maxExclusive)) {
+            newMax = other.max;
+            newMaxExclusive = other.maxExclusive;
+        }
+        return new ScoreRange(newMin, newMinExclusive, newMax, newMaxExclusive);
+    }
+
+    /**
+     * 区间内是否不可能有分数
+     */
+    public boolean isEmpty() {
+        return min > max || (min == max && (minExclusive || maxExclusive));
+    }
+
+    /**
+     * 判断分数是否在区间内
+     */
+    public boolean contains(double score) {
+        return (minExclusive ? score > min : score >= min) && (maxExclusive ? score < max : score <= max);
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public boolean isMinExclusive() {
+        return minExclusive;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public boolean isMaxExclusive() {
+        return maxExclusive;
+    }
+
+    /**
+     * 下界的Redis参数形式，如 (100、-inf
+     */
+    public String minArgument() {
+        return toArgument(min, minExclusive);
+    }
+
+    /**
+     * 上界的Redis参数形式，如 (200、+inf
+     */
+    public String maxArgument() {
+        return toArgument(max, maxExclusive);
+    }
+
+    private static String toArgument(double bound, boolean exclusive) {
+        if (Double.isInfinite(bound)) {
+            return bound > 0 ? "+inf" : "-inf";
+        }
+        String value = bound == Math.rint(bound) && Math.abs(bound) < 1e15
+                ? String.valueOf((long) bound) : String.valueOf(bound);
+        return exclusive ? "(" + value : value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ScoreRange)) {
+            return false;
+        }
+        ScoreRange that = (ScoreRange) o;
+        return Double.compare(min, that.min) == 0 && minExclusive == that.minExclusive
+                && Double.compare(max, that.max) == 0 && maxExclusive == that.maxExclusive;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(min);
+        result = 31 * result + (minExclusive ? 1 : 0);
+        result = 31 * result + Double.hashCode(max);
+        result = 31 * result + (maxExclusive ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return (minExclusive || Double.isInfinite(min) ? "(" : "[") + minArgument().replace("(", "") + ", "
+                + maxArgument().replace("(", "") + (maxExclusive || Double.isInfinite(max) ? ")" : "]");
+    }
+}
@@ -3,22 +3,26 @@ package org.sqlfans.redisjql.cache.caffine;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.cache.ScoreRange;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
  * Caffeine本地缓存实现
+ * 各缓存按条数淘汰并在写入一小时后过期，索引可能缺少行，因此不支持完整（complete）索引和拦截器的trustCompleteIndexes
  *
  * @author vincentruan
  * @version 1.0.0
  */
 public class CaffeineCacheOperationService implements CacheOperationService {
     // 有序集合缓存 - 模拟Redis的ZSET
-    private final Cache<String, ConcurrentSkipListMap<Double, Set<String>>> sortedSetCache;
+    private final Cache<String, ScoredSet> sortedSetCache;
     
     // 集合缓存 - 模拟Redis的SET
     private final Cache<String, Set<String>> setCache;
@@ -32,6 +36,9 @@ public class CaffeineCacheOperationService implements CacheOperationService {
     // 删除标记的过期时间
     private final Map<String, Long> expirations = new ConcurrentHashMap<>();
     
+    // 行版本号 - 表名:主键 -> 最近一次替换索引成员关系时的版本，同时作为同一主键替换操作的锁
+    private final Cache<String, Long> versionCache;
+    
     public CaffeineCacheOperationService() {
         this.sortedSetCache = Caffeine.newBuilder()
                 .maximumSize(10000)
@@ -52,12 +59,16 @@ public class CaffeineCacheOperationService implements CacheOperationService {
                 .maximumSize(10000)
                 .expireAfterWrite(1, TimeUnit.HOURS)
                 .build();
+        
+        this.versionCache = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(1, TimeUnit.DAYS)
+                .build();
     }
     
     @Override
     public void addIndexRecord(String indexKey, String primaryKey, double score) {
-        ConcurrentSkipListMap<Double, Set<String>> zset = sortedSetCache.get(indexKey, k -> new ConcurrentSkipListMap<>());
-        zset.computeIfAbsent(score, k -> ConcurrentHashMap.newKeySet()).add(primaryKey);
+        sortedSetCache.get(indexKey, k -> new ScoredSet()).add(primaryKey, score);
     }
     
     @Override
@@ -67,17 +78,176 @@ public class CaffeineCacheOperationService implements CacheOperationService {
         set.add(indexKey);
     }
     
+    @Override
+    public void addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex) {
+        for (Map.Entry<String, Map<String, Double>> index : primaryKeysByIndex.entrySet()) {
+            ScoredSet zset = sortedSetCache.get(index.getKey(), k -> new ScoredSet());
+            for (Map.Entry<String, Double> member : index.getValue().entrySet()) {
+                zset.add(member.getKey(), member.getValue());
+                addPrimaryKeyToIndexMapping(tableName, member.getKey(), index.getKey());
+            }
+        }
+    }
+    
     @Override
     public Set<String> queryPrimaryKeysByIndex(String indexKey, long start, long end) {
-        ConcurrentSkipListMap<Double, Set<String>> zset = sortedSetCache.getIfPresent(indexKey);
+        return new HashSet<>(rangeMembers(indexKey, start, end, false));
+    }
+    
+    @Override
+    public Map<String, List<String>> queryPrimaryKeysByIndexes(List<IndexRange> ranges) {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (IndexRange range : ranges) {
+            result.put(range.getIndexKey(),
+                    rangeMembers(range.getIndexKey(), range.getStart(), range.getEnd(), range.isReverse()));
+        }
+        return result;
+    }
+    
+    @Override
+    public Map<String, Map<String, Double>> queryScoredPrimaryKeys(List<IndexRange> ranges) {
+        Map<String, Map<String, Double>> result = new LinkedHashMap<>();
+        for (IndexRange range : ranges) {
+            ScoredSet zset = sortedSetCache.getIfPresent(range.getIndexKey());
+            Map<String, Double> members = new LinkedHashMap<>();
+            if (zset != null) {
+                Map<String, Double> scores = zset.scoredMembers();
+                for (String member : rangeMembers(range.getIndexKey(), range.getStart(), range.getEnd(),
+                        range.isReverse())) {
+                    Double score = scores.get(member);
+                    if (score != null) {
+                        members.put(member, score);
+                    }
+                }
+            }
+            result.put(range.getIndexKey(), members);
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> queryPrimaryKeysByScore(String indexKey, ScoreRange range, boolean reverse) {
+        ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
+        if (zset == null || range.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return zset.membersByScore(range, reverse);
+    }
+    
+    @Override
+    public List<String> intersectPrimaryKeys(List<String> indexKeys) {
+        List<ScoredSet> zsets = new ArrayList<>(indexKeys.size());
+        for (String indexKey : indexKeys) {
+            ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
+            if (zset == null || zset.size() == 0) {
+                return new ArrayList<>();
+            }
+            zsets.add(zset);
+        }
+        if (zsets.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        // 遍历最小的集合，逐个检查成员是否存在于其余集合中
+        ScoredSet smallest = Collections.min(zsets, Comparator.comparingInt(ScoredSet::size));
+        List<String> result = new ArrayList<>();
+        for (String member : smallest.members()) {
+            boolean matched = true;
+            for (ScoredSet zset : zsets) {
+                if (zset != smallest && !zset.contains(member)) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                result.add(member);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public Map<String, Long> countPrimaryKeysByIndexes(List<String> indexKeys) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (String indexKey : indexKeys) {
+            ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
+            result.put(indexKey, zset != null ? (long) zset.size() : 0L);
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexes(List<String> primaryKeys, List<String> indexKeys) {
+        List<ScoredSet> zsets = new ArrayList<>(indexKeys.size());
+        for (String indexKey : indexKeys) {
+            ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
+            if (zset == null) {
+                return new ArrayList<>();
+            }
+            zsets.add(zset);
+        }
+        
+        List<String> result = new ArrayList<>();
+        for (String primaryKey : primaryKeys) {
+            if (zsets.stream().allMatch(zset -> zset.contains(primaryKey))) {
+                result.add(primaryKey);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexUnions(List<String> primaryKeys, List<List<String>> indexKeyUnions) {
+        List<List<ScoredSet>> unions = new ArrayList<>(indexKeyUnions.size());
+        for (List<String> indexKeys : indexKeyUnions) {
+            List<ScoredSet> zsets = new ArrayList<>(indexKeys.size());
+            for (String indexKey : indexKeys) {
+                ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
+                if (zset != null) {
+                    zsets.add(zset);
+                }
+            }
+            unions.add(zsets);
+        }
+        
+        List<String> result = new ArrayList<>();
+        for (String primaryKey : primaryKeys) {
+            if (unions.stream().allMatch(zsets -> zsets.stream().anyMatch(zset -> zset.contains(primaryKey)))) {
+                result.add(primaryKey);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> unionPrimaryKeys(List<String> indexKeys) {
+        // 合并各有序集合，成员分数取最小值后按分数排序，与ZUNION AGGREGATE MIN一致
+        Map<String, Double> scores = new HashMap<>();
+        for (String indexKey : indexKeys) {
+            ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
+            if (zset != null) {
+                zset.scores.forEach((member, score) -> scores.merge(member, score, Math::min));
+            }
+        }
+        return scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()))
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toList());
+    }
+    
+    /**
+     * 按分数顺序（逆序时从大到小）获取有序集合指定位置区间的成员
+     */
+    private List<String> rangeMembers(String indexKey, long start, long end, boolean reverse) {
+        ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
         if (zset == null) {
-            return Collections.emptySet();
+            return new ArrayList<>();
         }
         
         // 收集所有成员
-        List<String> allMembers = new ArrayList<>();
-        for (Set<String> members : zset.values()) {
-            allMembers.addAll(members);
+        List<String> allMembers = zset.members();
+        if (reverse) {
+            Collections.reverse(allMembers);
         }
         
         // 应用范围限制
@@ -85,10 +255,10 @@ public class CaffeineCacheOperationService implements CacheOperationService {
         int toIndex = (int) Math.min(allMembers.size(), end < 0 ? allMembers.size() : end + 1);
         
         if (fromIndex >= toIndex) {
-            return Collections.emptySet();
+            return new ArrayList<>();
         }
         
-        return new HashSet<>(allMembers.subList(fromIndex, toIndex));
+        return new ArrayList<>(allMembers.subList(fromIndex, toIndex));
     }
     
     @Override
@@ -99,6 +269,20 @@ public class CaffeineCacheOperationService implements CacheOperationService {
         expirations.put(key + "_deleted", System.currentTimeMillis() + 600 * 1000);
     }
     
+    @Override
+    public Set<String> getMarkedForDeletion(String tableName, List<String> primaryKeys) {
+        long now = System.currentTimeMillis();
+        Set<String> result = new LinkedHashSet<>();
+        for (String primaryKey : primaryKeys) {
+            String key = tableName + "_" + primaryKey + "_deleted";
+            Long expiration = expirations.get(key);
+            if (valueCache.getIfPresent(key) != null && expiration != null && expiration > now) {
+                result.add(primaryKey);
+            }
+        }
+        return result;
+    }
+    
     @Override
     public void cleanupMarkedRecords() {
         // 获取当前时间
@@ -141,18 +325,17 @@ public class CaffeineCacheOperationService implements CacheOperationService {
     
     @Override
     public void removeIndexRecord(String indexKey, String primaryKey) {
-        ConcurrentSkipListMap<Double, Set<String>> zset = sortedSetCache.getIfPresent(indexKey);
+        ScoredSet zset = sortedSetCache.getIfPresent(indexKey);
         if (zset != null) {
-            // 在所有分数集合中查找并删除主键
-            for (Set<String> members : zset.values()) {
-                members.remove(primaryKey);
-            }
-            
-            // 清理空集合
-            zset.entrySet().removeIf(entry -> entry.getValue().isEmpty());
+            zset.remove(primaryKey);
         }
     }
     
+    @Override
+    public void removeIndexes(List<String> indexKeys) {
+        sortedSetCache.invalidateAll(indexKeys);
+    }
+    
     @Override
     public Set<String> getPrimaryKeyMappings(String tableName, String primaryKey) {
         String key = tableName + "_" + primaryKey;
@@ -160,18 +343,80 @@ public class CaffeineCacheOperationService implements CacheOperationService {
                 .orElse(Collections.emptySet());
     }
     
+    @Override
+    public boolean replaceIndexMemberships(String tableName, String primaryKey, Map<String, Double> indexScores,
+            long version) {
+        String mappingKey = tableName + "_" + primaryKey;
+        boolean[] replaced = new boolean[1];
+        // 在版本键上compute，同一主键的替换串行执行，效果与Redis中原子执行的脚本相同
+        versionCache.asMap().compute(tableName + ":" + primaryKey, (key, current) -> {
+            if (version >= 0 && current != null && current > version) {
+                return current;
+            }
+            Set<String> oldIndexKeys = setCache.getIfPresent(mappingKey);
+            if (oldIndexKeys != null) {
+                for (String oldIndexKey : oldIndexKeys) {
+                    if (!indexScores.containsKey(oldIndexKey)) {
+                        removeIndexRecord(oldIndexKey, primaryKey);
+                    }
+                }
+            }
+            Set<String> newIndexKeys = ConcurrentHashMap.newKeySet();
+            for (Map.Entry<String, Double> indexScore : indexScores.entrySet()) {
+                addIndexRecord(indexScore.getKey(), primaryKey, indexScore.getValue());
+                newIndexKeys.add(indexScore.getKey());
+            }
+            setCache.put(mappingKey, newIndexKeys);
+            replaced[0] = true;
+            return version >= 0 ? Long.valueOf(version) : current;
+        });
+        return replaced[0];
+    }
+    
     @Override
     public void addDataField(String dataKey, String fieldName, String fieldValue) {
         Map<String, String> hash = hashCache.get(dataKey, k -> new ConcurrentHashMap<>());
         hash.put(fieldName, fieldValue);
     }
     
+    @Override
+    public void removeDataField(String dataKey, String fieldName) {
+        Map<String, String> hash = hashCache.getIfPresent(dataKey);
+        if (hash != null) {
+            hash.remove(fieldName);
+        }
+    }
+    
     @Override
     public String getFieldValue(String dataKey, String fieldName) {
         Map<String, String> hash = hashCache.getIfPresent(dataKey);
         return hash != null ? hash.get(fieldName) : null;
     }
     
+    @Override
+    public Map<String, Map<String, String>> getFieldValues(List<String> dataKeys, List<String> fieldNames) {
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        for (String dataKey : dataKeys) {
+            Map<String, String> hash = hashCache.getIfPresent(dataKey);
+            Map<String, String> values = new HashMap<>();
+            for (String fieldName : fieldNames) {
+                values.put(fieldName, hash != null ? hash.get(fieldName) : null);
+            }
+            result.put(dataKey, values);
+        }
+        return result;
+    }
+    
+    @Override
+    public Map<String, Map<String, String>> getAllFieldValues(List<String> dataKeys) {
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        for (String dataKey : dataKeys) {
+            Map<String, String> hash = hashCache.getIfPresent(dataKey);
+            result.put(dataKey, hash != null ? new HashMap<>(hash) : new HashMap<>());
+        }
+        return result;
+    }
+    
     @Override
     public Set<String> getAllKeys(String pattern) {
         // 简易模式匹配实现 
@@ -199,4 +444,83 @@ public class CaffeineCacheOperationService implements CacheOperationService {
         
         return result;
     }
+    
+    /**
+     * 有序集合 - 按分数排序的成员表，同时维护成员到分数的映射，
+     * 与Redis一样，重复添加成员时更新其分数
+     */
+    private static final class ScoredSet {
+        private final ConcurrentSkipListMap<Double, Set<String>> byScore = new ConcurrentSkipListMap<>();
+        private final Map<String, Double> scores = new ConcurrentHashMap<>();
+        
+        synchronized void add(String member, double score) {
+            Double oldScore = scores.put(member, score);
+            if (oldScore != null) {
+                if (oldScore == score) {
+                    return;
+                }
+                removeFromScore(oldScore, member);
+            }
+            byScore.computeIfAbsent(score, k -> ConcurrentHashMap.newKeySet()).add(member);
+        }
+        
+        synchronized void remove(String member) {
+            Double score = scores.remove(member);
+            if (score != null) {
+                removeFromScore(score, member);
+            }
+        }
+        
+        private void removeFromScore(double score, String member) {
+            Set<String> members = byScore.get(score);
+            if (members != null) {
+                members.remove(member);
+                if (members.isEmpty()) {
+                    byScore.remove(score);
+                }
+            }
+        }
+        
+        boolean contains(String member) {
+            return scores.containsKey(member);
+        }
+        
+        int size() {
+            return scores.size();
+        }
+        
+        List<String> members() {
+            List<String> members = new ArrayList<>(scores.size());
+            for (Set<String> sameScore : byScore.values()) {
+                members.addAll(sameScore);
+            }
+            return members;
+        }
+        
+        synchronized Map<String, Double> scoredMembers() {
+            Map<String, Double> members = new LinkedHashMap<>();
+            for (Map.Entry<Double, Set<String>> sameScore : byScore.entrySet()) {
+                for (String member : sameScore.getValue()) {
+                    members.put(member, sameScore.getKey());
+                }
+            }
+            return members;
+        }
+        
+        /**
+         * 通过跳表的subMap取分数区间内的成员，与ZRANGEBYSCORE一致
+         */
+        List<String> membersByScore(ScoreRange range, boolean reverse) {
+            ConcurrentNavigableMap<Double, Set<String>> subMap = byScore.subMap(
+                    range.getMin(), !range.isMinExclusive(), range.getMax(), !range.isMaxExclusive());
+            if (reverse) {
+                subMap = subMap.descendingMap();
+            }
+            List<String> members = new ArrayList<>();
+            for (Set<String> sameScore : subMap.values()) {
+                members.addAll(sameScore);
+            }
+            return members;
+        }
+    }
 }
@@ -0,0 +1,80 @@
+package org.sqlfans.redisjql.cache.redis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 索引维护使用的Lua脚本
+ * 脚本在服务端原子执行，一次往返完成"读取旧索引键、移除不再属于的索引、添加新索引"，
+ * 并发更新同一主键时不会交错，版本号较旧的写入不生效
+ *
+ * <p>脚本访问的索引键由主键映射集合在服务端确定，无法全部通过KEYS声明，因此只适用于单机和哨兵部署，
+ * 不适用于Redis Cluster。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class IndexScripts {
+    /**
+     * 版本键前缀，完整的键为 redisjql:version:表名:主键，不与同步服务扫描的 表名_* 键冲突
+     */
+    static final String VERSION_KEY_PREFIX = "redisjql:version:";
+
+    /**
+     * 版本键的过期时间（秒），只需覆盖并发写入可能乱序到达的时间窗口
+     */
+    static final long VERSION_TTL_SECONDS = 24 * 60 * 60;
+
+    /**
+     * 替换主键的全部索引成员关系
+     * KEYS[1]: 主键映射集合 表名_主键；KEYS[2]: 版本键
+     * ARGV[1]: 主键；ARGV[2]: 版本号，负数表示不比较版本；ARGV[3]: 版本键过期时间；ARGV[4..]: 索引键、分数成对出现
+     * 返回1表示已替换，0表示已有更新的版本
+     */
+    static final String REPLACE_INDEX_MEMBERSHIPS =
+            "local version = tonumber(ARGV[2])\n" +
+            "if version >= 0 then\n" +
+            "  local current = tonumber(redis.call('GET', KEYS[2]))\n" +
+            "  if current and current > version then\n" +
+            "    return 0\n" +
+            "  end\n" +
+            "  redis.call('SET', KEYS[2], ARGV[2], 'EX', ARGV[3])\n" +
+            "end\n" +
+            "local pk = ARGV[1]\n" +
+            "local keep = {}\n" +
+            "for i = 4, #ARGV, 2 do\n" +
+            "  keep[ARGV[i]] = true\n" +
+            "end\n" +
+            "for _, oldKey in ipairs(redis.call('SMEMBERS', KEYS[1])) do\n" +
+            "  if not keep[oldKey] then\n" +
+            "    redis.call('ZREM', oldKey, pk)\n" +
+            "  end\n" +
+            "end\n" +
+            "redis.call('DEL', KEYS[1])\n" +
+            "for i = 4, #ARGV, 2 do\n" +
+            "  redis.call('ZADD', ARGV[i], ARGV[i + 1], pk)\n" +
+            "  redis.call('SADD', KEYS[1], ARGV[i])\n" +
+            "end\n" +
+            "return 1\n";
+
+    private IndexScripts() {
+    }
+
+    static List<String> replaceKeys(String tableName, String primaryKey) {
+        return Arrays.asList(tableName + "_" + primaryKey, VERSION_KEY_PREFIX + tableName + ":" + primaryKey);
+    }
+
+    static List<String> replaceArgs(String primaryKey, Map<String, Double> indexScores, long version) {
+        List<String> args = new ArrayList<>(3 + indexScores.size() * 2);
+        args.add(primaryKey);
+        args.add(String.valueOf(version));
+        args.add(String.valueOf(VERSION_TTL_SECONDS));
+        for (Map.Entry<String, Double> indexScore : indexScores.entrySet()) {
+            args.add(indexScore.getKey());
+            args.add(String.valueOf(indexScore.getValue()));
+        }
+        return args;
+    }
+}
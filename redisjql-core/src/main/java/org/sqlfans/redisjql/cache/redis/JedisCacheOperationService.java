@@ -2,11 +2,25 @@ package org.sqlfans.redisjql.cache.redis;
 
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Tuple;
+import redis.clients.jedis.ZParams;
+import redis.clients.jedis.exceptions.JedisDataException;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
 
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.cache.ScoreRange;
 import org.springframework.beans.factory.annotation.Autowired;
 
 /**
@@ -17,8 +31,38 @@ import org.springframework.beans.factory.annotation.Autowired;
  * @version 1.0.0
  */
 public class JedisCacheOperationService implements CacheOperationService {
+    /**
+     * ZINTERSTORE/ZUNIONSTORE临时结果键前缀
+     */
+    private static final String TEMP_KEY_PREFIX = "redisjql:tmp:";
+    
+    /**
+     * 临时结果键的过期时间（秒），正常情况下读取后立即删除，过期时间用于兜底
+     */
+    private static final int TEMP_KEY_TTL_SECONDS = 30;
+    
     private JedisPool jedisPool;
     
+    /**
+     * 服务端是否支持ZINTER（Redis 6.2+），首次收到未知命令错误后改用ZINTERSTORE
+     */
+    private volatile boolean zinterSupported = true;
+    
+    /**
+     * 服务端是否支持ZUNION（Redis 6.2+），首次收到未知命令错误后改用ZUNIONSTORE
+     */
+    private volatile boolean zunionSupported = true;
+    
+    /**
+     * 服务端是否支持ZMSCORE（Redis 6.2+），首次收到未知命令错误后改用逐个ZSCORE
+     */
+    private volatile boolean zmscoreSupported = true;
+    
+    /**
+     * 替换索引成员关系脚本的SHA1，首次使用时加载；服务端脚本缓存被清空后重新加载
+     */
+    private volatile String replaceIndexScriptSha;
+    
     @Autowired
     public JedisCacheOperationService(JedisPool jedisPool) {
         this.jedisPool = jedisPool;
@@ -41,6 +85,23 @@ public class JedisCacheOperationService implements CacheOperationService {
         }
     }
     
+    @Override
+    public void addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            for (Map.Entry<String, Map<String, Double>> index : primaryKeysByIndex.entrySet()) {
+                if (index.getValue().isEmpty()) {
+                    continue;
+                }
+                pipeline.zadd(index.getKey(), index.getValue());
+                for (String primaryKey : index.getValue().keySet()) {
+                    pipeline.sadd(tableName + "_" + primaryKey, index.getKey());
+                }
+            }
+            pipeline.sync();
+        }
+    }
+    
     @Override
     public Set<String> queryPrimaryKeysByIndex(String indexKey, long start, long end) {
         try (Jedis jedis = jedisPool.getResource()) {
@@ -48,6 +109,284 @@ public class JedisCacheOperationService implements CacheOperationService {
         }
     }
     
+    @Override
+    public Map<String, List<String>> queryPrimaryKeysByIndexes(List<IndexRange> ranges) {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        if (ranges.isEmpty()) {
+            return result;
+        }
+        
+        try (Jedis jedis = jedisPool.getResource()) {
+            // 通过管道一次发送全部ZRANGE命令
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<Set<String>>> responses = new LinkedHashMap<>();
+            for (IndexRange range : ranges) {
+                responses.put(range.getIndexKey(), range.isReverse()
+                        ? pipeline.zrevrange(range.getIndexKey(), range.getStart(), range.getEnd())
+                        : pipeline.zrange(range.getIndexKey(), range.getStart(), range.getEnd()));
+            }
+            pipeline.sync();
+            
+            for (Map.Entry<String, Response<Set<String>>> entry : responses.entrySet()) {
+                Set<String> keys = entry.getValue().get();
+                result.put(entry.getKey(), keys != null ? new ArrayList<>(keys) : new ArrayList<>());
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> queryPrimaryKeysByScore(String indexKey, ScoreRange range, boolean reverse) {
+        if (range.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        try (Jedis jedis = jedisPool.getResource()) {
+            Set<String> keys = reverse
+                    ? jedis.zrevrangeByScore(indexKey, range.maxArgument(), range.minArgument())
+                    : jedis.zrangeByScore(indexKey, range.minArgument(), range.maxArgument());
+            return keys != null ? new ArrayList<>(keys) : new ArrayList<>();
+        }
+    }
+    
+    @Override
+    public Map<String, Map<String, Double>> queryScoredPrimaryKeys(List<IndexRange> ranges) {
+        Map<String, Map<String, Double>> result = new LinkedHashMap<>();
+        if (ranges.isEmpty()) {
+            return result;
+        }
+        
+        try (Jedis jedis = jedisPool.getResource()) {
+            // 通过管道一次发送全部ZRANGE WITHSCORES命令
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<Set<Tuple>>> responses = new LinkedHashMap<>();
+            for (IndexRange range : ranges) {
+                responses.put(range.getIndexKey(), range.isReverse()
+                        ? pipeline.zrevrangeWithScores(range.getIndexKey(), range.getStart(), range.getEnd())
+                        : pipeline.zrangeWithScores(range.getIndexKey(), range.getStart(), range.getEnd()));
+            }
+            pipeline.sync();
+            
+            for (Map.Entry<String, Response<Set<Tuple>>> entry : responses.entrySet()) {
+                Map<String, Double> members = new LinkedHashMap<>();
+                Set<Tuple> tuples = entry.getValue().get();
+                if (tuples != null) {
+                    for (Tuple tuple : tuples) {
+                        members.put(tuple.getElement(), tuple.getScore());
+                    }
+                }
+                result.put(entry.getKey(), members);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public Map<String, Long> countPrimaryKeysByIndexes(List<String> indexKeys) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        if (indexKeys.isEmpty()) {
+            return result;
+        }
+        
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<Long>> responses = new LinkedHashMap<>();
+            for (String indexKey : indexKeys) {
+                responses.put(indexKey, pipeline.zcard(indexKey));
+            }
+            pipeline.sync();
+            
+            for (Map.Entry<String, Response<Long>> entry : responses.entrySet()) {
+                Long count = entry.getValue().get();
+                result.put(entry.getKey(), count != null ? count : 0L);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexes(List<String> primaryKeys, List<String> indexKeys) {
+        List<List<String>> indexKeyUnions = new ArrayList<>(indexKeys.size());
+        for (String indexKey : indexKeys) {
+            indexKeyUnions.add(Collections.singletonList(indexKey));
+        }
+        return filterPrimaryKeysByIndexUnions(primaryKeys, indexKeyUnions);
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexUnions(List<String> primaryKeys, List<List<String>> indexKeyUnions) {
+        if (primaryKeys.isEmpty() || indexKeyUnions.isEmpty()) {
+            return new ArrayList<>(primaryKeys);
+        }
+        
+        // 每个索引键只探测一次，再按子句组合结果
+        List<String> indexKeys = new ArrayList<>(new LinkedHashSet<>(flatten(indexKeyUnions)));
+        String[] members = primaryKeys.toArray(new String[0]);
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (zmscoreSupported) {
+                try {
+                    Pipeline pipeline = jedis.pipelined();
+                    List<Response<List<Double>>> responses = new ArrayList<>(indexKeys.size());
+                    for (String indexKey : indexKeys) {
+                        responses.add(pipeline.zmscore(indexKey, members));
+                    }
+                    pipeline.sync();
+                    
+                    List<List<Double>> scores = new ArrayList<>(responses.size());
+                    for (Response<List<Double>> response : responses) {
+                        scores.add(response.get());
+                    }
+                    return retainScored(primaryKeys, indexKeys, scores, indexKeyUnions);
+                } catch (JedisDataException e) {
+                    if (!isUnknownCommand(e)) {
+                        throw e;
+                    }
+                    zmscoreSupported = false;
+                }
+            }
+            
+            // 低版本Redis：逐个成员ZSCORE，仍在同一个管道中发送
+            Pipeline pipeline = jedis.pipelined();
+            List<List<Response<Double>>> responses = new ArrayList<>(indexKeys.size());
+            for (String indexKey : indexKeys) {
+                List<Response<Double>> indexResponses = new ArrayList<>(members.length);
+                for (String member : members) {
+                    indexResponses.add(pipeline.zscore(indexKey, member));
+                }
+                responses.add(indexResponses);
+            }
+            pipeline.sync();
+            
+            List<List<Double>> scores = new ArrayList<>(responses.size());
+            for (List<Response<Double>> indexResponses : responses) {
+                List<Double> indexScores = new ArrayList<>(indexResponses.size());
+                for (Response<Double> response : indexResponses) {
+                    indexScores.add(response.get());
+                }
+                scores.add(indexScores);
+            }
+            return retainScored(primaryKeys, indexKeys, scores, indexKeyUnions);
+        }
+    }
+    
+    /**
+     * 保留在每个子句的任一索引中有分数的主键
+     */
+    private static List<String> retainScored(List<String> primaryKeys, List<String> indexKeys,
+                                             List<List<Double>> scores, List<List<String>> indexKeyUnions) {
+        Map<String, List<Double>> scoresByKey = new HashMap<>();
+        for (int i = 0; i < indexKeys.size(); i++) {
+            scoresByKey.put(indexKeys.get(i), scores.get(i));
+        }
+        
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < primaryKeys.size(); i++) {
+            boolean matched = true;
+            for (List<String> union : indexKeyUnions) {
+                boolean scored = false;
+                for (String indexKey : union) {
+                    List<Double> indexScores = scoresByKey.get(indexKey);
+                    if (indexScores != null && indexScores.get(i) != null) {
+                        scored = true;
+                        break;
+                    }
+                }
+                if (!scored) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                result.add(primaryKeys.get(i));
+            }
+        }
+        return result;
+    }
+    
+    private static List<String> flatten(List<List<String>> indexKeyUnions) {
+        List<String> indexKeys = new ArrayList<>();
+        for (List<String> union : indexKeyUnions) {
+            indexKeys.addAll(union);
+        }
+        return indexKeys;
+    }
+    
+    @Override
+    public List<String> intersectPrimaryKeys(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        String[] keys = indexKeys.toArray(new String[0]);
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (keys.length == 1) {
+                return new ArrayList<>(jedis.zrange(keys[0], 0, -1));
+            }
+            
+            if (zinterSupported) {
+                try {
+                    return new ArrayList<>(jedis.zinter(new ZParams(), keys));
+                } catch (JedisDataException e) {
+                    if (!isUnknownCommand(e)) {
+                        throw e;
+                    }
+                    zinterSupported = false;
+                }
+            }
+            
+            // 低版本Redis：交集写入临时键，读取后删除
+            String tempKey = TEMP_KEY_PREFIX + UUID.randomUUID();
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zinterstore(tempKey, keys);
+            pipeline.expire(tempKey, TEMP_KEY_TTL_SECONDS);
+            Response<Set<String>> members = pipeline.zrange(tempKey, 0, -1);
+            pipeline.del(tempKey);
+            pipeline.sync();
+            return new ArrayList<>(members.get());
+        }
+    }
+    
+    @Override
+    public List<String> unionPrimaryKeys(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        String[] keys = indexKeys.toArray(new String[0]);
+        try (Jedis jedis = jedisPool.getResource()) {
+            if (keys.length == 1) {
+                return new ArrayList<>(jedis.zrange(keys[0], 0, -1));
+            }
+            
+            // 成员分数取最小值，同一sortField的索引中分数相同，结果仍按sortField排序
+            ZParams params = new ZParams().aggregate(ZParams.Aggregate.MIN);
+            if (zunionSupported) {
+                try {
+                    return new ArrayList<>(jedis.zunion(params, keys));
+                } catch (JedisDataException e) {
+                    if (!isUnknownCommand(e)) {
+                        throw e;
+                    }
+                    zunionSupported = false;
+                }
+            }
+            
+            // 低版本Redis：并集写入临时键，读取后删除
+            String tempKey = TEMP_KEY_PREFIX + UUID.randomUUID();
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zunionstore(tempKey, params, keys);
+            pipeline.expire(tempKey, TEMP_KEY_TTL_SECONDS);
+            Response<Set<String>> members = pipeline.zrange(tempKey, 0, -1);
+            pipeline.del(tempKey);
+            pipeline.sync();
+            return new ArrayList<>(members.get());
+        }
+    }
+    
+    private static boolean isUnknownCommand(JedisDataException e) {
+        return e.getMessage() != null && e.getMessage().toLowerCase().contains("unknown command");
+    }
+    
     @Override
     public void markForDeletion(String tableName, String primaryKey) {
         try (Jedis jedis = jedisPool.getResource()) {
@@ -59,6 +398,31 @@ public class JedisCacheOperationService implements CacheOperationService {
         }
     }
     
+    @Override
+    public Set<String> getMarkedForDeletion(String tableName, List<String> primaryKeys) {
+        Set<String> result = new LinkedHashSet<>();
+        if (primaryKeys.isEmpty()) {
+            return result;
+        }
+        
+        try (Jedis jedis = jedisPool.getResource()) {
+            // 通过管道一次发送全部EXISTS命令
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<Boolean>> responses = new LinkedHashMap<>();
+            for (String primaryKey : primaryKeys) {
+                responses.put(primaryKey, pipeline.exists(tableName + "_" + primaryKey + "_deleted"));
+            }
+            pipeline.sync();
+            
+            for (Map.Entry<String, Response<Boolean>> entry : responses.entrySet()) {
+                if (Boolean.TRUE.equals(entry.getValue().get())) {
+                    result.add(entry.getKey());
+                }
+            }
+        }
+        return result;
+    }
+    
     @Override
     public void cleanupMarkedRecords() {
         try (Jedis jedis = jedisPool.getResource()) {
@@ -97,6 +461,16 @@ public class JedisCacheOperationService implements CacheOperationService {
         }
     }
     
+    @Override
+    public void removeIndexes(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return;
+        }
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(indexKeys.toArray(new String[0]));
+        }
+    }
+    
     @Override
     public Set<String> getPrimaryKeyMappings(String tableName, String primaryKey) {
         try (Jedis jedis = jedisPool.getResource()) {
@@ -105,6 +479,30 @@ public class JedisCacheOperationService implements CacheOperationService {
         }
     }
     
+    @Override
+    public boolean replaceIndexMemberships(String tableName, String primaryKey, Map<String, Double> indexScores,
+            long version) {
+        List<String> keys = IndexScripts.replaceKeys(tableName, primaryKey);
+        List<String> args = IndexScripts.replaceArgs(primaryKey, indexScores, version);
+        try (Jedis jedis = jedisPool.getResource()) {
+            String sha = replaceIndexScriptSha;
+            if (sha == null) {
+                sha = jedis.scriptLoad(IndexScripts.REPLACE_INDEX_MEMBERSHIPS);
+                replaceIndexScriptSha = sha;
+            }
+            Object result;
+            try {
+                result = jedis.evalsha(sha, keys, args);
+            } catch (JedisNoScriptException e) {
+                // 服务端重启或执行了SCRIPT FLUSH，重新加载后重试
+                sha = jedis.scriptLoad(IndexScripts.REPLACE_INDEX_MEMBERSHIPS);
+                replaceIndexScriptSha = sha;
+                result = jedis.evalsha(sha, keys, args);
+            }
+            return Long.valueOf(1L).equals(result);
+        }
+    }
+    
     @Override
     public void addDataField(String dataKey, String fieldName, String fieldValue) {
         try (Jedis jedis = jedisPool.getResource()) {
@@ -112,6 +510,13 @@ public class JedisCacheOperationService implements CacheOperationService {
         }
     }
     
+    @Override
+    public void removeDataField(String dataKey, String fieldName) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.hdel(dataKey, fieldName);
+        }
+    }
+    
     @Override
     public String getFieldValue(String dataKey, String fieldName) {
         try (Jedis jedis = jedisPool.getResource()) {
@@ -120,6 +525,62 @@ public class JedisCacheOperationService implements CacheOperationService {
         }
     }
     
+    @Override
+    public Map<String, Map<String, String>> getFieldValues(List<String> dataKeys, List<String> fieldNames) {
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        if (dataKeys.isEmpty() || fieldNames.isEmpty()) {
+            return result;
+        }
+        
+        String[] fields = fieldNames.toArray(new String[0]);
+        try (Jedis jedis = jedisPool.getResource()) {
+            // 通过管道一次发送全部HMGET命令
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<List<String>>> responses = new LinkedHashMap<>();
+            for (String dataKey : dataKeys) {
+                responses.put(dataKey, pipeline.hmget(dataKey, fields));
+            }
+            pipeline.sync();
+            
+            for (Map.Entry<String, Response<List<String>>> entry : responses.entrySet()) {
+                result.put(entry.getKey(), zipFields(fieldNames, entry.getValue().get()));
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public Map<String, Map<String, String>> getAllFieldValues(List<String> dataKeys) {
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        if (dataKeys.isEmpty()) {
+            return result;
+        }
+        
+        try (Jedis jedis = jedisPool.getResource()) {
+            // 通过管道一次发送全部HGETALL命令
+            Pipeline pipeline = jedis.pipelined();
+            Map<String, Response<Map<String, String>>> responses = new LinkedHashMap<>();
+            for (String dataKey : dataKeys) {
+                responses.put(dataKey, pipeline.hgetAll(dataKey));
+            }
+            pipeline.sync();
+            
+            for (Map.Entry<String, Response<Map<String, String>>> entry : responses.entrySet()) {
+                Map<String, String> fields = entry.getValue().get();
+                result.put(entry.getKey(), fields != null ? fields : new HashMap<>());
+            }
+        }
+        return result;
+    }
+    
+    private static Map<String, String> zipFields(List<String> fieldNames, List<String> values) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < fieldNames.size(); i++) {
+            fields.put(fieldNames.get(i), values != null && i < values.size() ? values.get(i) : null);
+        }
+        return fields;
+    }
+    
     @Override
     public Set<String> getAllKeys(String pattern) {
         try (Jedis jedis = jedisPool.getResource()) {
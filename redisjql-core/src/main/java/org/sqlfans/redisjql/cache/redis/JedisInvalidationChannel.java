@@ -0,0 +1,119 @@
+package org.sqlfans.redisjql.cache.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlfans.redisjql.cache.tiered.InvalidationChannel;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Jedis实现的缓存失效通道
+ * 基于Redis发布订阅，订阅在后台守护线程中阻塞执行，连接断开后等待一段时间重新订阅，
+ * 每次订阅建立时通知监听方清空本地缓存
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class JedisInvalidationChannel implements InvalidationChannel, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(JedisInvalidationChannel.class);
+    
+    /**
+     * 默认的发布订阅频道
+     */
+    public static final String DEFAULT_CHANNEL = "redisjql:invalidation";
+    
+    /**
+     * 断线后重新订阅的等待时间（毫秒）
+     */
+    private static final long RECONNECT_DELAY_MILLIS = 1000;
+    
+    private final JedisPool jedisPool;
+    private final String channel;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final JedisPubSub pubSub = new JedisPubSub() {
+        @Override
+        public void onSubscribe(String subscribedChannel, int subscribedChannels) {
+            for (Listener listener : listeners) {
+                listener.onReset();
+            }
+        }
+        
+        @Override
+        public void onMessage(String messageChannel, String message) {
+            for (Listener listener : listeners) {
+                listener.onMessage(message);
+            }
+        }
+    };
+    
+    private Thread subscriber;
+    private volatile boolean closed;
+    
+    public JedisInvalidationChannel(JedisPool jedisPool) {
+        this(jedisPool, DEFAULT_CHANNEL);
+    }
+    
+    public JedisInvalidationChannel(JedisPool jedisPool, String channel) {
+        this.jedisPool = jedisPool;
+        this.channel = channel;
+    }
+    
+    @Override
+    public void publish(String message) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.publish(channel, message);
+        }
+    }
+    
+    @Override
+    public synchronized void subscribe(Listener listener) {
+        listeners.add(listener);
+        if (subscriber == null) {
+            subscriber = new Thread(this::run, "redisjql-invalidation");
+            subscriber.setDaemon(true);
+            subscriber.start();
+        }
+    }
+    
+    /**
+     * 关闭通道，取消订阅并结束后台线程
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (pubSub.isSubscribed()) {
+            pubSub.unsubscribe();
+        }
+        Thread thread;
+        synchronized (this) {
+            thread = subscriber;
+        }
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    private void run() {
+        while (!closed) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                // 阻塞直到取消订阅或连接断开
+                jedis.subscribe(pubSub, channel);
+            } catch (Exception e) {
+                if (closed) {
+                    break;
+                }
+                logger.warn("Invalidation channel {} disconnected, resubscribing: {}", channel, e.getMessage());
+            }
+            try {
+                Thread.sleep(RECONNECT_DELAY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package org.sqlfans.redisjql.cache.redis;
+
+import io.lettuce.core.RedisNoScriptException;
+import io.lettuce.core.ScoredValue;
+import io.lettuce.core.ScriptOutputType;
+import io.lettuce.core.SetArgs;
+import io.lettuce.core.api.StatefulRedisConnection;
+import io.lettuce.core.api.async.RedisAsyncCommands;
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Lettuce实现的异步缓存操作服务
+ * 直接使用Lettuce的异步命令接口，命令写入共享连接后立即返回RedisFuture，
+ * 多个命令在同一连接上同时进行，不经过Reactor的组装和订阅
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class LettuceAsyncCacheOperationService implements AsyncCacheOperationService {
+    private final RedisAsyncCommands<String, String> commands;
+    
+    /**
+     * 替换索引成员关系脚本的SHA1，按脚本内容计算，不需要预先加载
+     */
+    private final String replaceIndexScriptSha;
+    
+    public LettuceAsyncCacheOperationService(StatefulRedisConnection<String, String> connection) {
+        this.commands = connection.async();
+        this.replaceIndexScriptSha = commands.digest(IndexScripts.REPLACE_INDEX_MEMBERSHIPS);
+    }
+    
+    @Override
+    public CompletionStage<Void> addIndexRecord(String indexKey, String primaryKey, double score) {
+        return commands.zadd(indexKey, score, primaryKey).thenApply(added -> null);
+    }
+    
+    @Override
+    public CompletionStage<Void> addPrimaryKeyToIndexMapping(String tableName, String primaryKey, String indexKey) {
+        String key = tableName + "_" + primaryKey;
+        return commands.sadd(key, indexKey).thenApply(added -> null);
+    }
+    
+    @Override
+    public CompletionStage<Void> addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex) {
+        List<CompletableFuture<Long>> replies = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Double>> index : primaryKeysByIndex.entrySet()) {
+            if (index.getValue().isEmpty()) {
+                continue;
+            }
+            List<ScoredValue<String>> members = new ArrayList<>(index.getValue().size());
+            for (Map.Entry<String, Double> member : index.getValue().entrySet()) {
+                members.add(ScoredValue.just(member.getValue(), member.getKey()));
+                replies.add(commands.sadd(tableName + "_" + member.getKey(), index.getKey()).toCompletableFuture());
+            }
+            @SuppressWarnings("unchecked")
+            ScoredValue<String>[] scoredValues = members.toArray(new ScoredValue[0]);
+            replies.add(commands.zadd(index.getKey(), scoredValues).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0]));
+    }
+    
+    @Override
+    public CompletionStage<Void> removeIndexRecord(String indexKey, String primaryKey) {
+        return commands.zrem(indexKey, primaryKey).thenApply(removed -> null);
+    }
+    
+    @Override
+    public CompletionStage<Set<String>> getPrimaryKeyMappings(String tableName, String primaryKey) {
+        String key = tableName + "_" + primaryKey;
+        return commands.smembers(key);
+    }
+    
+    @Override
+    public CompletionStage<Boolean> replaceIndexMemberships(String tableName, String primaryKey,
+            Map<String, Double> indexScores, long version) {
+        String[] keys = IndexScripts.replaceKeys(tableName, primaryKey).toArray(new String[0]);
+        String[] args = IndexScripts.replaceArgs(primaryKey, indexScores, version).toArray(new String[0]);
+        CompletionStage<Long> result = commands
+                .<Long>evalsha(replaceIndexScriptSha, ScriptOutputType.INTEGER, keys, args)
+                .<CompletionStage<Long>>handle((reply, e) -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    if (cause instanceof RedisNoScriptException) {
+                        // 服务端没有缓存该脚本：EVAL执行的同时缓存脚本，之后的EVALSHA即可命中
+                        return commands.<Long>eval(IndexScripts.REPLACE_INDEX_MEMBERSHIPS,
+                                ScriptOutputType.INTEGER, keys, args);
+                    }
+                    CompletableFuture<Long> completed = new CompletableFuture<>();
+                    if (e != null) {
+                        completed.completeExceptionally(cause);
+                    } else {
+                        completed.complete(reply);
+                    }
+                    return completed;
+                })
+                .thenCompose(stage -> stage);
+        return result.thenApply(reply -> Long.valueOf(1L).equals(reply));
+    }
+    
+    @Override
+    public CompletionStage<Void> markForDeletion(String tableName, String primaryKey) {
+        String key = tableName + "_" + primaryKey;
+        // 添加0-600秒的随机值，避免集中过期；SET EX一条命令同时设置值和过期时间
+        long expireTime = 600L + (long)(Math.random() * 600);
+        return commands.set(key + "_deleted", "1", SetArgs.Builder.ex(expireTime)).thenApply(reply -> null);
+    }
+    
+    @Override
+    public CompletionStage<Void> addDataField(String dataKey, String fieldName, String fieldValue) {
+        return commands.hset(dataKey, fieldName, fieldValue).thenApply(added -> null);
+    }
+    
+    @Override
+    public CompletionStage<Void> removeDataField(String dataKey, String fieldName) {
+        return commands.hdel(dataKey, fieldName).thenApply(removed -> null);
+    }
+}
@@ -6,13 +6,32 @@ import org.springframework.data.redis.core.ReactiveSetOperations;
 import org.springframework.data.redis.core.ReactiveHashOperations;
 import org.springframework.data.redis.core.ReactiveValueOperations;
 import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.connection.RedisZSetCommands;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Range;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.cache.ScoreRange;
 
 /**
  * Lettuce实现的缓存操作服务
@@ -22,12 +41,43 @@ import org.sqlfans.redisjql.cache.CacheOperationService;
  * @version 1.0.0
  */
 public class LettuceCacheOperationService implements CacheOperationService {
+    /**
+     * ZINTERSTORE/ZUNIONSTORE临时结果键前缀
+     */
+    private static final String TEMP_KEY_PREFIX = "redisjql:tmp:";
+    
+    /**
+     * 临时结果键的过期时间，正常情况下读取后立即删除，过期时间用于兜底
+     */
+    private static final Duration TEMP_KEY_TTL = Duration.ofSeconds(30);
+    
     private final ReactiveRedisTemplate<String, String> redisTemplate;
     private final ReactiveZSetOperations<String, String> zSetOps;
     private final ReactiveSetOperations<String, String> setOps;
     private final ReactiveHashOperations<String, String, String> hashOps;
     private final ReactiveValueOperations<String, String> valueOps;
     
+    /**
+     * 服务端是否支持ZINTER（Redis 6.2+），首次收到未知命令错误后改用ZINTERSTORE
+     */
+    private volatile boolean zinterSupported = true;
+    
+    /**
+     * 服务端是否支持ZUNION（Redis 6.2+），首次收到未知命令错误后改用ZUNIONSTORE
+     */
+    private volatile boolean zunionSupported = true;
+    
+    /**
+     * 服务端是否支持ZMSCORE（Redis 6.2+），首次收到未知命令错误后改用逐个ZSCORE
+     */
+    private volatile boolean zmscoreSupported = true;
+    
+    /**
+     * 替换索引成员关系的脚本，执行时先按SHA1调用EVALSHA，服务端没有缓存该脚本时改用EVAL
+     */
+    private static final RedisScript<Long> REPLACE_INDEX_SCRIPT =
+            RedisScript.of(IndexScripts.REPLACE_INDEX_MEMBERSHIPS, Long.class);
+    
     @Autowired
     public LettuceCacheOperationService(ReactiveRedisTemplate<String, String> redisTemplate) {
         this.redisTemplate = redisTemplate;
@@ -48,15 +98,235 @@ public class LettuceCacheOperationService implements CacheOperationService {
         setOps.add(key, indexKey).block();
     }
     
+    @Override
+    public void addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex) {
+        // 全部命令同时发出，由共享连接依次写出，等待全部应答
+        List<Mono<Long>> commands = new ArrayList<>();
+        for (Map.Entry<String, Map<String, Double>> index : primaryKeysByIndex.entrySet()) {
+            if (index.getValue().isEmpty()) {
+                continue;
+            }
+            List<ZSetOperations.TypedTuple<String>> members = new ArrayList<>(index.getValue().size());
+            for (Map.Entry<String, Double> member : index.getValue().entrySet()) {
+                members.add(ZSetOperations.TypedTuple.of(member.getKey(), member.getValue()));
+                commands.add(setOps.add(tableName + "_" + member.getKey(), index.getKey()));
+            }
+            commands.add(zSetOps.addAll(index.getKey(), members));
+        }
+        Flux.merge(commands).then().block();
+    }
+    
     @Override
     public Set<String> queryPrimaryKeysByIndex(String indexKey, long start, long end) {
-        return zSetOps.range(indexKey, 
-                 Range.closed(start, end < 0 ? Long.MAX_VALUE : end))
+        return zSetOps.range(indexKey, toRange(start, end))
             .collectList()
             .map(HashSet::new)
             .block();
     }
     
+    @Override
+    public Map<String, List<String>> queryPrimaryKeysByIndexes(List<IndexRange> ranges) {
+        // 同时订阅全部ZRANGE命令，Lettuce在共享连接上连续写出命令，只阻塞等待一次
+        Map<String, List<String>> result = Flux.fromIterable(ranges)
+            .flatMapSequential(range -> (range.isReverse()
+                    ? zSetOps.reverseRange(range.getIndexKey(), toRange(range.getStart(), range.getEnd()))
+                    : zSetOps.range(range.getIndexKey(), toRange(range.getStart(), range.getEnd())))
+                .collectList()
+                .map(keys -> Tuples.of(range.getIndexKey(), keys)))
+            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new)
+            .block();
+        return result != null ? result : new LinkedHashMap<>();
+    }
+    
+    @Override
+    public List<String> queryPrimaryKeysByScore(String indexKey, ScoreRange range, boolean reverse) {
+        if (range.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        Range<Double> scores = Range.of(toBound(range.getMin(), range.isMinExclusive()),
+            toBound(range.getMax(), range.isMaxExclusive()));
+        List<String> keys = (reverse ? zSetOps.reverseRangeByScore(indexKey, scores)
+                : zSetOps.rangeByScore(indexKey, scores))
+            .collectList()
+            .block();
+        return keys != null ? keys : new ArrayList<>();
+    }
+    
+    @Override
+    public Map<String, Map<String, Double>> queryScoredPrimaryKeys(List<IndexRange> ranges) {
+        Map<String, Map<String, Double>> result = Flux.fromIterable(ranges)
+            .flatMapSequential(range -> (range.isReverse()
+                    ? zSetOps.reverseRangeWithScores(range.getIndexKey(), toRange(range.getStart(), range.getEnd()))
+                    : zSetOps.rangeWithScores(range.getIndexKey(), toRange(range.getStart(), range.getEnd())))
+                .collect(() -> new LinkedHashMap<String, Double>(),
+                    (members, tuple) -> members.put(tuple.getValue(), tuple.getScore()))
+                .map(members -> Tuples.<String, Map<String, Double>>of(range.getIndexKey(), members)))
+            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new)
+            .block();
+        return result != null ? result : new LinkedHashMap<>();
+    }
+    
+    @Override
+    public Map<String, Long> countPrimaryKeysByIndexes(List<String> indexKeys) {
+        Map<String, Long> result = Flux.fromIterable(indexKeys)
+            .flatMapSequential(indexKey -> zSetOps.size(indexKey)
+                .defaultIfEmpty(0L)
+                .map(count -> Tuples.of(indexKey, count)))
+            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new)
+            .block();
+        return result != null ? result : new LinkedHashMap<>();
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexes(List<String> primaryKeys, List<String> indexKeys) {
+        List<List<String>> indexKeyUnions = new ArrayList<>(indexKeys.size());
+        for (String indexKey : indexKeys) {
+            indexKeyUnions.add(Collections.singletonList(indexKey));
+        }
+        return filterPrimaryKeysByIndexUnions(primaryKeys, indexKeyUnions);
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexUnions(List<String> primaryKeys, List<List<String>> indexKeyUnions) {
+        if (primaryKeys.isEmpty() || indexKeyUnions.isEmpty()) {
+            return new ArrayList<>(primaryKeys);
+        }
+        
+        // 每个索引键只探测一次，再按子句组合结果
+        Set<String> indexKeys = new LinkedHashSet<>();
+        indexKeyUnions.forEach(indexKeys::addAll);
+        Object[] members = primaryKeys.toArray();
+        Mono<Map<String, List<Double>>> fallback = Flux.fromIterable(indexKeys)
+            .flatMapSequential(indexKey -> Flux.fromArray(members)
+                .flatMapSequential(member -> zSetOps.score(indexKey, member)
+                    .map(Optional::of)
+                    .defaultIfEmpty(Optional.empty()))
+                .collectList()
+                .map(indexScores -> Tuples.of(indexKey, indexScores.stream()
+                    .map(score -> score.orElse(null))
+                    .collect(Collectors.toList()))))
+            .collectMap(Tuple2::getT1, Tuple2::getT2);
+        Mono<Map<String, List<Double>>> scores = !zmscoreSupported ? fallback : Flux.fromIterable(indexKeys)
+            .flatMapSequential(indexKey -> zSetOps.score(indexKey, members)
+                .map(indexScores -> Tuples.of(indexKey, indexScores)))
+            .collectMap(Tuple2::getT1, Tuple2::getT2)
+            .onErrorResume(LettuceCacheOperationService::isUnknownCommand, e -> {
+                zmscoreSupported = false;
+                return fallback;
+            });
+        
+        Map<String, List<Double>> scoresByKey = scores.block();
+        List<String> result = new ArrayList<>();
+        for (int i = 0; scoresByKey != null && i < primaryKeys.size(); i++) {
+            final int index = i;
+            boolean matched = indexKeyUnions.stream().allMatch(union -> union.stream().anyMatch(indexKey -> {
+                List<Double> indexScores = scoresByKey.get(indexKey);
+                return indexScores != null && indexScores.get(index) != null;
+            }));
+            if (matched) {
+                result.add(primaryKeys.get(i));
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> intersectPrimaryKeys(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        String firstKey = indexKeys.get(0);
+        List<String> otherKeys = indexKeys.subList(1, indexKeys.size());
+        if (otherKeys.isEmpty()) {
+            return zSetOps.range(firstKey, toRange(0, -1)).collectList().block();
+        }
+        
+        Mono<List<String>> fallback = intersectWithTempKey(firstKey, otherKeys);
+        if (!zinterSupported) {
+            return fallback.block();
+        }
+        return zSetOps.intersect(firstKey, otherKeys)
+            .collectList()
+            .onErrorResume(LettuceCacheOperationService::isUnknownCommand, e -> {
+                zinterSupported = false;
+                return fallback;
+            })
+            .block();
+    }
+    
+    @Override
+    public List<String> unionPrimaryKeys(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        
+        String firstKey = indexKeys.get(0);
+        List<String> otherKeys = indexKeys.subList(1, indexKeys.size());
+        if (otherKeys.isEmpty()) {
+            return zSetOps.range(firstKey, toRange(0, -1)).collectList().block();
+        }
+        
+        // 成员分数取最小值，同一sortField的索引中分数相同，结果仍按sortField排序
+        Mono<List<String>> fallback = unionWithTempKey(firstKey, otherKeys);
+        if (!zunionSupported) {
+            return fallback.block();
+        }
+        return zSetOps.unionWithScores(firstKey, otherKeys, RedisZSetCommands.Aggregate.MIN)
+            .map(ZSetOperations.TypedTuple::getValue)
+            .collectList()
+            .onErrorResume(LettuceCacheOperationService::isUnknownCommand, e -> {
+                zunionSupported = false;
+                return fallback;
+            })
+            .block();
+    }
+    
+    /**
+     * 低版本Redis：并集写入临时键，读取后删除
+     */
+    private Mono<List<String>> unionWithTempKey(String firstKey, List<String> otherKeys) {
+        String tempKey = TEMP_KEY_PREFIX + UUID.randomUUID();
+        return zSetOps.unionAndStore(firstKey, otherKeys, tempKey, RedisZSetCommands.Aggregate.MIN)
+            .then(redisTemplate.expire(tempKey, TEMP_KEY_TTL))
+            .thenMany(zSetOps.range(tempKey, toRange(0, -1)))
+            .collectList()
+            .flatMap(members -> redisTemplate.delete(tempKey).thenReturn(members));
+    }
+    
+    /**
+     * 低版本Redis：交集写入临时键，读取后删除
+     */
+    private Mono<List<String>> intersectWithTempKey(String firstKey, List<String> otherKeys) {
+        String tempKey = TEMP_KEY_PREFIX + UUID.randomUUID();
+        return zSetOps.intersectAndStore(firstKey, otherKeys, tempKey)
+            .then(redisTemplate.expire(tempKey, TEMP_KEY_TTL))
+            .thenMany(zSetOps.range(tempKey, toRange(0, -1)))
+            .collectList()
+            .flatMap(members -> redisTemplate.delete(tempKey).thenReturn(members));
+    }
+    
+    private static boolean isUnknownCommand(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().toLowerCase().contains("unknown command")) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static Range<Long> toRange(long start, long end) {
+        return Range.closed(start, end < 0 ? Long.MAX_VALUE : end);
+    }
+    
+    private static Range.Bound<Double> toBound(double score, boolean exclusive) {
+        if (Double.isInfinite(score)) {
+            return Range.Bound.unbounded();
+        }
+        return exclusive ? Range.Bound.exclusive(score) : Range.Bound.inclusive(score);
+    }
+    
     @Override
     public void markForDeletion(String tableName, String primaryKey) {
         String key = tableName + "_" + primaryKey;
@@ -66,6 +336,27 @@ public class LettuceCacheOperationService implements CacheOperationService {
         redisTemplate.expire(key + "_deleted", Duration.ofSeconds(expireTime)).block();
     }
     
+    @Override
+    public Set<String> getMarkedForDeletion(String tableName, List<String> primaryKeys) {
+        Set<String> result = new LinkedHashSet<>();
+        if (primaryKeys.isEmpty()) {
+            return result;
+        }
+        
+        // 一次MGET读取全部删除标记
+        List<String> markerKeys = new ArrayList<>(primaryKeys.size());
+        for (String primaryKey : primaryKeys) {
+            markerKeys.add(tableName + "_" + primaryKey + "_deleted");
+        }
+        List<String> markers = valueOps.multiGet(markerKeys).block();
+        for (int i = 0; markers != null && i < primaryKeys.size() && i < markers.size(); i++) {
+            if (markers.get(i) != null) {
+                result.add(primaryKeys.get(i));
+            }
+        }
+        return result;
+    }
+    
     @Override
     public void cleanupMarkedRecords() {
         // 使用SCAN代替KEYS获取删除标记
@@ -111,6 +402,14 @@ public class LettuceCacheOperationService implements CacheOperationService {
         zSetOps.remove(indexKey, primaryKey).block();
     }
     
+    @Override
+    public void removeIndexes(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return;
+        }
+        redisTemplate.delete(indexKeys.toArray(new String[0])).block();
+    }
+    
     @Override
     public Set<String> getPrimaryKeyMappings(String tableName, String primaryKey) {
         String key = tableName + "_" + primaryKey;
@@ -120,16 +419,71 @@ public class LettuceCacheOperationService implements CacheOperationService {
                 .block();
     }
     
+    @Override
+    public boolean replaceIndexMemberships(String tableName, String primaryKey, Map<String, Double> indexScores,
+            long version) {
+        Long result = redisTemplate.execute(REPLACE_INDEX_SCRIPT,
+                        IndexScripts.replaceKeys(tableName, primaryKey),
+                        IndexScripts.replaceArgs(primaryKey, indexScores, version))
+                .next()
+                .block();
+        return Long.valueOf(1L).equals(result);
+    }
+    
     @Override
     public void addDataField(String dataKey, String fieldName, String fieldValue) {
         hashOps.put(dataKey, fieldName, fieldValue).block();
     }
     
+    @Override
+    public void removeDataField(String dataKey, String fieldName) {
+        hashOps.remove(dataKey, fieldName).block();
+    }
+    
     @Override
     public String getFieldValue(String dataKey, String fieldName) {
         return hashOps.get(dataKey, fieldName).block();
     }
     
+    @Override
+    public Map<String, Map<String, String>> getFieldValues(List<String> dataKeys, List<String> fieldNames) {
+        if (dataKeys.isEmpty() || fieldNames.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        
+        // 同时订阅全部HMGET命令，只阻塞等待一次
+        Map<String, Map<String, String>> result = Flux.fromIterable(dataKeys)
+            .flatMapSequential(dataKey -> hashOps.multiGet(dataKey, fieldNames)
+                .map(values -> Tuples.of(dataKey, zipFields(fieldNames, values))))
+            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new)
+            .block();
+        return result != null ? result : new LinkedHashMap<>();
+    }
+    
+    @Override
+    public Map<String, Map<String, String>> getAllFieldValues(List<String> dataKeys) {
+        if (dataKeys.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        
+        // 同时订阅全部HGETALL命令，只阻塞等待一次
+        Map<String, Map<String, String>> result = Flux.fromIterable(dataKeys)
+            .flatMapSequential(dataKey -> hashOps.entries(dataKey)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue, HashMap::new)
+                .map(fields -> Tuples.of(dataKey, fields)))
+            .collectMap(Tuple2::getT1, Tuple2::getT2, LinkedHashMap::new)
+            .block();
+        return result != null ? result : new LinkedHashMap<>();
+    }
+    
+    private static Map<String, String> zipFields(List<String> fieldNames, List<String> values) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < fieldNames.size(); i++) {
+            fields.put(fieldNames.get(i), values != null && i < values.size() ? values.get(i) : null);
+        }
+        return fields;
+    }
+    
     @Override
     public Set<String> getAllKeys(String pattern) {
         return redisTemplate.scan(ScanOptions.scanOptions().match(pattern).build())
@@ -0,0 +1,72 @@
+package org.sqlfans.redisjql.cache.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlfans.redisjql.cache.tiered.InvalidationChannel;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import reactor.core.Disposable;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Lettuce实现的缓存失效通道
+ * 基于ReactiveRedisTemplate的发布订阅，连接断开后按退避时间重新订阅，
+ * 每次订阅建立时通知监听方清空本地缓存
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class LettuceInvalidationChannel implements InvalidationChannel, AutoCloseable {
+    private static final Logger logger = LoggerFactory.getLogger(LettuceInvalidationChannel.class);
+    
+    /**
+     * 默认的发布订阅频道
+     */
+    public static final String DEFAULT_CHANNEL = "redisjql:invalidation";
+    
+    private final ReactiveRedisTemplate<String, String> redisTemplate;
+    private final String channel;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private Disposable subscription;
+    
+    public LettuceInvalidationChannel(ReactiveRedisTemplate<String, String> redisTemplate) {
+        this(redisTemplate, DEFAULT_CHANNEL);
+    }
+    
+    public LettuceInvalidationChannel(ReactiveRedisTemplate<String, String> redisTemplate, String channel) {
+        this.redisTemplate = redisTemplate;
+        this.channel = channel;
+    }
+    
+    @Override
+    public void publish(String message) {
+        redisTemplate.convertAndSend(channel, message).block();
+    }
+    
+    @Override
+    public synchronized void subscribe(Listener listener) {
+        listeners.add(listener);
+        if (subscription == null) {
+            subscription = redisTemplate.listenToChannel(channel)
+                    .doOnSubscribe(s -> listeners.forEach(Listener::onReset))
+                    .doOnError(e -> logger.warn("Invalidation channel {} disconnected, resubscribing: {}",
+                            channel, e.getMessage()))
+                    .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofMillis(100)).maxBackoff(Duration.ofSeconds(10)))
+                    .subscribe(message -> listeners.forEach(l -> l.onMessage(message.getMessage())));
+        }
+    }
+    
+    /**
+     * 关闭通道，取消订阅
+     */
+    @Override
+    public synchronized void close() {
+        if (subscription != null) {
+            subscription.dispose();
+            subscription = null;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.sqlfans.redisjql.cache.tiered;
+
+/**
+ * 缓存失效通道
+ * 两级缓存的各节点通过失效通道互相通知本地缓存中需要删除的键，
+ * 实现类可以基于Redis发布订阅或其他消息机制
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public interface InvalidationChannel {
+    /**
+     * 发布失效消息
+     * @param message 失效消息
+     */
+    void publish(String message);
+    
+    /**
+     * 订阅失效消息
+     * @param listener 消息监听器
+     */
+    void subscribe(Listener listener);
+    
+    /**
+     * 失效消息监听器
+     */
+    interface Listener {
+        /**
+         * 收到失效消息，包括本节点发布的消息
+         * @param message 失效消息
+         */
+        void onMessage(String message);
+        
+        /**
+         * 订阅建立或断线后重新建立，期间的消息可能已丢失，监听方应清空本地缓存
+         */
+        void onReset();
+    }
+}
@@ -0,0 +1,97 @@
+package org.sqlfans.redisjql.cache.tiered;
+
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * 两级缓存的异步写入服务
+ * 写命令由Redis实现的异步缓存操作服务（例如LettuceAsyncCacheOperationService）直接发出，
+ * 命令完成后通过两级缓存服务失效本地缓存并发布失效消息，与同步写入的失效方式相同；
+ * 命令失败时同样失效，Redis中可能已部分写入
+ *
+ * <p>Jedis等基于同步实现的异步服务直接包装TieredCacheOperationService即可，不需要本类。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class TieredAsyncCacheOperationService implements AsyncCacheOperationService {
+    private final AsyncCacheOperationService remote;
+    private final TieredCacheOperationService tier;
+
+    /**
+     * @param remote Redis实现的异步缓存操作服务
+     * @param tier 读取使用的两级缓存服务，与remote写入同一Redis
+     */
+    public TieredAsyncCacheOperationService(AsyncCacheOperationService remote, TieredCacheOperationService tier) {
+        this.remote = remote;
+        this.tier = tier;
+    }
+
+    @Override
+    public CompletionStage<Void> addIndexRecord(String indexKey, String primaryKey, double score) {
+        return invalidating(remote.addIndexRecord(indexKey, primaryKey, score), Collections.singleton(indexKey));
+    }
+
+    @Override
+    public CompletionStage<Void> addPrimaryKeyToIndexMapping(String tableName, String primaryKey, String indexKey) {
+        return invalidating(remote.addPrimaryKeyToIndexMapping(tableName, primaryKey, indexKey),
+                Collections.singleton(indexKey));
+    }
+
+    @Override
+    public CompletionStage<Void> addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex) {
+        return invalidating(remote.addIndexRecords(tableName, primaryKeysByIndex), primaryKeysByIndex.keySet());
+    }
+
+    @Override
+    public CompletionStage<Void> removeIndexRecord(String indexKey, String primaryKey) {
+        return invalidating(remote.removeIndexRecord(indexKey, primaryKey), Collections.singleton(indexKey));
+    }
+
+    @Override
+    public CompletionStage<Set<String>> getPrimaryKeyMappings(String tableName, String primaryKey) {
+        return remote.getPrimaryKeyMappings(tableName, primaryKey);
+    }
+
+    @Override
+    public CompletionStage<Boolean> replaceIndexMemberships(String tableName, String primaryKey,
+            Map<String, Double> indexScores, long version) {
+        return remote.replaceIndexMemberships(tableName, primaryKey, indexScores, version)
+                .whenComplete((replaced, e) -> {
+                    if (e != null || Boolean.TRUE.equals(replaced)) {
+                        tier.invalidateMemberships(tableName, primaryKey, indexScores.keySet());
+                    }
+                });
+    }
+
+    @Override
+    public CompletionStage<Void> markForDeletion(String tableName, String primaryKey) {
+        return invalidating(remote.markForDeletion(tableName, primaryKey),
+                Collections.singleton(tableName + ":" + primaryKey));
+    }
+
+    @Override
+    public CompletionStage<Void> addDataField(String dataKey, String fieldName, String fieldValue) {
+        return invalidating(remote.addDataField(dataKey, fieldName, fieldValue), Collections.singleton(dataKey));
+    }
+
+    @Override
+    public CompletionStage<Void> removeDataField(String dataKey, String fieldName) {
+        return invalidating(remote.removeDataField(dataKey, fieldName), Collections.singleton(dataKey));
+    }
+
+    /**
+     * 命令完成后失效本地缓存中的键，返回的CompletionStage在失效之后完成
+     */
+    private <T> CompletionStage<T> invalidating(CompletionStage<T> stage, Set<String> keys) {
+        return stage.whenComplete((result, e) -> {
+            for (String key : keys) {
+                tier.invalidate(key);
+            }
+        });
+    }
+}
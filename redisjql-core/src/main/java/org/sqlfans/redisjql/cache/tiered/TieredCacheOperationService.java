@@ -0,0 +1,623 @@
+package org.sqlfans.redisjql.cache.tiered;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.cache.ScoreRange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 两级缓存操作服务
+ * 本地Caffeine缓存作为一级缓存，保存热点索引键的全部主键及分数和行哈希，索引和行的读取先查本地缓存，
+ * 未命中时从Redis实现（Jedis或Lettuce）批量加载；写操作写入Redis后删除本地缓存中的键，
+ * 并通过失效通道通知其他节点删除
+ *
+ * <p>主键数超过上限的索引键不进入本地缓存，相关查询直接由Redis完成。本地求并集、交集时与
+ * ZUNION AGGREGATE MIN、ZINTER的排序一致：按分数排序，分数相同时按主键排序。</p>
+ *
+ * <p>加载期间发生过失效时，加载结果只用于本次读取，不写入本地缓存，避免旧值覆盖失效；
+ * 失效通道断线重连后清空本地缓存。整体替换一行的索引成员关系时不向Redis读取替换前的索引键，
+ * 各节点删除本地缓存中包含该主键的同表索引键。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class TieredCacheOperationService implements CacheOperationService {
+    private static final Logger logger = LoggerFactory.getLogger(TieredCacheOperationService.class);
+    
+    /**
+     * 清空全部本地缓存的失效消息
+     */
+    private static final String ALL_KEYS = "*";
+    
+    /**
+     * 失效消息中节点ID与键的分隔符
+     */
+    private static final char SEPARATOR = '|';
+    
+    /**
+     * 失效消息中表示 表名:主键 的成员关系已替换的前缀
+     */
+    private static final char MEMBERSHIPS = '@';
+    
+    private final CacheOperationService remote;
+    private final InvalidationChannel channel;
+    private final String nodeId = UUID.randomUUID().toString();
+    private final int maximumIndexSize;
+    
+    /**
+     * 索引键到全部主键及分数
+     */
+    private final Cache<String, ScoredMembers> indexCache;
+    
+    /**
+     * 主键数超过上限的索引键，失效前不再尝试加载
+     */
+    private final Cache<String, Boolean> oversizedIndexes;
+    
+    /**
+     * 数据键到行哈希
+     */
+    private final Cache<String, Map<String, String>> hashCache;
+    
+    /**
+     * 失效计数，加载前后不一致时不写入本地缓存
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+    
+    public TieredCacheOperationService(CacheOperationService remote, InvalidationChannel channel) {
+        this(remote, channel, 1_000_000L, 10000, 600);
+    }
+    
+    /**
+     * @param remote Redis实现的缓存操作服务
+     * @param channel 失效通道
+     * @param maximumWeight 本地缓存的最大容量，按索引主键数和行哈希字段数计算
+     * @param maximumIndexSize 进入本地缓存的索引键的最大主键数
+     * @param expireSeconds 本地缓存写入后的过期秒数
+     */
+    public TieredCacheOperationService(CacheOperationService remote, InvalidationChannel channel,
+                                       long maximumWeight, int maximumIndexSize, long expireSeconds) {
+        this.remote = remote;
+        this.channel = channel;
+        this.maximumIndexSize = maximumIndexSize;
+        this.indexCache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String key, ScoredMembers members) -> members.size() + 1)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+        this.oversizedIndexes = Caffeine.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+        this.hashCache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String key, Map<String, String> hash) -> hash.size() + 1)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+        
+        channel.subscribe(new InvalidationChannel.Listener() {
+            @Override
+            public void onMessage(String message) {
+                int separator = message.indexOf(SEPARATOR);
+                if (separator < 0 || !message.substring(0, separator).equals(nodeId)) {
+                    evict(separator < 0 ? message : message.substring(separator + 1));
+                }
+            }
+            
+            @Override
+            public void onReset() {
+                evict(ALL_KEYS);
+            }
+        });
+    }
+    
+    @Override
+    public void addIndexRecord(String indexKey, String primaryKey, double score) {
+        remote.addIndexRecord(indexKey, primaryKey, score);
+        invalidate(indexKey);
+    }
+    
+    @Override
+    public void addPrimaryKeyToIndexMapping(String tableName, String primaryKey, String indexKey) {
+        remote.addPrimaryKeyToIndexMapping(tableName, primaryKey, indexKey);
+        invalidate(indexKey);
+    }
+    
+    @Override
+    public void addIndexRecords(String tableName, Map<String, Map<String, Double>> primaryKeysByIndex) {
+        remote.addIndexRecords(tableName, primaryKeysByIndex);
+        for (String indexKey : primaryKeysByIndex.keySet()) {
+            invalidate(indexKey);
+        }
+    }
+    
+    @Override
+    public Set<String> queryPrimaryKeysByIndex(String indexKey, long start, long end) {
+        ScoredMembers members = load(Collections.singletonList(indexKey)).get(indexKey);
+        if (members == null) {
+            return remote.queryPrimaryKeysByIndex(indexKey, start, end);
+        }
+        return new LinkedHashSet<>(members.range(start, end, false));
+    }
+    
+    @Override
+    public Map<String, List<String>> queryPrimaryKeysByIndexes(List<IndexRange> ranges) {
+        List<String> indexKeys = new ArrayList<>(ranges.size());
+        for (IndexRange range : ranges) {
+            indexKeys.add(range.getIndexKey());
+        }
+        Map<String, ScoredMembers> local = load(indexKeys);
+        
+        // 不在本地缓存中的索引键仍在一次批量查询中完成
+        List<IndexRange> remoteRanges = new ArrayList<>();
+        for (IndexRange range : ranges) {
+            if (!local.containsKey(range.getIndexKey())) {
+                remoteRanges.add(range);
+            }
+        }
+        Map<String, List<String>> remoteResult = remoteRanges.isEmpty()
+                ? Collections.emptyMap() : remote.queryPrimaryKeysByIndexes(remoteRanges);
+        
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (IndexRange range : ranges) {
+            ScoredMembers members = local.get(range.getIndexKey());
+            List<String> keys = members != null
+                    ? members.range(range.getStart(), range.getEnd(), range.isReverse())
+                    : remoteResult.get(range.getIndexKey());
+            result.put(range.getIndexKey(), keys != null ? keys : new ArrayList<>());
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> queryPrimaryKeysByScore(String indexKey, ScoreRange range, boolean reverse) {
+        if (range.isEmpty()) {
+            return new ArrayList<>();
+        }
+        ScoredMembers members = load(Collections.singletonList(indexKey)).get(indexKey);
+        if (members == null) {
+            return remote.queryPrimaryKeysByScore(indexKey, range, reverse);
+        }
+        return members.byScore(range, reverse);
+    }
+    
+    @Override
+    public Map<String, Map<String, Double>> queryScoredPrimaryKeys(List<IndexRange> ranges) {
+        return remote.queryScoredPrimaryKeys(ranges);
+    }
+    
+    @Override
+    public Map<String, Long> countPrimaryKeysByIndexes(List<String> indexKeys) {
+        // 只使用已在本地缓存中的索引键，计数不触发加载
+        List<String> remoteKeys = new ArrayList<>();
+        for (String indexKey : indexKeys) {
+            if (indexCache.getIfPresent(indexKey) == null) {
+                remoteKeys.add(indexKey);
+            }
+        }
+        Map<String, Long> remoteCounts = remoteKeys.isEmpty()
+                ? Collections.emptyMap() : remote.countPrimaryKeysByIndexes(remoteKeys);
+        
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (String indexKey : indexKeys) {
+            ScoredMembers members = indexCache.getIfPresent(indexKey);
+            Long count = members != null ? Long.valueOf(members.size()) : remoteCounts.get(indexKey);
+            result.put(indexKey, count != null ? count : 0L);
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexes(List<String> primaryKeys, List<String> indexKeys) {
+        List<List<String>> indexKeyUnions = new ArrayList<>(indexKeys.size());
+        for (String indexKey : indexKeys) {
+            indexKeyUnions.add(Collections.singletonList(indexKey));
+        }
+        return filterPrimaryKeysByIndexUnions(primaryKeys, indexKeyUnions);
+    }
+    
+    @Override
+    public List<String> filterPrimaryKeysByIndexUnions(List<String> primaryKeys, List<List<String>> indexKeyUnions) {
+        if (primaryKeys.isEmpty() || indexKeyUnions.isEmpty()) {
+            return new ArrayList<>(primaryKeys);
+        }
+        
+        List<String> indexKeys = new ArrayList<>();
+        for (List<String> union : indexKeyUnions) {
+            indexKeys.addAll(union);
+        }
+        Map<String, ScoredMembers> local = load(indexKeys);
+        if (!local.keySet().containsAll(indexKeys)) {
+            return remote.filterPrimaryKeysByIndexUnions(primaryKeys, indexKeyUnions);
+        }
+        
+        List<String> result = new ArrayList<>();
+        for (String primaryKey : primaryKeys) {
+            boolean matched = true;
+            for (List<String> union : indexKeyUnions) {
+                boolean inUnion = false;
+                for (String indexKey : union) {
+                    if (local.get(indexKey).contains(primaryKey)) {
+                        inUnion = true;
+                        break;
+                    }
+                }
+                if (!inUnion) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) {
+                result.add(primaryKey);
+            }
+        }
+        return result;
+    }
+    
+    @Override
+    public List<String> unionPrimaryKeys(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, ScoredMembers> local = load(indexKeys);
+        if (!local.keySet().containsAll(indexKeys)) {
+            return remote.unionPrimaryKeys(indexKeys);
+        }
+        if (indexKeys.size() == 1) {
+            return local.get(indexKeys.get(0)).range(0, -1, false);
+        }
+        
+        // 成员分数取最小值，与ZUNION AGGREGATE MIN一致
+        Map<String, Double> scores = new HashMap<>();
+        for (String indexKey : indexKeys) {
+            local.get(indexKey).scores.forEach((member, score) -> scores.merge(member, score, Math::min));
+        }
+        return sortByScore(scores);
+    }
+    
+    @Override
+    public List<String> intersectPrimaryKeys(List<String> indexKeys) {
+        if (indexKeys.isEmpty()) {
+            return new ArrayList<>();
+        }
+        Map<String, ScoredMembers> local = load(indexKeys);
+        if (!local.keySet().containsAll(indexKeys)) {
+            return remote.intersectPrimaryKeys(indexKeys);
+        }
+        if (indexKeys.size() == 1) {
+            return local.get(indexKeys.get(0)).range(0, -1, false);
+        }
+        
+        // 从最小的集合开始探测，成员分数求和，与ZINTER一致
+        ScoredMembers smallest = null;
+        for (String indexKey : indexKeys) {
+            ScoredMembers members = local.get(indexKey);
+            if (smallest == null || members.size() < smallest.size()) {
+                smallest = members;
+            }
+        }
+        Map<String, Double> scores = new HashMap<>();
+        for (String member : smallest.members) {
+            double sum = 0;
+            boolean inAll = true;
+            for (String indexKey : indexKeys) {
+                Double score = local.get(indexKey).scores.get(member);
+                if (score == null) {
+                    inAll = false;
+                    break;
+                }
+                sum += score;
+            }
+            if (inAll) {
+                scores.put(member, sum);
+            }
+        }
+        return sortByScore(scores);
+    }
+    
+    @Override
+    public void markForDeletion(String tableName, String primaryKey) {
+        remote.markForDeletion(tableName, primaryKey);
+        invalidate(tableName + ":" + primaryKey);
+    }
+    
+    @Override
+    public Set<String> getMarkedForDeletion(String tableName, List<String> primaryKeys) {
+        return remote.getMarkedForDeletion(tableName, primaryKeys);
+    }
+    
+    @Override
+    public void cleanupMarkedRecords() {
+        remote.cleanupMarkedRecords();
+        // 清理可能删除任意索引和数据键
+        invalidate(ALL_KEYS);
+    }
+    
+    @Override
+    public void removeIndexRecord(String indexKey, String primaryKey) {
+        remote.removeIndexRecord(indexKey, primaryKey);
+        invalidate(indexKey);
+    }
+    
+    @Override
+    public void removeIndexes(List<String> indexKeys) {
+        remote.removeIndexes(indexKeys);
+        for (String indexKey : indexKeys) {
+            invalidate(indexKey);
+        }
+    }
+    
+    @Override
+    public Set<String> getPrimaryKeyMappings(String tableName, String primaryKey) {
+        return remote.getPrimaryKeyMappings(tableName, primaryKey);
+    }
+    
+    @Override
+    public boolean replaceIndexMemberships(String tableName, String primaryKey, Map<String, Double> indexScores,
+            long version) {
+        boolean replaced = remote.replaceIndexMemberships(tableName, primaryKey, indexScores, version);
+        if (replaced) {
+            invalidateMemberships(tableName, primaryKey, indexScores.keySet());
+        }
+        return replaced;
+    }
+    
+    @Override
+    public void addDataField(String dataKey, String fieldName, String fieldValue) {
+        remote.addDataField(dataKey, fieldName, fieldValue);
+        invalidate(dataKey);
+    }
+    
+    @Override
+    public void removeDataField(String dataKey, String fieldName) {
+        remote.removeDataField(dataKey, fieldName);
+        invalidate(dataKey);
+    }
+    
+    @Override
+    public String getFieldValue(String dataKey, String fieldName) {
+        return loadHashes(Collections.singletonList(dataKey)).get(dataKey).get(fieldName);
+    }
+    
+    @Override
+    public Map<String, Map<String, String>> getFieldValues(List<String> dataKeys, List<String> fieldNames) {
+        Map<String, Map<String, String>> hashes = loadHashes(dataKeys);
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        for (String dataKey : dataKeys) {
+            Map<String, String> hash = hashes.get(dataKey);
+            Map<String, String> values = new HashMap<>();
+            for (String fieldName : fieldNames) {
+                values.put(fieldName, hash.get(fieldName));
+            }
+            result.put(dataKey, values);
+        }
+        return result;
+    }
+    
+    @Override
+    public Map<String, Map<String, String>> getAllFieldValues(List<String> dataKeys) {
+        Map<String, Map<String, String>> hashes = loadHashes(dataKeys);
+        Map<String, Map<String, String>> result = new LinkedHashMap<>();
+        for (String dataKey : dataKeys) {
+            result.put(dataKey, new HashMap<>(hashes.get(dataKey)));
+        }
+        return result;
+    }
+    
+    @Override
+    public Set<String> getAllKeys(String pattern) {
+        return remote.getAllKeys(pattern);
+    }
+    
+    /**
+     * 读取索引键的全部主键及分数，本地缓存未命中的键一次批量加载；
+     * 为判断是否超过上限，每个键最多读取 maximumIndexSize+1 个主键
+     * @param indexKeys 索引键列表
+     * @return 可在本地回答的索引键，超过上限的键不在结果中
+     */
+    private Map<String, ScoredMembers> load(List<String> indexKeys) {
+        Map<String, ScoredMembers> result = new HashMap<>();
+        List<IndexRange> missing = new ArrayList<>();
+        for (String indexKey : new LinkedHashSet<>(indexKeys)) {
+            ScoredMembers members = indexCache.getIfPresent(indexKey);
+            if (members != null) {
+                result.put(indexKey, members);
+            } else if (oversizedIndexes.getIfPresent(indexKey) == null) {
+                missing.add(IndexRange.of(indexKey, 0, maximumIndexSize));
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        
+        long stamp = invalidations.get();
+        Map<String, Map<String, Double>> loaded = remote.queryScoredPrimaryKeys(missing);
+        boolean current = invalidations.get() == stamp;
+        for (IndexRange range : missing) {
+            Map<String, Double> scores = loaded.get(range.getIndexKey());
+            if (scores == null) {
+                continue;
+            }
+            if (scores.size() > maximumIndexSize) {
+                if (current) {
+                    oversizedIndexes.put(range.getIndexKey(), Boolean.TRUE);
+                }
+                continue;
+            }
+            ScoredMembers members = new ScoredMembers(scores);
+            result.put(range.getIndexKey(), members);
+            if (current) {
+                indexCache.put(range.getIndexKey(), members);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 读取数据键的行哈希，本地缓存未命中的键一次批量加载，不存在的行哈希为空Map
+     */
+    private Map<String, Map<String, String>> loadHashes(List<String> dataKeys) {
+        Map<String, Map<String, String>> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String dataKey : new LinkedHashSet<>(dataKeys)) {
+            Map<String, String> hash = hashCache.getIfPresent(dataKey);
+            if (hash != null) {
+                result.put(dataKey, hash);
+            } else {
+                missing.add(dataKey);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        
+        long stamp = invalidations.get();
+        Map<String, Map<String, String>> loaded = remote.getAllFieldValues(missing);
+        boolean current = invalidations.get() == stamp;
+        for (String dataKey : missing) {
+            Map<String, String> fields = loaded.get(dataKey);
+            Map<String, String> hash = Collections.unmodifiableMap(
+                    fields != null ? new HashMap<>(fields) : new HashMap<>());
+            result.put(dataKey, hash);
+            if (current) {
+                hashCache.put(dataKey, hash);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * 一行的索引成员关系替换后失效本地缓存：新的索引键逐个失效，
+     * 旧的索引键由各节点按本地缓存中包含该主键的同表索引键失效
+     * @param tableName 表名
+     * @param primaryKey 主键值
+     * @param indexKeys 新的索引键
+     */
+    void invalidateMemberships(String tableName, String primaryKey, Collection<String> indexKeys) {
+        for (String indexKey : indexKeys) {
+            invalidate(indexKey);
+        }
+        invalidate(MEMBERSHIPS + tableName + ":" + primaryKey);
+    }
+    
+    /**
+     * 删除本地缓存中的键并通知其他节点
+     */
+    void invalidate(String key) {
+        evict(key);
+        try {
+            channel.publish(nodeId + SEPARATOR + key);
+        } catch (Exception e) {
+            // 发布失败时其他节点的本地缓存在过期后恢复一致
+            logger.warn("Failed to publish cache invalidation for {}: {}", key, e.getMessage());
+        }
+    }
+    
+    private void evict(String key) {
+        invalidations.incrementAndGet();
+        if (ALL_KEYS.equals(key)) {
+            indexCache.invalidateAll();
+            oversizedIndexes.invalidateAll();
+            hashCache.invalidateAll();
+        } else if (!key.isEmpty() && key.charAt(0) == MEMBERSHIPS) {
+            // 表名:主键，表名中不含冒号
+            int separator = key.indexOf(':');
+            if (separator > 0) {
+                String prefix = key.substring(1, separator + 1);
+                String primaryKey = key.substring(separator + 1);
+                indexCache.asMap().entrySet().removeIf(entry ->
+                        entry.getKey().startsWith(prefix) && entry.getValue().contains(primaryKey));
+            }
+        } else {
+            indexCache.invalidate(key);
+            oversizedIndexes.invalidate(key);
+            hashCache.invalidate(key);
+        }
+    }
+    
+    /**
+     * 按分数排序，分数相同时按主键排序
+     */
+    private static List<String> sortByScore(Map<String, Double> scores) {
+        List<Map.Entry<String, Double>> entries = new ArrayList<>(scores.entrySet());
+        entries.sort(Map.Entry.<String, Double>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+        List<String> result = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Double> entry : entries) {
+            result.add(entry.getKey());
+        }
+        return result;
+    }
+    
+    /**
+     * 本地缓存的索引键：按索引顺序排列的主键和主键到分数的映射
+     */
+    private static final class ScoredMembers {
+        private final List<String> members;
+        private final Map<String, Double> scores;
+        
+        ScoredMembers(Map<String, Double> scores) {
+            this.members = new ArrayList<>(scores.keySet());
+            this.scores = new HashMap<>(scores);
+        }
+        
+        int size() {
+            return members.size();
+        }
+        
+        boolean contains(String member) {
+            return scores.containsKey(member);
+        }
+        
+        /**
+         * 按位置区间取主键，与ZRANGE/ZREVRANGE一致，负数位置从末尾计算
+         */
+        List<String> range(long start, long end, boolean reverse) {
+            int size = members.size();
+            long from = start < 0 ? Math.max(0, start + size) : start;
+            long to = end < 0 ? end + size : Math.min(end, size - 1);
+            if (from > to) {
+                return new ArrayList<>();
+            }
+            if (!reverse) {
+                return new ArrayList<>(members.subList((int) from, (int) to + 1));
+            }
+            List<String> result = new ArrayList<>((int) (to - from + 1));
+            for (long i = from; i <= to; i++) {
+                result.add(members.get(size - 1 - (int) i));
+            }
+            return result;
+        }
+        
+        /**
+         * 取分数区间内的主键，与ZRANGEBYSCORE/ZREVRANGEBYSCORE一致
+         */
+        List<String> byScore(ScoreRange range, boolean reverse) {
+            List<String> result = new ArrayList<>();
+            for (String member : members) {
+                if (range.contains(scores.get(member))) {
+                    result.add(member);
+                }
+            }
+            if (reverse) {
+                Collections.reverse(result);
+            }
+            return result;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.sqlfans.redisjql.config;
 
+import org.apache.ibatis.type.JdbcType;
+
 import java.util.List;
 import java.util.ArrayList;
 
@@ -10,6 +12,7 @@ import java.util.ArrayList;
 public class IndexConfig {
     private String tableName;
     private String primaryKey;
+    private JdbcType primaryKeyType = JdbcType.UNDEFINED;
     private String versionField = "jpa_version";
     private List<IndexDefinition> indexes = new ArrayList<>();
     
@@ -29,6 +32,18 @@ public class IndexConfig {
         this.primaryKey = primaryKey;
     }
     
+    /**
+     * 主键列的JDBC类型，用于绑定改写后SQL中主键IN条件的参数；
+     * 为UNDEFINED时按MappedStatement的ResultMap推断，无法推断时按字符串绑定
+     */
+    public JdbcType getPrimaryKeyType() {
+        return primaryKeyType;
+    }
+    
+    public void setPrimaryKeyType(JdbcType primaryKeyType) {
+        this.primaryKeyType = primaryKeyType;
+    }
+    
     public String getVersionField() {
         return versionField;
     }
@@ -57,6 +72,7 @@ public class IndexConfig {
         private List<String> fields = new ArrayList<>();
         private String sortField;
         private boolean unique;
+        private boolean complete;
         
         public String getName() {
             return name;
@@ -93,5 +109,18 @@ public class IndexConfig {
         public void setUnique(boolean unique) {
             this.unique = unique;
         }
+
+        /**
+         * 索引是否包含表中全部行（已全量同步且随写入维护），拦截器开启trustCompleteIndexes时
+         * 完整索引上的等值、IN条件由Redis完全回答，改写后的SQL不再保留这些条件。
+         * 会淘汰或过期键的CaffeineCacheOperationService不能保证索引完整，使用它时不要标记为完整
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+
+        public void setComplete(boolean complete) {
+            this.complete = complete;
+        }
     }
 }
\ No newline at end of file
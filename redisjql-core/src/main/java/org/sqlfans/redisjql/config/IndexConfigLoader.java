@@ -83,6 +83,7 @@ public class IndexConfigLoader {
         IndexConfig config = new IndexConfig();
         config.setTableName(annotation.table());
         config.setPrimaryKey(annotation.primaryKey());
+        config.setPrimaryKeyType(annotation.primaryKeyType());
         config.setVersionField(annotation.versionField());
         
         for (RedisIndex.Index idx : annotation.indexes()) {
@@ -90,6 +91,7 @@ public class IndexConfigLoader {
             indexDef.setName(idx.name());
             indexDef.setSortField(idx.sortField());
             indexDef.setUnique(idx.unique());
+            indexDef.setComplete(idx.complete());
             
             for (String field : idx.fields()) {
                 indexDef.addField(field);
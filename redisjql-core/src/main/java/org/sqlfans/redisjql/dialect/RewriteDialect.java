@@ -0,0 +1,58 @@
+package org.sqlfans.redisjql.dialect;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.schema.Column;
+
+import java.util.List;
+
+/**
+ * SQL改写方言
+ * 决定改写后的SQL按主键列表查询时的条件形式和排序表达式，使每种数据库都使用代价最低的写法，
+ * 例如MySQL使用多值IN和FIELD()排序，PostgreSQL使用 = ANY(?) 单个数组参数和array_position()排序
+ *
+ * <p>除内置方言外，可以通过 META-INF/services/org.sqlfans.redisjql.dialect.RewriteDialect
+ * 注册自定义方言，自定义方言优先于内置方言参与数据库识别。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public interface RewriteDialect {
+
+    /**
+     * @return 方言名称，用于按名称配置方言
+     */
+    String getName();
+
+    /**
+     * 判断方言是否适用于数据库
+     * @param databaseProductName DatabaseMetaData返回的数据库产品名称
+     * @return 是否适用
+     */
+    boolean supports(String databaseProductName);
+
+    /**
+     * 是否以单个数组参数绑定全部主键
+     * @return 为true时主键表达式只有一个，值为主键数组
+     */
+    default boolean isArrayBinding() {
+        return false;
+    }
+
+    /**
+     * 生成主键条件
+     * @param primaryKey 主键列
+     * @param keys 主键表达式：数组绑定时为单个数组表达式，否则为每个主键的表达式
+     * @return 主键条件
+     */
+    Expression primaryKeyCondition(Column primaryKey, List<Expression> keys);
+
+    /**
+     * 生成按主键列表顺序排序的表达式
+     * @param primaryKey 主键列
+     * @param keys 主键表达式，形式与 {@link #primaryKeyCondition} 相同
+     * @return 排序表达式，返回null时使用通用的 CASE WHEN 表达式
+     */
+    default Expression primaryKeyOrder(Column primaryKey, List<Expression> keys) {
+        return null;
+    }
+}
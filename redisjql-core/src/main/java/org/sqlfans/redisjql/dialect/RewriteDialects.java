@@ -0,0 +1,113 @@
+package org.sqlfans.redisjql.dialect;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlfans.redisjql.dialect.impl.GenericRewriteDialect;
+import org.sqlfans.redisjql.dialect.impl.H2RewriteDialect;
+import org.sqlfans.redisjql.dialect.impl.MySqlRewriteDialect;
+import org.sqlfans.redisjql.dialect.impl.PostgreSqlRewriteDialect;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * SQL改写方言的识别与查找
+ * 按MyBatis Configuration中数据源的DatabaseMetaData识别数据库，
+ * 先匹配通过ServiceLoader注册的自定义方言，再匹配内置方言，都不适用时使用通用方言
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class RewriteDialects {
+    private static final Logger logger = LoggerFactory.getLogger(RewriteDialects.class);
+
+    private static final RewriteDialect GENERIC = new GenericRewriteDialect();
+
+    private static final List<RewriteDialect> DIALECTS = loadDialects();
+
+    private RewriteDialects() {
+    }
+
+    /**
+     * @return 通用方言：多值IN条件和 CASE WHEN 排序
+     */
+    public static RewriteDialect generic() {
+        return GENERIC;
+    }
+
+    /**
+     * 按MyBatis数据源识别方言
+     * @param configuration MyBatis配置
+     * @return 方言，无法识别时返回通用方言
+     */
+    public static RewriteDialect detect(Configuration configuration) {
+        Environment environment = configuration != null ? configuration.getEnvironment() : null;
+        if (environment == null || environment.getDataSource() == null) {
+            return GENERIC;
+        }
+
+        try (Connection connection = environment.getDataSource().getConnection()) {
+            String productName = connection.getMetaData().getDatabaseProductName();
+            RewriteDialect dialect = forProductName(productName);
+            logger.info("Detected rewrite dialect {} for database {}", dialect.getName(), productName);
+            return dialect;
+        } catch (Exception e) {
+            logger.warn("Failed to detect database product, using generic rewrite dialect", e);
+            return GENERIC;
+        }
+    }
+
+    /**
+     * 按数据库产品名称查找方言
+     * @param databaseProductName 数据库产品名称
+     * @return 方言，没有适用的方言时返回通用方言
+     */
+    public static RewriteDialect forProductName(String databaseProductName) {
+        if (databaseProductName != null) {
+            for (RewriteDialect dialect : DIALECTS) {
+                if (dialect.supports(databaseProductName)) {
+                    return dialect;
+                }
+            }
+        }
+        return GENERIC;
+    }
+
+    /**
+     * 按方言名称或实现类名查找方言
+     * @param name 方言名称（如 mysql、postgresql）或实现类的全限定名
+     * @return 方言
+     * @throws IllegalArgumentException 找不到方言时抛出
+     */
+    public static RewriteDialect forName(String name) {
+        if (GENERIC.getName().equalsIgnoreCase(name)) {
+            return GENERIC;
+        }
+        for (RewriteDialect dialect : DIALECTS) {
+            if (dialect.getName().equalsIgnoreCase(name)) {
+                return dialect;
+            }
+        }
+        try {
+            return (RewriteDialect) Class.forName(name).getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Unknown rewrite dialect: " + name, e);
+        }
+    }
+
+    private static List<RewriteDialect> loadDialects() {
+        List<RewriteDialect> dialects = new ArrayList<>();
+        for (RewriteDialect dialect : ServiceLoader.load(RewriteDialect.class, RewriteDialects.class.getClassLoader())) {
+            dialects.add(dialect);
+        }
+        dialects.add(new MySqlRewriteDialect());
+        dialects.add(new PostgreSqlRewriteDialect());
+        dialects.add(new H2RewriteDialect());
+        return Collections.unmodifiableList(dialects);
+    }
+}
@@ -0,0 +1,34 @@
+package org.sqlfans.redisjql.dialect.impl;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.schema.Column;
+import org.sqlfans.redisjql.dialect.RewriteDialect;
+
+import java.util.List;
+
+/**
+ * 通用SQL改写方言
+ * 使用多值IN条件，排序使用 CASE WHEN 表达式，适用于无法识别的数据库
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class GenericRewriteDialect implements RewriteDialect {
+
+    @Override
+    public String getName() {
+        return "generic";
+    }
+
+    @Override
+    public boolean supports(String databaseProductName) {
+        return false;
+    }
+
+    @Override
+    public Expression primaryKeyCondition(Column primaryKey, List<Expression> keys) {
+        return new InExpression(primaryKey, new ExpressionList(keys));
+    }
+}
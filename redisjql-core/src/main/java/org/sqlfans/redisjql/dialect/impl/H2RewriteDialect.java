@@ -0,0 +1,21 @@
+package org.sqlfans.redisjql.dialect.impl;
+
+/**
+ * H2 SQL改写方言
+ * 使用多值IN条件，H2对IN列表会使用主键索引逐个查找；排序使用通用的 CASE WHEN 表达式
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class H2RewriteDialect extends GenericRewriteDialect {
+
+    @Override
+    public String getName() {
+        return "h2";
+    }
+
+    @Override
+    public boolean supports(String databaseProductName) {
+        return "H2".equalsIgnoreCase(databaseProductName.trim());
+    }
+}
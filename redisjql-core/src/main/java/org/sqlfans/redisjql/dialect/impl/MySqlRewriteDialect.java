@@ -0,0 +1,42 @@
+package org.sqlfans.redisjql.dialect.impl;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.schema.Column;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MySQL/MariaDB SQL改写方言
+ * 使用多值IN条件，排序使用 FIELD(pk, ...)，避免拼接逐个分支比较的 CASE WHEN 表达式
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class MySqlRewriteDialect extends GenericRewriteDialect {
+
+    @Override
+    public String getName() {
+        return "mysql";
+    }
+
+    @Override
+    public boolean supports(String databaseProductName) {
+        String name = databaseProductName.toLowerCase();
+        return name.contains("mysql") || name.contains("mariadb");
+    }
+
+    @Override
+    public Expression primaryKeyOrder(Column primaryKey, List<Expression> keys) {
+        List<Expression> parameters = new ArrayList<>(keys.size() + 1);
+        parameters.add(primaryKey);
+        parameters.addAll(keys);
+
+        Function field = new Function();
+        field.setName("FIELD");
+        field.setParameters(new ExpressionList(parameters));
+        return field;
+    }
+}
@@ -0,0 +1,54 @@
+package org.sqlfans.redisjql.dialect.impl;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.schema.Column;
+import org.sqlfans.redisjql.dialect.RewriteDialect;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * PostgreSQL SQL改写方言
+ * 全部主键以单个数组参数绑定，条件为 pk = ANY(?)，排序使用 array_position(?, pk)；
+ * 主键数量变化时SQL文本不变，服务端可以一直复用同一个预编译语句
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class PostgreSqlRewriteDialect implements RewriteDialect {
+
+    @Override
+    public String getName() {
+        return "postgresql";
+    }
+
+    @Override
+    public boolean supports(String databaseProductName) {
+        return databaseProductName.toLowerCase().contains("postgresql");
+    }
+
+    @Override
+    public boolean isArrayBinding() {
+        return true;
+    }
+
+    @Override
+    public Expression primaryKeyCondition(Column primaryKey, List<Expression> keys) {
+        Function any = new Function();
+        any.setName("ANY");
+        any.setParameters(new ExpressionList(Collections.singletonList(keys.get(0))));
+        return new EqualsTo(primaryKey, any);
+    }
+
+    @Override
+    public Expression primaryKeyOrder(Column primaryKey, List<Expression> keys) {
+        Function position = new Function();
+        position.setName("array_position");
+        position.setParameters(new ExpressionList(Arrays.asList(keys.get(0), primaryKey)));
+        return position;
+    }
+}
@@ -0,0 +1,184 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.AllTableColumns;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.SelectExpressionItem;
+import net.sf.jsqlparser.statement.select.SelectItem;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.transaction.managed.ManagedTransaction;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分块并行查询
+ * 主键数量很多时，将主键列表按固定大小分块，每块改写为一条SQL，在有界线程池中并行执行，
+ * 每块使用同一SqlSessionFactory打开的独立SqlSession（独立连接），结果按分块顺序合并，
+ * 避免单条超大IN列表超过max_allowed_packet等限制或得到很差的执行计划
+ *
+ * <p>各分块在独立连接上以自动提交方式执行，看不到调用方事务中尚未提交的修改，
+ * 因此调用方的连接处于事务中（未开启自动提交）时，各分块依次在调用方的Executor上执行；
+ * 只有一个分块时同样直接在调用方的Executor上执行。
+ * 只有选择列都是普通列（没有聚合或表达式）、没有分页、分组和DISTINCT的查询才会分块执行。</p>
+ *
+ * <p>线程池的等待队列有界，队列已满时分块由提交查询的调用线程执行，
+ * 并发的大查询因此不会无限堆积在队列中，调用方自然减速。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class ChunkedQueryExecutor {
+    private static final AtomicInteger POOL_SEQUENCE = new AtomicInteger();
+
+    /**
+     * 等待队列容量与线程数的倍数
+     */
+    private static final int QUEUE_CAPACITY_PER_THREAD = 4;
+
+    private final SqlSessionFactory sqlSessionFactory;
+    private final int chunkSize;
+    private final ExecutorService executorService;
+
+    ChunkedQueryExecutor(SqlSessionFactory sqlSessionFactory, int chunkSize, int parallelism) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        this.chunkSize = chunkSize;
+
+        int poolId = POOL_SEQUENCE.incrementAndGet();
+        AtomicInteger threadSequence = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(parallelism * QUEUE_CAPACITY_PER_THREAD), runnable -> {
+                Thread thread = new Thread(runnable,
+                    "redisjql-chunk-" + poolId + "-" + threadSequence.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        this.executorService = pool;
+    }
+
+    /**
+     * 判断主键列表是否需要分块执行
+     * @param plainSelect 原查询语句
+     * @param primaryKeyCount 主键数量
+     * @return 是否分块执行
+     */
+    boolean shouldSplit(PlainSelect plainSelect, int primaryKeyCount) {
+        if (primaryKeyCount <= chunkSize || plainSelect.getLimit() != null || plainSelect.getOffset() != null
+            || plainSelect.getFetch() != null || plainSelect.getGroupBy() != null || plainSelect.getHaving() != null
+            || plainSelect.getDistinct() != null || plainSelect.getSelectItems() == null) {
+            return false;
+        }
+
+        // 合并分块结果只对逐行的查询成立，聚合函数等选择项需要由数据库整体计算
+        for (SelectItem item : plainSelect.getSelectItems()) {
+            if (item instanceof AllColumns || item instanceof AllTableColumns) {
+                continue;
+            }
+            if (!(item instanceof SelectExpressionItem)
+                || !(((SelectExpressionItem) item).getExpression() instanceof Column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按分块大小拆分主键列表
+     * @param primaryKeys 主键列表
+     * @return 分块列表，保持原顺序
+     */
+    List<List<String>> split(List<String> primaryKeys) {
+        List<List<String>> chunks = new ArrayList<>((primaryKeys.size() + chunkSize - 1) / chunkSize);
+        for (int from = 0; from < primaryKeys.size(); from += chunkSize) {
+            chunks.add(primaryKeys.subList(from, Math.min(from + chunkSize, primaryKeys.size())));
+        }
+        return chunks;
+    }
+
+    /**
+     * 执行各分块的查询，按分块顺序合并结果
+     * @param statements 各分块改写后的MappedStatement
+     * @param parameter 查询参数对象
+     * @param callerExecutor 调用方的Executor，只有一个分块或处于事务中时在其上依次执行
+     * @return 合并后的结果
+     * @throws Exception 任一分块执行失败时抛出
+     */
+    List<Object> query(List<MappedStatement> statements, Object parameter, Executor callerExecutor)
+            throws Exception {
+        if (statements.size() == 1 || inTransaction(callerExecutor)) {
+            List<Object> results = new ArrayList<>();
+            for (MappedStatement statement : statements) {
+                results.addAll(callerExecutor.<Object>query(statement, parameter, RowBounds.DEFAULT,
+                    Executor.NO_RESULT_HANDLER));
+            }
+            return results;
+        }
+
+        List<Callable<List<Object>>> tasks = new ArrayList<>(statements.size());
+        for (MappedStatement statement : statements) {
+            tasks.add(() -> queryChunk(statement, parameter));
+        }
+
+        List<Object> results = new ArrayList<>();
+        for (Future<List<Object>> future : executorService.invokeAll(tasks)) {
+            try {
+                results.addAll(future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 调用方的连接是否处于事务中，无法判断时按处于事务中处理，保证能读到未提交的修改
+     */
+    private static boolean inTransaction(Executor callerExecutor) {
+        try {
+            Connection connection = callerExecutor.getTransaction().getConnection();
+            return !connection.getAutoCommit();
+        } catch (Exception e) {
+            return true;
+        }
+    }
+
+    /**
+     * 在独立的SqlSession连接上执行一个分块，执行器不经过插件，避免分块再次被拦截改写
+     * 连接仍由SqlSession负责关闭，执行器使用不关闭连接的ManagedTransaction，用完后关闭以释放语句
+     */
+    private List<Object> queryChunk(MappedStatement statement, Object parameter) throws Exception {
+        try (SqlSession session = sqlSessionFactory.openSession(true)) {
+            Executor executor = new SimpleExecutor(statement.getConfiguration(),
+                new ManagedTransaction(session.getConnection(), false));
+            try {
+                return executor.query(statement, parameter, RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+            } finally {
+                executor.close(false);
+            }
+        }
+    }
+
+    /**
+     * 关闭线程池
+     */
+    void shutdown() {
+        executorService.shutdown();
+    }
+}
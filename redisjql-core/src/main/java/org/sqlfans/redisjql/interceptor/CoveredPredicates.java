@@ -0,0 +1,146 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
+import org.sqlfans.redisjql.query.IndexCondition;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 由索引完全回答的WHERE条件
+ * WHERE按AND拆分为多个条件，完整索引上的等值、IN、OR条件查询得到的主键恰好是满足条件的行，
+ * 改写后的SQL只保留其余条件和主键条件，数据库可以直接按主键访问，不再重复判断这些条件；
+ * 去掉的条件中的 ? 占位符对应的参数映射同时去掉
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class CoveredPredicates {
+    private final Set<Integer> conjuncts;
+    private final int conjunctCount;
+    private final List<Integer> parameterPositions;
+
+    private CoveredPredicates(Set<Integer> conjuncts, int conjunctCount, List<Integer> parameterPositions) {
+        this.conjuncts = conjuncts;
+        this.conjunctCount = conjunctCount;
+        this.parameterPositions = parameterPositions;
+    }
+
+    /**
+     * 找出WHERE中由索引完全回答的条件
+     * @param where WHERE条件
+     * @param indexConfig 表的索引配置
+     * @return 可去掉的条件，没有时返回null
+     */
+    static CoveredPredicates detect(Expression where, IndexConfig indexConfig) {
+        List<Expression> expressions = splitConjuncts(where);
+        Set<Integer> conjuncts = new HashSet<>();
+        List<Integer> positions = new ArrayList<>();
+        for (int i = 0; i < expressions.size(); i++) {
+            if (IndexCondition.isCovered(expressions.get(i), indexConfig)) {
+                conjuncts.add(i);
+                collectPositions(expressions.get(i), positions);
+            }
+        }
+        if (conjuncts.isEmpty()) {
+            return null;
+        }
+
+        // 从后向前删除参数映射，前面的位置不受影响
+        positions.sort(Collections.reverseOrder());
+        return new CoveredPredicates(conjuncts, expressions.size(), positions);
+    }
+
+    /**
+     * 是否WHERE中的全部条件都由索引回答，此时索引查询得到的主键就是完整的查询结果
+     */
+    boolean coversAll() {
+        return conjuncts.size() == conjunctCount;
+    }
+
+    /**
+     * 从改写中的查询语句去掉由索引回答的条件
+     * @param plainSelect 改写中的查询语句（调用方持有的副本）
+     */
+    void removeFrom(PlainSelect plainSelect) {
+        List<Expression> expressions = splitConjuncts(plainSelect.getWhere());
+        Expression residual = null;
+        for (int i = 0; i < expressions.size(); i++) {
+            if (!conjuncts.contains(i)) {
+                residual = residual == null ? expressions.get(i) : new AndExpression(residual, expressions.get(i));
+            }
+        }
+        plainSelect.setWhere(residual);
+    }
+
+    /**
+     * 去掉已删除条件中占位符对应的参数映射
+     * @param parameterMappings 原参数映射
+     * @return 改写后SQL使用的参数映射
+     */
+    List<ParameterMapping> removeParameters(List<ParameterMapping> parameterMappings) {
+        if (parameterPositions.isEmpty()) {
+            return parameterMappings;
+        }
+        List<ParameterMapping> mappings = new ArrayList<>(parameterMappings);
+        for (int position : parameterPositions) {
+            mappings.remove(position);
+        }
+        return mappings;
+    }
+
+    /**
+     * 按顶层AND拆分条件，括号中的AND一并展开
+     */
+    private static List<Expression> splitConjuncts(Expression where) {
+        List<Expression> expressions = new ArrayList<>();
+        addConjuncts(where, expressions);
+        return expressions;
+    }
+
+    private static void addConjuncts(Expression expression, List<Expression> expressions) {
+        Expression inner = expression;
+        while (inner instanceof Parenthesis) {
+            inner = ((Parenthesis) inner).getExpression();
+        }
+        if (inner instanceof AndExpression) {
+            addConjuncts(((AndExpression) inner).getLeftExpression(), expressions);
+            addConjuncts(((AndExpression) inner).getRightExpression(), expressions);
+        } else if (expression != null) {
+            expressions.add(expression);
+        }
+    }
+
+    /**
+     * 收集条件中占位符的位置，可去掉的条件只由等值、IN、AND、OR和括号组成
+     */
+    private static void collectPositions(Expression expression, List<Integer> positions) {
+        if (expression instanceof JdbcParameter) {
+            positions.add(ParameterValueResolver.positionOf((JdbcParameter) expression));
+        } else if (expression instanceof Parenthesis) {
+            collectPositions(((Parenthesis) expression).getExpression(), positions);
+        } else if (expression instanceof BinaryExpression) {
+            collectPositions(((BinaryExpression) expression).getLeftExpression(), positions);
+            collectPositions(((BinaryExpression) expression).getRightExpression(), positions);
+        } else if (expression instanceof InExpression) {
+            InExpression in = (InExpression) expression;
+            collectPositions(in.getLeftExpression(), positions);
+            for (Expression value : ((ExpressionList) in.getRightItemsList()).getExpressions()) {
+                collectPositions(value, positions);
+            }
+        }
+    }
+}
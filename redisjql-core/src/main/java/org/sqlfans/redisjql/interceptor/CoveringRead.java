@@ -0,0 +1,199 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.AllColumns;
+import net.sf.jsqlparser.statement.select.AllTableColumns;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import net.sf.jsqlparser.statement.select.SelectExpressionItem;
+import net.sf.jsqlparser.statement.select.SelectItem;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.resultset.DefaultResultSetHandler;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.session.RowBounds;
+import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.config.IndexConfig;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 覆盖读取
+ * WHERE全部由完整索引回答、选择列都是普通列时，查询结果可以直接由Redis中 表名:主键 的行哈希构造：
+ * SELECT * 通过管道HGETALL读取整行，指定列时通过管道HMGET只读取这些列，
+ * 再按语句的ResultMap和TypeHandler映射为结果对象，不访问数据库
+ *
+ * <p>行哈希中缺少主键字段、配置了版本号字段但缺少版本号，或主键已被标记为删除的行视为未缓存，
+ * 由调用方通过一次主键IN查询从数据库补齐：拦截器执行更新和删除后删除行哈希中的版本号，
+ * 同步服务重新写入整行前不再使用。行哈希中不存在的字段按NULL处理，
+ * 因此只应在同步服务写入了完整行数据的表上开启。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class CoveringRead {
+    private final List<String> labels;
+    private final List<String> fields;
+
+    private CoveringRead(List<String> labels, List<String> fields) {
+        this.labels = labels;
+        this.fields = fields;
+    }
+
+    /**
+     * 判断查询能否由行哈希直接回答
+     * @param plainSelect 查询语句
+     * @param coveredPredicates 由索引完全回答的WHERE条件
+     * @param pageWindow 可下推到索引的分页窗口，有分页时必须能够下推
+     * @return 覆盖读取，不能覆盖时返回null
+     */
+    static CoveringRead detect(PlainSelect plainSelect, CoveredPredicates coveredPredicates, PageWindow pageWindow) {
+        if (coveredPredicates == null || !coveredPredicates.coversAll() || plainSelect.getSelectItems() == null
+            || plainSelect.getDistinct() != null || plainSelect.getGroupBy() != null || plainSelect.getHaving() != null
+            || plainSelect.getJoins() != null || plainSelect.getFetch() != null
+            || ((plainSelect.getLimit() != null || plainSelect.getOffset() != null) && pageWindow == null)) {
+            return null;
+        }
+
+        // 主键已按ORDER BY的列排序，表达式排序无法在索引查询时完成
+        if (plainSelect.getOrderByElements() != null) {
+            for (OrderByElement element : plainSelect.getOrderByElements()) {
+                if (!(element.getExpression() instanceof Column)) {
+                    return null;
+                }
+            }
+        }
+
+        return ofSelectItems(plainSelect.getSelectItems());
+    }
+
+    /**
+     * 按选择列创建行哈希的读取方式
+     * @param items 选择列
+     * @return 覆盖读取，选择列不都是普通列时返回null
+     */
+    static CoveringRead ofSelectItems(List<SelectItem> items) {
+        if (items == null) {
+            return null;
+        }
+        if (items.size() == 1 && (items.get(0) instanceof AllColumns || items.get(0) instanceof AllTableColumns)) {
+            return new CoveringRead(null, null);
+        }
+        List<String> labels = new ArrayList<>(items.size());
+        List<String> fields = new ArrayList<>(items.size());
+        for (SelectItem item : items) {
+            if (!(item instanceof SelectExpressionItem)
+                || !(((SelectExpressionItem) item).getExpression() instanceof Column)) {
+                return null;
+            }
+            SelectExpressionItem expressionItem = (SelectExpressionItem) item;
+            String field = ((Column) expressionItem.getExpression()).getColumnName();
+            fields.add(field);
+            labels.add(expressionItem.getAlias() != null ? expressionItem.getAlias().getName() : field);
+        }
+        return new CoveringRead(Collections.unmodifiableList(labels), Collections.unmodifiableList(fields));
+    }
+
+    /**
+     * 批量读取主键对应的行哈希
+     * @param redisOperationService 缓存操作服务
+     * @param tableName 表名
+     * @param indexConfig 表的索引配置，提供主键列名和版本号字段
+     * @param primaryKeys 已排序的主键列表
+     * @return 已缓存的行和未缓存的主键
+     */
+    Rows read(CacheOperationService redisOperationService, String tableName, IndexConfig indexConfig,
+              List<String> primaryKeys) {
+        String primaryKey = indexConfig.getPrimaryKey();
+        String versionField = indexConfig.getVersionField();
+        boolean versioned = versionField != null && !versionField.isEmpty();
+        List<String> dataKeys = new ArrayList<>(primaryKeys.size());
+        for (String key : primaryKeys) {
+            dataKeys.add(tableName + ":" + key);
+        }
+
+        Map<String, Map<String, String>> hashes;
+        if (fields == null) {
+            hashes = redisOperationService.getAllFieldValues(dataKeys);
+        } else {
+            // 主键和版本号字段用于判断行是否已缓存
+            List<String> fieldNames = new ArrayList<>(fields);
+            if (!fieldNames.contains(primaryKey)) {
+                fieldNames.add(primaryKey);
+            }
+            if (versioned && !fieldNames.contains(versionField)) {
+                fieldNames.add(versionField);
+            }
+            hashes = redisOperationService.getFieldValues(dataKeys, fieldNames);
+        }
+        Set<String> deletedKeys = redisOperationService.getMarkedForDeletion(tableName, primaryKeys);
+
+        Rows rows = new Rows();
+        for (int i = 0; i < primaryKeys.size(); i++) {
+            Map<String, String> hash = hashes.get(dataKeys.get(i));
+            if (hash != null && hash.get(primaryKey) != null && (!versioned || hash.get(versionField) != null)
+                && !deletedKeys.contains(primaryKeys.get(i))) {
+                rows.hits.add(hash);
+            } else {
+                rows.missingKeys.add(primaryKeys.get(i));
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 按语句的ResultMap将行哈希映射为结果对象
+     * @param executor 当前执行器，用于嵌套查询
+     * @param ms MappedStatement对象
+     * @param boundSql 原绑定SQL对象
+     * @param rows 行哈希，按结果顺序排列
+     * @return 结果对象列表
+     * @throws SQLException 字段值无法转换为属性类型时抛出
+     */
+    List<Object> map(Executor executor, MappedStatement ms, BoundSql boundSql, List<Map<String, String>> rows)
+        throws SQLException {
+        List<String> columnLabels = labels;
+        List<String> columnFields = fields;
+        if (columnLabels == null) {
+            Set<String> names = new LinkedHashSet<>();
+            for (Map<String, String> row : rows) {
+                names.addAll(row.keySet());
+            }
+            columnLabels = new ArrayList<>(names);
+            columnFields = columnLabels;
+        }
+
+        DefaultResultSetHandler handler = new DefaultResultSetHandler(executor, ms,
+            ms.getLang().createParameterHandler(ms, boundSql.getParameterObject(), boundSql), null, boundSql,
+            RowBounds.DEFAULT);
+        return handler.handleResultSets(HashRowResultSet.newStatement(columnLabels, columnFields, rows));
+    }
+
+    /**
+     * 行哈希的读取结果
+     */
+    static final class Rows {
+        private final List<Map<String, String>> hits = new ArrayList<>();
+        private final List<String> missingKeys = new ArrayList<>();
+
+        /**
+         * @return 已缓存的行，保持主键顺序
+         */
+        List<Map<String, String>> getHits() {
+            return hits;
+        }
+
+        /**
+         * @return 未缓存的主键，保持主键顺序
+         */
+        List<String> getMissingKeys() {
+            return missingKeys;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.sqlfans.redisjql.interceptor;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存行的只读结果集
+ * 将Redis行哈希中读取的字段值包装为只进的JDBC ResultSet（及对应的Statement），
+ * 交给MyBatis的DefaultResultSetHandler按语句的ResultMap和TypeHandler映射为结果对象，与数据库查询结果的映射规则一致
+ *
+ * <p>全部列按VARCHAR报告，TypeHandler按属性类型调用getLong、getTimestamp等方法时由字符串转换；
+ * 无法转换的值抛出SQLException，调用方回退到数据库查询。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class HashRowResultSet implements InvocationHandler {
+    private final List<String> labels;
+    private final List<String> fields;
+    private final List<Map<String, String>> rows;
+    private int cursor = -1;
+    private boolean closed;
+    private boolean lastWasNull;
+
+    private HashRowResultSet(List<String> labels, List<String> fields, List<Map<String, String>> rows) {
+        this.labels = labels;
+        this.fields = fields;
+        this.rows = rows;
+    }
+
+    /**
+     * 创建返回该结果集的Statement
+     * @param labels 结果列名
+     * @param fields 各结果列对应的哈希字段名
+     * @param rows 行哈希，按结果顺序排列
+     * @return Statement对象，getResultSet返回缓存行的结果集
+     */
+    static Statement newStatement(List<String> labels, List<String> fields, List<Map<String, String>> rows) {
+        ResultSet resultSet = (ResultSet) Proxy.newProxyInstance(HashRowResultSet.class.getClassLoader(),
+                new Class<?>[]{ResultSet.class}, new HashRowResultSet(labels, fields, rows));
+        return (Statement) Proxy.newProxyInstance(HashRowResultSet.class.getClassLoader(),
+                new Class<?>[]{Statement.class}, (proxy, method, args) -> {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return objectMethod(proxy, method, args);
+                    }
+                    switch (method.getName()) {
+                        case "getResultSet":
+                            return resultSet;
+                        case "getMoreResults":
+                            return false;
+                        case "getUpdateCount":
+                            return -1;
+                        case "close":
+                            return null;
+                        default:
+                            throw new SQLFeatureNotSupportedException(method.getName());
+                    }
+                });
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return objectMethod(proxy, method, args);
+        }
+        switch (method.getName()) {
+            case "next":
+                return !closed && ++cursor < rows.size();
+            case "close":
+                closed = true;
+                return null;
+            case "isClosed":
+                return closed;
+            case "wasNull":
+                return lastWasNull;
+            case "getType":
+                return ResultSet.TYPE_FORWARD_ONLY;
+            case "getMetaData":
+                return Proxy.newProxyInstance(HashRowResultSet.class.getClassLoader(),
+                        new Class<?>[]{ResultSetMetaData.class}, this::metaData);
+            case "findColumn":
+                return indexOf((String) args[0]) + 1;
+            default:
+                break;
+        }
+        if (!method.getName().startsWith("get") || args == null || args.length == 0) {
+            throw new SQLFeatureNotSupportedException(method.getName());
+        }
+
+        String value = value(args[0]);
+        lastWasNull = value == null;
+        try {
+            Class<?> type = args.length > 1 && args[1] instanceof Class ? (Class<?>) args[1] : method.getReturnType();
+            return convert(value, method.getName(), type);
+        } catch (IllegalArgumentException | DateTimeException e) {
+            throw new SQLException("Cannot convert cached value '" + value + "' for " + method.getName(), e);
+        }
+    }
+
+    private Object metaData(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return objectMethod(proxy, method, args);
+        }
+        switch (method.getName()) {
+            case "getColumnCount":
+                return labels.size();
+            case "getColumnLabel":
+            case "getColumnName":
+                return labels.get((Integer) args[0] - 1);
+            case "getColumnClassName":
+                return String.class.getName();
+            case "getColumnType":
+                return Types.VARCHAR;
+            case "getColumnTypeName":
+                return "VARCHAR";
+            default:
+                throw new SQLFeatureNotSupportedException(method.getName());
+        }
+    }
+
+    private static Object objectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return HashRowResultSet.class.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+        }
+    }
+
+    private String value(Object column) throws SQLException {
+        if (cursor < 0 || cursor >= rows.size()) {
+            throw new SQLException("No current row");
+        }
+        int index = column instanceof Integer ? (Integer) column - 1 : indexOf((String) column);
+        if (index < 0 || index >= fields.size()) {
+            throw new SQLException("Unknown column: " + column);
+        }
+        return rows.get(cursor).get(fields.get(index));
+    }
+
+    private int indexOf(String label) {
+        for (int i = 0; i < labels.size(); i++) {
+            if (labels.get(i).equalsIgnoreCase(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 按JDBC取值方法的返回类型转换字符串，基本类型的null按JDBC规则返回0或false
+     */
+    private static Object convert(String value, String methodName, Class<?> type) throws SQLException {
+        if (value == null) {
+            if (type == boolean.class) {
+                return false;
+            }
+            return type.isPrimitive() ? convert("0", methodName, type) : null;
+        }
+        if (type == String.class || type == Object.class) {
+            return value;
+        } else if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(value.trim());
+        } else if (type == long.class || type == Long.class) {
+            return Long.valueOf(value.trim());
+        } else if (type == short.class || type == Short.class) {
+            return Short.valueOf(value.trim());
+        } else if (type == byte.class || type == Byte.class) {
+            return Byte.valueOf(value.trim());
+        } else if (type == double.class || type == Double.class) {
+            return Double.valueOf(value.trim());
+        } else if (type == float.class || type == Float.class) {
+            return Float.valueOf(value.trim());
+        } else if (type == boolean.class || type == Boolean.class) {
+            return "1".equals(value.trim()) || Boolean.parseBoolean(value.trim());
+        } else if (type == BigDecimal.class) {
+            return new BigDecimal(value.trim());
+        } else if (type == Timestamp.class) {
+            return toTimestamp(value.trim());
+        } else if (type == Date.class) {
+            return new Date(toTimestamp(value.trim()).getTime());
+        } else if (type == Time.class) {
+            return Time.valueOf(value.trim());
+        } else if (type == LocalDateTime.class) {
+            return toTimestamp(value.trim()).toLocalDateTime();
+        } else if (type == LocalDate.class) {
+            return toTimestamp(value.trim()).toLocalDateTime().toLocalDate();
+        } else if (type == LocalTime.class) {
+            return LocalTime.parse(value.trim());
+        }
+        throw new SQLFeatureNotSupportedException(methodName + " for " + type.getName());
+    }
+
+    /**
+     * 解析同步时写入的时间值：JDBC时间戳格式、ISO格式、日期或毫秒数
+     */
+    private static Timestamp toTimestamp(String value) {
+        if (value.matches("\\d{4}-\\d{2}-\\d{2}")) {
+            return Timestamp.valueOf(LocalDate.parse(value).atStartOfDay());
+        } else if (value.matches("-?\\d+")) {
+            return new Timestamp(Long.parseLong(value));
+        } else if (value.indexOf('T') > 0) {
+            return Timestamp.valueOf(LocalDateTime.parse(value));
+        }
+        return Timestamp.valueOf(value);
+    }
+}
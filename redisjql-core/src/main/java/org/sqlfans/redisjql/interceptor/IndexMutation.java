@@ -0,0 +1,248 @@
+package org.sqlfans.redisjql.interceptor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.Supplier;
+
+/**
+ * 一条写语句对应的索引变更
+ * 插入时添加索引记录，更新时在一次原子操作中将主键的全部索引成员关系替换为新的索引记录，删除时移除全部索引记录并标记记录为删除状态；
+ * 同一主键的变更必须按语句顺序应用，同一事务中同一主键的多个变更可以合并为一个净变更。
+ * 更新和删除后失效行哈希也作为一种变更，与索引变更分开合并，随事务提交后发出
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class IndexMutation {
+    private static final Logger logger = LoggerFactory.getLogger(IndexMutation.class);
+
+    enum Type {
+        ADD,
+        MOVE,
+        DELETE,
+        INVALIDATE
+    }
+
+    private final Type type;
+    private final String tableName;
+    private final String primaryKey;
+
+    /**
+     * 行的索引记录：索引键 -> 分数，删除时为空
+     */
+    private final Map<String, Double> indexScores;
+
+    /**
+     * 更新后的行版本号，未知时为-1
+     */
+    private final long version;
+
+    /**
+     * 失效行哈希时删除的字段，其余变更为null
+     */
+    private final String field;
+
+    private IndexMutation(Type type, String tableName, String primaryKey, Map<String, Double> indexScores,
+                          long version, String field) {
+        this.type = type;
+        this.tableName = tableName;
+        this.primaryKey = primaryKey;
+        this.indexScores = indexScores;
+        this.version = version;
+        this.field = field;
+    }
+
+    /**
+     * 插入：添加索引记录和主键到索引的映射
+     */
+    static IndexMutation add(String tableName, String primaryKey, Map<String, Double> indexScores) {
+        return new IndexMutation(Type.ADD, tableName, primaryKey, indexScores, -1, null);
+    }
+
+    /**
+     * 更新：将主键的全部索引成员关系替换为新的索引记录，版本号比已写入的版本旧时不生效
+     * @param indexScores 行更新后的全部索引记录：索引键 -> 分数
+     * @param version 更新后的行版本号，未知时传-1
+     */
+    static IndexMutation move(String tableName, String primaryKey, Map<String, Double> indexScores, long version) {
+        return new IndexMutation(Type.MOVE, tableName, primaryKey, indexScores, version, null);
+    }
+
+    /**
+     * 删除：移除主键的全部索引记录，标记记录为删除状态
+     */
+    static IndexMutation delete(String tableName, String primaryKey) {
+        return new IndexMutation(Type.DELETE, tableName, primaryKey, Collections.emptyMap(), -1, null);
+    }
+
+    /**
+     * 失效行哈希：删除行哈希中的一个字段（版本号字段或主键字段），同步服务重新写入整行前不再读取该行
+     * @param field 删除的字段
+     */
+    static IndexMutation invalidate(String tableName, String primaryKey, String field) {
+        return new IndexMutation(Type.INVALIDATE, tableName, primaryKey, Collections.emptyMap(), -1, field);
+    }
+
+    /**
+     * 发出变更对应的缓存命令，互不依赖的命令同时发出
+     * @param operations 异步缓存操作服务
+     * @return 全部命令完成时完成
+     */
+    CompletionStage<Void> apply(AsyncCacheOperationService operations) {
+        switch (type) {
+            case ADD:
+                return addIndex(operations);
+            case MOVE:
+                // 读取旧索引键、移除旧索引记录和添加新索引记录在一次调用中原子完成，并发更新不会交错
+                return operations.replaceIndexMemberships(tableName, primaryKey, indexScores, version)
+                    .thenAccept(replaced -> {
+                        if (!Boolean.TRUE.equals(replaced)) {
+                            logger.debug("Skipped stale index mutation {}, a newer version is already indexed", this);
+                        }
+                    });
+            case DELETE:
+                // 从全部索引中原子地移除该主键，之后的索引查询和分页窗口的计数不再包含删除的行；记录本身标记为删除状态
+                CompletionStage<Void> removal = operations.replaceIndexMemberships(tableName, primaryKey, indexScores, -1)
+                    .thenAccept(replaced -> { });
+                return allOf(Arrays.asList(operations.markForDeletion(tableName, primaryKey), removal));
+            case INVALIDATE:
+                return operations.removeDataField(rowKey(), field);
+            default:
+                throw new IllegalStateException("Unknown index mutation: " + type);
+        }
+    }
+
+    private CompletionStage<Void> addIndex(AsyncCacheOperationService operations) {
+        List<CompletionStage<Void>> stages = new ArrayList<>();
+        for (Map.Entry<String, Double> entry : indexScores.entrySet()) {
+            stages.add(operations.addIndexRecord(entry.getKey(), primaryKey, entry.getValue()));
+            stages.add(operations.addPrimaryKeyToIndexMapping(tableName, primaryKey, entry.getKey()));
+        }
+        return allOf(stages);
+    }
+
+    /**
+     * 合并同一行上的后一个变更，结果与依次应用两个变更的最终状态相同，中间的索引键不再写入
+     * @param next 同一行上的后一个变更
+     * @return 合并后的变更
+     */
+    IndexMutation coalesce(IndexMutation next) {
+        switch (next.type) {
+            case INVALIDATE:
+                // 失效只与同一行同一字段的失效合并
+                return next;
+            case DELETE:
+                // 删除覆盖之前的全部变更
+                return next;
+            case ADD:
+                // 删除或更新后重新插入：替换已有的索引记录
+                return type == Type.ADD ? next : move(tableName, primaryKey, next.indexScores, -1);
+            case MOVE:
+                // 插入后更新：该行此前不在索引中，直接添加最终的索引记录
+                if (type == Type.ADD) {
+                    return add(tableName, primaryKey, next.indexScores);
+                }
+                // 两次更新的版本乱序时保留版本较新的一次，与依次应用时旧版本不生效的结果相同
+                return type == Type.MOVE && next.version >= 0 && version > next.version ? this : next;
+            default:
+                throw new IllegalStateException("Unknown index mutation: " + next.type);
+        }
+    }
+
+    /**
+     * 变更所属的行：表名:主键
+     */
+    String rowKey() {
+        return tableName + ":" + primaryKey;
+    }
+
+    /**
+     * 合并变更时使用的键：索引变更按行合并，行哈希的失效按行和字段单独合并
+     */
+    String mergeKey() {
+        return type == Type.INVALIDATE ? rowKey() + "#" + field : rowKey();
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    String getPrimaryKey() {
+        return primaryKey;
+    }
+
+    /**
+     * 发出一组变更：同一行的多个变更先按顺序合并为一个净变更，插入按表合并为一次批量写入，其余变更同时发出
+     * @param mutations 按发生顺序排列的变更
+     * @param operations 异步缓存操作服务
+     * @return 全部命令完成时完成，任一命令失败时以该异常完成
+     */
+    static CompletionStage<Void> applyAll(List<IndexMutation> mutations, AsyncCacheOperationService operations) {
+        Map<String, IndexMutation> netMutations = new LinkedHashMap<>();
+        for (IndexMutation mutation : mutations) {
+            netMutations.merge(mutation.mergeKey(), mutation, IndexMutation::coalesce);
+        }
+
+        // 表名 -> 索引键 -> 主键 -> 分数
+        Map<String, Map<String, Map<String, Double>>> additions = new LinkedHashMap<>();
+        List<CompletionStage<Void>> stages = new ArrayList<>();
+        for (IndexMutation mutation : netMutations.values()) {
+            if (mutation.type == Type.ADD) {
+                Map<String, Map<String, Double>> tableAdditions =
+                    additions.computeIfAbsent(mutation.tableName, key -> new LinkedHashMap<>());
+                for (Map.Entry<String, Double> entry : mutation.indexScores.entrySet()) {
+                    tableAdditions.computeIfAbsent(entry.getKey(), key -> new LinkedHashMap<>())
+                        .put(mutation.primaryKey, entry.getValue());
+                }
+            } else {
+                stages.add(applySafely(() -> mutation.apply(operations)));
+            }
+        }
+        for (Map.Entry<String, Map<String, Map<String, Double>>> table : additions.entrySet()) {
+            stages.add(applySafely(() -> operations.addIndexRecords(table.getKey(), table.getValue())));
+        }
+        return allOf(stages);
+    }
+
+    /**
+     * 发出命令时同步抛出的异常转为失败的CompletionStage，不影响同一批中的其他命令
+     */
+    private static CompletionStage<Void> applySafely(Supplier<CompletionStage<Void>> command) {
+        try {
+            return command.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * 等待全部异步命令完成
+     * @param stages 异步命令
+     * @return 全部完成时完成，任一命令失败时以该异常完成
+     */
+    static CompletionStage<Void> allOf(List<CompletionStage<Void>> stages) {
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[stages.size()];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = stages.get(i).toCompletableFuture();
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + rowKey() + (field != null ? "#" + field : "") + (!indexScores.isEmpty() ? " -> " + indexScores.keySet() : "")
+            + (version >= 0 ? " @" + version : "");
+    }
+}
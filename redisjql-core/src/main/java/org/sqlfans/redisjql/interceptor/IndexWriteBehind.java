@@ -0,0 +1,260 @@
+package org.sqlfans.redisjql.interceptor;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 索引变更的事务感知后写队列
+ * 写语句的索引变更先记录在所属事务中：存在Spring事务同步时随Spring事务提交或回滚，
+ * 否则随MyBatis Executor的commit、rollback和close提交或丢弃。事务提交后变更进入有界队列，
+ * 由后台线程按批发出：一批中同一行的变更按提交顺序合并，插入按表合并为一次批量写入，其余命令同时在途。
+ * 同一事务中同一行的多个变更在记录时合并为一个净变更，事务内先添加后又移除的索引键不会写入Redis
+ *
+ * <p>队列已满时提交事务的线程阻塞等待，直到后台线程腾出空间；关闭时等待后台线程发出队列中的全部变更后退出，
+ * 关闭后提交的变更在调用线程上直接应用。入队与关闭互斥，关闭后不会再有变更进入队列。
+ * 命令失败只记录日志，索引由同步服务在下次同步时修正。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class IndexWriteBehind {
+    private static final Logger logger = LoggerFactory.getLogger(IndexWriteBehind.class);
+    private static final AtomicInteger WORKER_SEQUENCE = new AtomicInteger();
+
+    /**
+     * 后台线程空闲时检查关闭标记的间隔（毫秒）
+     */
+    private static final long POLL_MILLIS = 100;
+
+    private final AsyncCacheOperationService operations;
+    private final BlockingQueue<IndexMutation> queue;
+    private final int batchSize;
+    private final long shutdownTimeoutMillis;
+
+    /**
+     * 没有Spring事务同步时，按Executor记录未提交的变更，每个事务内按行合并；
+     * 以弱引用持有Executor，未经commit、rollback或close就被回收的会话不会一直占用内存
+     */
+    private final Map<Object, Map<String, IndexMutation>> sessionMutations =
+        Caffeine.newBuilder().weakKeys().<Object, Map<String, IndexMutation>>build().asMap();
+
+    private final Thread worker;
+    private final Thread shutdownHook;
+    private volatile boolean closed;
+
+    /**
+     * 入队时持有读锁，关闭时持有写锁：检查关闭标记和入队之间队列不会被关闭
+     */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    IndexWriteBehind(AsyncCacheOperationService operations, int capacity, int batchSize, long shutdownTimeoutMillis) {
+        this.operations = operations;
+        this.queue = new LinkedBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+        this.worker = new Thread(this::run, "redisjql-write-behind-" + WORKER_SEQUENCE.incrementAndGet());
+        this.worker.setDaemon(true);
+        this.worker.start();
+        // 进程正常退出时发出队列中剩余的变更
+        this.shutdownHook = new Thread(this::close, worker.getName() + "-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * 记录写语句的索引变更，所属事务提交后才发出
+     * @param session 执行语句的Executor，没有Spring事务同步时作为事务标识
+     * @param mutation 索引变更
+     */
+    void record(Object session, IndexMutation mutation) {
+        Map<String, IndexMutation> mutations = TransactionSynchronizationManager.isSynchronizationActive()
+            ? transactionMutations() : sessionMutations.computeIfAbsent(session, key -> new LinkedHashMap<>());
+        mutations.merge(mutation.mergeKey(), mutation, IndexMutation::coalesce);
+    }
+
+    /**
+     * Executor提交后发出其记录的变更
+     */
+    void commit(Object session) {
+        Map<String, IndexMutation> mutations = sessionMutations.remove(session);
+        if (mutations != null) {
+            submit(mutations.values());
+        }
+    }
+
+    /**
+     * Executor回滚后丢弃其记录的变更
+     */
+    void rollback(Object session) {
+        Map<String, IndexMutation> mutations = sessionMutations.remove(session);
+        if (mutations != null) {
+            logger.debug("Discarding {} index mutations of a rolled back transaction", mutations.size());
+        }
+    }
+
+    /**
+     * 取得当前Spring事务的变更列表，首次使用时注册事务同步
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, IndexMutation> transactionMutations() {
+        Map<String, IndexMutation> mutations =
+            (Map<String, IndexMutation>) TransactionSynchronizationManager.getResource(this);
+        if (mutations == null) {
+            Map<String, IndexMutation> created = new LinkedHashMap<>();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(created.values());
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(IndexWriteBehind.this);
+                    if (status != STATUS_COMMITTED && !created.isEmpty()) {
+                        logger.debug("Discarding {} index mutations of a rolled back transaction", created.size());
+                    }
+                }
+            });
+            mutations = created;
+        }
+        return mutations;
+    }
+
+    /**
+     * 将已提交事务的变更放入队列，队列已满时阻塞等待；已关闭时在当前线程上应用
+     */
+    private void submit(Collection<IndexMutation> mutations) {
+        for (IndexMutation mutation : mutations) {
+            if (!enqueue(mutation)) {
+                flush(Collections.singletonList(mutation));
+            }
+        }
+    }
+
+    /**
+     * 在读锁内检查关闭标记并入队，阻塞等待期间后台线程仍在运行，关闭须等入队完成
+     * @return 是否已入队，已关闭或被中断时返回false，由调用方在当前线程上应用
+     */
+    private boolean enqueue(IndexMutation mutation) {
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                return false;
+            }
+            if (!queue.offer(mutation)) {
+                logger.debug("Write-behind queue is full, waiting for the worker");
+                queue.put(mutation);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            // 被中断时不丢弃已提交事务的变更
+            return false;
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    private void run() {
+        List<IndexMutation> batch = new ArrayList<>(batchSize);
+        while (true) {
+            IndexMutation first;
+            try {
+                first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                if (closed) {
+                    break;
+                }
+                continue;
+            }
+            if (first == null) {
+                if (closed) {
+                    break;
+                }
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    /**
+     * 发出一批变更并等待全部完成
+     */
+    private void flush(List<IndexMutation> batch) {
+        try {
+            IndexMutation.applyAll(batch, operations).toCompletableFuture().join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            logger.warn("Failed to apply a batch of {} index mutations: {}", batch.size(), cause.getMessage());
+        }
+    }
+
+    /**
+     * 停止接收新的变更，等待后台线程发出队列中的全部变更后退出；
+     * 超时后不与仍在运行的后台线程并发发出，剩余的变更留给后台线程
+     */
+    void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        if (Thread.currentThread() != shutdownHook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException e) {
+                // 进程正在退出
+            }
+        }
+        try {
+            worker.join(shutdownTimeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            logger.warn("Write-behind worker did not finish in {} ms, leaving {} index mutations to the worker",
+                shutdownTimeoutMillis, queue.size());
+            return;
+        }
+        // 后台线程已退出，队列中仍有变更时（后台线程异常终止）在调用线程上发出
+        List<IndexMutation> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            logger.warn("Write-behind worker stopped early, flushing {} index mutations on the caller",
+                remaining.size());
+            flush(remaining);
+        }
+    }
+
+    /**
+     * 队列中等待发出的变更数
+     */
+    int pending() {
+        return queue.size();
+    }
+}
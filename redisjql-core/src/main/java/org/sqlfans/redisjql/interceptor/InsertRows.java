@@ -0,0 +1,208 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.ItemsList;
+import net.sf.jsqlparser.expression.operators.relational.MultiExpressionList;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.insert.Insert;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 插入语句中的各行
+ * 支持单行和多行 VALUES (...),(...)，多行插入拆分为单行语句交给索引解析；
+ * 主键取自该行主键字段的常量或参数值，主键字段不在插入字段中或为NULL时取生成的主键：
+ * 按MappedStatement的keyProperty从参数对象读取，foreach插入时参数集合的第i个元素对应第i行
+ *
+ * <p>INSERT ... SELECT 等不带值列表的插入按一行处理，主键只能从参数对象读取。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class InsertRows {
+    /**
+     * 没有配置keyProperty时依次尝试的主键属性名
+     */
+    private static final String[] DEFAULT_KEY_PROPERTIES = {"id", "ID", "Id", "primaryKey", "primary_key"};
+
+    private final Insert insert;
+
+    /**
+     * 各行的值列表，不带值列表的插入为一个null元素
+     */
+    private final List<ExpressionList> rows;
+
+    private InsertRows(Insert insert, List<ExpressionList> rows) {
+        this.insert = insert;
+        this.rows = rows;
+    }
+
+    static InsertRows of(Insert insert) {
+        ItemsList itemsList = insert.getItemsList();
+        if (itemsList instanceof MultiExpressionList) {
+            return new InsertRows(insert, ((MultiExpressionList) itemsList).getExpressionLists());
+        }
+        if (itemsList instanceof ExpressionList) {
+            return new InsertRows(insert, Collections.singletonList((ExpressionList) itemsList));
+        }
+        return new InsertRows(insert, Collections.singletonList(null));
+    }
+
+    int size() {
+        return rows.size();
+    }
+
+    /**
+     * 第i行对应的单行插入语句，单行插入时即原语句
+     */
+    Insert row(int i) {
+        if (rows.size() == 1) {
+            return insert;
+        }
+        Insert single = new Insert();
+        single.setTable(insert.getTable());
+        single.setColumns(insert.getColumns());
+        single.setItemsList(rows.get(i));
+        return single;
+    }
+
+    /**
+     * 解析各行的主键，语句执行后调用，此时生成的主键已回填到参数对象
+     * @param primaryKeyField 主键字段
+     * @param ms MappedStatement对象
+     * @param boundSql 绑定SQL对象
+     * @param parameter 参数对象
+     * @return 与各行一一对应的主键，无法确定的行为null
+     */
+    List<String> primaryKeys(String primaryKeyField, MappedStatement ms, BoundSql boundSql, Object parameter) {
+        Configuration configuration = ms.getConfiguration();
+        int column = columnIndex(primaryKeyField);
+        List<?> elements = parameterElements(parameter);
+        String keyProperty = keyProperty(ms);
+
+        List<String> primaryKeys = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String primaryKey = null;
+            ExpressionList row = rows.get(i);
+            if (column >= 0 && row != null && column < row.getExpressions().size()) {
+                primaryKey = valueOf(row.getExpressions().get(column), configuration, boundSql);
+            }
+            if (primaryKey == null && elements != null) {
+                primaryKey = generatedKey(elements.get(i), keyProperty, configuration);
+            }
+            primaryKeys.add(primaryKey);
+        }
+        return primaryKeys;
+    }
+
+    private int columnIndex(String field) {
+        List<Column> columns = insert.getColumns();
+        if (columns == null || field == null) {
+            return -1;
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            if (columns.get(i).getColumnName().equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String valueOf(Expression value, Configuration configuration, BoundSql boundSql) {
+        if (value instanceof NullValue) {
+            return null;
+        }
+        if (value instanceof JdbcParameter) {
+            Object parameter = ParameterValueResolver.resolve(configuration, boundSql,
+                ParameterValueResolver.positionOf((JdbcParameter) value));
+            return parameter != null ? parameter.toString() : null;
+        }
+        return value.toString().replaceAll("'", "");
+    }
+
+    /**
+     * 与各行对应的参数对象：单行插入为参数本身，多行插入为与行数相同的参数集合的元素，否则为null
+     */
+    private List<?> parameterElements(Object parameter) {
+        List<?> elements = asList(parameter);
+        if (elements == null && parameter instanceof Map) {
+            // foreach的集合参数：list、collection、array或@Param指定的名称
+            for (Object value : ((Map<?, ?>) parameter).values()) {
+                elements = asList(value);
+                if (elements != null) {
+                    break;
+                }
+            }
+        }
+        if (elements != null && elements.size() == rows.size()) {
+            return elements;
+        }
+        return rows.size() == 1 ? Collections.singletonList(parameter) : null;
+    }
+
+    private static List<?> asList(Object value) {
+        if (value instanceof List) {
+            return (List<?>) value;
+        }
+        if (value instanceof Collection) {
+            return new ArrayList<>((Collection<?>) value);
+        }
+        if (value instanceof Object[]) {
+            return Arrays.asList((Object[]) value);
+        }
+        return null;
+    }
+
+    /**
+     * 生成主键回填的属性
+     */
+    private static String keyProperty(MappedStatement ms) {
+        String[] keyProperties = ms.getKeyProperties();
+        return keyProperties != null && keyProperties.length > 0 ? keyProperties[0] : null;
+    }
+
+    private static String generatedKey(Object element, String keyProperty, Configuration configuration) {
+        if (element == null) {
+            return null;
+        }
+        MetaObject metaObject = configuration.newMetaObject(element);
+        if (keyProperty != null) {
+            // list.id 等带集合名的写法在集合元素上取最后一段
+            String value = readProperty(metaObject, keyProperty);
+            return value != null ? value
+                : readProperty(metaObject, keyProperty.substring(keyProperty.lastIndexOf('.') + 1));
+        }
+        for (String property : DEFAULT_KEY_PROPERTIES) {
+            String value = readProperty(metaObject, property);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static String readProperty(MetaObject metaObject, String property) {
+        try {
+            if (!metaObject.hasGetter(property)) {
+                return null;
+            }
+            Object value = metaObject.getValue(property);
+            return value != null ? value.toString() : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.statement.select.Limit;
+import net.sf.jsqlparser.statement.select.Offset;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
+import org.sqlfans.redisjql.query.ScoreOrder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分页窗口
+ * 查询只使用一个索引且按该索引的排序字段排序时，LIMIT/OFFSET可以直接换算为ZRANGE/ZREVRANGE的位置区间，
+ * 只取当前页的主键；改写后的SQL去掉OFFSET，由数据库在这些主键内排序并截取LIMIT行
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class PageWindow {
+    private final boolean descending;
+    private final Long rowCount;
+    private final int rowCountPosition;
+    private final Long offset;
+    private final int offsetPosition;
+
+    private PageWindow(boolean descending, Long rowCount, int rowCountPosition, Long offset, int offsetPosition) {
+        this.descending = descending;
+        this.rowCount = rowCount;
+        this.rowCountPosition = rowCountPosition;
+        this.offset = offset;
+        this.offsetPosition = offsetPosition;
+    }
+
+    /**
+     * 判断查询能否下推分页，可以时返回分页窗口
+     * @param plainSelect 查询语句
+     * @param scoreOrder WHERE中唯一的索引条件按ORDER BY得到的分数顺序，不能使用索引顺序时为null
+     * @return 分页窗口，不能下推时返回null
+     */
+    static PageWindow detect(PlainSelect plainSelect, ScoreOrder scoreOrder) {
+        Limit limit = plainSelect.getLimit();
+        if (limit == null || limit.isLimitAll() || limit.isLimitNull() || scoreOrder == null
+            || plainSelect.getDistinct() != null || plainSelect.getGroupBy() != null
+            || plainSelect.getHaving() != null || plainSelect.getFetch() != null) {
+            return null;
+        }
+
+        Expression offsetExpression = limit.getOffset();
+        if (plainSelect.getOffset() != null) {
+            if (offsetExpression != null) {
+                return null;
+            }
+            Offset sqlOffset = plainSelect.getOffset();
+            offsetExpression = sqlOffset.getOffsetJdbcParameter() != null
+                ? sqlOffset.getOffsetJdbcParameter() : new LongValue(sqlOffset.getOffset());
+        }
+
+        Expression rowCountExpression = limit.getRowCount();
+        if (!isBindable(rowCountExpression) || (offsetExpression != null && !isBindable(offsetExpression))) {
+            return null;
+        }
+
+        return new PageWindow(scoreOrder.isDescending(),
+                literal(rowCountExpression), position(rowCountExpression),
+                offsetExpression == null ? Long.valueOf(0) : literal(offsetExpression), position(offsetExpression));
+    }
+
+    /**
+     * 按当前参数计算索引查询的位置区间
+     * @param indexKey 索引键
+     * @param configuration MyBatis配置
+     * @param boundSql 绑定SQL对象
+     * @return 位置区间，参数无法解析时返回null
+     */
+    IndexRange toRange(String indexKey, Configuration configuration, BoundSql boundSql) {
+        Long count = rowCount != null ? rowCount : toLong(
+                ParameterValueResolver.resolve(configuration, boundSql, rowCountPosition));
+        Long skip = offset != null ? offset : toLong(
+                ParameterValueResolver.resolve(configuration, boundSql, offsetPosition));
+        if (count == null || skip == null || count <= 0 || skip < 0) {
+            return null;
+        }
+
+        long end = skip + count - 1;
+        return descending ? IndexRange.reverse(indexKey, skip, end) : IndexRange.of(indexKey, skip, end);
+    }
+
+    /**
+     * 去掉改写后SQL中的OFFSET，当前页已由索引截取
+     * @param plainSelect 改写中的查询语句（调用方持有的副本）
+     */
+    void removeOffset(PlainSelect plainSelect) {
+        Limit limit = new Limit();
+        limit.setRowCount(plainSelect.getLimit().getRowCount());
+        plainSelect.setLimit(limit);
+        plainSelect.setOffset(null);
+    }
+
+    /**
+     * 去掉OFFSET占位符对应的参数映射
+     * @param parameterMappings 原参数映射
+     * @return 改写后SQL使用的参数映射
+     */
+    List<ParameterMapping> removeOffset(List<ParameterMapping> parameterMappings) {
+        if (offsetPosition < 0) {
+            return parameterMappings;
+        }
+        List<ParameterMapping> mappings = new ArrayList<>(parameterMappings);
+        mappings.remove(offsetPosition);
+        return mappings;
+    }
+
+    private static boolean isBindable(Expression expression) {
+        return expression instanceof LongValue
+            || (expression instanceof JdbcParameter && position(expression) >= 0);
+    }
+
+    private static Long literal(Expression expression) {
+        return expression instanceof LongValue ? ((LongValue) expression).getValue() : null;
+    }
+
+    private static int position(Expression expression) {
+        return expression instanceof JdbcParameter
+            ? ParameterValueResolver.positionOf((JdbcParameter) expression) : -1;
+    }
+
+    private static Long toLong(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        if (value != null) {
+            try {
+                return Long.parseLong(value.toString().trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,183 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.session.Configuration;
+import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
+
+import java.util.Map;
+
+/**
+ * 主键或唯一索引的单值查询
+ * WHERE只有主键或单字段唯一索引上的一个等值条件时，查询结果至多一行，可以按 (表名, 索引, 值) 从行缓存读取，
+ * 条件值为 ? 占位符时记录其在ParameterMapping中的位置，执行时按位置取参数值
+ *
+ * <p>联合唯一索引上的查询仍直接访问数据库。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class PointLookup {
+    /**
+     * 主键查询使用的索引名
+     */
+    static final String PRIMARY = "PRIMARY";
+
+    private final String tableName;
+    private final String primaryKey;
+    private final String versionField;
+    private final String indexName;
+    private final String field;
+    private final boolean completeIndex;
+    private final String literalValue;
+    private final int parameterPosition;
+    private final CoveringRead columns;
+
+    private PointLookup(String tableName, IndexConfig indexConfig, String indexName, String field,
+                        boolean completeIndex, String literalValue, int parameterPosition, CoveringRead columns) {
+        this.tableName = tableName;
+        this.primaryKey = indexConfig.getPrimaryKey();
+        this.versionField = indexConfig.getVersionField();
+        this.indexName = indexName;
+        this.field = field;
+        this.completeIndex = completeIndex;
+        this.literalValue = literalValue;
+        this.parameterPosition = parameterPosition;
+        this.columns = columns;
+    }
+
+    /**
+     * 判断查询能否由行缓存回答
+     * @param plainSelect 查询语句
+     * @param tableName 表名
+     * @param indexConfig 表的索引配置
+     * @param trustCompleteIndexes 是否信任完整索引，信任时完整唯一索引中没有的值判定为查询结果为空
+     * @return 单值查询，不能由行缓存回答时返回null
+     */
+    static PointLookup detect(PlainSelect plainSelect, String tableName, IndexConfig indexConfig,
+                              boolean trustCompleteIndexes) {
+        if (!(plainSelect.getWhere() instanceof EqualsTo) || plainSelect.getDistinct() != null
+            || plainSelect.getGroupBy() != null || plainSelect.getHaving() != null || plainSelect.getJoins() != null
+            || plainSelect.getLimit() != null || plainSelect.getOffset() != null || plainSelect.getFetch() != null) {
+            return null;
+        }
+
+        EqualsTo equalsTo = (EqualsTo) plainSelect.getWhere();
+        if (!(equalsTo.getLeftExpression() instanceof Column)) {
+            return null;
+        }
+        String field = ((Column) equalsTo.getLeftExpression()).getColumnName();
+
+        String indexName = null;
+        boolean completeIndex = false;
+        if (field.equals(indexConfig.getPrimaryKey())) {
+            indexName = PRIMARY;
+        } else {
+            for (IndexConfig.IndexDefinition index : indexConfig.getIndexes()) {
+                if (index.isUnique() && index.getFields().size() == 1 && index.getFields().get(0).equals(field)) {
+                    indexName = index.getName() != null ? index.getName() : field;
+                    completeIndex = trustCompleteIndexes && index.isComplete();
+                    break;
+                }
+            }
+        }
+        if (indexName == null) {
+            return null;
+        }
+
+        CoveringRead columns = CoveringRead.ofSelectItems(plainSelect.getSelectItems());
+        if (columns == null) {
+            return null;
+        }
+
+        Expression value = equalsTo.getRightExpression();
+        if (value instanceof JdbcParameter) {
+            return new PointLookup(tableName, indexConfig, indexName, field, completeIndex, null,
+                ParameterValueResolver.positionOf((JdbcParameter) value), columns);
+        } else if (value instanceof StringValue) {
+            return new PointLookup(tableName, indexConfig, indexName, field, completeIndex,
+                ((StringValue) value).getValue(), -1, columns);
+        } else if (value instanceof LongValue) {
+            return new PointLookup(tableName, indexConfig, indexName, field, completeIndex,
+                ((LongValue) value).getStringValue(), -1, columns);
+        }
+        return null;
+    }
+
+    /**
+     * 按当前参数值取得条件值
+     * @param configuration MyBatis配置
+     * @param boundSql 绑定SQL对象
+     * @return 条件值，参数为null时返回null
+     */
+    String resolveValue(Configuration configuration, BoundSql boundSql) {
+        if (parameterPosition < 0) {
+            return literalValue;
+        }
+        Object value = ParameterValueResolver.resolve(configuration, boundSql, parameterPosition);
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * 判断行哈希是否可用：必须包含主键字段，配置了版本号字段时还必须包含版本号，
+     * 更新和删除后行哈希中的版本号（未配置版本号时为主键字段）被删除，同步服务重新写入整行前不再使用
+     */
+    boolean isCached(Map<String, String> row) {
+        return row != null && row.get(primaryKey) != null
+            && (versionField == null || versionField.isEmpty() || row.get(versionField) != null);
+    }
+
+    /**
+     * 判断行哈希是否就是条件值对应的行
+     */
+    boolean matches(Map<String, String> row, String value) {
+        return value.equals(row.get(field));
+    }
+
+    /**
+     * 取得行哈希中的主键值
+     */
+    String primaryKeyOf(Map<String, String> row) {
+        return row.get(primaryKey);
+    }
+
+    /**
+     * 行缓存的键：表名:索引名:值
+     */
+    String key(String value) {
+        return tableName + ":" + indexName + ":" + value;
+    }
+
+    /**
+     * 唯一索引在Redis中的索引键：表名:字段名:值
+     */
+    String indexKey(String value) {
+        return tableName + ":" + field + ":" + value;
+    }
+
+    boolean isPrimaryKey() {
+        return PRIMARY.equals(indexName);
+    }
+
+    /**
+     * 唯一索引是否包含表中的全部行，是时索引中没有该值即可判定查询结果为空
+     */
+    boolean isCompleteIndex() {
+        return completeIndex;
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    CoveringRead getColumns() {
+        return columns;
+    }
+}
@@ -0,0 +1,360 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.type.ArrayTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sqlfans.redisjql.config.IndexConfig;
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 改写SQL中主键IN条件的占位符参数
+ * 主键以 ? 占位符绑定并按主键列的JDBC类型转换，避免数值主键与字符串比较产生隐式转换；
+ * 占位符数量向上取整到固定档位（8、16、32、64…），不足部分重复最后一个主键，
+ * 使同一查询只产生少数几种SQL文本，数据库可以复用预编译的执行计划
+ *
+ * <p>主键列的类型依次取自索引配置、ResultMap中主键列的映射和数据库的列元数据，都没有时按字符串绑定。</p>
+ *
+ * <p>方言使用数组绑定时，全部主键作为一个数组参数绑定，只有一个占位符。
+ * 排序表达式（方言的排序表达式或通用的 CASE WHEN）也引用主键时，其中的占位符绑定同样的主键值。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class PrimaryKeyParameters {
+    private static final Logger logger = LoggerFactory.getLogger(PrimaryKeyParameters.class);
+
+    /**
+     * 主键参数在BoundSql附加参数中的属性名前缀
+     */
+    static final String PROPERTY_PREFIX = "__redisjql_pk_";
+
+    private static final int MIN_BUCKET_SIZE = 8;
+
+    private final Class<?> javaType;
+    private final JdbcType jdbcType;
+    private final boolean arrayBinding;
+    private final List<Object> values;
+    private int conditionTrailingParameters;
+    private int orderTrailingParameters = -1;
+
+    private PrimaryKeyParameters(Class<?> javaType, JdbcType jdbcType, boolean arrayBinding, List<Object> values) {
+        this.javaType = javaType;
+        this.jdbcType = jdbcType;
+        this.arrayBinding = arrayBinding;
+        this.values = values;
+    }
+
+    /**
+     * 按主键列类型转换主键并补齐到档位大小
+     * @param primaryKeys 主键列表
+     * @param indexConfig 表的索引配置
+     * @param columnType 数据库列元数据中主键列的类型，索引配置和ResultMap都没有给出类型时使用
+     * @param ms MappedStatement对象，未配置主键类型时从其ResultMap推断
+     * @param arrayBinding 是否以单个数组参数绑定全部主键
+     * @return 主键参数
+     * @throws NumberFormatException 主键无法转换为数值类型时抛出
+     */
+    static PrimaryKeyParameters of(List<String> primaryKeys, IndexConfig indexConfig, JdbcType columnType,
+                                   MappedStatement ms, boolean arrayBinding) {
+        JdbcType jdbcType = indexConfig.getPrimaryKeyType();
+        Class<?> javaType = null;
+        if (jdbcType == null || jdbcType == JdbcType.UNDEFINED) {
+            ResultMapping mapping = findResultMapping(ms, indexConfig.getPrimaryKey());
+            jdbcType = mapping != null ? mapping.getJdbcType() : null;
+            javaType = mapping != null ? toJavaType(mapping.getJavaType()) : null;
+            if (javaType == null && (jdbcType == null || jdbcType == JdbcType.UNDEFINED)) {
+                // resultType映射的语句没有主键列的ResultMapping
+                jdbcType = columnType;
+            }
+        }
+        if (javaType == null) {
+            javaType = toJavaType(jdbcType);
+        }
+
+        if (arrayBinding) {
+            Object array = Array.newInstance(javaType, primaryKeys.size());
+            for (int i = 0; i < primaryKeys.size(); i++) {
+                Array.set(array, i, convert(primaryKeys.get(i), javaType));
+            }
+            return new PrimaryKeyParameters(array.getClass(), JdbcType.ARRAY, true, Collections.singletonList(array));
+        }
+
+        int size = bucketSize(primaryKeys.size());
+        List<Object> values = new ArrayList<>(size);
+        for (String primaryKey : primaryKeys) {
+            values.add(convert(primaryKey, javaType));
+        }
+        Object last = values.get(values.size() - 1);
+        while (values.size() < size) {
+            values.add(last);
+        }
+        return new PrimaryKeyParameters(javaType, jdbcType, false, values);
+    }
+
+    /**
+     * 占位符数量档位：不小于主键数量的最小2的幂，至少为8
+     */
+    static int bucketSize(int count) {
+        int size = MIN_BUCKET_SIZE;
+        while (size < count) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * @return 主键的占位符表达式，数组绑定时只有一个
+     */
+    List<Expression> toExpressions() {
+        List<Expression> expressions = new ArrayList<>(values.size());
+        for (int i = 0; i < values.size(); i++) {
+            expressions.add(new JdbcParameter());
+        }
+        return expressions;
+    }
+
+    /**
+     * 设置改写后SQL中位于主键条件之后的占位符数量
+     */
+    void setTrailingParameters(int trailingParameters) {
+        this.conditionTrailingParameters = trailingParameters;
+    }
+
+    /**
+     * 记录排序表达式引用了主键占位符
+     * @param trailingParameters 位于该排序表达式之后的占位符数量（原ORDER BY、LIMIT等）
+     */
+    void setOrderTrailingParameters(int trailingParameters) {
+        this.orderTrailingParameters = trailingParameters;
+    }
+
+    /**
+     * 统计WHERE之后（GROUP BY、HAVING、ORDER BY、LIMIT、OFFSET、FETCH）的占位符数量，
+     * 追加到WHERE末尾的IN条件的参数映射需要插入到这些占位符之前
+     * @param plainSelect 改写后的查询语句
+     * @return 占位符数量
+     */
+    static int countTrailingParameters(PlainSelect plainSelect) {
+        int[] count = {0};
+        ExpressionVisitorAdapter counter = newCounter(count);
+        if (plainSelect.getGroupBy() != null && plainSelect.getGroupBy().getGroupByExpressions() != null) {
+            for (Expression expression : plainSelect.getGroupBy().getGroupByExpressions()) {
+                expression.accept(counter);
+            }
+        }
+        if (plainSelect.getHaving() != null) {
+            plainSelect.getHaving().accept(counter);
+        }
+        return count[0] + countOrderParameters(plainSelect);
+    }
+
+    /**
+     * 统计ORDER BY及之后（LIMIT、OFFSET、FETCH）的占位符数量
+     * @param plainSelect 改写后的查询语句
+     * @return 占位符数量
+     */
+    static int countOrderParameters(PlainSelect plainSelect) {
+        int[] count = {0};
+        ExpressionVisitorAdapter counter = newCounter(count);
+        if (plainSelect.getOrderByElements() != null) {
+            for (OrderByElement element : plainSelect.getOrderByElements()) {
+                element.getExpression().accept(counter);
+            }
+        }
+        if (plainSelect.getLimit() != null) {
+            if (plainSelect.getLimit().getOffset() != null) {
+                plainSelect.getLimit().getOffset().accept(counter);
+            }
+            if (plainSelect.getLimit().getRowCount() != null) {
+                plainSelect.getLimit().getRowCount().accept(counter);
+            }
+        }
+        if (plainSelect.getOffset() != null && plainSelect.getOffset().getOffsetJdbcParameter() != null) {
+            plainSelect.getOffset().getOffsetJdbcParameter().accept(counter);
+        }
+        if (plainSelect.getFetch() != null && plainSelect.getFetch().getFetchJdbcParameter() != null) {
+            count[0]++;
+        }
+        return count[0];
+    }
+
+    private static ExpressionVisitorAdapter newCounter(int[] count) {
+        return new ExpressionVisitorAdapter() {
+            @Override
+            public void visit(JdbcParameter parameter) {
+                count[0]++;
+            }
+        };
+    }
+
+    /**
+     * 将主键参数映射插入到原参数映射中主键条件和排序表达式对应的位置
+     * @param parameterMappings 原参数映射
+     * @param configuration MyBatis配置
+     * @return 改写后SQL使用的参数映射
+     */
+    List<ParameterMapping> insertInto(List<ParameterMapping> parameterMappings, Configuration configuration) {
+        List<ParameterMapping> mappings = new ArrayList<>(parameterMappings.size() + values.size() * 2);
+        int size = parameterMappings.size();
+        int conditionPosition = Math.max(0, size - conditionTrailingParameters);
+        mappings.addAll(parameterMappings.subList(0, conditionPosition));
+        addMappings(mappings, configuration);
+        if (orderTrailingParameters < 0) {
+            mappings.addAll(parameterMappings.subList(conditionPosition, size));
+            return mappings;
+        }
+
+        int orderPosition = Math.max(conditionPosition, size - orderTrailingParameters);
+        mappings.addAll(parameterMappings.subList(conditionPosition, orderPosition));
+        addMappings(mappings, configuration);
+        mappings.addAll(parameterMappings.subList(orderPosition, size));
+        return mappings;
+    }
+
+    private void addMappings(List<ParameterMapping> mappings, Configuration configuration) {
+        for (int i = 0; i < values.size(); i++) {
+            ParameterMapping.Builder builder = new ParameterMapping.Builder(configuration, PROPERTY_PREFIX + i, javaType);
+            if (arrayBinding) {
+                builder.typeHandler(new ArrayTypeHandler());
+            }
+            if (jdbcType != null && jdbcType != JdbcType.UNDEFINED) {
+                builder.jdbcType(jdbcType);
+            }
+            mappings.add(builder.build());
+        }
+    }
+
+    /**
+     * 将主键值设置为BoundSql的附加参数
+     * @param boundSql 改写后的绑定SQL对象
+     */
+    void bind(BoundSql boundSql) {
+        for (int i = 0; i < values.size(); i++) {
+            boundSql.setAdditionalParameter(PROPERTY_PREFIX + i, values.get(i));
+        }
+    }
+
+    /**
+     * 从数据库的列元数据读取列的JDBC类型
+     * @param configuration MyBatis配置，使用其数据源
+     * @param tableName 表名
+     * @param columnName 列名
+     * @return JDBC类型，无法读取时返回UNDEFINED
+     */
+    static JdbcType detectColumnType(Configuration configuration, String tableName, String columnName) {
+        Environment environment = configuration != null ? configuration.getEnvironment() : null;
+        if (environment == null || environment.getDataSource() == null || tableName == null || columnName == null) {
+            return JdbcType.UNDEFINED;
+        }
+
+        try (Connection connection = environment.getDataSource().getConnection()) {
+            DatabaseMetaData metaData = connection.getMetaData();
+            // 未加引号的标识符按数据库的存储大小写查找
+            if (metaData.storesUpperCaseIdentifiers()) {
+                tableName = tableName.toUpperCase(Locale.ROOT);
+                columnName = columnName.toUpperCase(Locale.ROOT);
+            } else if (metaData.storesLowerCaseIdentifiers()) {
+                tableName = tableName.toLowerCase(Locale.ROOT);
+                columnName = columnName.toLowerCase(Locale.ROOT);
+            }
+            try (ResultSet columns = metaData.getColumns(connection.getCatalog(), null, tableName, columnName)) {
+                if (columns.next()) {
+                    JdbcType jdbcType = JdbcType.forCode(columns.getInt("DATA_TYPE"));
+                    return jdbcType != null ? jdbcType : JdbcType.UNDEFINED;
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to read the type of column {}.{}, binding primary keys as strings",
+                tableName, columnName, e);
+        }
+        return JdbcType.UNDEFINED;
+    }
+
+    /**
+     * 在ResultMap中查找主键列的映射，优先使用id映射
+     */
+    private static ResultMapping findResultMapping(MappedStatement ms, String primaryKey) {
+        if (ms == null || ms.getResultMaps() == null || primaryKey == null) {
+            return null;
+        }
+        ResultMapping candidate = null;
+        for (ResultMap resultMap : ms.getResultMaps()) {
+            for (ResultMapping mapping : resultMap.getResultMappings()) {
+                if (primaryKey.equalsIgnoreCase(mapping.getColumn())) {
+                    if (mapping.getFlags().contains(ResultFlag.ID)) {
+                        return mapping;
+                    }
+                    candidate = candidate != null ? candidate : mapping;
+                }
+            }
+        }
+        return candidate;
+    }
+
+    private static Class<?> toJavaType(JdbcType jdbcType) {
+        if (jdbcType == null) {
+            return String.class;
+        }
+        switch (jdbcType) {
+            case BIGINT:
+                return Long.class;
+            case INTEGER:
+            case SMALLINT:
+            case TINYINT:
+                return Integer.class;
+            case NUMERIC:
+            case DECIMAL:
+                return BigDecimal.class;
+            default:
+                return String.class;
+        }
+    }
+
+    /**
+     * ResultMap中的属性类型，只支持可以从字符串转换的主键类型
+     */
+    private static Class<?> toJavaType(Class<?> type) {
+        if (type == Long.class || type == long.class) {
+            return Long.class;
+        } else if (type == Integer.class || type == int.class) {
+            return Integer.class;
+        } else if (type == BigDecimal.class || type == String.class) {
+            return type;
+        }
+        return null;
+    }
+
+    private static Object convert(String primaryKey, Class<?> javaType) {
+        if (javaType == Long.class) {
+            return Long.valueOf(primaryKey.trim());
+        } else if (javaType == Integer.class) {
+            return Integer.valueOf(primaryKey.trim());
+        } else if (javaType == BigDecimal.class) {
+            return new BigDecimal(primaryKey.trim());
+        }
+        return primaryKey;
+    }
+}
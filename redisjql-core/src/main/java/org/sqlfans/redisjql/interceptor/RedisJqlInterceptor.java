@@ -1,21 +1,50 @@
 package org.sqlfans.redisjql.interceptor;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.executor.BatchExecutor;
 import org.apache.ibatis.executor.Executor;
 import org.apache.ibatis.mapping.BoundSql;
 import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.SqlSource;
 import org.apache.ibatis.plugin.*;
+import org.apache.ibatis.scripting.defaults.RawSqlSource;
 import org.apache.ibatis.session.ResultHandler;
 import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSessionFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.ExecutorAsyncCacheOperationService;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.cache.ScoreRange;
+import org.sqlfans.redisjql.cache.tiered.InvalidationChannel;
 import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.dialect.RewriteDialect;
+import org.sqlfans.redisjql.dialect.RewriteDialects;
+import org.sqlfans.redisjql.parser.IndexEntries;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
 import org.sqlfans.redisjql.parser.StatementParser;
+import org.sqlfans.redisjql.query.IndexCondition;
+import org.sqlfans.redisjql.query.IndexLookupResult;
+import org.sqlfans.redisjql.query.IndexQueryPlanner;
+import org.sqlfans.redisjql.query.ScoreOrder;
+import org.sqlfans.redisjql.query.ScoreRangePredicate;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * MyBatis 拦截器
@@ -33,6 +62,19 @@ import java.util.Set;
  * &lt;plugin interceptor="org.sqlfans.redisjql.interceptor.RedisJqlInterceptor"&gt;
  *   &lt;property name="tableWhitelist" value="user,order,product"/&gt;
  *   &lt;property name="mapperWhitelist" value="com.example.mapper.UserMapper,com.example.mapper.OrderMapper"/&gt;
+ *   &lt;property name="applicationOrdering" value="false"/&gt;
+ *   &lt;property name="coveringReads" value="false"/&gt;
+ *   &lt;property name="trustCompleteIndexes" value="false"/&gt;
+ *   &lt;property name="rowCache" value="false"/&gt;
+ *   &lt;property name="rowCacheSize" value="10000"/&gt;
+ *   &lt;property name="rowCacheExpireSeconds" value="30"/&gt;
+ *   &lt;property name="dialect" value="mysql"/&gt;
+ *   &lt;property name="chunkSize" value="1000"/&gt;
+ *   &lt;property name="chunkParallelism" value="4"/&gt;
+ *   &lt;property name="writeBehind" value="false"/&gt;
+ *   &lt;property name="writeBehindCapacity" value="10000"/&gt;
+ *   &lt;property name="writeBehindBatchSize" value="100"/&gt;
+ *   &lt;property name="bulkWriteLimit" value="10000"/&gt;
  * &lt;/plugin&gt;
  * </pre>
  * 
@@ -50,6 +92,7 @@ import java.util.Set;
  *     mapperWhitelist.add("com.example.mapper.UserMapper");
  *     
  *     return new RedisJqlInterceptor(statementParser, cacheOperationService)
+ *         .setIndexConfigs(indexConfigLoader.loadIndexConfigs())
  *         .setTableWhitelist(tableWhitelist)
  *         .setMapperWhitelist(mapperWhitelist);
  * }
@@ -61,19 +104,132 @@ import java.util.Set;
  */
 @Intercepts({
     @Signature(type = Executor.class, method = "update", args = {MappedStatement.class, Object.class}),
-    @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class})
+    @Signature(type = Executor.class, method = "query", args = {MappedStatement.class, Object.class, RowBounds.class, ResultHandler.class}),
+    @Signature(type = Executor.class, method = "flushStatements", args = {}),
+    @Signature(type = Executor.class, method = "commit", args = {boolean.class}),
+    @Signature(type = Executor.class, method = "rollback", args = {boolean.class}),
+    @Signature(type = Executor.class, method = "close", args = {boolean.class})
 })
 public class RedisJqlInterceptor implements Interceptor {
     private static final Logger logger = LoggerFactory.getLogger(RedisJqlInterceptor.class);
+    
+    /**
+     * 查找更新和删除受影响主键的查询语句ID后缀
+     */
+    private static final String KEY_QUERY_SUFFIX = "!affectedKeys";
+    
+    /**
+     * 读取更新后的行的查询语句ID后缀
+     */
+    private static final String ROW_QUERY_SUFFIX = "!updatedRows";
+    
+    /**
+     * 失效消息中节点ID与键的分隔符，与TieredCacheOperationService一致
+     */
+    private static final char INVALIDATION_SEPARATOR = '|';
+    
     private StatementParser statementParser;
     private CacheOperationService redisOperationService;
+    
+    /**
+     * 写路径的索引更新使用的异步缓存操作服务，默认在调用线程上执行同步服务
+     */
+    private AsyncCacheOperationService asyncOperationService;
+    private IndexQueryPlanner indexQueryPlanner;
     private Set<String> tableWhitelist = Collections.emptySet();
     private Set<String> mapperWhitelist = Collections.emptySet();
     private boolean whitelistEnabled = false;
+    private boolean applicationOrdering = false;
+    private boolean coveringReads = false;
+    
+    /**
+     * 是否信任标记为完整的索引：只有表的全部写入都经过拦截器且索引命令不会丢失时才能开启
+     */
+    private boolean trustCompleteIndexes = false;
+    
+    /**
+     * SQL改写方言，未设置时在首次改写查询时按数据源识别
+     */
+    private volatile RewriteDialect dialect;
+    
+    /**
+     * 分块并行查询配置，设置SqlSessionFactory后主键数量超过分块大小的查询分块执行
+     */
+    private SqlSessionFactory sqlSessionFactory;
+    private int chunkSize = 1000;
+    private int chunkParallelism = 4;
+    private volatile ChunkedQueryExecutor chunkedQueryExecutor;
+    
+    /**
+     * 主键和唯一索引单值查询的行缓存，开启后才创建
+     */
+    private boolean rowCacheEnabled = false;
+    private long rowCacheSize = 10000;
+    private long rowCacheExpireSeconds = 30;
+    private volatile RowCache rowCache;
+    
+    /**
+     * 行缓存的失效通道，消息格式为 节点ID|表名:主键 或 节点ID|表名:*，本节点发布的消息不再处理
+     */
+    private volatile InvalidationChannel invalidationChannel;
+    private final String nodeId = java.util.UUID.randomUUID().toString();
+    
+    /**
+     * 索引变更的事务感知后写队列，开启后才创建
+     */
+    private boolean writeBehindEnabled = false;
+    private int writeBehindCapacity = 10000;
+    private int writeBehindBatchSize = 100;
+    private long writeBehindShutdownTimeoutMillis = 30000;
+    private volatile IndexWriteBehind writeBehind;
+    
+    /**
+     * 不带主键条件的更新和删除维护索引时，按索引查得的受影响主键数上限，超过时不维护，由同步服务修正
+     */
+    private int bulkWriteLimit = 10000;
+    
+    /**
+     * 批量执行器中尚未刷新的插入，按Executor记录；刷新后生成的主键已回填，再计算各行的索引变更。
+     * 以弱引用持有Executor，未关闭就被回收的执行器不会一直占用内存
+     */
+    private final Map<Object, List<Supplier<List<IndexMutation>>>> batchInserts =
+        Caffeine.newBuilder().weakKeys().<Object, List<Supplier<List<IndexMutation>>>>build().asMap();
+    private Map<String, IndexConfig> indexConfigs = Collections.emptyMap();
+    
+    /**
+     * 数据库列元数据中主键列的JDBC类型，按表名缓存
+     */
+    private final Map<String, org.apache.ibatis.type.JdbcType> primaryKeyColumnTypes = new ConcurrentHashMap<>();
+    
+    /**
+     * 静态SQL的执行计划，按MappedStatement ID缓存
+     */
+    private final Map<String, StatementPlan> planCache = new ConcurrentHashMap<>();
+    
+    /**
+     * 动态SQL的执行计划，按MappedStatement ID和SQL文本缓存
+     */
+    private final Cache<String, StatementPlan> dynamicPlanCache = Caffeine.newBuilder()
+            .maximumSize(10000)
+            .build();
     
     public RedisJqlInterceptor(StatementParser statementParser, CacheOperationService redisOperationService) {
         this.statementParser = statementParser;
         this.redisOperationService = redisOperationService;
+        this.asyncOperationService = new ExecutorAsyncCacheOperationService(redisOperationService);
+        this.indexQueryPlanner = new IndexQueryPlanner(redisOperationService);
+    }
+    
+    /**
+     * 设置写路径的索引更新使用的异步缓存操作服务，插入、更新和删除执行后发出索引命令即返回，
+     * 不等待Redis应答，命令失败只记录日志
+     * @param asyncOperationService 异步缓存操作服务，例如LettuceAsyncCacheOperationService
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setAsyncCacheOperationService(AsyncCacheOperationService asyncOperationService) {
+        this.asyncOperationService = asyncOperationService;
+        rebuildWriteBehind();
+        return this;
     }
     
     /**
@@ -85,6 +241,7 @@ public class RedisJqlInterceptor implements Interceptor {
         if (tables != null && !tables.isEmpty()) {
             this.tableWhitelist = new HashSet<>(tables);
             this.whitelistEnabled = true;
+            clearPlans();
         }
         return this;
     }
@@ -98,14 +255,306 @@ public class RedisJqlInterceptor implements Interceptor {
         if (mappers != null && !mappers.isEmpty()) {
             this.mapperWhitelist = new HashSet<>(mappers);
             this.whitelistEnabled = true;
+            clearPlans();
+        }
+        return this;
+    }
+    
+    /**
+     * 设置索引配置，只有配置了索引的表才会被拦截处理
+     * @param configs 索引配置列表
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setIndexConfigs(List<IndexConfig> configs) {
+        Map<String, IndexConfig> configMap = new HashMap<>();
+        if (configs != null) {
+            for (IndexConfig config : configs) {
+                configMap.put(config.getTableName(), config);
+            }
+        }
+        this.indexConfigs = configMap;
+        statementParser.setIndexConfigs(configs);
+        clearPlans();
+        return this;
+    }
+    
+    /**
+     * 设置是否在应用端按主键顺序重排查询结果，开启时改写后的SQL不再使用 ORDER BY CASE WHEN，
+     * 无法读取结果行主键的查询仍由数据库排序；关闭时按主键顺序的排序由数据库的 ORDER BY CASE WHEN 完成
+     * @param applicationOrdering 是否在应用端排序，默认关闭
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setApplicationOrdering(boolean applicationOrdering) {
+        this.applicationOrdering = applicationOrdering;
+        return this;
+    }
+    
+    /**
+     * 设置是否开启覆盖读取：WHERE全部由完整索引回答且只选择普通列的查询，结果直接由Redis行哈希构造，
+     * 行哈希中未缓存的行通过一次主键IN查询从数据库补齐
+     * @param coveringReads 是否开启覆盖读取，默认关闭
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setCoveringReads(boolean coveringReads) {
+        this.coveringReads = coveringReads;
+        return this;
+    }
+    
+    /**
+     * 设置是否信任标记为完整（complete）的索引。开启后完整索引回答的条件从改写后的SQL中去掉、
+     * 完整唯一索引中没有的值直接判定为查询结果为空、条件全部由完整索引回答时可以使用覆盖读取，
+     * 不带主键条件的更新和删除也直接以索引查得的主键作为受影响的行。
+     * 索引由异步命令维护，绕过拦截器的写入或失败的索引命令都会使索引暂时落后于数据库，
+     * 因此只有能保证索引随写入维护时才应开启；关闭时这些条件仍由数据库判断。
+     * 后写队列在事务提交后才写入索引，事务内的查询读到的索引落后于本事务的写入，因此不能与后写队列同时开启；
+     * 会淘汰或过期键的缓存实现（如CaffeineCacheOperationService）不能保证索引完整，不支持完整索引
+     * @param trustCompleteIndexes 是否信任完整索引，默认关闭
+     * @return 当前拦截器实例
+     * @throws IllegalArgumentException 已开启后写队列时开启
+     */
+    public RedisJqlInterceptor setTrustCompleteIndexes(boolean trustCompleteIndexes) {
+        if (trustCompleteIndexes && writeBehindEnabled) {
+            throw new IllegalArgumentException("trustCompleteIndexes cannot be combined with writeBehind");
+        }
+        this.trustCompleteIndexes = trustCompleteIndexes;
+        clearPlans();
+        return this;
+    }
+    
+    /**
+     * 设置SQL改写方言，不设置时按MyBatis数据源的DatabaseMetaData自动识别
+     * @param dialect 改写方言
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setDialect(RewriteDialect dialect) {
+        this.dialect = dialect;
+        return this;
+    }
+    
+    /**
+     * 设置用于分块并行查询的SqlSessionFactory，每个分块使用其打开的独立SqlSession执行
+     * @param sqlSessionFactory 当前数据源的SqlSessionFactory，为null时关闭分块执行
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setSqlSessionFactory(SqlSessionFactory sqlSessionFactory) {
+        this.sqlSessionFactory = sqlSessionFactory;
+        rebuildChunkedQueryExecutor();
+        return this;
+    }
+    
+    /**
+     * 设置分块大小，主键数量超过该值时分块执行
+     * @param chunkSize 每块的主键数量，默认1000
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        rebuildChunkedQueryExecutor();
+        return this;
+    }
+    
+    /**
+     * 设置分块并行执行的线程数，即同时占用的数据库连接数；等待队列已满时由调用线程执行分块
+     * @param chunkParallelism 线程数，默认4
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setChunkParallelism(int chunkParallelism) {
+        if (chunkParallelism <= 0) {
+            throw new IllegalArgumentException("chunkParallelism must be positive: " + chunkParallelism);
+        }
+        this.chunkParallelism = chunkParallelism;
+        rebuildChunkedQueryExecutor();
+        return this;
+    }
+    
+    /**
+     * 设置是否开启行缓存：主键或单字段唯一索引上的等值查询先按 (表名, 索引, 值) 读取本地缓存，
+     * 再读取同步服务写入的行哈希，都未命中时查询数据库；更新和删除成功后按主键失效
+     * @param rowCacheEnabled 是否开启行缓存，默认关闭
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setRowCache(boolean rowCacheEnabled) {
+        this.rowCacheEnabled = rowCacheEnabled;
+        rebuildRowCache();
+        return this;
+    }
+    
+    /**
+     * 设置行缓存本地一级缓存的最大行数
+     * @param rowCacheSize 最大行数，默认10000
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setRowCacheSize(long rowCacheSize) {
+        if (rowCacheSize <= 0) {
+            throw new IllegalArgumentException("rowCacheSize must be positive: " + rowCacheSize);
+        }
+        this.rowCacheSize = rowCacheSize;
+        rebuildRowCache();
+        return this;
+    }
+    
+    /**
+     * 设置行缓存本地一级缓存的过期时间，其他节点上的更新最迟在过期后可见
+     * @param rowCacheExpireSeconds 写入后的过期秒数，默认30
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setRowCacheExpireSeconds(long rowCacheExpireSeconds) {
+        if (rowCacheExpireSeconds <= 0) {
+            throw new IllegalArgumentException("rowCacheExpireSeconds must be positive: " + rowCacheExpireSeconds);
+        }
+        this.rowCacheExpireSeconds = rowCacheExpireSeconds;
+        rebuildRowCache();
+        return this;
+    }
+    
+    /**
+     * 设置行缓存的失效通道：更新和删除后通知其他节点删除行缓存一级缓存中的行，
+     * 同时接收两级缓存服务发布的行哈希失效，可与TieredCacheOperationService共用同一通道
+     * @param invalidationChannel 失效通道，为null时其他节点上的更新在一级缓存过期后可见
+     * @return 当前拦截器实例
+     */
+    public synchronized RedisJqlInterceptor setInvalidationChannel(InvalidationChannel invalidationChannel) {
+        this.invalidationChannel = invalidationChannel;
+        if (invalidationChannel == null) {
+            return this;
+        }
+        
+        invalidationChannel.subscribe(new InvalidationChannel.Listener() {
+            @Override
+            public void onMessage(String message) {
+                RowCache cache = rowCache;
+                if (cache == null || RedisJqlInterceptor.this.invalidationChannel != invalidationChannel
+                    || message.startsWith(nodeId + INVALIDATION_SEPARATOR)) {
+                    return;
+                }
+                int separator = message.indexOf(INVALIDATION_SEPARATOR);
+                cache.evict(separator < 0 ? message : message.substring(separator + 1));
+            }
+            
+            @Override
+            public void onReset() {
+                // 断线期间的消息可能已丢失
+                RowCache cache = rowCache;
+                if (cache != null) {
+                    cache.evict(RowCache.ALL_ROWS);
+                }
+            }
+        });
+        return this;
+    }
+    
+    /**
+     * 设置是否开启索引变更的后写队列：写语句的索引变更记录在所属事务（Spring事务或MyBatis SqlSession）中，
+     * 回滚时丢弃，提交后由后台线程按批发出，写语句不再等待Redis。
+     * 提交前索引落后于本事务的写入，不能与trustCompleteIndexes同时开启
+     * @param writeBehindEnabled 是否开启后写队列，默认关闭
+     * @return 当前拦截器实例
+     * @throws IllegalArgumentException 已开启trustCompleteIndexes时开启
+     */
+    public RedisJqlInterceptor setWriteBehind(boolean writeBehindEnabled) {
+        if (writeBehindEnabled && trustCompleteIndexes) {
+            throw new IllegalArgumentException("writeBehind cannot be combined with trustCompleteIndexes");
+        }
+        this.writeBehindEnabled = writeBehindEnabled;
+        rebuildWriteBehind();
+        return this;
+    }
+    
+    /**
+     * 设置后写队列的容量，队列已满时提交事务的线程等待后台线程腾出空间
+     * @param writeBehindCapacity 最多等待发出的索引变更数，默认10000
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setWriteBehindCapacity(int writeBehindCapacity) {
+        if (writeBehindCapacity <= 0) {
+            throw new IllegalArgumentException("writeBehindCapacity must be positive: " + writeBehindCapacity);
+        }
+        this.writeBehindCapacity = writeBehindCapacity;
+        rebuildWriteBehind();
+        return this;
+    }
+    
+    /**
+     * 设置后写队列每批发出的索引变更数，一批中的命令同时在途
+     * @param writeBehindBatchSize 每批的索引变更数，默认100
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setWriteBehindBatchSize(int writeBehindBatchSize) {
+        if (writeBehindBatchSize <= 0) {
+            throw new IllegalArgumentException("writeBehindBatchSize must be positive: " + writeBehindBatchSize);
+        }
+        this.writeBehindBatchSize = writeBehindBatchSize;
+        rebuildWriteBehind();
+        return this;
+    }
+    
+    /**
+     * 设置不带主键条件的更新和删除维护索引时受影响主键数的上限
+     * @param bulkWriteLimit 受影响主键数上限，默认10000
+     * @return 当前拦截器实例
+     */
+    public RedisJqlInterceptor setBulkWriteLimit(int bulkWriteLimit) {
+        if (bulkWriteLimit <= 0) {
+            throw new IllegalArgumentException("bulkWriteLimit must be positive: " + bulkWriteLimit);
         }
+        this.bulkWriteLimit = bulkWriteLimit;
         return this;
     }
     
+    /**
+     * 关闭拦截器：发出后写队列中剩余的索引变更并停止后台线程，应用正常停止时调用
+     */
+    public synchronized void shutdown() {
+        IndexWriteBehind queue = writeBehind;
+        writeBehind = null;
+        writeBehindEnabled = false;
+        if (queue != null) {
+            queue.close();
+        }
+        ChunkedQueryExecutor executor = chunkedQueryExecutor;
+        chunkedQueryExecutor = null;
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+    
+    private synchronized void rebuildWriteBehind() {
+        IndexWriteBehind previous = writeBehind;
+        writeBehind = writeBehindEnabled ? new IndexWriteBehind(asyncOperationService, writeBehindCapacity,
+            writeBehindBatchSize, writeBehindShutdownTimeoutMillis) : null;
+        if (previous != null) {
+            previous.close();
+        }
+    }
+    
+    private synchronized void rebuildRowCache() {
+        rowCache = rowCacheEnabled ? new RowCache(redisOperationService, rowCacheSize, rowCacheExpireSeconds) : null;
+    }
+    
+    private synchronized void rebuildChunkedQueryExecutor() {
+        ChunkedQueryExecutor previous = chunkedQueryExecutor;
+        chunkedQueryExecutor = sqlSessionFactory != null
+            ? new ChunkedQueryExecutor(sqlSessionFactory, chunkSize, chunkParallelism) : null;
+        if (previous != null) {
+            previous.shutdown();
+        }
+    }
+    
+    /**
+     * 清空已缓存的执行计划，白名单或索引配置变更后调用
+     */
+    public void clearPlans() {
+        planCache.clear();
+        dynamicPlanCache.invalidateAll();
+    }
+    
     /**
      * SQL type enumeration
      */
-    private enum SqlType {
+    enum SqlType {
         SELECT("select"),
         INSERT("insert"),
         UPDATE("update"),
@@ -141,6 +590,20 @@ public class RedisJqlInterceptor implements Interceptor {
             return null;
         }
         
+        // 事务边界：提交或丢弃事务中记录的索引变更
+        switch (invocation.getMethod().getName()) {
+            case "flushStatements":
+                return handleFlushStatements(invocation);
+            case "commit":
+                return handleCommit(invocation);
+            case "rollback":
+                return handleRollback(invocation);
+            case "close":
+                return handleClose(invocation);
+            default:
+                break;
+        }
+        
         Object[] args = invocation.getArgs();
         if (args == null || args.length < 2) {
             logger.warn("Insufficient parameters for interceptor, proceeding without interception");
@@ -155,9 +618,9 @@ public class RedisJqlInterceptor implements Interceptor {
         MappedStatement ms = (MappedStatement) args[0];
         Object parameter = args[1];
         
-        // Check if Mapper interface is in whitelist
-        if (whitelistEnabled && !isMapperAllowed(ms.getId())) {
-            logger.debug("Mapper interface {} not in whitelist, proceeding without interception", ms.getId());
+        // 静态SQL的计划已判定为不可处理时，无需生成BoundSql
+        StatementPlan plan = planCache.get(ms.getId());
+        if (plan != null && plan.isBypass()) {
             return invocation.proceed();
         }
         
@@ -173,265 +636,459 @@ public class RedisJqlInterceptor implements Interceptor {
             return invocation.proceed();
         }
         
-        // 检查SQL是否包含NOREDISJQL注释标记
-        if (sql != null && sql.trim().toLowerCase().contains("/* noredisjql */")) {
-            logger.debug("SQL contains NOREDISJQL directive, skipping redisjql-cache processing");
+        plan = resolvePlan(ms, sql, plan);
+        if (plan.isBypass()) {
             return invocation.proceed();
         }
         
         // Process based on SQL type
-        SqlType sqlType = SqlType.fromSql(sql);
-        switch (sqlType) {
+        switch (plan.getSqlType()) {
             case SELECT:
-                return handleSelect(invocation, sql);
+                return plan.getPointLookup() != null
+                    ? handlePointLookup(invocation, boundSql, plan) : handleSelect(invocation, boundSql, plan);
             case INSERT:
-                return handleInsert(invocation, sql);
+                return handleInsert(invocation, boundSql);
             case UPDATE:
-                return handleUpdate(invocation, sql);
+                return handleUpdate(invocation, boundSql, plan);
             case DELETE:
-                return handleDelete(invocation, sql);
+                return handleDelete(invocation, boundSql, plan);
             default:
-                logger.debug("Unrecognized SQL type: {}", sql.substring(0, Math.min(20, sql.length())));
                 return invocation.proceed();
         }
     }
     
     /**
-     * 检查Mapper接口是否在白名单中
-     * @param statementId Mapper方法ID (格式: com.example.mapper.UserMapper.findById)
-     * @return 是否允许处理
+     * 获取语句的执行计划，不存在时生成并缓存
+     * @param ms MappedStatement对象
+     * @param sql 当前执行的SQL
+     * @param cachedPlan 按ID缓存的计划
+     * @return 执行计划
      */
-    private boolean isMapperAllowed(String statementId) {
-        if (!whitelistEnabled || mapperWhitelist.isEmpty()) {
-            return true;
+    private StatementPlan resolvePlan(MappedStatement ms, String sql, StatementPlan cachedPlan) {
+        if (cachedPlan != null && cachedPlan.matches(sql)) {
+            return cachedPlan;
         }
         
-        // 提取Mapper接口名 (com.example.mapper.UserMapper)
-        int lastDot = statementId.lastIndexOf('.');
-        if (lastDot > 0) {
-            String mapperName = statementId.substring(0, lastDot);
-            return mapperWhitelist.contains(mapperName);
+        if (isStaticSql(ms.getSqlSource())) {
+            StatementPlan plan = buildPlan(ms.getId(), sql);
+            planCache.put(ms.getId(), plan);
+            return plan;
         }
         
-        return false;
+        return dynamicPlanCache.get(ms.getId() + "\n" + sql, key -> buildPlan(ms.getId(), sql));
     }
     
     /**
-     * 检查表名是否在白名单中
-     * @param tableName 表名
-     * @return 是否允许处理
+     * 判断SQL是否与参数无关，只有这类语句的计划可以按MappedStatement ID缓存
      */
-    private boolean isTableAllowed(String tableName) {
-        if (!whitelistEnabled || tableWhitelist.isEmpty()) {
-            return true;
-        }
-        
-        return tableWhitelist.contains(tableName);
+    private boolean isStaticSql(SqlSource sqlSource) {
+        return sqlSource instanceof RawSqlSource || sqlSource instanceof StaticSqlSource;
     }
     
-    private Object handleSelect(Invocation invocation, String sql) throws Throwable {
+    /**
+     * 生成执行计划
+     * @param statementId MappedStatement ID
+     * @param sql SQL语句
+     * @return 执行计划
+     */
+    private StatementPlan buildPlan(String statementId, String sql) {
+        SqlType sqlType = SqlType.fromSql(sql);
+        
+        // Check if Mapper interface is in whitelist
+        if (whitelistEnabled && !isMapperAllowed(statementId)) {
+            logger.debug("Mapper interface {} not in whitelist, proceeding without interception", statementId);
+            return StatementPlan.bypass(sql, sqlType, "mapper not in whitelist");
+        }
+        
+        // 检查SQL是否包含NOREDISJQL注释标记
+        String lowerSql = sql.toLowerCase();
+        if (lowerSql.contains("/* noredisjql */")) {
+            logger.debug("SQL contains NOREDISJQL directive, skipping redisjql-cache processing");
+            return StatementPlan.bypass(sql, sqlType, "NOREDISJQL directive");
+        }
+        
         try {
-            // 检查SQL是否包含NOCACHE注释标记
-            if (sql != null && sql.trim().toLowerCase().contains("/* nocache */")) {
-                logger.debug("SQL contains NOCACHE directive, skipping cache processing");
-                return invocation.proceed();
-            }
-            
-            // 解析SQL语句
-            net.sf.jsqlparser.statement.Statement statement = statementParser.parse(sql);
-            if (!(statement instanceof net.sf.jsqlparser.statement.select.Select)) {
-                return invocation.proceed();
-            }
-            
-            net.sf.jsqlparser.statement.select.Select select = 
-                (net.sf.jsqlparser.statement.select.Select) statement;
-                
-            // 获取表名并检查是否在白名单中
-            if (select.getSelectBody() instanceof net.sf.jsqlparser.statement.select.PlainSelect) {
-                net.sf.jsqlparser.statement.select.PlainSelect plainSelect = 
-                    (net.sf.jsqlparser.statement.select.PlainSelect) select.getSelectBody();
-                
-                if (plainSelect.getFromItem() instanceof net.sf.jsqlparser.schema.Table) {
-                    net.sf.jsqlparser.schema.Table table = 
-                        (net.sf.jsqlparser.schema.Table) plainSelect.getFromItem();
-                    
-                    String tableName = table.getName();
-                    if (!isTableAllowed(tableName)) {
-                        // 表不在白名单中，直接执行原SQL
-                        logger.debug("Table {} not in whitelist, skipping SQL interception", tableName);
-                        return invocation.proceed();
+            switch (sqlType) {
+                case SELECT:
+                    // 检查SQL是否包含NOCACHE注释标记
+                    if (lowerSql.contains("/* nocache */")) {
+                        logger.debug("SQL contains NOCACHE directive, skipping cache processing");
+                        return StatementPlan.bypass(sql, sqlType, "NOCACHE directive");
                     }
-                }
-            }
-            
-            // 判断是否为单值查询场景（主键或唯一索引）
-            if (isSingleValueQuery(select)) {
-                // 如果是单值查询，直接使用数据库查询，不修改SQL
-                return invocation.proceed();
-            }
-            
-            // 判断是否可以使用Redis索引优化
-            if (!canUseRedisCache(select)) {
-                // 如果不满足Redis索引条件，直接执行原SQL
-                return invocation.proceed();
-            }
-            
-            // 获取查询条件和排序信息
-            Object result = statementParser.processStatement(statement);
-            if (result == null) {
-                // 如果不满足Redis索引条件，直接执行原SQL
-                return invocation.proceed();
-            }
-            
-            // 获取Redis缓存数据的主键
-            java.util.List<String> primaryKeys = getPrimaryKeysFromRedis(select);
-            if (primaryKeys == null || primaryKeys.isEmpty()) {
-                // 如果在Redis中找不到匹配的记录，直接执行原SQL
-                return invocation.proceed();
+                    return buildSelectPlan(sql);
+                case INSERT:
+                case UPDATE:
+                case DELETE:
+                    return buildWritePlan(sql, sqlType);
+                default:
+                    logger.debug("Unrecognized SQL type: {}", sql.substring(0, Math.min(20, sql.length())));
+                    return StatementPlan.bypass(sql, sqlType, "unrecognized SQL type");
             }
-            
-            // 改写SQL语句，使用IN条件查询
-            MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
-            BoundSql boundSql = ms.getBoundSql(invocation.getArgs()[1]);
-            String newSql = rewriteSelectSql(sql, primaryKeys, select);
-            
-            // 执行改写后的SQL
-            return executeRewrittenSql(invocation, ms, boundSql, newSql);
         } catch (Exception e) {
-            // 发生异常时，使用原SQL执行
-            return invocation.proceed();
+            logger.debug("Failed to build plan for statement {}: {}", statementId, e.getMessage());
+            return StatementPlan.bypass(sql, sqlType, "failed to parse SQL");
         }
     }
     
     /**
-     * 判断是否为单值查询
-     * @param select Select语句
-     * @return 是否为单值查询
+     * 生成查询语句的执行计划
+     */
+    private StatementPlan buildSelectPlan(String sql) throws Exception {
+        net.sf.jsqlparser.statement.Statement statement = statementParser.parseReadOnly(sql);
+        if (!(statement instanceof net.sf.jsqlparser.statement.select.Select)
+            || !(((net.sf.jsqlparser.statement.select.Select) statement).getSelectBody()
+                    instanceof net.sf.jsqlparser.statement.select.PlainSelect)) {
+            return StatementPlan.bypass(sql, SqlType.SELECT, "not a plain select");
+        }
+        
+        net.sf.jsqlparser.statement.select.PlainSelect plainSelect = 
+            (net.sf.jsqlparser.statement.select.PlainSelect) 
+                ((net.sf.jsqlparser.statement.select.Select) statement).getSelectBody();
+        if (!(plainSelect.getFromItem() instanceof net.sf.jsqlparser.schema.Table)) {
+            return StatementPlan.bypass(sql, SqlType.SELECT, "FROM clause is not a single table");
+        }
+        
+        String tableName = ((net.sf.jsqlparser.schema.Table) plainSelect.getFromItem()).getName();
+        if (!isTableAllowed(tableName)) {
+            // 表不在白名单中，直接执行原SQL
+            logger.debug("Table {} not in whitelist, skipping SQL interception", tableName);
+            return StatementPlan.bypass(sql, SqlType.SELECT, "table not in whitelist");
+        }
+        
+        IndexConfig indexConfig = findIndexConfig(tableName);
+        if (indexConfig == null || plainSelect.getWhere() == null) {
+            return StatementPlan.bypass(sql, SqlType.SELECT, "no index configuration or WHERE clause");
+        }
+        
+        // 单值查询（主键或唯一索引）不使用索引改写，单字段的等值查询可由行缓存回答，其余直接使用数据库查询
+        if (org.sqlfans.redisjql.parser.impl.SelectParserImpl.isSingleValueQuery(plainSelect.getWhere(), indexConfig)) {
+            PointLookup pointLookup = PointLookup.detect(plainSelect, tableName, indexConfig, trustCompleteIndexes);
+            return pointLookup != null ? StatementPlan.pointLookup(sql, tableName, indexConfig, pointLookup)
+                : StatementPlan.bypass(sql, SqlType.SELECT, "single value query");
+        }
+        
+        // WHERE中索引字段的等值、IN、OR条件整理为索引子句
+        IndexCondition indexCondition = IndexCondition.collect(tableName, plainSelect.getWhere(), indexConfig);
+        if (indexCondition == null) {
+            return StatementPlan.bypass(sql, SqlType.SELECT, "no indexed column in WHERE clause");
+        }
+        
+        // ORDER BY为索引的sortField时直接使用索引分数顺序
+        ScoreOrder scoreOrder = ScoreOrder.detect(plainSelect.getOrderByElements(), indexCondition.getIndexes());
+        
+        // sortField上的范围条件换算为索引的分数区间
+        ScoreRangePredicate scoreRange = ScoreRangePredicate.collect(plainSelect.getWhere(),
+            indexCondition.getIndexes());
+        
+        // WHERE只有一个索引条件时，检查分页能否下推到索引
+        PageWindow pageWindow = null;
+        if (plainSelect.getWhere() instanceof net.sf.jsqlparser.expression.operators.relational.EqualsTo
+            && indexCondition.isSingleTerm()) {
+            pageWindow = PageWindow.detect(plainSelect, scoreOrder);
+        }
+        
+        // 完整索引能完全回答的条件不必再由数据库判断，只在信任完整索引时去掉
+        CoveredPredicates coveredPredicates = trustCompleteIndexes
+            ? CoveredPredicates.detect(plainSelect.getWhere(), indexConfig) : null;
+        
+        // 全部条件都由索引回答时，结果可以直接由行哈希构造
+        CoveringRead coveringRead = CoveringRead.detect(plainSelect, coveredPredicates, pageWindow);
+        
+        return StatementPlan.of(sql, SqlType.SELECT, tableName, indexConfig, indexCondition, scoreOrder, scoreRange,
+            pageWindow, coveredPredicates, coveringRead);
+    }
+    
+    /**
+     * 生成写语句的执行计划
+     */
+    private StatementPlan buildWritePlan(String sql, SqlType sqlType) throws Exception {
+        net.sf.jsqlparser.statement.Statement statement = statementParser.parseReadOnly(sql);
+        net.sf.jsqlparser.schema.Table table;
+        if (statement instanceof net.sf.jsqlparser.statement.insert.Insert) {
+            table = ((net.sf.jsqlparser.statement.insert.Insert) statement).getTable();
+        } else if (statement instanceof net.sf.jsqlparser.statement.update.Update) {
+            table = ((net.sf.jsqlparser.statement.update.Update) statement).getTable();
+        } else if (statement instanceof net.sf.jsqlparser.statement.delete.Delete) {
+            table = ((net.sf.jsqlparser.statement.delete.Delete) statement).getTable();
+        } else {
+            return StatementPlan.bypass(sql, sqlType, "statement type does not match SQL prefix");
+        }
+        
+        String tableName = table.getName();
+        if (!isTableAllowed(tableName)) {
+            // 表不在白名单中，直接执行原SQL
+            logger.debug("Table {} not in whitelist, skipping SQL interception", tableName);
+            return StatementPlan.bypass(sql, sqlType, "table not in whitelist");
+        }
+        
+        IndexConfig indexConfig = findIndexConfig(tableName);
+        if (indexConfig == null) {
+            return StatementPlan.bypass(sql, sqlType, "no index configuration");
+        }
+        
+        if (statement instanceof net.sf.jsqlparser.statement.insert.Insert) {
+            return StatementPlan.of(sql, sqlType, tableName, indexConfig, null, null, null, null, null, null);
+        }
+        
+        // 不带主键条件的更新和删除按WHERE中的索引条件查找受影响的主键
+        net.sf.jsqlparser.expression.Expression where = statement instanceof net.sf.jsqlparser.statement.update.Update
+            ? ((net.sf.jsqlparser.statement.update.Update) statement).getWhere()
+            : ((net.sf.jsqlparser.statement.delete.Delete) statement).getWhere();
+        IndexCondition indexCondition = IndexCondition.collect(tableName, where, indexConfig);
+        CoveredPredicates coveredPredicates = indexCondition != null && trustCompleteIndexes
+            ? CoveredPredicates.detect(where, indexConfig) : null;
+        return StatementPlan.of(sql, sqlType, tableName, indexConfig, indexCondition, null, null, null,
+            coveredPredicates, null);
+    }
+    
+    /**
+     * 检查Mapper接口是否在白名单中
+     * @param statementId Mapper方法ID (格式: com.example.mapper.UserMapper.findById)
+     * @return 是否允许处理
+     */
+    private boolean isMapperAllowed(String statementId) {
+        if (!whitelistEnabled || mapperWhitelist.isEmpty()) {
+            return true;
+        }
+        
+        // 提取Mapper接口名 (com.example.mapper.UserMapper)
+        int lastDot = statementId.lastIndexOf('.');
+        if (lastDot > 0) {
+            String mapperName = statementId.substring(0, lastDot);
+            return mapperWhitelist.contains(mapperName);
+        }
+        
+        return false;
+    }
+    
+    /**
+     * 检查表名是否在白名单中
+     * @param tableName 表名
+     * @return 是否允许处理
      */
-    private boolean isSingleValueQuery(net.sf.jsqlparser.statement.select.Select select) {
+    private boolean isTableAllowed(String tableName) {
+        if (!whitelistEnabled || tableWhitelist.isEmpty()) {
+            return true;
+        }
+        
+        return tableWhitelist.contains(tableName);
+    }
+    
+    private Object handleSelect(Invocation invocation, BoundSql boundSql, StatementPlan plan) throws Throwable {
         try {
-            if (!(select.getSelectBody() instanceof net.sf.jsqlparser.statement.select.PlainSelect)) {
-                return false;
+            // 解析SQL语句（表白名单、单值查询等判断已在执行计划中完成）
+            String sql = boundSql.getSql();
+            net.sf.jsqlparser.statement.Statement statement = statementParser.parse(sql);
+            net.sf.jsqlparser.statement.select.Select select = 
+                (net.sf.jsqlparser.statement.select.Select) statement;
+            
+            // 按当前参数值生成索引子句，每个子句内的索引键取并集
+            MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+            java.util.List<java.util.List<String>> clauses = plan.getIndexCondition().resolve(
+                position -> ParameterValueResolver.resolve(ms.getConfiguration(), boundSql, position));
+            if (clauses.isEmpty()) {
+                return invocation.proceed();
             }
             
-            net.sf.jsqlparser.statement.select.PlainSelect plainSelect = 
-                (net.sf.jsqlparser.statement.select.PlainSelect) select.getSelectBody();
+            // 分页查询只使用一个索引且按其排序字段排序时，直接按位置区间读取当前页的主键
+            PageWindow pageWindow = plan.getPageWindow();
+            IndexRange pageRange = null;
+            if (pageWindow != null && clauses.size() == 1 && clauses.get(0).size() == 1) {
+                pageRange = pageWindow.toRange(clauses.get(0).get(0), ms.getConfiguration(), boundSql);
+            }
             
-            if (plainSelect.getFromItem() == null || 
-                !(plainSelect.getFromItem() instanceof net.sf.jsqlparser.schema.Table)) {
-                return false;
+            // 获取Redis缓存数据的主键
+            java.util.List<String> primaryKeys = pageRange != null
+                ? redisOperationService.queryPrimaryKeysByIndexes(Collections.singletonList(pageRange))
+                    .get(pageRange.getIndexKey())
+                : getPrimaryKeysFromRedis(select, plan, clauses, ms, boundSql);
+            if (primaryKeys == null || primaryKeys.isEmpty()) {
+                // 如果在Redis中找不到匹配的记录，直接执行原SQL
+                return invocation.proceed();
             }
             
-            net.sf.jsqlparser.schema.Table table = 
-                (net.sf.jsqlparser.schema.Table) plainSelect.getFromItem();
+            // 改写SQL语句，使用IN条件查询，主键按主键列类型以占位符绑定
+            java.util.List<ParameterMapping> parameterMappings = boundSql.getParameterMappings();
+            if (pageRange != null) {
+                logger.debug("Page window pushed down for {}: {}", ms.getId(), pageRange);
+                parameterMappings = pageWindow.removeOffset(parameterMappings);
+            }
             
-            String tableName = table.getName();
-            IndexConfig indexConfig = findIndexConfig(tableName);
+            // 全部索引子句都已按参数值查询时，由完整索引回答的条件不再保留在改写后的SQL中
+            CoveredPredicates coveredPredicates = plan.getCoveredPredicates();
+            boolean covered = coveredPredicates != null && clauses.size() == plan.getIndexCondition().getClauseCount();
+            if (covered) {
+                coveredPredicates.removeFrom((net.sf.jsqlparser.statement.select.PlainSelect) select.getSelectBody());
+                parameterMappings = coveredPredicates.removeParameters(parameterMappings);
+                sql = select.toString();
+            }
+            RewriteDialect rewriteDialect = resolveDialect(ms.getConfiguration());
+            
+            // 索引结果完整时直接由行哈希构造结果，未缓存的行再从数据库补齐
+            if (coveringReads && covered && plan.getCoveringRead() != null && ms.getResultMaps().size() == 1
+                && ms.getResultSets() == null && invocation.getArgs().length > 3
+                && invocation.getArgs()[2] == RowBounds.DEFAULT && invocation.getArgs()[3] == null) {
+                Object result = readCoveringRows(invocation, ms, boundSql, sql, parameterMappings, plan, primaryKeys,
+                    rewriteDialect, select, pageRange != null ? pageWindow : null);
+                if (result != null) {
+                    return result;
+                }
+            }
+            
+            // 主键已按ORDER BY排序时，查询结果在应用端按主键顺序重排，不再由数据库排序
+            ResultOrder resultOrder = null;
+            if (applicationOrdering && pageRange == null && plan.getScoreOrder() == null
+                && invocation.getArgs().length > 3 && invocation.getArgs()[3] == null) {
+                resultOrder = ResultOrder.detect(ms, plan.getIndexConfig().getPrimaryKey(),
+                    (net.sf.jsqlparser.statement.select.PlainSelect) select.getSelectBody(), primaryKeys);
+            }
             
-            if (indexConfig == null || plainSelect.getWhere() == null) {
-                return false;
+            // 主键数量超过分块大小时拆分为多条SQL并行执行
+            ChunkedQueryExecutor chunkedExecutor = chunkedQueryExecutor;
+            if (chunkedExecutor != null && pageRange == null && invocation.getArgs().length > 3
+                && invocation.getArgs()[3] == null && chunkedExecutor.shouldSplit(
+                    (net.sf.jsqlparser.statement.select.PlainSelect) select.getSelectBody(), primaryKeys.size())) {
+                Object result = executeChunkedSql(chunkedExecutor, invocation, ms, boundSql, sql, parameterMappings,
+                    plan, primaryKeys, rewriteDialect, resultOrder != null);
+                return resultOrder != null ? resultOrder.reorder(result) : result;
             }
             
-            // 使用SelectParserImpl中的静态isSingleValueQuery方法
-            return org.sqlfans.redisjql.parser.impl.SelectParserImpl.isSingleValueQuery(
-                plainSelect.getWhere(), indexConfig);
+            PrimaryKeyParameters primaryKeyParameters = PrimaryKeyParameters.of(primaryKeys, plan.getIndexConfig(),
+                primaryKeyColumnType(plan.getIndexConfig(), ms), ms,
+                rewriteDialect.isArrayBinding());
+            String newSql = rewriteSelectSql(sql, primaryKeys, primaryKeyParameters, rewriteDialect, select,
+                pageRange != null ? pageWindow : null, plan.getScoreOrder(), resultOrder != null);
+            parameterMappings = primaryKeyParameters.insertInto(parameterMappings, ms.getConfiguration());
+            
+            // 执行改写后的SQL
+            Object result = executeRewrittenSql(invocation, ms, boundSql, newSql, parameterMappings,
+                primaryKeyParameters);
+            return resultOrder != null ? resultOrder.reorder(result) : result;
         } catch (Exception e) {
-            return false;
+            // 发生异常时，使用原SQL执行
+            return invocation.proceed();
         }
     }
     
     /**
-     * 判断是否可以使用Redis缓存
-     * @param select Select语句
-     * @return 是否可以使用Redis缓存
+     * 主键或唯一索引的单值查询：行缓存命中时由行哈希构造结果，未命中或行缓存未开启时执行原SQL
+     * @param invocation 拦截的调用
+     * @param boundSql 绑定SQL对象
+     * @param plan 单值查询的执行计划
+     * @return 查询结果
+     * @throws Throwable 执行原SQL失败时抛出
      */
-    private boolean canUseRedisCache(net.sf.jsqlparser.statement.select.Select select) {
+    private Object handlePointLookup(Invocation invocation, BoundSql boundSql, StatementPlan plan) throws Throwable {
+        RowCache cache = rowCache;
+        Object[] args = invocation.getArgs();
+        MappedStatement ms = (MappedStatement) args[0];
+        if (cache == null || ms.getResultMaps().size() != 1 || ms.getResultSets() != null || args.length <= 3
+            || args[2] != RowBounds.DEFAULT || args[3] != null) {
+            return invocation.proceed();
+        }
+        
+        java.util.List<Object> result = null;
         try {
-            if (!(select.getSelectBody() instanceof net.sf.jsqlparser.statement.select.PlainSelect)) {
-                return false;
+            PointLookup pointLookup = plan.getPointLookup();
+            String value = pointLookup.resolveValue(ms.getConfiguration(), boundSql);
+            java.util.Map<String, String> row = value != null ? cache.find(pointLookup, value) : null;
+            if (row != null) {
+                // 完整唯一索引中没有该值时结果为空
+                result = row.isEmpty() ? new java.util.ArrayList<>() : pointLookup.getColumns().map(
+                    (Executor) invocation.getTarget(), ms, boundSql, Collections.singletonList(row));
+                logger.debug("Row cache hit for {}: {}", ms.getId(), pointLookup.key(value));
             }
-            
-            net.sf.jsqlparser.statement.select.PlainSelect plainSelect = 
-                (net.sf.jsqlparser.statement.select.PlainSelect) select.getSelectBody();
-            
-            if (plainSelect.getFromItem() == null || 
-                !(plainSelect.getFromItem() instanceof net.sf.jsqlparser.schema.Table)) {
-                return false;
-            }
-            
-            if (plainSelect.getWhere() == null) {
-                return false;
-            }
-            
-            net.sf.jsqlparser.schema.Table table = 
-                (net.sf.jsqlparser.schema.Table) plainSelect.getFromItem();
-            
-            String tableName = table.getName();
-            IndexConfig indexConfig = findIndexConfig(tableName);
-            
-            return indexConfig != null;
         } catch (Exception e) {
-            return false;
+            logger.debug("Row cache read failed for {}: {}", ms.getId(), e.getMessage());
+            result = null;
+        }
+        return result != null ? result : invocation.proceed();
+    }
+    
+    /**
+     * 由行哈希构造查询结果，未缓存的行通过一次主键IN查询从数据库补齐后按主键顺序合并
+     * @param invocation 拦截的调用
+     * @param ms MappedStatement对象
+     * @param boundSql 原绑定SQL对象
+     * @param sql 添加主键条件前的SQL
+     * @param parameterMappings 添加主键参数前的参数映射
+     * @param plan 执行计划
+     * @param primaryKeys 已排序的主键列表
+     * @param dialect 改写方言
+     * @param select 改写中的查询语句，补齐未缓存的行时才会修改
+     * @param pageWindow 已下推到索引的分页窗口，没有时为null
+     * @return 查询结果，没有已缓存的行或无法合并时返回null，由调用方继续按改写后的SQL查询
+     * @throws Throwable 映射或补齐查询失败时抛出
+     */
+    private Object readCoveringRows(Invocation invocation, MappedStatement ms, BoundSql boundSql, String sql,
+                                    java.util.List<ParameterMapping> parameterMappings, StatementPlan plan,
+                                    java.util.List<String> primaryKeys, RewriteDialect dialect,
+                                    net.sf.jsqlparser.statement.select.Select select,
+                                    PageWindow pageWindow) throws Throwable {
+        CoveringRead coveringRead = plan.getCoveringRead();
+        String primaryKey = plan.getIndexConfig().getPrimaryKey();
+        CoveringRead.Rows rows = coveringRead.read(redisOperationService, plan.getTableName(), plan.getIndexConfig(),
+            primaryKeys);
+        if (rows.getHits().isEmpty()) {
+            return null;
+        }
+        
+        java.util.List<String> missingKeys = rows.getMissingKeys();
+        ResultOrder mergeOrder = missingKeys.isEmpty() ? null : ResultOrder.of(ms, primaryKey, primaryKeys);
+        if (!missingKeys.isEmpty() && mergeOrder == null) {
+            return null;
+        }
+        
+        java.util.List<Object> result = new java.util.ArrayList<>(
+            coveringRead.map((Executor) invocation.getTarget(), ms, boundSql, rows.getHits()));
+        logger.debug("Covering read for {}: {} rows from cache, {} missing", ms.getId(), result.size(),
+            missingKeys.size());
+        if (missingKeys.isEmpty()) {
+            return result;
+        }
+        
+        PrimaryKeyParameters primaryKeyParameters = PrimaryKeyParameters.of(missingKeys, plan.getIndexConfig(),
+            primaryKeyColumnType(plan.getIndexConfig(), ms), ms,
+            dialect.isArrayBinding());
+        String newSql = rewriteSelectSql(sql, missingKeys, primaryKeyParameters, dialect, select, pageWindow,
+            plan.getScoreOrder(), true);
+        Object missingRows = executeRewrittenSql(invocation, ms, boundSql, newSql,
+            primaryKeyParameters.insertInto(parameterMappings, ms.getConfiguration()), primaryKeyParameters);
+        if (missingRows instanceof java.util.List) {
+            result.addAll((java.util.List<?>) missingRows);
         }
+        return mergeOrder.reorder(result);
     }
     
     /**
      * 从Redis获取主键列表
      * @param select Select语句
+     * @param plan 执行计划
+     * @param clauses 索引子句，子句内的索引键取并集，子句之间取交集
+     * @param ms MappedStatement对象
+     * @param boundSql 绑定SQL对象，用于解析范围条件的参数值
      * @return 主键列表
      */
-    private java.util.List<String> getPrimaryKeysFromRedis(net.sf.jsqlparser.statement.select.Select select) {
+    private java.util.List<String> getPrimaryKeysFromRedis(net.sf.jsqlparser.statement.select.Select select,
+                                                           StatementPlan plan,
+                                                           java.util.List<java.util.List<String>> clauses,
+                                                           MappedStatement ms, BoundSql boundSql) {
         try {
-            // 获取表名
             net.sf.jsqlparser.statement.select.PlainSelect plainSelect = 
                 (net.sf.jsqlparser.statement.select.PlainSelect) select.getSelectBody();
             
-            net.sf.jsqlparser.schema.Table table = 
-                (net.sf.jsqlparser.schema.Table) plainSelect.getFromItem();
-            
-            String tableName = table.getName();
-            
-            // 解析WHERE条件
-            net.sf.jsqlparser.expression.Expression whereExpr = plainSelect.getWhere();
+            String tableName = plan.getTableName();
             
-            // 提取查询条件中的索引字段和值
-            IndexConfig indexConfig = findIndexConfig(tableName);
-            java.util.Map<String, String> fieldValues = 
-                extractIndexFieldValues(whereExpr, indexConfig);
-            
-            if (fieldValues.isEmpty()) {
-                return null;
-            }
-            
-            // 构建Redis索引键并查询
-            java.util.List<String> primaryKeys = new java.util.ArrayList<>();
-            java.util.Map<String, java.util.Set<String>> indexResults = new java.util.HashMap<>();
-            
-            for (java.util.Map.Entry<String, String> entry : fieldValues.entrySet()) {
-                String fieldName = entry.getKey();
-                String fieldValue = entry.getValue();
-                String indexKey = tableName + ":" + fieldName + ":" + fieldValue;
-                
-                // 查询索引
-                java.util.Set<String> keys = redisOperationService.queryPrimaryKeysByIndex(indexKey, 0, -1);
-                if (keys != null && !keys.isEmpty()) {
-                    indexResults.put(fieldName, keys);
-                }
-            }
-            
-            // 如果有多个索引条件，取交集
-            if (!indexResults.isEmpty()) {
-                // 初始化结果集
-                primaryKeys = new java.util.ArrayList<>(indexResults.values().iterator().next());
-                
-                // 取所有索引结果的交集
-                for (java.util.Set<String> keys : indexResults.values()) {
-                    primaryKeys.retainAll(keys);
-                }
-            }
+            // 按索引大小选择求交策略，ORDER BY为sortField时按索引分数顺序返回
+            ScoreRange scoreRange = plan.getScoreRange() == null ? null : plan.getScoreRange().resolve(
+                position -> ParameterValueResolver.resolve(ms.getConfiguration(), boundSql, position));
+            IndexLookupResult lookup = indexQueryPlanner.lookupClauses(clauses, plan.getScoreOrder(), scoreRange);
+            logger.debug("Index lookup for {}: {}", ms.getId(), lookup);
+            java.util.List<String> primaryKeys = lookup.getPrimaryKeys();
             
             // 处理排序
-            if (!primaryKeys.isEmpty() && plainSelect.getOrderByElements() != null) {
+            boolean indexOrdered = plan.getScoreOrder() != null && lookup.isScoreOrdered();
+            if (!primaryKeys.isEmpty() && !indexOrdered && plainSelect.getOrderByElements() != null) {
                 sortPrimaryKeys(primaryKeys, plainSelect.getOrderByElements(), tableName);
             }
             
@@ -449,27 +1106,26 @@ public class RedisJqlInterceptor implements Interceptor {
                                String tableName) {
         try {
             // 获取排序字段
-            final java.util.Map<String, java.util.Map<String, String>> sortFieldsData = new java.util.HashMap<>();
+            java.util.List<String> fieldNames = new java.util.ArrayList<>();
+            for (net.sf.jsqlparser.statement.select.OrderByElement orderBy : orderByElements) {
+                if (orderBy.getExpression() instanceof net.sf.jsqlparser.schema.Column) {
+                    fieldNames.add(((net.sf.jsqlparser.schema.Column) orderBy.getExpression()).getColumnName());
+                }
+            }
+            if (fieldNames.isEmpty()) {
+                return;
+            }
             
-            // 对每个主键，获取排序字段的值
+            // 一次批量获取全部主键的排序字段值，行哈希的键与同步服务写入的相同：表名:主键
+            java.util.List<String> dataKeys = new java.util.ArrayList<>(primaryKeys.size());
             for (String primaryKey : primaryKeys) {
-                java.util.Map<String, String> rowData = new java.util.HashMap<>();
-                
-                // 获取每个排序字段的值
-                for (net.sf.jsqlparser.statement.select.OrderByElement orderBy : orderByElements) {
-                    if (orderBy.getExpression() instanceof net.sf.jsqlparser.schema.Column) {
-                        net.sf.jsqlparser.schema.Column column = 
-                            (net.sf.jsqlparser.schema.Column) orderBy.getExpression();
-                        String fieldName = column.getColumnName();
-                        
-                        // 从Redis获取排序字段的值
-                        String dataKey = tableName + ":data:" + primaryKey;
-                        String fieldValue = redisOperationService.getFieldValue(dataKey, fieldName);
-                        rowData.put(fieldName, fieldValue);
-                    }
-                }
-                
-                sortFieldsData.put(primaryKey, rowData);
+                dataKeys.add(tableName + ":" + primaryKey);
+            }
+            java.util.Map<String, java.util.Map<String, String>> fieldValues = 
+                redisOperationService.getFieldValues(dataKeys, fieldNames);
+            final java.util.Map<String, java.util.Map<String, String>> sortFieldsData = new java.util.HashMap<>();
+            for (String primaryKey : primaryKeys) {
+                sortFieldsData.put(primaryKey, fieldValues.get(tableName + ":" + primaryKey));
             }
             
             // 根据排序字段对主键进行排序
@@ -517,228 +1173,695 @@ public class RedisJqlInterceptor implements Interceptor {
         }
     }
     
-    /**
-     * 从WHERE条件中提取索引字段和值
-     */
-    private java.util.Map<String, String> extractIndexFieldValues(
-            net.sf.jsqlparser.expression.Expression expression, IndexConfig indexConfig) {
-        java.util.Map<String, String> fieldValues = new java.util.HashMap<>();
+    private Object handleInsert(Invocation invocation, BoundSql boundSql) throws Throwable {
+        net.sf.jsqlparser.statement.insert.Insert insert = null;
+        try {
+            // 解析SQL语句，写语句只读取语法树，使用缓存中共享的语句
+            net.sf.jsqlparser.statement.Statement statement = statementParser.parseReadOnly(boundSql.getSql());
+            if (statement instanceof net.sf.jsqlparser.statement.insert.Insert) {
+                // 检查表名是否在白名单中，只有包含版本号字段的插入才维护索引
+                String tableName = ((net.sf.jsqlparser.statement.insert.Insert) statement).getTable().getName();
+                if (!isTableAllowed(tableName)) {
+                    logger.debug("Table {} not in whitelist, skipping SQL interception", tableName);
+                } else if (containsVersionField(statement)) {
+                    insert = (net.sf.jsqlparser.statement.insert.Insert) statement;
+                }
+            }
+        } catch (Exception e) {
+            // 解析失败时只执行原SQL，不维护索引
+            logger.debug("Failed to parse insert statement, skipping index maintenance: {}", e.getMessage());
+        }
         
-        if (expression instanceof net.sf.jsqlparser.expression.operators.relational.EqualsTo) {
-            net.sf.jsqlparser.expression.operators.relational.EqualsTo equalsTo = 
-                (net.sf.jsqlparser.expression.operators.relational.EqualsTo) expression;
+        // 原SQL只在此执行一次（包括回填自增主键），执行失败直接抛给调用方；之后的索引维护失败只记录日志
+        Object result = invocation.proceed();
+        if (insert == null) {
+            return result;
+        }
+        
+        String tableName = insert.getTable().getName();
+        try {
+            MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+            Object parameter = invocation.getArgs()[1];
+            InsertRows rows = InsertRows.of(insert);
+            Supplier<List<IndexMutation>> mutations = () -> insertMutations(tableName, rows, ms, boundSql, parameter);
             
-            if (equalsTo.getLeftExpression() instanceof net.sf.jsqlparser.schema.Column) {
-                net.sf.jsqlparser.schema.Column column = 
-                    (net.sf.jsqlparser.schema.Column) equalsTo.getLeftExpression();
-                String fieldName = column.getColumnName();
+            // 批量执行器在刷新时才执行语句并回填生成的主键，索引变更推迟到刷新后一次写入
+            if (result instanceof Integer && (Integer) result == BatchExecutor.BATCH_UPDATE_RETURN_VALUE) {
+                batchInserts.computeIfAbsent(invocation.getTarget(), key -> new java.util.ArrayList<>())
+                    .add(mutations);
+                return result;
+            }
+            
+            // 添加各行的索引记录和主键到索引的映射，多行插入合并为一次批量写入
+            writeIndexes(invocation, mutations.get());
+        } catch (RuntimeException e) {
+            logger.warn("Failed to index rows inserted into {}: {}", tableName, e.getMessage());
+        }
+        
+        return result;
+    }
+    
+    private Object handleUpdate(Invocation invocation, BoundSql boundSql, StatementPlan plan) throws Throwable {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        String tableName = null;
+        IndexConfig indexConfig = null;
+        IndexEntries indexEntries = null;
+        java.util.List<String> primaryKeys = null;
+        long newVersion = -1;
+        try {
+            // 解析SQL语句，写语句只读取语法树，使用缓存中共享的语句
+            net.sf.jsqlparser.statement.Statement statement = statementParser.parseReadOnly(boundSql.getSql());
+            if (statement instanceof net.sf.jsqlparser.statement.update.Update) {
+                net.sf.jsqlparser.statement.update.Update update = 
+                    (net.sf.jsqlparser.statement.update.Update) statement;
                 
-                // 检查字段是否在任何索引中
-                for (IndexConfig.IndexDefinition index : indexConfig.getIndexes()) {
-                    if (index.getFields().contains(fieldName)) {
-                        String value = extractValueFromExpression(equalsTo.getRightExpression());
-                        if (value != null) {
-                            fieldValues.put(fieldName, value);
-                        }
-                        break;
-                    }
+                // 检查表名是否在白名单中
+                if (!isTableAllowed(update.getTable().getName())) {
+                    logger.debug("Table {} not in whitelist, skipping SQL interception", update.getTable().getName());
+                } else {
+                    tableName = update.getTable().getName();
+                    indexConfig = findIndexConfig(tableName);
+                    
+                    // 只有包含版本号字段的更新才维护索引，根据SET中的新值计算索引记录
+                    IndexEntries entries = containsVersionField(statement)
+                        ? statementParser.processStatement(statement,
+                            position -> ParameterValueResolver.resolve(ms.getConfiguration(), boundSql, position))
+                        : null;
+                    boolean reindex = entries != null && entries.isAffected();
+                    
+                    // 修改了索引字段或排序字段、或行哈希会被读取时，在语句执行前确定受影响的主键：
+                    // 更新可能改变索引字段，执行后无法再查到
+                    primaryKeys = reindex || readsRowHashes()
+                        ? affectedPrimaryKeys(invocation, boundSql, plan, indexConfig, update.getTable(),
+                            update.getWhere(), isPlainUpdate(update),
+                            reindex ? updatedIndexes(indexConfig, update)
+                                : Collections.<IndexConfig.IndexDefinition>emptyList()) : null;
+                    newVersion = reindex ? extractNewVersion(update, indexConfig.getVersionField(), ms, boundSql) : -1;
+                    indexEntries = reindex ? entries : null;
                 }
             }
-        } else if (expression instanceof net.sf.jsqlparser.expression.operators.conditional.AndExpression) {
-            net.sf.jsqlparser.expression.operators.conditional.AndExpression andExpr = 
-                (net.sf.jsqlparser.expression.operators.conditional.AndExpression) expression;
+        } catch (Exception e) {
+            // 执行前的准备失败时不维护索引，行缓存按整张表失效
+            logger.debug("Failed to prepare index maintenance for {}: {}", ms.getId(), e.getMessage());
+            indexEntries = null;
+            primaryKeys = null;
+        }
+        
+        // 原SQL只在此执行一次，执行失败直接抛给调用方；之后的失效和索引维护失败只记录日志
+        Object result = invocation.proceed();
+        if (tableName == null) {
+            return result;
+        }
+        invalidateRows(invocation, tableName, indexConfig, primaryKeys);
+        
+        // 验证影响行数（乐观锁更新是否成功）
+        if (indexEntries == null || getAffectedRows(result) <= 0 || primaryKeys == null || primaryKeys.isEmpty()) {
+            return result;
+        }
+        
+        // SET确定了全部索引时直接使用其索引记录，否则在同一事务中读取更新后的行计算；
+        // 原子地替换各主键的全部索引成员关系，版本较旧的并发更新不生效；多行更新合并为一批发出
+        try {
+            java.util.List<IndexMutation> mutations;
+            if (indexEntries.isComplete()) {
+                mutations = new java.util.ArrayList<>(primaryKeys.size());
+                for (String primaryKey : primaryKeys) {
+                    mutations.add(IndexMutation.move(tableName, primaryKey, indexEntries.getEntries(), newVersion));
+                }
+            } else {
+                mutations = reloadedMutations(invocation, boundSql, indexConfig, primaryKeys);
+            }
+            writeIndexes(invocation, mutations);
+        } catch (Exception e) {
+            logger.warn("Failed to index rows updated in {}: {}", tableName, e.getMessage());
+        }
+        
+        return result;
+    }
+    
+    private Object handleDelete(Invocation invocation, BoundSql boundSql, StatementPlan plan) throws Throwable {
+        String tableName = null;
+        IndexConfig indexConfig = null;
+        java.util.List<String> primaryKeys = null;
+        try {
+            // 解析SQL语句，写语句只读取语法树，使用缓存中共享的语句
+            net.sf.jsqlparser.statement.Statement statement = statementParser.parseReadOnly(boundSql.getSql());
+            if (statement instanceof net.sf.jsqlparser.statement.delete.Delete) {
+                net.sf.jsqlparser.statement.delete.Delete delete = 
+                    (net.sf.jsqlparser.statement.delete.Delete) statement;
+                
+                // 检查表名是否在白名单中
+                if (!isTableAllowed(delete.getTable().getName())) {
+                    logger.debug("Table {} not in whitelist, skipping SQL interception", delete.getTable().getName());
+                } else {
+                    // 获取删除记录的主键值，WHERE中没有主键等值条件时在执行前按索引条件查找
+                    tableName = delete.getTable().getName();
+                    indexConfig = findIndexConfig(tableName);
+                    primaryKeys = affectedPrimaryKeys(invocation, boundSql, plan, indexConfig,
+                        delete.getTable(), delete.getWhere(), isPlainDelete(delete),
+                        indexConfig != null ? indexConfig.getIndexes()
+                            : Collections.<IndexConfig.IndexDefinition>emptyList());
+                }
+            }
+        } catch (Exception e) {
+            // 执行前的准备失败时不维护索引，行缓存按整张表失效
+            logger.debug("Failed to prepare index maintenance for {}: {}",
+                ((MappedStatement) invocation.getArgs()[0]).getId(), e.getMessage());
+            primaryKeys = null;
+        }
+        
+        // 原SQL只在此执行一次，执行失败直接抛给调用方；之后的失效和索引维护失败只记录日志
+        Object result = invocation.proceed();
+        if (tableName == null) {
+            return result;
+        }
+        invalidateRows(invocation, tableName, indexConfig, primaryKeys);
+        if (primaryKeys == null || primaryKeys.isEmpty()) {
+            return result;
+        }
+        
+        // 从全部索引中移除并标记记录为删除状态（10分钟后过期），多行删除合并为一批发出
+        try {
+            java.util.List<IndexMutation> mutations = new java.util.ArrayList<>(primaryKeys.size());
+            for (String deletedKey : primaryKeys) {
+                mutations.add(IndexMutation.delete(tableName, deletedKey));
+            }
+            writeIndexes(invocation, mutations);
+        } catch (RuntimeException e) {
+            logger.warn("Failed to unindex rows deleted from {}: {}", tableName, e.getMessage());
+        }
+        
+        return result;
+    }
+    
+    /**
+     * 确定更新或删除影响的主键：WHERE中有主键等值条件时为该主键，否则在执行前按索引条件查找
+     * @param invocation 拦截的调用
+     * @param boundSql 写语句的绑定SQL对象
+     * @param plan 写语句的执行计划
+     * @param indexConfig 表的索引配置
+     * @param table 写语句的目标表
+     * @param where 写语句的WHERE条件
+     * @param narrowable 能否以WHERE条件查询数据库筛选候选主键
+     * @param maintainedIndexes 需要维护的索引，受影响的行超过上限时删除这些索引
+     * @return 受影响的主键，无法确定或超过上限时返回null
+     */
+    private java.util.List<String> affectedPrimaryKeys(Invocation invocation, BoundSql boundSql, StatementPlan plan,
+                                                       IndexConfig indexConfig, net.sf.jsqlparser.schema.Table table,
+                                                       net.sf.jsqlparser.expression.Expression where,
+                                                       boolean narrowable,
+                                                       java.util.List<IndexConfig.IndexDefinition> maintainedIndexes) {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        String primaryKey = where != null && indexConfig != null
+            ? resolveConditionValue(where, indexConfig.getPrimaryKey(), ms, boundSql) : null;
+        return primaryKey != null ? Collections.singletonList(primaryKey)
+            : resolveAffectedPrimaryKeys(invocation, boundSql, plan, table, where, narrowable, maintainedIndexes);
+    }
+    
+    /**
+     * 更新语句修改了索引字段或排序字段的索引，字段名不区分大小写
+     */
+    private static java.util.List<IndexConfig.IndexDefinition> updatedIndexes(IndexConfig indexConfig,
+            net.sf.jsqlparser.statement.update.Update update) {
+        Set<String> columns = new HashSet<>();
+        for (net.sf.jsqlparser.statement.update.UpdateSet updateSet : update.getUpdateSets()) {
+            for (net.sf.jsqlparser.schema.Column column : updateSet.getColumns()) {
+                columns.add(column.getColumnName().toLowerCase());
+            }
+        }
+        java.util.List<IndexConfig.IndexDefinition> indexes = new java.util.ArrayList<>();
+        for (IndexConfig.IndexDefinition index : indexConfig.getIndexes()) {
+            boolean updated = index.getSortField() != null && columns.contains(index.getSortField().toLowerCase());
+            for (String field : index.getFields()) {
+                updated |= columns.contains(field.toLowerCase());
+            }
+            if (updated) {
+                indexes.add(index);
+            }
+        }
+        return indexes;
+    }
+    
+    /**
+     * 删除索引的全部索引键：受影响的行过多无法逐行维护时调用，索引不存在期间相关查询回退到数据库，
+     * 由同步服务重建索引
+     * @param tableName 表名
+     * @param indexes 需要删除的索引
+     */
+    private void invalidateIndexes(String tableName, java.util.List<IndexConfig.IndexDefinition> indexes) {
+        try {
+            Set<String> indexKeys = new java.util.LinkedHashSet<>();
+            for (IndexConfig.IndexDefinition index : indexes) {
+                // 索引键为 表名:字段1:值1[:字段2:值2]
+                StringBuilder pattern = new StringBuilder(tableName);
+                for (String field : index.getFields()) {
+                    pattern.append(':').append(field).append(":*");
+                }
+                indexKeys.addAll(redisOperationService.getAllKeys(pattern.toString()));
+            }
+            if (!indexKeys.isEmpty()) {
+                redisOperationService.removeIndexes(new java.util.ArrayList<>(indexKeys));
+            }
+        } catch (RuntimeException e) {
+            logger.warn("Failed to invalidate indexes of {}: {}", tableName, e.getMessage());
+        }
+    }
+    
+    /**
+     * 行哈希是否会被读取：开启了行缓存或覆盖读取时，更新后需要按主键失效行哈希
+     */
+    private boolean readsRowHashes() {
+        return rowCache != null || coveringReads;
+    }
+    
+    /**
+     * 在写语句执行前查找WHERE匹配的主键：先按WHERE中的索引条件查询索引得到候选主键，
+     * 全部条件都由完整索引回答时候选主键就是受影响的行；否则以原WHERE加主键IN候选主键查询数据库筛选。
+     * 不在索引中的行本就没有可维护的索引记录，由同步服务修正；候选主键超过bulkWriteLimit时无法逐行维护，
+     * 删除需要维护的索引，由同步服务重建
+     * @param invocation 拦截的调用，筛选查询在其目标Executor上执行，与写语句处于同一事务
+     * @param boundSql 写语句的绑定SQL对象
+     * @param plan 写语句的执行计划
+     * @param table 写语句的目标表
+     * @param where 写语句的WHERE条件
+     * @param narrowable 能否以WHERE条件查询数据库筛选候选主键
+     * @param maintainedIndexes 需要维护的索引
+     * @return 受影响的主键，无法确定或超过上限时返回null
+     */
+    private java.util.List<String> resolveAffectedPrimaryKeys(Invocation invocation, BoundSql boundSql,
+                                                              StatementPlan plan, net.sf.jsqlparser.schema.Table table,
+                                                              net.sf.jsqlparser.expression.Expression where,
+                                                              boolean narrowable,
+                                                              java.util.List<IndexConfig.IndexDefinition> maintainedIndexes) {
+        IndexCondition indexCondition = plan.getIndexCondition();
+        if (indexCondition == null) {
+            return null;
+        }
+        
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        try {
+            java.util.List<java.util.List<String>> clauses = indexCondition.resolve(
+                position -> ParameterValueResolver.resolve(ms.getConfiguration(), boundSql, position));
+            if (clauses.isEmpty()) {
+                return null;
+            }
             
-            // 递归处理AND条件的两边
-            fieldValues.putAll(extractIndexFieldValues(andExpr.getLeftExpression(), indexConfig));
-            fieldValues.putAll(extractIndexFieldValues(andExpr.getRightExpression(), indexConfig));
+            java.util.List<String> candidates = indexQueryPlanner.lookupClauses(clauses, null, null).getPrimaryKeys();
+            if (candidates.size() > bulkWriteLimit) {
+                logger.warn("{} candidate rows for {} exceed bulkWriteLimit {}, invalidating {} indexes of {}",
+                    candidates.size(), ms.getId(), bulkWriteLimit, maintainedIndexes.size(), table.getName());
+                invalidateIndexes(table.getName(), maintainedIndexes);
+                return null;
+            }
+            CoveredPredicates coveredPredicates = plan.getCoveredPredicates();
+            if (candidates.isEmpty() || coveredPredicates != null && coveredPredicates.coversAll()
+                && clauses.size() == indexCondition.getClauseCount()) {
+                return candidates;
+            }
+            if (!narrowable) {
+                return null;
+            }
+            return selectAffectedPrimaryKeys(invocation, boundSql, plan, table, where, candidates);
+        } catch (Exception e) {
+            logger.debug("Failed to resolve rows affected by {}: {}", ms.getId(), e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * 查询候选主键中满足写语句WHERE条件的主键：SELECT 主键 FROM 表 WHERE (原条件) AND 主键 IN (候选主键)
+     */
+    private java.util.List<String> selectAffectedPrimaryKeys(Invocation invocation, BoundSql boundSql,
+                                                             StatementPlan plan, net.sf.jsqlparser.schema.Table table,
+                                                             net.sf.jsqlparser.expression.Expression where,
+                                                             java.util.List<String> candidates) throws Exception {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        String whereSql = where.toString();
+        String sql = "SELECT " + plan.getIndexConfig().getPrimaryKey() + " FROM " + table + " WHERE (" + whereSql + ")";
+        net.sf.jsqlparser.statement.select.Select select = 
+            (net.sf.jsqlparser.statement.select.Select) statementParser.parse(sql);
+        
+        // 按WHERE中各占位符在原语句中的位置取参数映射，WHERE之后还有ORDER BY、LIMIT等占位符时同样适用
+        java.util.List<Integer> positions = parameterPositions(where);
+        java.util.List<ParameterMapping> boundMappings = boundSql.getParameterMappings();
+        if (positions == null || positions.size() != countPlaceholders(whereSql)) {
+            return null;
+        }
+        java.util.List<ParameterMapping> parameterMappings = new java.util.ArrayList<>(positions.size());
+        for (int position : positions) {
+            if (position >= boundMappings.size()) {
+                return null;
+            }
+            parameterMappings.add(boundMappings.get(position));
+        }
+        
+        RewriteDialect rewriteDialect = resolveDialect(ms.getConfiguration());
+        PrimaryKeyParameters primaryKeyParameters = PrimaryKeyParameters.of(candidates, plan.getIndexConfig(),
+            primaryKeyColumnType(plan.getIndexConfig(), ms), ms,
+            rewriteDialect.isArrayBinding());
+        String keySql = rewriteSelectSql(sql, candidates, primaryKeyParameters, rewriteDialect, select, null, null,
+            true);
+        BoundSql keyBoundSql = createBoundSql(ms, boundSql, keySql,
+            primaryKeyParameters.insertInto(parameterMappings, ms.getConfiguration()), primaryKeyParameters);
+        
+        java.util.List<Object> rows = ((Executor) invocation.getTarget()).query(
+            internalQueryStatement(ms, keyBoundSql, KEY_QUERY_SUFFIX, String.class),
+            boundSql.getParameterObject(), RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+        java.util.List<String> primaryKeys = new java.util.ArrayList<>(rows.size());
+        for (Object row : rows) {
+            if (row != null) {
+                primaryKeys.add(row.toString());
+            }
+        }
+        logger.debug("Rows affected by {}: {} of {} index candidates", ms.getId(), primaryKeys.size(),
+            candidates.size());
+        return primaryKeys;
+    }
+    
+    /**
+     * WHERE中各占位符在原语句中的位置，按出现顺序排列
+     * @param where 写语句的WHERE条件
+     * @return 从0开始的占位符位置，存在位置未知的占位符时返回null；子查询中的占位符不在结果中
+     */
+    private static java.util.List<Integer> parameterPositions(net.sf.jsqlparser.expression.Expression where) {
+        java.util.List<Integer> positions = new java.util.ArrayList<>();
+        where.accept(new net.sf.jsqlparser.expression.ExpressionVisitorAdapter() {
+            @Override
+            public void visit(net.sf.jsqlparser.expression.JdbcParameter parameter) {
+                positions.add(ParameterValueResolver.positionOf(parameter));
+            }
+        });
+        if (positions.contains(-1)) {
+            return null;
+        }
+        // 位置递增即为占位符在WHERE文本中的顺序，与访问顺序无关
+        Collections.sort(positions);
+        return positions;
+    }
+    
+    /**
+     * 写语句维护索引时使用的内部查询语句，不使用二级缓存
+     * @param ms 写语句
+     * @param queryBoundSql 查询的绑定SQL对象
+     * @param idSuffix 附加在写语句ID后的后缀
+     * @param resultType 结果类型：主键列的字符串值或整行的Map
+     */
+    private MappedStatement internalQueryStatement(MappedStatement ms, BoundSql queryBoundSql, String idSuffix,
+                                                   Class<?> resultType) {
+        org.apache.ibatis.session.Configuration configuration = ms.getConfiguration();
+        String id = ms.getId() + idSuffix;
+        MappedStatement.Builder builder = new MappedStatement.Builder(
+            configuration,
+            id,
+            parameterObject -> queryBoundSql,
+            SqlCommandType.SELECT
+        );
+        
+        builder.resource(ms.getResource());
+        builder.timeout(ms.getTimeout());
+        builder.resultMaps(Collections.singletonList(
+            new ResultMap.Builder(configuration, id + "-Inline", resultType, new java.util.ArrayList<>()).build()));
+        builder.flushCacheRequired(false);
+        builder.useCache(false);
+        builder.databaseId(ms.getDatabaseId());
+        builder.lang(ms.getLang());
+        
+        return builder.build();
+    }
+    
+    /**
+     * 更新语句只有单表和WHERE条件时，才能用同一WHERE查询受影响的行
+     */
+    private boolean isPlainUpdate(net.sf.jsqlparser.statement.update.Update update) {
+        return update.getWhere() != null && update.getFromItem() == null && isEmpty(update.getJoins())
+            && isEmpty(update.getStartJoins()) && isEmpty(update.getOrderByElements()) && update.getLimit() == null;
+    }
+    
+    /**
+     * 删除语句只有单表和WHERE条件时，才能用同一WHERE查询受影响的行
+     */
+    private boolean isPlainDelete(net.sf.jsqlparser.statement.delete.Delete delete) {
+        return delete.getWhere() != null && isEmpty(delete.getJoins()) && isEmpty(delete.getUsingList())
+            && isEmpty(delete.getTables()) && isEmpty(delete.getOrderByElements()) && delete.getLimit() == null;
+    }
+    
+    private static boolean isEmpty(java.util.Collection<?> collection) {
+        return collection == null || collection.isEmpty();
+    }
+    
+    /**
+     * 在同一事务中读取更新后的行，按各行的当前值计算其全部索引记录和版本号
+     * @param invocation 拦截的调用，查询在其目标Executor上执行
+     * @param boundSql 更新语句的绑定SQL对象
+     * @param indexConfig 表的索引配置
+     * @param primaryKeys 受影响的主键
+     * @return 各行替换索引成员关系的变更，已不存在的行跳过
+     * @throws Exception 查询失败时抛出
+     */
+    private List<IndexMutation> reloadedMutations(Invocation invocation, BoundSql boundSql, IndexConfig indexConfig,
+                                                  java.util.List<String> primaryKeys) throws Exception {
+        MappedStatement ms = (MappedStatement) invocation.getArgs()[0];
+        String tableName = indexConfig.getTableName();
+        String sql = "SELECT * FROM " + tableName;
+        net.sf.jsqlparser.statement.select.Select select = 
+            (net.sf.jsqlparser.statement.select.Select) statementParser.parse(sql);
+        
+        RewriteDialect rewriteDialect = resolveDialect(ms.getConfiguration());
+        PrimaryKeyParameters primaryKeyParameters = PrimaryKeyParameters.of(primaryKeys, indexConfig,
+            primaryKeyColumnType(indexConfig, ms), ms,
+            rewriteDialect.isArrayBinding());
+        String rowSql = rewriteSelectSql(sql, primaryKeys, primaryKeyParameters, rewriteDialect, select, null, null,
+            true);
+        BoundSql rowBoundSql = createBoundSql(ms, boundSql, rowSql,
+            primaryKeyParameters.insertInto(new java.util.ArrayList<>(), ms.getConfiguration()), primaryKeyParameters);
+        
+        java.util.List<Object> rows = ((Executor) invocation.getTarget()).query(
+            internalQueryStatement(ms, rowBoundSql, ROW_QUERY_SUFFIX, Map.class),
+            boundSql.getParameterObject(), RowBounds.DEFAULT, Executor.NO_RESULT_HANDLER);
+        double now = System.currentTimeMillis();
+        List<IndexMutation> mutations = new java.util.ArrayList<>(rows.size());
+        for (Object row : rows) {
+            if (!(row instanceof Map)) {
+                continue;
+            }
+            Map<String, Object> values = new java.util.TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) row).entrySet()) {
+                values.put(String.valueOf(entry.getKey()), entry.getValue());
+            }
+            Object primaryKey = values.get(indexConfig.getPrimaryKey());
+            if (primaryKey == null) {
+                continue;
+            }
+            Object version = values.get(indexConfig.getVersionField());
+            mutations.add(IndexMutation.move(tableName, primaryKey.toString(),
+                IndexEntries.of(indexConfig, values, now).getEntries(),
+                version instanceof Number ? ((Number) version).longValue() : -1));
+        }
+        return mutations;
+    }
+    
+    /**
+     * 计算插入语句各行的索引变更，主键无法确定或索引记录为空的行跳过
+     * @param tableName 表名
+     * @param rows 插入的各行
+     * @param ms MappedStatement对象
+     * @param boundSql 绑定SQL对象
+     * @param parameter 参数对象，生成的主键已回填
+     * @return 索引变更
+     */
+    private List<IndexMutation> insertMutations(String tableName, InsertRows rows, MappedStatement ms,
+                                                BoundSql boundSql, Object parameter) {
+        IndexConfig indexConfig = findIndexConfig(tableName);
+        List<String> primaryKeys = rows.primaryKeys(indexConfig != null ? indexConfig.getPrimaryKey() : null,
+            ms, boundSql, parameter);
+        List<IndexMutation> mutations = new java.util.ArrayList<>(primaryKeys.size());
+        for (int i = 0; i < primaryKeys.size(); i++) {
+            String primaryKey = primaryKeys.get(i);
+            if (primaryKey == null) {
+                continue;
+            }
+            IndexEntries indexEntries = statementParser.processStatement(rows.row(i),
+                position -> ParameterValueResolver.resolve(ms.getConfiguration(), boundSql, position));
+            if (indexEntries != null && !indexEntries.getEntries().isEmpty()) {
+                mutations.add(IndexMutation.add(tableName, primaryKey, indexEntries.getEntries()));
+            }
+        }
+        return mutations;
+    }
+    
+    /**
+     * 应用写语句的一组索引变更：开启后写时记录到所属事务，事务提交后由后台线程发出；
+     * 否则立即合并为一次批量写入发出，不等待应答。命令失败只记录日志，索引由同步服务在下次同步时修正
+     * @param invocation 拦截的调用，其目标Executor在没有Spring事务同步时作为事务标识
+     * @param mutations 索引变更
+     */
+    private void writeIndexes(Invocation invocation, List<IndexMutation> mutations) {
+        if (mutations.isEmpty()) {
+            return;
+        }
+        IndexWriteBehind queue = writeBehind;
+        if (queue != null) {
+            for (IndexMutation mutation : mutations) {
+                queue.record(invocation.getTarget(), mutation);
+            }
+            return;
+        }
+        IndexMutation.applyAll(mutations, asyncOperationService).whenComplete((ignored, e) -> {
+            if (e != null) {
+                logger.warn("Failed to apply {} index mutations: {}", mutations.size(), e.getMessage());
+            }
+        });
+    }
+    
+    /**
+     * 批量执行器刷新后，计算并写入期间插入的各行的索引变更
+     */
+    private void flushBatchInserts(Invocation invocation) {
+        List<Supplier<List<IndexMutation>>> pending = batchInserts.remove(invocation.getTarget());
+        if (pending == null) {
+            return;
+        }
+        List<IndexMutation> mutations = new java.util.ArrayList<>();
+        for (Supplier<List<IndexMutation>> insert : pending) {
+            try {
+                mutations.addAll(insert.get());
+            } catch (RuntimeException e) {
+                logger.warn("Failed to index a batched insert: {}", e.getMessage());
+            }
+        }
+        writeIndexes(invocation, mutations);
+    }
+    
+    /**
+     * 丢弃批量执行器中未刷新的插入，回滚和关闭时这些语句不会执行
+     */
+    private void discardBatchInserts(Invocation invocation) {
+        List<Supplier<List<IndexMutation>>> pending = batchInserts.remove(invocation.getTarget());
+        if (pending != null) {
+            logger.debug("Discarding index mutations of {} unflushed batched inserts", pending.size());
         }
-        
-        return fieldValues;
     }
     
     /**
-     * 从表达式中提取值
+     * 批量执行器刷新语句后写入期间插入的各行的索引
+     */
+    private Object handleFlushStatements(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        flushBatchInserts(invocation);
+        return result;
+    }
+    
+    /**
+     * Executor提交后发出事务中记录的索引变更
      */
-    private String extractValueFromExpression(net.sf.jsqlparser.expression.Expression expression) {
-        if (expression instanceof net.sf.jsqlparser.expression.StringValue) {
-            return ((net.sf.jsqlparser.expression.StringValue) expression).getValue();
-        } else if (expression instanceof net.sf.jsqlparser.expression.LongValue) {
-            return String.valueOf(((net.sf.jsqlparser.expression.LongValue) expression).getValue());
-        } else if (expression instanceof net.sf.jsqlparser.expression.DoubleValue) {
-            return String.valueOf(((net.sf.jsqlparser.expression.DoubleValue) expression).getValue());
-        } else if (expression instanceof net.sf.jsqlparser.expression.DateValue) {
-            return ((net.sf.jsqlparser.expression.DateValue) expression).getValue().toString();
-        } else if (expression instanceof net.sf.jsqlparser.expression.TimeValue) {
-            return ((net.sf.jsqlparser.expression.TimeValue) expression).getValue().toString();
-        } else if (expression instanceof net.sf.jsqlparser.expression.TimestampValue) {
-            return ((net.sf.jsqlparser.expression.TimestampValue) expression).getValue().toString();
+    private Object handleCommit(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        // 提交前执行器已刷新批量语句
+        flushBatchInserts(invocation);
+        IndexWriteBehind queue = writeBehind;
+        if (queue != null) {
+            queue.commit(invocation.getTarget());
         }
-        return null;
+        return result;
     }
     
-    private Object handleInsert(Invocation invocation, String sql) throws Throwable {
-        try {
-            // 解析SQL语句
-            net.sf.jsqlparser.statement.Statement statement = statementParser.parse(sql);
-            if (!(statement instanceof net.sf.jsqlparser.statement.insert.Insert)) {
-                return invocation.proceed();
-            }
-            
-            net.sf.jsqlparser.statement.insert.Insert insert = 
-                (net.sf.jsqlparser.statement.insert.Insert) statement;
-                
-            // 检查表名是否在白名单中
-            String tableName = insert.getTable().getName();
-            if (!isTableAllowed(tableName)) {
-                // 表不在白名单中，直接执行原SQL
-                logger.debug("Table {} not in whitelist, skipping SQL interception", tableName);
-                return invocation.proceed();
-            }
-            
-            // 检查是否包含版本号字段
-            if (!containsVersionField(statement)) {
-                // 输出debug日志
-                return invocation.proceed();
-            }
-            
-            // 执行原SQL并获取结果（包括自增主键）
-            Object result = invocation.proceed();
-            
-            // 获取插入记录的主键值
-            String primaryKey = extractPrimaryKey(invocation);
-            if (primaryKey == null) {
-                return result;
-            }
-            
-            // 根据索引配置更新Redis缓存
-            Object indexInfo = statementParser.processStatement(statement);
-            if (indexInfo != null) {
-                String indexKey = indexInfo.toString();
-                double score = extractScore(statement); // 从排序字段获取分数
-                
-                // 添加索引记录
-                redisOperationService.addIndexRecord(indexKey, primaryKey, score);
-                // 添加主键到索引的映射
-                redisOperationService.addPrimaryKeyToIndexMapping(tableName, primaryKey, indexKey);
+    /**
+     * Executor回滚时丢弃事务中记录的索引变更
+     */
+    private Object handleRollback(Invocation invocation) throws Throwable {
+        discardBatchInserts(invocation);
+        IndexWriteBehind queue = writeBehind;
+        if (queue != null) {
+            queue.rollback(invocation.getTarget());
+        }
+        return invocation.proceed();
+    }
+    
+    /**
+     * Executor关闭时，需要回滚的事务丢弃记录的索引变更，否则（自动提交）发出
+     */
+    private Object handleClose(Invocation invocation) throws Throwable {
+        // 关闭时执行器回滚未刷新的批量语句
+        discardBatchInserts(invocation);
+        IndexWriteBehind queue = writeBehind;
+        if (queue != null) {
+            if (Boolean.TRUE.equals(invocation.getArgs()[0])) {
+                queue.rollback(invocation.getTarget());
+            } else {
+                queue.commit(invocation.getTarget());
             }
-            
-            return result;
-        } catch (Exception e) {
-            // 发生异常时，使用原SQL执行
-            return invocation.proceed();
         }
+        return invocation.proceed();
     }
     
-    private Object handleUpdate(Invocation invocation, String sql) throws Throwable {
+    /**
+     * 更新或删除执行后失效受影响行的行哈希：开启行缓存或覆盖读取时，删除行哈希中的版本号字段
+     * （未配置版本号时删除主键字段），同步服务重新写入整行前行缓存和覆盖读取都不再使用该行；两者都关闭时不读取行哈希，不做失效。
+     * 开启后写时删除命令随索引变更记录到所属事务，提交后由后台线程发出，发出前重新载入一级缓存的节点
+     * 最多在rowCacheExpireSeconds内读到更新前的行；否则多行的删除命令同时发出后等待完成。
+     * 本地一级缓存同时删除，并通过失效通道通知其他节点：单行按主键，多行按整张表；
+     * 无法确定受影响的主键时按整张表失效一级缓存。失效失败只记录日志，不影响已执行的语句
+     * @param invocation 拦截的调用，开启后写时其目标Executor作为事务标识
+     * @param tableName 表名
+     * @param indexConfig 表的索引配置
+     * @param primaryKeys 受影响的主键，无法确定时为null
+     */
+    private void invalidateRows(Invocation invocation, String tableName, IndexConfig indexConfig,
+                                java.util.List<String> primaryKeys) {
+        if (!readsRowHashes()) {
+            return;
+        }
+        RowCache cache = rowCache;
         try {
-            // 解析SQL语句
-            net.sf.jsqlparser.statement.Statement statement = statementParser.parse(sql);
-            if (!(statement instanceof net.sf.jsqlparser.statement.update.Update)) {
-                return invocation.proceed();
-            }
-            
-            net.sf.jsqlparser.statement.update.Update update = 
-                (net.sf.jsqlparser.statement.update.Update) statement;
-                
-            // 检查表名是否在白名单中
-            String tableName = update.getTable().getName();
-            if (!isTableAllowed(tableName)) {
-                // 表不在白名单中，直接执行原SQL
-                logger.debug("Table {} not in whitelist, skipping SQL interception", tableName);
-                return invocation.proceed();
-            }
-            
-            // 检查是否包含版本号字段
-            if (!containsVersionField(statement)) {
-                // 输出debug日志
-                return invocation.proceed();
-            }
-            
-            // 执行原SQL并验证影响行数（乐观锁更新是否成功）
-            Object result = invocation.proceed();
-            int affectedRows = getAffectedRows(result);
-            if (affectedRows <= 0) {
-                return result;
-            }
-            
-            // 获取更新记录的主键值
-            String primaryKey = extractPrimaryKeyFromUpdate(statement);
-            if (primaryKey == null) {
-                return result;
+            if (primaryKeys == null || indexConfig == null) {
+                if (cache != null) {
+                    cache.invalidateTable(tableName);
+                }
+                publishInvalidation(tableName + ":" + RowCache.ALL_ROWS);
+                return;
             }
             
-            // 获取旧的索引键
-            Set<String> oldIndexKeys = redisOperationService.getPrimaryKeyMappings(tableName, primaryKey);
-            
-            // 根据新值生成新的索引信息
-            Object indexInfo = statementParser.processStatement(statement);
-            if (indexInfo != null) {
-                String newIndexKey = indexInfo.toString();
-                double newScore = extractScore(statement); // 从排序字段获取新的分数
-                
-                // 删除旧的索引记录
-                if (oldIndexKeys != null) {
-                    for (String oldIndexKey : oldIndexKeys) {
-                        redisOperationService.removeIndexRecord(oldIndexKey, primaryKey);
-                    }
+            String versionField = indexConfig.getVersionField();
+            String field = versionField != null && !versionField.isEmpty() ? versionField : indexConfig.getPrimaryKey();
+            IndexWriteBehind queue = writeBehind;
+            java.util.List<java.util.concurrent.CompletableFuture<Void>> removals = 
+                new java.util.ArrayList<>(primaryKeys.size());
+            for (String primaryKey : primaryKeys) {
+                if (queue != null) {
+                    queue.record(invocation.getTarget(), IndexMutation.invalidate(tableName, primaryKey, field));
+                } else {
+                    removals.add(asyncOperationService.removeDataField(tableName + ":" + primaryKey, field)
+                        .toCompletableFuture());
+                }
+                if (cache != null) {
+                    cache.invalidate(tableName, primaryKey);
                 }
-                
-                // 添加新的索引记录
-                redisOperationService.addIndexRecord(newIndexKey, primaryKey, newScore);
-                redisOperationService.addPrimaryKeyToIndexMapping(tableName, primaryKey, newIndexKey);
             }
-            
-            return result;
+            java.util.concurrent.CompletableFuture.allOf(
+                removals.toArray(new java.util.concurrent.CompletableFuture<?>[0])).join();
+            if (primaryKeys.size() == 1) {
+                publishInvalidation(tableName + ":" + primaryKeys.get(0));
+            } else if (!primaryKeys.isEmpty()) {
+                publishInvalidation(tableName + ":" + RowCache.ALL_ROWS);
+            }
         } catch (Exception e) {
-            // 发生异常时，使用原SQL执行
-            return invocation.proceed();
+            logger.warn("Failed to invalidate row cache for table {}: {}", tableName, e.getMessage());
         }
     }
     
-    private Object handleDelete(Invocation invocation, String sql) throws Throwable {
+    /**
+     * 通过失效通道通知其他节点删除行缓存一级缓存中的键，发布失败时其他节点在一级缓存过期后恢复一致
+     * @param key 表名:主键 或 表名:*
+     */
+    private void publishInvalidation(String key) {
+        InvalidationChannel channel = invalidationChannel;
+        if (channel == null) {
+            return;
+        }
         try {
-            // 解析SQL语句
-            net.sf.jsqlparser.statement.Statement statement = statementParser.parse(sql);
-            if (!(statement instanceof net.sf.jsqlparser.statement.delete.Delete)) {
-                return invocation.proceed();
-            }
-            
-            net.sf.jsqlparser.statement.delete.Delete delete = 
-                (net.sf.jsqlparser.statement.delete.Delete) statement;
-                
-            // 检查表名是否在白名单中
-            String tableName = delete.getTable().getName();
-            if (!isTableAllowed(tableName)) {
-                // 表不在白名单中，直接执行原SQL
-                logger.debug("Table {} not in whitelist, skipping SQL interception", tableName);
-                return invocation.proceed();
-            }
-            
-            // 获取删除记录的主键值
-            String primaryKey = extractPrimaryKeyFromDelete(statement);
-            if (primaryKey == null) {
-                return invocation.proceed();
-            }
-            
-            // 执行原SQL
-            Object result = invocation.proceed();
-            
-            // 标记记录为删除状态（10分钟后过期）
-            redisOperationService.markForDeletion(tableName, primaryKey);
-            
-            // 获取该主键对应的所有索引键
-            Set<String> indexKeys = redisOperationService.getPrimaryKeyMappings(tableName, primaryKey);
-            if (indexKeys != null) {
-                for (String indexKey : indexKeys) {
-                    // 标记索引记录为删除状态
-                    redisOperationService.markForDeletion(indexKey, primaryKey);
-                }
-            }
-            
-            return result;
+            channel.publish(nodeId + INVALIDATION_SEPARATOR + key);
         } catch (Exception e) {
-            // 发生异常时，使用原SQL执行
-            return invocation.proceed();
+            logger.warn("Failed to publish row cache invalidation for {}: {}", key, e.getMessage());
         }
     }
     
@@ -746,11 +1869,18 @@ public class RedisJqlInterceptor implements Interceptor {
      * 重写SELECT SQL语句，使用IN条件查询
      * @param sql 原始SQL
      * @param primaryKeys 主键集合
+     * @param primaryKeyParameters 主键IN条件的占位符参数，改写时记录IN条件之后的占位符数量
+     * @param dialect 改写方言，决定主键条件和排序表达式的形式
      * @param select 原始Select语句
+     * @param pageWindow 已下推到索引的分页窗口，没有时为null
+     * @param scoreOrder 主键已按索引分数排序时的顺序，没有时为null
+     * @param orderedInApplication 查询结果是否在应用端按主键顺序重排，是时去掉ORDER BY
      * @return 重写后的SQL
      */
-    private String rewriteSelectSql(String sql, java.util.List<String> primaryKeys, 
-                                  net.sf.jsqlparser.statement.select.Select select) {
+    private String rewriteSelectSql(String sql, java.util.List<String> primaryKeys,
+                                  PrimaryKeyParameters primaryKeyParameters, RewriteDialect dialect,
+                                  net.sf.jsqlparser.statement.select.Select select, PageWindow pageWindow,
+                                  ScoreOrder scoreOrder, boolean orderedInApplication) {
         if (primaryKeys == null || primaryKeys.isEmpty()) {
             return sql;
         }
@@ -771,23 +1901,11 @@ public class RedisJqlInterceptor implements Interceptor {
             
             String primaryKeyColumn = indexConfig.getPrimaryKey();
             
-            // 创建IN表达式
+            // 按方言创建主键条件，主键值以占位符绑定
             net.sf.jsqlparser.schema.Column primaryKeyCol = 
                 new net.sf.jsqlparser.schema.Column(table, primaryKeyColumn);
-            
-            // 转换主键值为表达式列表
-            java.util.List<net.sf.jsqlparser.expression.Expression> expressions = 
-                new java.util.ArrayList<>();
-            
-            for (String pk : primaryKeys) {
-                expressions.add(new net.sf.jsqlparser.expression.StringValue(pk));
-            }
-            
-            net.sf.jsqlparser.expression.operators.relational.ExpressionList exprList = 
-                new net.sf.jsqlparser.expression.operators.relational.ExpressionList(expressions);
-            
-            net.sf.jsqlparser.expression.operators.relational.InExpression inExpression = 
-                new net.sf.jsqlparser.expression.operators.relational.InExpression(primaryKeyCol, exprList);
+            net.sf.jsqlparser.expression.Expression inExpression = 
+                dialect.primaryKeyCondition(primaryKeyCol, primaryKeyParameters.toExpressions());
             
             // 替换或添加WHERE条件
             net.sf.jsqlparser.expression.Expression whereExpression = plainSelect.getWhere();
@@ -799,103 +1917,149 @@ public class RedisJqlInterceptor implements Interceptor {
                 plainSelect.setWhere(inExpression);
             }
             
-            // 处理排序
-            if (!primaryKeys.isEmpty() && plainSelect.getOrderByElements() != null 
-                && !plainSelect.getOrderByElements().isEmpty()) {
-                // 保持Redis查询结果的排序顺序
-                addCaseWhenOrderBy(plainSelect, primaryKeyColumn, primaryKeys);
+            // 当前页已由索引截取，数据库只需在这些主键内排序
+            if (pageWindow != null) {
+                pageWindow.removeOffset(plainSelect);
+            } else if (orderedInApplication) {
+                plainSelect.setOrderByElements(null);
+            }
+            primaryKeyParameters.setTrailingParameters(PrimaryKeyParameters.countTrailingParameters(plainSelect));
+            
+            if (pageWindow == null && !orderedInApplication && scoreOrder == null 
+                && plainSelect.getOrderByElements() != null && !plainSelect.getOrderByElements().isEmpty()) {
+                // 保持Redis查询结果的排序顺序，方言没有专用排序表达式时使用CASE WHEN，主键同样以占位符绑定
+                net.sf.jsqlparser.expression.Expression orderExpression = 
+                    dialect.primaryKeyOrder(primaryKeyCol, primaryKeyParameters.toExpressions());
+                if (orderExpression == null && !dialect.isArrayBinding()) {
+                    orderExpression = caseWhenOrder(primaryKeyCol, primaryKeyParameters.toExpressions());
+                }
+                if (orderExpression != null) {
+                    primaryKeyParameters.setOrderTrailingParameters(
+                        PrimaryKeyParameters.countOrderParameters(plainSelect));
+                    addPrimaryKeyOrderBy(plainSelect, orderExpression);
+                }
             }
             
             return select.toString();
         } catch (Exception e) {
             // 如果使用JSqlParser失败，使用简单的字符串替换
-            return fallbackRewriteSelectSql(sql, primaryKeys);
+            return fallbackRewriteSelectSql(sql, primaryKeyParameters, dialect);
         }
     }
     
     /**
-     * 添加CASE WHEN排序表达式，确保结果按照Redis查询的顺序排序
+     * 将方言的主键排序表达式添加为第一个排序条件
      */
-    private void addCaseWhenOrderBy(net.sf.jsqlparser.statement.select.PlainSelect plainSelect, 
-                                  String primaryKeyColumn, 
-                                  java.util.List<String> primaryKeys) {
-        try {
-            // 构建CASE表达式字符串
-            StringBuilder caseWhen = new StringBuilder();
-            caseWhen.append("CASE ").append(primaryKeyColumn);
-            
-            for (int i = 0; i < primaryKeys.size(); i++) {
-                caseWhen.append(" WHEN '").append(primaryKeys.get(i))
-                       .append("' THEN ").append(i);
-            }
-            
-            caseWhen.append(" ELSE ").append(primaryKeys.size()).append(" END");
-            
-            // 解析CASE表达式
-            net.sf.jsqlparser.expression.Expression caseExpression = 
-                net.sf.jsqlparser.parser.CCJSqlParserUtil.parseExpression(caseWhen.toString());
-            
-            // 创建新的OrderByElement
-            net.sf.jsqlparser.statement.select.OrderByElement orderByCase = 
-                new net.sf.jsqlparser.statement.select.OrderByElement();
-            orderByCase.setExpression(caseExpression);
-            orderByCase.setAsc(true);
-            
-            // 添加到ORDER BY子句
-            java.util.List<net.sf.jsqlparser.statement.select.OrderByElement> newOrderByElements = 
-                new java.util.ArrayList<>();
-            newOrderByElements.add(orderByCase);
-            
-            // 保留原有的ORDER BY元素
-            if (plainSelect.getOrderByElements() != null) {
-                newOrderByElements.addAll(plainSelect.getOrderByElements());
-            }
-            
-            plainSelect.setOrderByElements(newOrderByElements);
-        } catch (Exception e) {
-            // 如果添加CASE WHEN排序失败，保持原有排序
+    private void addPrimaryKeyOrderBy(net.sf.jsqlparser.statement.select.PlainSelect plainSelect,
+                                      net.sf.jsqlparser.expression.Expression orderExpression) {
+        net.sf.jsqlparser.statement.select.OrderByElement orderByKey = 
+            new net.sf.jsqlparser.statement.select.OrderByElement();
+        orderByKey.setExpression(orderExpression);
+        orderByKey.setAsc(true);
+        
+        java.util.List<net.sf.jsqlparser.statement.select.OrderByElement> newOrderByElements = 
+            new java.util.ArrayList<>();
+        newOrderByElements.add(orderByKey);
+        newOrderByElements.addAll(plainSelect.getOrderByElements());
+        plainSelect.setOrderByElements(newOrderByElements);
+    }
+    
+    /**
+     * 通用的按主键列表顺序排序的表达式：CASE 主键 WHEN ? THEN 0 WHEN ? THEN 1 ... ELSE n END
+     * 主键以占位符绑定，补齐的重复主键只命中第一个WHEN，SQL文本只随占位符档位变化
+     */
+    private static net.sf.jsqlparser.expression.Expression caseWhenOrder(
+            net.sf.jsqlparser.schema.Column primaryKeyColumn,
+            java.util.List<net.sf.jsqlparser.expression.Expression> keys) {
+        java.util.List<net.sf.jsqlparser.expression.WhenClause> whenClauses = new java.util.ArrayList<>(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            net.sf.jsqlparser.expression.WhenClause whenClause = new net.sf.jsqlparser.expression.WhenClause();
+            whenClause.setWhenExpression(keys.get(i));
+            whenClause.setThenExpression(new net.sf.jsqlparser.expression.LongValue(i));
+            whenClauses.add(whenClause);
         }
+        
+        net.sf.jsqlparser.expression.CaseExpression caseExpression = new net.sf.jsqlparser.expression.CaseExpression();
+        caseExpression.setSwitchExpression(primaryKeyColumn);
+        caseExpression.setWhenClauses(whenClauses);
+        caseExpression.setElseExpression(new net.sf.jsqlparser.expression.LongValue(keys.size()));
+        return caseExpression;
     }
     
     /**
      * 备用的SQL重写方法，使用字符串替换
      */
-    private String fallbackRewriteSelectSql(String sql, java.util.List<String> primaryKeys) {
-        // 构建IN条件
-        StringBuilder inClause = new StringBuilder();
-        for (int i = 0; i < primaryKeys.size(); i++) {
-            if (i > 0) {
-                inClause.append(", ");
-            }
-            inClause.append("'").append(primaryKeys.get(i)).append("'");
-        }
+    private String fallbackRewriteSelectSql(String sql, PrimaryKeyParameters primaryKeyParameters,
+                                            RewriteDialect dialect) {
+        // 按方言构建主键条件
+        String inClause = dialect.primaryKeyCondition(new net.sf.jsqlparser.schema.Column("id"),
+            primaryKeyParameters.toExpressions()).toString();
         
         // 检查SQL是否已有WHERE子句
         String lowerSql = sql.toLowerCase();
         int whereIndex = lowerSql.indexOf(" where ");
         
+        int orderByIndex = lowerSql.indexOf(" order by ");
+        int groupByIndex = lowerSql.indexOf(" group by ");
+        int insertPos = groupByIndex >= 0 ? groupByIndex : 
+                        (orderByIndex >= 0 ? orderByIndex : sql.length());
+        
         StringBuilder newSql = new StringBuilder(sql);
         if (whereIndex >= 0) {
-            // 在WHERE子句后添加AND id IN (...)
-            int orderByIndex = lowerSql.indexOf(" order by ");
-            int groupByIndex = lowerSql.indexOf(" group by ");
-            int insertPos = orderByIndex >= 0 ? orderByIndex : 
-                            (groupByIndex >= 0 ? groupByIndex : sql.length());
-            
-            newSql.insert(insertPos, " AND id IN (" + inClause + ")");
+            // 在WHERE子句后添加AND id IN (...)，或方言对应的主键条件
+            newSql.insert(insertPos, " AND " + inClause);
         } else {
             // 添加WHERE id IN (...)
-            int orderByIndex = lowerSql.indexOf(" order by ");
-            int groupByIndex = lowerSql.indexOf(" group by ");
-            int insertPos = orderByIndex >= 0 ? orderByIndex : 
-                            (groupByIndex >= 0 ? groupByIndex : sql.length());
-            
-            newSql.insert(insertPos, " WHERE id IN (" + inClause + ")");
+            newSql.insert(insertPos, " WHERE " + inClause);
         }
         
+        // 插入位置之后的占位符（ORDER BY、LIMIT等）对应的参数映射排在主键参数之后
+        primaryKeyParameters.setTrailingParameters(countPlaceholders(sql.substring(insertPos)));
         return newSql.toString();
     }
     
+    /**
+     * 统计SQL片段中字符串字面量之外的 ? 占位符数量
+     */
+    private int countPlaceholders(String sqlPart) {
+        int count = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sqlPart.length(); i++) {
+            char c = sqlPart.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '?' && !quoted) {
+                count++;
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * 获取SQL改写方言，未设置时按数据源识别并缓存
+     */
+    private RewriteDialect resolveDialect(org.apache.ibatis.session.Configuration configuration) {
+        RewriteDialect current = dialect;
+        if (current == null) {
+            current = RewriteDialects.detect(configuration);
+            dialect = current;
+        }
+        return current;
+    }
+    
+    /**
+     * 获取主键列的JDBC类型，索引配置未指定时读取数据库的列元数据并按表缓存
+     */
+    private org.apache.ibatis.type.JdbcType primaryKeyColumnType(IndexConfig indexConfig, MappedStatement ms) {
+        org.apache.ibatis.type.JdbcType configured = indexConfig.getPrimaryKeyType();
+        if (configured != null && configured != org.apache.ibatis.type.JdbcType.UNDEFINED) {
+            return configured;
+        }
+        return primaryKeyColumnTypes.computeIfAbsent(indexConfig.getTableName(),
+            tableName -> PrimaryKeyParameters.detectColumnType(ms.getConfiguration(), tableName,
+                indexConfig.getPrimaryKey()));
+    }
+    
     /**
      * 检查SQL语句是否包含版本号字段
      * @param statement SQL语句
@@ -946,130 +2110,96 @@ public class RedisJqlInterceptor implements Interceptor {
     }
     
     /**
-     * 查找表对应的索引配置
-     * @param tableName 表名
-     * @return 索引配置
-     */
-    private IndexConfig findIndexConfig(String tableName) {
-        // 这里应该从配置中心或缓存中获取索引配置
-        // 简化实现，返回null
-        return null;
-    }
-    
-    /**
-     * 从插入操作中提取主键值
-     * @param invocation 调用对象
-     * @return 主键值
+     * 从更新语句中解析行的新版本号
+     * SET 版本号 = 常量或参数时取该值；SET 版本号 = 版本号 + n 时取WHERE条件中的旧版本号加n
+     * @param update 更新语句
+     * @param versionField 版本号字段
+     * @param ms MappedStatement对象
+     * @param boundSql 绑定SQL对象
+     * @return 新版本号，无法确定或不是整数时返回-1，此时替换索引不比较版本
      */
-    private String extractPrimaryKey(Invocation invocation) {
+    private long extractNewVersion(net.sf.jsqlparser.statement.update.Update update, String versionField,
+                                   MappedStatement ms, BoundSql boundSql) {
         try {
-            // 获取参数对象
-            Object parameter = invocation.getArgs()[1];
-            
-            // 如果参数是Map类型，尝试从Map中获取主键值
-            if (parameter instanceof java.util.Map) {
-                java.util.Map<?, ?> paramMap = (java.util.Map<?, ?>) parameter;
-                
-                // 尝试获取常见的主键字段名
-                String[] possibleKeys = {"id", "ID", "Id", "primaryKey", "primary_key"};
-                for (String key : possibleKeys) {
-                    Object value = paramMap.get(key);
-                    if (value != null) {
-                        return value.toString();
+            for (net.sf.jsqlparser.statement.update.UpdateSet updateSet : update.getUpdateSets()) {
+                List<net.sf.jsqlparser.schema.Column> columns = updateSet.getColumns();
+                for (int i = 0; i < columns.size() && i < updateSet.getExpressions().size(); i++) {
+                    if (!columns.get(i).getColumnName().equals(versionField)) {
+                        continue;
                     }
-                }
-            }
-            
-            // 如果参数是POJO类型，尝试通过反射获取主键值
-            if (parameter != null) {
-                try {
-                    java.lang.reflect.Method method = parameter.getClass().getMethod("getId");
-                    Object result = method.invoke(parameter);
-                    if (result != null) {
-                        return result.toString();
+                    net.sf.jsqlparser.expression.Expression value = updateSet.getExpressions().get(i);
+                    if (value instanceof net.sf.jsqlparser.expression.operators.arithmetic.Addition) {
+                        net.sf.jsqlparser.expression.operators.arithmetic.Addition addition =
+                            (net.sf.jsqlparser.expression.operators.arithmetic.Addition) value;
+                        if (!(addition.getLeftExpression() instanceof net.sf.jsqlparser.schema.Column)
+                            || !((net.sf.jsqlparser.schema.Column) addition.getLeftExpression())
+                                .getColumnName().equals(versionField)) {
+                            return -1;
+                        }
+                        String oldVersion = resolveConditionValue(update.getWhere(), versionField, ms, boundSql);
+                        String increment = resolveExpressionValue(addition.getRightExpression(), ms, boundSql);
+                        if (oldVersion == null || increment == null) {
+                            return -1;
+                        }
+                        return Long.parseLong(oldVersion) + Long.parseLong(increment);
                     }
-                } catch (Exception e) {
-                    // 忽略异常，继续尝试其他方法
+                    String newVersion = resolveExpressionValue(value, ms, boundSql);
+                    return newVersion != null ? Long.parseLong(newVersion) : -1;
                 }
             }
-            
-            return null;
-        } catch (Exception e) {
-            return null;
+        } catch (NumberFormatException e) {
+            // 时间戳等非整数版本号不参与比较
         }
+        return -1;
     }
     
     /**
-     * 从更新语句中提取主键值
-     * @param statement 更新语句
-     * @return 主键值
+     * 解析值表达式，值为 ? 占位符时按当前参数取值
+     * @param value 值表达式
+     * @param ms MappedStatement对象
+     * @param boundSql 绑定SQL对象
+     * @return 值，表达式或参数为null时返回null
      */
-    private String extractPrimaryKeyFromUpdate(net.sf.jsqlparser.statement.Statement statement) {
-        try {
-            net.sf.jsqlparser.statement.update.Update update = (net.sf.jsqlparser.statement.update.Update) statement;
-            String tableName = update.getTable().getName();
-            
-            // 获取表对应的索引配置
-            IndexConfig indexConfig = findIndexConfig(tableName);
-            if (indexConfig == null) {
-                return null;
-            }
-            
-            // 获取主键字段名
-            String primaryKeyField = indexConfig.getPrimaryKey();
-            
-            // 从WHERE条件中提取主键值
-            net.sf.jsqlparser.expression.Expression where = update.getWhere();
-            if (where == null) {
-                return null;
-            }
-            
-            // 解析WHERE条件，查找主键条件
-            return extractValueFromCondition(where, primaryKeyField);
-        } catch (Exception e) {
-            return null;
+    private String resolveExpressionValue(net.sf.jsqlparser.expression.Expression value,
+                                          MappedStatement ms, BoundSql boundSql) {
+        if (value instanceof net.sf.jsqlparser.expression.JdbcParameter) {
+            Object parameter = ParameterValueResolver.resolve(ms.getConfiguration(), boundSql,
+                ParameterValueResolver.positionOf((net.sf.jsqlparser.expression.JdbcParameter) value));
+            return parameter != null ? parameter.toString() : null;
         }
+        return value != null ? value.toString().replaceAll("'", "") : null;
     }
     
     /**
-     * 从删除语句中提取主键值
-     * @param statement 删除语句
-     * @return 主键值
+     * 查找表对应的索引配置
+     * @param tableName 表名
+     * @return 索引配置
      */
-    private String extractPrimaryKeyFromDelete(net.sf.jsqlparser.statement.Statement statement) {
-        try {
-            net.sf.jsqlparser.statement.delete.Delete delete = (net.sf.jsqlparser.statement.delete.Delete) statement;
-            String tableName = delete.getTable().getName();
-            
-            // 获取表对应的索引配置
-            IndexConfig indexConfig = findIndexConfig(tableName);
-            if (indexConfig == null) {
-                return null;
-            }
-            
-            // 获取主键字段名
-            String primaryKeyField = indexConfig.getPrimaryKey();
-            
-            // 从WHERE条件中提取主键值
-            net.sf.jsqlparser.expression.Expression where = delete.getWhere();
-            if (where == null) {
-                return null;
-            }
-            
-            // 解析WHERE条件，查找主键条件
-            return extractValueFromCondition(where, primaryKeyField);
-        } catch (Exception e) {
-            return null;
-        }
+    private IndexConfig findIndexConfig(String tableName) {
+        return indexConfigs.get(tableName);
+    }
+    
+    /**
+     * 从条件表达式中解析字段值，值为 ? 占位符时按当前参数取值
+     * @param expression 条件表达式
+     * @param fieldName 字段名
+     * @param ms MappedStatement对象
+     * @param boundSql 绑定SQL对象
+     * @return 字段值，没有该字段的等值条件或参数为null时返回null
+     */
+    private String resolveConditionValue(net.sf.jsqlparser.expression.Expression expression, String fieldName,
+                                         MappedStatement ms, BoundSql boundSql) {
+        return resolveExpressionValue(findConditionValue(expression, fieldName), ms, boundSql);
     }
     
     /**
-     * 从条件表达式中提取字段值
+     * 查找条件表达式中字段等值条件的值表达式
      * @param expression 条件表达式
      * @param fieldName 字段名
-     * @return 字段值
+     * @return 值表达式，没有该字段的等值条件时返回null
      */
-    private String extractValueFromCondition(net.sf.jsqlparser.expression.Expression expression, String fieldName) {
+    private net.sf.jsqlparser.expression.Expression findConditionValue(
+            net.sf.jsqlparser.expression.Expression expression, String fieldName) {
         if (expression instanceof net.sf.jsqlparser.expression.operators.relational.EqualsTo) {
             net.sf.jsqlparser.expression.operators.relational.EqualsTo equalsTo = 
                 (net.sf.jsqlparser.expression.operators.relational.EqualsTo) expression;
@@ -1079,7 +2209,7 @@ public class RedisJqlInterceptor implements Interceptor {
                     (net.sf.jsqlparser.schema.Column) equalsTo.getLeftExpression();
                 
                 if (column.getColumnName().equals(fieldName)) {
-                    return equalsTo.getRightExpression().toString().replaceAll("'", "");
+                    return equalsTo.getRightExpression();
                 }
             }
             
@@ -1088,34 +2218,25 @@ public class RedisJqlInterceptor implements Interceptor {
                     (net.sf.jsqlparser.schema.Column) equalsTo.getRightExpression();
                 
                 if (column.getColumnName().equals(fieldName)) {
-                    return equalsTo.getLeftExpression().toString().replaceAll("'", "");
+                    return equalsTo.getLeftExpression();
                 }
             }
         } else if (expression instanceof net.sf.jsqlparser.expression.operators.conditional.AndExpression) {
             net.sf.jsqlparser.expression.operators.conditional.AndExpression andExpression = 
                 (net.sf.jsqlparser.expression.operators.conditional.AndExpression) expression;
             
-            String leftResult = extractValueFromCondition(andExpression.getLeftExpression(), fieldName);
+            net.sf.jsqlparser.expression.Expression leftResult = 
+                findConditionValue(andExpression.getLeftExpression(), fieldName);
             if (leftResult != null) {
                 return leftResult;
             }
             
-            return extractValueFromCondition(andExpression.getRightExpression(), fieldName);
+            return findConditionValue(andExpression.getRightExpression(), fieldName);
         }
         
         return null;
     }
     
-    /**
-     * 从语句中提取排序分数
-     * @param statement SQL语句
-     * @return 排序分数
-     */
-    private double extractScore(net.sf.jsqlparser.statement.Statement statement) {
-        // 默认分数为当前时间戳
-        return System.currentTimeMillis();
-    }
-    
     /**
      * 获取受影响的行数
      * @param result 执行结果
@@ -1148,19 +2269,102 @@ public class RedisJqlInterceptor implements Interceptor {
      * @param ms MappedStatement对象
      * @param boundSql 绑定SQL对象
      * @param newSql 新SQL
+     * @param parameterMappings 新SQL的参数映射
+     * @param primaryKeyParameters 主键IN条件的占位符参数
      * @return 执行结果
      * @throws Throwable 异常
      */
-    private Object executeRewrittenSql(Invocation invocation, MappedStatement ms, BoundSql boundSql, String newSql) throws Throwable {
-        // 替换原始SQL
-        java.lang.reflect.Field field = boundSql.getClass().getDeclaredField("sql");
-        field.setAccessible(true);
-        field.set(boundSql, newSql);
-        
-        // 执行改写后的SQL
+    private Object executeRewrittenSql(Invocation invocation, MappedStatement ms, BoundSql boundSql, String newSql,
+                                       java.util.List<ParameterMapping> parameterMappings,
+                                       PrimaryKeyParameters primaryKeyParameters) throws Throwable {
+        // Executor会通过MappedStatement重新生成BoundSql，因此替换为返回新BoundSql的副本
+        invocation.getArgs()[0] = copyMappedStatement(ms,
+            createBoundSql(ms, boundSql, newSql, parameterMappings, primaryKeyParameters));
         return invocation.proceed();
     }
     
+    /**
+     * 分块执行改写后的SQL：每块主键单独改写为一条SQL，并行执行后按分块顺序合并结果
+     * @param chunkedExecutor 分块执行器
+     * @param invocation 拦截的调用，处于事务中时各分块在其目标Executor上执行
+     * @param ms MappedStatement对象
+     * @param boundSql 原绑定SQL对象
+     * @param sql 添加主键条件前的SQL
+     * @param parameterMappings 添加主键参数前的参数映射
+     * @param plan 执行计划
+     * @param primaryKeys 已排序的主键列表
+     * @param dialect 改写方言
+     * @param orderedInApplication 结果是否在应用端排序，是时各分块不带ORDER BY
+     * @return 合并后的结果
+     * @throws Exception 解析或执行失败时抛出
+     */
+    private Object executeChunkedSql(ChunkedQueryExecutor chunkedExecutor, Invocation invocation,
+                                     MappedStatement ms, BoundSql boundSql,
+                                     String sql, java.util.List<ParameterMapping> parameterMappings,
+                                     StatementPlan plan, java.util.List<String> primaryKeys, RewriteDialect dialect,
+                                     boolean orderedInApplication) throws Exception {
+        java.util.List<MappedStatement> statements = new java.util.ArrayList<>();
+        for (java.util.List<String> chunk : chunkedExecutor.split(primaryKeys)) {
+            // 每块重新获取语句副本，改写不会互相影响
+            net.sf.jsqlparser.statement.select.Select select = 
+                (net.sf.jsqlparser.statement.select.Select) statementParser.parse(sql);
+            PrimaryKeyParameters primaryKeyParameters = PrimaryKeyParameters.of(chunk, plan.getIndexConfig(),
+                primaryKeyColumnType(plan.getIndexConfig(), ms), ms,
+                dialect.isArrayBinding());
+            String chunkSql = rewriteSelectSql(sql, chunk, primaryKeyParameters, dialect, select, null,
+                plan.getScoreOrder(), orderedInApplication);
+            statements.add(copyMappedStatement(ms, createBoundSql(ms, boundSql, chunkSql,
+                primaryKeyParameters.insertInto(parameterMappings, ms.getConfiguration()), primaryKeyParameters)));
+        }
+        
+        logger.debug("Chunked execution for {}: {} keys in {} chunks", ms.getId(), primaryKeys.size(), statements.size());
+        return chunkedExecutor.query(statements, boundSql.getParameterObject(), (Executor) invocation.getTarget());
+    }
+    
+    /**
+     * 创建改写后SQL的BoundSql对象，复制附加参数并绑定主键参数
+     */
+    private BoundSql createBoundSql(MappedStatement ms, BoundSql boundSql, String newSql,
+                                    java.util.List<ParameterMapping> parameterMappings,
+                                    PrimaryKeyParameters primaryKeyParameters) {
+        BoundSql newBoundSql = new BoundSql(ms.getConfiguration(), newSql, parameterMappings,
+            boundSql.getParameterObject());
+        for (java.util.Map.Entry<String, Object> entry : boundSql.getAdditionalParameters().entrySet()) {
+            newBoundSql.setAdditionalParameter(entry.getKey(), entry.getValue());
+        }
+        primaryKeyParameters.bind(newBoundSql);
+        return newBoundSql;
+    }
+    
+    /**
+     * 复制MappedStatement对象，SqlSource固定返回改写后的BoundSql
+     */
+    private MappedStatement copyMappedStatement(MappedStatement ms, BoundSql newBoundSql) {
+        MappedStatement.Builder builder = new MappedStatement.Builder(
+            ms.getConfiguration(),
+            ms.getId(),
+            parameterObject -> newBoundSql,
+            ms.getSqlCommandType()
+        );
+        
+        builder.resource(ms.getResource());
+        builder.fetchSize(ms.getFetchSize());
+        builder.statementType(ms.getStatementType());
+        builder.keyGenerator(ms.getKeyGenerator());
+        builder.timeout(ms.getTimeout());
+        builder.parameterMap(ms.getParameterMap());
+        builder.resultMaps(ms.getResultMaps());
+        builder.resultSetType(ms.getResultSetType());
+        builder.cache(ms.getCache());
+        builder.flushCacheRequired(ms.isFlushCacheRequired());
+        builder.useCache(ms.isUseCache());
+        builder.resultOrdered(ms.isResultOrdered());
+        builder.databaseId(ms.getDatabaseId());
+        builder.lang(ms.getLang());
+        
+        return builder.build();
+    }
+    
     @Override
     public Object plugin(Object target) {
         return Plugin.wrap(target, this);
@@ -1188,6 +2392,72 @@ public class RedisJqlInterceptor implements Interceptor {
                 }
                 setMapperWhitelist(mappers);
             }
+            
+            // 读取SQL改写方言配置
+            String dialectStr = properties.getProperty("dialect");
+            if (dialectStr != null && !dialectStr.trim().isEmpty()) {
+                setDialect(RewriteDialects.forName(dialectStr.trim()));
+            }
+            
+            // 读取分块并行查询配置，SqlSessionFactory需要通过setSqlSessionFactory设置
+            String chunkSizeStr = properties.getProperty("chunkSize");
+            if (chunkSizeStr != null && !chunkSizeStr.trim().isEmpty()) {
+                setChunkSize(Integer.parseInt(chunkSizeStr.trim()));
+            }
+            String chunkParallelismStr = properties.getProperty("chunkParallelism");
+            if (chunkParallelismStr != null && !chunkParallelismStr.trim().isEmpty()) {
+                setChunkParallelism(Integer.parseInt(chunkParallelismStr.trim()));
+            }
+            
+            // 读取覆盖读取配置
+            String coveringReadsStr = properties.getProperty("coveringReads");
+            if (coveringReadsStr != null && !coveringReadsStr.trim().isEmpty()) {
+                setCoveringReads(Boolean.parseBoolean(coveringReadsStr.trim()));
+            }
+            
+            // 读取完整索引配置
+            String trustCompleteIndexesStr = properties.getProperty("trustCompleteIndexes");
+            if (trustCompleteIndexesStr != null && !trustCompleteIndexesStr.trim().isEmpty()) {
+                setTrustCompleteIndexes(Boolean.parseBoolean(trustCompleteIndexesStr.trim()));
+            }
+            
+            // 读取行缓存配置
+            String rowCacheSizeStr = properties.getProperty("rowCacheSize");
+            if (rowCacheSizeStr != null && !rowCacheSizeStr.trim().isEmpty()) {
+                setRowCacheSize(Long.parseLong(rowCacheSizeStr.trim()));
+            }
+            String rowCacheExpireStr = properties.getProperty("rowCacheExpireSeconds");
+            if (rowCacheExpireStr != null && !rowCacheExpireStr.trim().isEmpty()) {
+                setRowCacheExpireSeconds(Long.parseLong(rowCacheExpireStr.trim()));
+            }
+            String rowCacheStr = properties.getProperty("rowCache");
+            if (rowCacheStr != null && !rowCacheStr.trim().isEmpty()) {
+                setRowCache(Boolean.parseBoolean(rowCacheStr.trim()));
+            }
+            
+            // 读取后写队列配置
+            String writeBehindCapacityStr = properties.getProperty("writeBehindCapacity");
+            if (writeBehindCapacityStr != null && !writeBehindCapacityStr.trim().isEmpty()) {
+                setWriteBehindCapacity(Integer.parseInt(writeBehindCapacityStr.trim()));
+            }
+            String writeBehindBatchSizeStr = properties.getProperty("writeBehindBatchSize");
+            if (writeBehindBatchSizeStr != null && !writeBehindBatchSizeStr.trim().isEmpty()) {
+                setWriteBehindBatchSize(Integer.parseInt(writeBehindBatchSizeStr.trim()));
+            }
+            String writeBehindStr = properties.getProperty("writeBehind");
+            if (writeBehindStr != null && !writeBehindStr.trim().isEmpty()) {
+                setWriteBehind(Boolean.parseBoolean(writeBehindStr.trim()));
+            }
+            String bulkWriteLimitStr = properties.getProperty("bulkWriteLimit");
+            if (bulkWriteLimitStr != null && !bulkWriteLimitStr.trim().isEmpty()) {
+                setBulkWriteLimit(Integer.parseInt(bulkWriteLimitStr.trim()));
+            }
+            
+            // 读取应用端排序配置
+            String applicationOrderingStr = properties.getProperty("applicationOrdering");
+            if (applicationOrderingStr != null && !applicationOrderingStr.trim().isEmpty()) {
+                setApplicationOrdering(Boolean.parseBoolean(applicationOrderingStr.trim()));
+            }
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,149 @@
+package org.sqlfans.redisjql.interceptor;
+
+import net.sf.jsqlparser.statement.select.PlainSelect;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.reflection.MetaClass;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 应用端结果排序
+ * 主键已按ORDER BY排好序时，改写后的SQL去掉ORDER BY，查询结果按主键在列表中的位置在内存中重排，
+ * 代替 ORDER BY CASE pk WHEN ... 表达式，省去拼接和解析CASE表达式以及数据库端的排序
+ *
+ * <p>每行的主键通过ResultMap中主键列对应的属性读取；无法确定该属性、查询带有分页或分组、
+ * 或者结果交给ResultHandler处理时不使用该方式。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class ResultOrder {
+    private final Configuration configuration;
+    private final String keyProperty;
+    private final Map<String, Integer> ranks;
+
+    private ResultOrder(Configuration configuration, String keyProperty, Map<String, Integer> ranks) {
+        this.configuration = configuration;
+        this.keyProperty = keyProperty;
+        this.ranks = ranks;
+    }
+
+    /**
+     * 判断查询结果能否在应用端按主键顺序重排
+     * @param ms MappedStatement对象
+     * @param primaryKey 主键列名
+     * @param plainSelect 原查询语句
+     * @param primaryKeys 已排序的主键列表
+     * @return 结果排序，不能在应用端排序时返回null
+     */
+    static ResultOrder detect(MappedStatement ms, String primaryKey, PlainSelect plainSelect, List<String> primaryKeys) {
+        if (plainSelect.getOrderByElements() == null || plainSelect.getOrderByElements().isEmpty()
+            || plainSelect.getLimit() != null || plainSelect.getOffset() != null || plainSelect.getFetch() != null
+            || plainSelect.getGroupBy() != null) {
+            return null;
+        }
+        return of(ms, primaryKey, primaryKeys);
+    }
+
+    /**
+     * 创建按主键顺序重排结果的排序，用于合并多个来源的结果行
+     * @param ms MappedStatement对象
+     * @param primaryKey 主键列名
+     * @param primaryKeys 已排序的主键列表
+     * @return 结果排序，无法读取结果行的主键时返回null
+     */
+    static ResultOrder of(MappedStatement ms, String primaryKey, List<String> primaryKeys) {
+        String keyProperty = findKeyProperty(ms, primaryKey);
+        if (keyProperty == null) {
+            return null;
+        }
+
+        Map<String, Integer> ranks = new HashMap<>(primaryKeys.size() * 4 / 3 + 1);
+        for (int i = 0; i < primaryKeys.size(); i++) {
+            ranks.putIfAbsent(primaryKeys.get(i), i);
+        }
+        return new ResultOrder(ms.getConfiguration(), keyProperty, ranks);
+    }
+
+    /**
+     * 按主键顺序重排查询结果，主键不在列表中的行排在最后并保持原有顺序
+     * @param result 查询结果
+     * @return 重排后的结果
+     */
+    Object reorder(Object result) {
+        if (!(result instanceof List) || ((List<?>) result).size() < 2) {
+            return result;
+        }
+
+        List<?> rows = (List<?>) result;
+        int[] rowRanks = new int[rows.size()];
+        Integer[] indexes = new Integer[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            rowRanks[i] = rankOf(rows.get(i));
+            indexes[i] = i;
+        }
+        Arrays.sort(indexes, (a, b) -> Integer.compare(rowRanks[a], rowRanks[b]));
+
+        List<Object> ordered = new ArrayList<>(rows.size());
+        for (Integer index : indexes) {
+            ordered.add(rows.get(index));
+        }
+        return ordered;
+    }
+
+    private int rankOf(Object row) {
+        if (row == null) {
+            return Integer.MAX_VALUE;
+        }
+        try {
+            MetaObject metaObject = configuration.newMetaObject(row);
+            Object key = metaObject.getValue(keyProperty);
+            Integer rank = key != null ? ranks.get(key.toString()) : null;
+            return rank != null ? rank : Integer.MAX_VALUE;
+        } catch (RuntimeException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /**
+     * 查找主键列对应的结果属性：优先使用ResultMap中的映射，其次按自动映射规则匹配结果类型的属性
+     */
+    private static String findKeyProperty(MappedStatement ms, String primaryKey) {
+        if (primaryKey == null || ms.getResultMaps() == null || ms.getResultMaps().size() != 1) {
+            return null;
+        }
+
+        ResultMap resultMap = ms.getResultMaps().get(0);
+        String property = null;
+        for (ResultMapping mapping : resultMap.getResultMappings()) {
+            if (primaryKey.equalsIgnoreCase(mapping.getColumn()) && mapping.getProperty() != null) {
+                if (mapping.getFlags().contains(ResultFlag.ID)) {
+                    return mapping.getProperty();
+                }
+                property = property != null ? property : mapping.getProperty();
+            }
+        }
+        if (property != null) {
+            return property;
+        }
+
+        // 结果为Map时列名大小写取决于驱动，无法可靠读取主键
+        Class<?> type = resultMap.getType();
+        if (type == null || Map.class.isAssignableFrom(type)
+            || ms.getConfiguration().getTypeHandlerRegistry().hasTypeHandler(type)) {
+            return null;
+        }
+        Configuration configuration = ms.getConfiguration();
+        return MetaClass.forClass(type, configuration.getReflectorFactory())
+            .findProperty(primaryKey, configuration.isMapUnderscoreToCamelCase());
+    }
+}
@@ -0,0 +1,151 @@
+package org.sqlfans.redisjql.interceptor;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.sqlfans.redisjql.cache.CacheOperationService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单值查询的行缓存
+ * 按 (表名, 索引, 值) 缓存主键和唯一索引查询的行哈希：本地Caffeine缓存作为一级缓存，
+ * CacheOperationService中同步服务写入的 表名:主键 行哈希作为二级缓存（Redis或Caffeine实现均可），
+ * 唯一索引的值先经 表名:字段名:值 索引映射到主键，再读取行哈希
+ *
+ * <p>更新和删除成功后按主键失效：一级缓存直接删除，二级缓存由拦截器删除行哈希中的版本号字段，
+ * 同步服务重新写入整行前该行不再由缓存回答。唯一索引到主键的映射不单独失效，
+ * 读取时校验行哈希中的字段值，不一致时视为未缓存。配置了失效通道时其他节点收到通知后删除一级缓存中的行，
+ * 否则其他节点上的更新最迟在一级缓存过期后可见。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class RowCache {
+    /**
+     * 失效消息中表示全部行的键
+     */
+    static final String ALL_ROWS = "*";
+
+    private final CacheOperationService redisOperationService;
+
+    /**
+     * 一级缓存，表名:PRIMARY:主键 到行哈希
+     */
+    private final Cache<String, Map<String, String>> rows;
+
+    /**
+     * 一级缓存，表名:唯一索引名:值 到主键
+     */
+    private final Cache<String, String> uniqueKeys;
+
+    RowCache(CacheOperationService redisOperationService, long maximumSize, long expireSeconds) {
+        this.redisOperationService = redisOperationService;
+        this.rows = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+        this.uniqueKeys = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 读取条件值对应的行
+     * @param lookup 单值查询
+     * @param value 条件值
+     * @return 行哈希；完整唯一索引中没有该值时返回空Map；未缓存时返回null，由调用方查询数据库
+     */
+    Map<String, String> find(PointLookup lookup, String value) {
+        String primaryKey = value;
+        String uniqueKey = null;
+        if (!lookup.isPrimaryKey()) {
+            uniqueKey = lookup.key(value);
+            primaryKey = uniqueKeys.getIfPresent(uniqueKey);
+            if (primaryKey == null) {
+                Set<String> keys = redisOperationService.queryPrimaryKeysByIndex(lookup.indexKey(value), 0, 1);
+                if (keys == null || keys.isEmpty()) {
+                    return lookup.isCompleteIndex() ? Collections.emptyMap() : null;
+                }
+                if (keys.size() > 1) {
+                    return null;
+                }
+                primaryKey = keys.iterator().next();
+            }
+        }
+
+        String rowKey = rowKey(lookup.getTableName(), primaryKey);
+        Map<String, String> row = rows.getIfPresent(rowKey);
+        if (row == null) {
+            String dataKey = lookup.getTableName() + ":" + primaryKey;
+            row = redisOperationService.getAllFieldValues(Collections.singletonList(dataKey)).get(dataKey);
+            if (!lookup.isCached(row)) {
+                return null;
+            }
+            row = Collections.unmodifiableMap(new HashMap<>(row));
+            rows.put(rowKey, row);
+        }
+
+        if (!lookup.matches(row, value)) {
+            if (uniqueKey != null) {
+                uniqueKeys.invalidate(uniqueKey);
+            }
+            return null;
+        }
+        if (uniqueKey != null) {
+            uniqueKeys.put(uniqueKey, lookup.primaryKeyOf(row));
+        }
+        return row;
+    }
+
+    /**
+     * 失效主键对应行的一级缓存
+     * @param tableName 表名
+     * @param primaryKey 主键值
+     */
+    void invalidate(String tableName, String primaryKey) {
+        rows.invalidate(rowKey(tableName, primaryKey));
+    }
+
+    /**
+     * 失效表的全部一级缓存，无法确定更新或删除的主键时调用
+     * @param tableName 表名
+     */
+    void invalidateTable(String tableName) {
+        String prefix = tableName + ":";
+        rows.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        uniqueKeys.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * 按失效消息删除一级缓存：* 删除全部行，表名:* 删除整张表，表名:主键 删除该行，
+     * 两级缓存服务发布的索引键等其他键不影响行缓存
+     * @param key 失效消息中的键
+     */
+    void evict(String key) {
+        if (ALL_ROWS.equals(key)) {
+            rows.invalidateAll();
+            uniqueKeys.invalidateAll();
+            return;
+        }
+        int separator = key.indexOf(':');
+        if (separator <= 0) {
+            return;
+        }
+        String tableName = key.substring(0, separator);
+        String primaryKey = key.substring(separator + 1);
+        if (ALL_ROWS.equals(primaryKey)) {
+            invalidateTable(tableName);
+        } else {
+            invalidate(tableName, primaryKey);
+        }
+    }
+
+    private static String rowKey(String tableName, String primaryKey) {
+        return tableName + ":" + PointLookup.PRIMARY + ":" + primaryKey;
+    }
+}
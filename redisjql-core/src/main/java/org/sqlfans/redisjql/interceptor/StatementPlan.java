@@ -0,0 +1,160 @@
+package org.sqlfans.redisjql.interceptor;
+
+import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.query.IndexCondition;
+import org.sqlfans.redisjql.query.ScoreOrder;
+import org.sqlfans.redisjql.query.ScoreRangePredicate;
+
+/**
+ * 语句执行计划
+ * 按MappedStatement预先计算SQL类型、目标表、索引配置以及WHERE条件对应的索引子句，
+ * 不满足条件的语句在计划中直接标记为跳过，拦截时只需一次查表。
+ * 以 ? 占位符作为条件值的索引字段记录其在ParameterMapping中的位置，执行时直接按位置取参数值；
+ * ORDER BY为索引的sortField时记录分数顺序，执行时按索引顺序读取主键，不再在客户端排序；
+ * sortField上的范围条件记录为分数区间模板，执行时换算为ZRANGEBYSCORE的区间；
+ * 完整索引能完全回答的WHERE条件记录下来，改写时不再保留；全部条件都能回答时记录覆盖读取，结果可直接由行哈希构造；
+ * 主键或唯一索引上的单值查询记录为单值查询计划，结果可由行缓存回答；
+ * 更新和删除同样记录WHERE中的索引条件和由索引完全回答的条件，用于在执行前查找受影响的主键
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+final class StatementPlan {
+    private final String sql;
+    private final RedisJqlInterceptor.SqlType sqlType;
+    private final String tableName;
+    private final IndexConfig indexConfig;
+    private final IndexCondition indexCondition;
+    private final ScoreOrder scoreOrder;
+    private final ScoreRangePredicate scoreRange;
+    private final PageWindow pageWindow;
+    private final CoveredPredicates coveredPredicates;
+    private final CoveringRead coveringRead;
+    private final PointLookup pointLookup;
+    private final String bypassReason;
+
+    private StatementPlan(String sql, RedisJqlInterceptor.SqlType sqlType, String tableName, IndexConfig indexConfig,
+                          IndexCondition indexCondition, ScoreOrder scoreOrder, ScoreRangePredicate scoreRange,
+                          PageWindow pageWindow, CoveredPredicates coveredPredicates, CoveringRead coveringRead,
+                          PointLookup pointLookup, String bypassReason) {
+        this.sql = sql;
+        this.sqlType = sqlType;
+        this.tableName = tableName;
+        this.indexConfig = indexConfig;
+        this.indexCondition = indexCondition;
+        this.scoreOrder = scoreOrder;
+        this.scoreRange = scoreRange;
+        this.pageWindow = pageWindow;
+        this.coveredPredicates = coveredPredicates;
+        this.coveringRead = coveringRead;
+        this.pointLookup = pointLookup;
+        this.bypassReason = bypassReason;
+    }
+
+    /**
+     * 创建可由RedisJQL处理的执行计划
+     * @param sql SQL语句
+     * @param sqlType SQL类型
+     * @param tableName 目标表名
+     * @param indexConfig 表的索引配置
+     * @param indexCondition WHERE中的索引条件，插入语句为null
+     * @param scoreOrder ORDER BY对应的索引分数顺序，不能使用索引顺序时为null
+     * @param scoreRange sortField上的范围条件，没有时为null
+     * @param pageWindow 可下推到索引的分页窗口，没有时为null
+     * @param coveredPredicates 由索引完全回答的WHERE条件，没有时为null
+     * @param coveringRead 可由行哈希直接回答时的覆盖读取，没有时为null
+     * @return 执行计划
+     */
+    static StatementPlan of(String sql, RedisJqlInterceptor.SqlType sqlType, String tableName, IndexConfig indexConfig,
+                            IndexCondition indexCondition, ScoreOrder scoreOrder, ScoreRangePredicate scoreRange,
+                            PageWindow pageWindow, CoveredPredicates coveredPredicates, CoveringRead coveringRead) {
+        return new StatementPlan(sql, sqlType, tableName, indexConfig, indexCondition, scoreOrder, scoreRange,
+                pageWindow, coveredPredicates, coveringRead, null, null);
+    }
+
+    /**
+     * 创建主键或唯一索引单值查询的执行计划
+     * @param sql SQL语句
+     * @param tableName 目标表名
+     * @param indexConfig 表的索引配置
+     * @param pointLookup 单值查询
+     * @return 执行计划
+     */
+    static StatementPlan pointLookup(String sql, String tableName, IndexConfig indexConfig, PointLookup pointLookup) {
+        return new StatementPlan(sql, RedisJqlInterceptor.SqlType.SELECT, tableName, indexConfig, null, null, null,
+                null, null, null, pointLookup, null);
+    }
+
+    /**
+     * 创建直接执行原SQL的执行计划
+     * @param sql SQL语句
+     * @param sqlType SQL类型
+     * @param reason 跳过原因
+     * @return 执行计划
+     */
+    static StatementPlan bypass(String sql, RedisJqlInterceptor.SqlType sqlType, String reason) {
+        return new StatementPlan(sql, sqlType, null, null, null, null, null, null, null, null, null, reason);
+    }
+
+    /**
+     * 判断计划是否对应指定的SQL
+     */
+    boolean matches(String sql) {
+        return this.sql.equals(sql);
+    }
+
+    /**
+     * 是否直接执行原SQL
+     */
+    boolean isBypass() {
+        return bypassReason != null;
+    }
+
+    String getBypassReason() {
+        return bypassReason;
+    }
+
+    String getSql() {
+        return sql;
+    }
+
+    RedisJqlInterceptor.SqlType getSqlType() {
+        return sqlType;
+    }
+
+    String getTableName() {
+        return tableName;
+    }
+
+    IndexConfig getIndexConfig() {
+        return indexConfig;
+    }
+
+    IndexCondition getIndexCondition() {
+        return indexCondition;
+    }
+
+    ScoreOrder getScoreOrder() {
+        return scoreOrder;
+    }
+
+    ScoreRangePredicate getScoreRange() {
+        return scoreRange;
+    }
+
+    PageWindow getPageWindow() {
+        return pageWindow;
+    }
+
+    CoveredPredicates getCoveredPredicates() {
+        return coveredPredicates;
+    }
+
+    CoveringRead getCoveringRead() {
+        return coveringRead;
+    }
+
+    PointLookup getPointLookup() {
+        return pointLookup;
+    }
+}
@@ -0,0 +1,205 @@
+package org.sqlfans.redisjql.parser;
+
+import org.sqlfans.redisjql.config.IndexConfig;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * 一行数据的索引记录：索引键 -> 分数
+ * 索引键与同步服务写入的格式一致：单字段索引为 表名:字段:值，值含逗号时按逗号拆分为多个索引键；
+ * 复合索引为 表名:字段1:值1:字段2:值2，任一字段为null时不建索引。
+ * 有排序字段时分数取排序字段的值（数值、日期时间取毫秒时间戳、数字字符串），没有排序字段时为给定的默认分数
+ *
+ * <p>字段值未知（语句中没有该字段，或值不是字面量和占位符）的索引无法确定，不在结果中；
+ * 存在无法确定或未受影响的索引时结果不完整，不能作为该行的全部索引成员关系。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class IndexEntries {
+
+    /**
+     * 值未知的字段
+     */
+    static final Object UNKNOWN = new Object();
+
+    /**
+     * 语句没有修改任何索引字段和排序字段
+     */
+    private static final IndexEntries NONE = new IndexEntries(Collections.emptyMap(), true, false);
+
+    private final Map<String, Double> entries;
+    private final boolean complete;
+    private final boolean affected;
+
+    private IndexEntries(Map<String, Double> entries, boolean complete, boolean affected) {
+        this.entries = entries;
+        this.complete = complete;
+        this.affected = affected;
+    }
+
+    /**
+     * 从数据库中读取的一行计算其全部索引记录，字段名不区分大小写
+     * @param indexConfig 表的索引配置
+     * @param row 列名 -> 值
+     * @param defaultScore 没有排序字段的索引使用的分数
+     * @return 索引记录，行中没有的字段视为值未知
+     */
+    public static IndexEntries of(IndexConfig indexConfig, Map<String, ?> row, double defaultScore) {
+        Map<String, Object> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        values.putAll(row);
+        return derive(indexConfig, field -> values.containsKey(field) ? values.get(field) : UNKNOWN,
+            field -> true, defaultScore);
+    }
+
+    /**
+     * 没有任何索引记录的完整结果，用于删除的行
+     */
+    static IndexEntries empty() {
+        return new IndexEntries(Collections.emptyMap(), true, true);
+    }
+
+    /**
+     * 计算各索引的索引记录
+     * @param indexConfig 表的索引配置
+     * @param values 字段名 -> 值，值未知时返回UNKNOWN
+     * @param changed 字段是否被语句修改，索引字段和排序字段都未修改的索引不受影响
+     * @param defaultScore 没有排序字段的索引使用的分数
+     * @return 受影响的索引中能确定的索引记录
+     */
+    static IndexEntries derive(IndexConfig indexConfig, Function<String, Object> values, Predicate<String> changed,
+                               double defaultScore) {
+        Map<String, Double> entries = new LinkedHashMap<>();
+        boolean complete = true;
+        boolean affected = false;
+        for (IndexConfig.IndexDefinition index : indexConfig.getIndexes()) {
+            List<String> fields = index.getFields();
+            if (fields == null || fields.isEmpty()) {
+                continue;
+            }
+            String sortField = index.getSortField();
+            if (!fields.stream().anyMatch(changed) && (sortField == null || !changed.test(sortField))) {
+                // 未修改的索引保持原样，结果不包含其索引记录
+                complete = false;
+                continue;
+            }
+            affected = true;
+
+            Double score = defaultScore;
+            if (sortField != null) {
+                Object sortValue = values.apply(sortField);
+                if (sortValue == UNKNOWN) {
+                    score = null;
+                } else {
+                    // 排序字段为null或不是数值时与同步服务相同，分数为0
+                    Double sortScore = sortValue != null ? score(sortValue) : null;
+                    score = sortScore != null ? sortScore : 0d;
+                }
+            }
+            if (score == null || !addEntries(indexConfig.getTableName(), fields, values, score, entries)) {
+                complete = false;
+            }
+        }
+        return affected ? new IndexEntries(entries, complete, true) : NONE;
+    }
+
+    /**
+     * 添加一个索引的索引记录，任一字段值未知时不添加
+     * @return 索引记录能否确定
+     */
+    private static boolean addEntries(String tableName, List<String> fields, Function<String, Object> values,
+                                      double score, Map<String, Double> entries) {
+        StringBuilder indexKey = new StringBuilder(tableName);
+        for (String field : fields) {
+            Object value = values.apply(field);
+            if (value == UNKNOWN) {
+                return false;
+            }
+            if (value == null) {
+                // 字段为null的行不在该索引中
+                return true;
+            }
+            indexKey.append(':').append(field).append(':').append(value);
+        }
+
+        Object value = values.apply(fields.get(0));
+        if (fields.size() == 1 && value instanceof String && ((String) value).contains(",")) {
+            // 多值索引
+            for (String element : ((String) value).split(",")) {
+                entries.put(tableName + ":" + fields.get(0) + ":" + element.trim(), score);
+            }
+        } else {
+            entries.put(indexKey.toString(), score);
+        }
+        return true;
+    }
+
+    /**
+     * 将排序字段的值转换为索引分数
+     * @param value 排序字段的值
+     * @return 数值取其值，日期时间取毫秒时间戳，数字字符串取其数值，其余返回null
+     */
+    public static Double score(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Date) {
+            return (double) ((Date) value).getTime();
+        } else if (value instanceof Instant) {
+            return (double) ((Instant) value).toEpochMilli();
+        } else if (value instanceof LocalDateTime) {
+            return (double) ((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } else if (value instanceof LocalDate) {
+            return (double) ((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } else if (value instanceof OffsetDateTime) {
+            return (double) ((OffsetDateTime) value).toInstant().toEpochMilli();
+        } else if (value instanceof ZonedDateTime) {
+            return (double) ((ZonedDateTime) value).toInstant().toEpochMilli();
+        } else if (value instanceof String) {
+            try {
+                return Double.parseDouble(((String) value).trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 能确定的索引记录：索引键 -> 分数
+     */
+    public Map<String, Double> getEntries() {
+        return entries;
+    }
+
+    /**
+     * 表的全部索引是否都已确定，是时索引记录即为该行的全部索引成员关系
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * 语句是否修改了索引字段或排序字段，插入和读取的行总是受影响
+     */
+    public boolean isAffected() {
+        return affected;
+    }
+
+    @Override
+    public String toString() {
+        return entries.keySet() + (complete ? "" : " (incomplete)");
+    }
+}
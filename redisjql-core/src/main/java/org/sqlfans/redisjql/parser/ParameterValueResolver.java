@@ -0,0 +1,105 @@
+package org.sqlfans.redisjql.parser;
+
+import net.sf.jsqlparser.expression.JdbcParameter;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.session.Configuration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * SQL 占位符参数解析器
+ * 将JSqlParser解析出的 ? 占位符（JdbcParameter）按位置对应到BoundSql的ParameterMapping，
+ * 并按照MyBatis DefaultParameterHandler相同的规则从参数对象中取值
+ *
+ * <p>JSqlParser按占位符在SQL中出现的顺序从1开始编号，与ParameterMapping的顺序一致。
+ * 属性读取使用Configuration中的MetaObject，其反射信息由ReflectorFactory缓存。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class ParameterValueResolver {
+
+    private ParameterValueResolver() {
+    }
+
+    /**
+     * 获取占位符在ParameterMapping中的位置
+     * @param parameter 占位符表达式
+     * @return 从0开始的位置，无法确定时返回-1
+     */
+    public static int positionOf(JdbcParameter parameter) {
+        Integer index = parameter.getIndex();
+        return index != null && index > 0 ? index - 1 : -1;
+    }
+
+    /**
+     * 解析指定位置占位符的参数值
+     * @param configuration MyBatis配置
+     * @param boundSql 绑定SQL对象
+     * @param position 从0开始的占位符位置
+     * @return 参数值，位置越界或取值失败时返回null
+     */
+    public static Object resolve(Configuration configuration, BoundSql boundSql, int position) {
+        List<ParameterMapping> mappings = boundSql.getParameterMappings();
+        if (mappings == null || position < 0 || position >= mappings.size()) {
+            return null;
+        }
+        return resolve(boundSql, mappings.get(position), newMetaObject(configuration, boundSql));
+    }
+
+    /**
+     * 按顺序解析全部占位符的参数值
+     * @param configuration MyBatis配置
+     * @param boundSql 绑定SQL对象
+     * @return 参数值列表，下标与占位符位置一致
+     */
+    public static List<Object> resolveAll(Configuration configuration, BoundSql boundSql) {
+        List<ParameterMapping> mappings = boundSql.getParameterMappings();
+        if (mappings == null || mappings.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        MetaObject metaObject = newMetaObject(configuration, boundSql);
+        List<Object> values = new ArrayList<>(mappings.size());
+        for (ParameterMapping mapping : mappings) {
+            values.add(resolve(boundSql, mapping, metaObject));
+        }
+        return values;
+    }
+
+    /**
+     * 参照DefaultParameterHandler：附加参数优先，其次是可直接映射的参数对象，最后按属性路径读取
+     */
+    private static Object resolve(BoundSql boundSql, ParameterMapping mapping, MetaObject metaObject) {
+        String property = mapping.getProperty();
+        if (boundSql.hasAdditionalParameter(property)) {
+            return boundSql.getAdditionalParameter(property);
+        }
+        if (metaObject == null) {
+            // 参数对象为空或本身就是单个参数值
+            return boundSql.getParameterObject();
+        }
+
+        try {
+            return metaObject.getValue(property);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 创建参数对象的MetaObject，参数对象为空或存在对应TypeHandler时返回null
+     */
+    private static MetaObject newMetaObject(Configuration configuration, BoundSql boundSql) {
+        Object parameterObject = boundSql.getParameterObject();
+        if (parameterObject == null
+                || configuration.getTypeHandlerRegistry().hasTypeHandler(parameterObject.getClass())) {
+            return null;
+        }
+        return configuration.newMetaObject(parameterObject);
+    }
+}
@@ -64,6 +64,22 @@ public interface SelectParser {
                               List<OrderByElement> orderByElements, 
                               List<Expression> groupByExpressions);
     
+    /**
+     * 使用Redis索引查询，WHERE条件中的 ? 占位符按位置从参数值列表中取值
+     * @param tableName 表名
+     * @param whereCondition WHERE条件
+     * @param orderByElements ORDER BY元素列表
+     * @param groupByExpressions GROUP BY表达式列表
+     * @param parameterValues 占位符参数值，下标与占位符位置一致，可由{@link ParameterValueResolver#resolveAll}获得
+     * @return 查询结果
+     */
+    default Object queryWithRedisIndex(String tableName, Expression whereCondition,
+                                      List<OrderByElement> orderByElements,
+                                      List<Expression> groupByExpressions,
+                                      List<Object> parameterValues) {
+        return queryWithRedisIndex(tableName, whereCondition, orderByElements, groupByExpressions);
+    }
+    
     /**
      * 重写Select SQL
      * @param originalSql 原始SQL
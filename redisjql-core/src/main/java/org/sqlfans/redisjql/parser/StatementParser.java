@@ -1,65 +1,291 @@
 package org.sqlfans.redisjql.parser;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.DateValue;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NullValue;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.TimeValue;
+import net.sf.jsqlparser.expression.TimestampValue;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.insert.Insert;
 import net.sf.jsqlparser.statement.select.Select;
 import net.sf.jsqlparser.statement.update.Update;
+import net.sf.jsqlparser.statement.update.UpdateSet;
 import net.sf.jsqlparser.statement.delete.Delete;
+import org.sqlfans.redisjql.config.IndexConfig;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntFunction;
 
 /**
  * SQL 语句解析器
  * 负责解析 SQL 语句并转换为相应的 Redis 操作
+ *
+ * <p>解析结果按SQL文本缓存（按SQL长度计权重，并记录命中/未命中次数）。
+ * 缓存中的语句对象由各调用方共享，只能通过{@link #parseReadOnly(String)}读取，不能修改；
+ * 需要改写语句的调用方使用{@link #parse(String)}，每次重新解析得到独占的语句对象。
+ * 解析失败同样缓存，两种方式都直接抛出新的异常实例，不再重复解析。</p>
  */
 public class StatementParser {
-    
+
+    /**
+     * 默认缓存总权重（SQL字符数）
+     */
+    public static final long DEFAULT_MAXIMUM_WEIGHT = 4L * 1024 * 1024;
+
+    /**
+     * 默认可缓存的最大SQL长度，超过该长度的SQL不进入缓存
+     */
+    public static final int DEFAULT_MAX_SQL_LENGTH = 16 * 1024;
+
+    private final Cache<String, ParseResult> parseCache;
+    private final int maxSqlLength;
+    private volatile Map<String, IndexConfig> indexConfigs = Collections.emptyMap();
+
+    public StatementParser() {
+        this(DEFAULT_MAXIMUM_WEIGHT, DEFAULT_MAX_SQL_LENGTH);
+    }
+
+    /**
+     * @param maximumWeight 缓存总权重（SQL字符数），为0时禁用缓存
+     * @param maxSqlLength 可缓存的最大SQL长度
+     */
+    public StatementParser(long maximumWeight, int maxSqlLength) {
+        this.maxSqlLength = maxSqlLength;
+        this.parseCache = Caffeine.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher((String sql, ParseResult result) -> sql.length())
+                .recordStats()
+                .build();
+    }
+
     /**
-     * 解析 SQL 语句
+     * 解析 SQL 语句，返回调用方独占的语句对象，可以任意修改；已缓存为解析失败的SQL直接抛出异常
      * @param sql SQL 语句
      * @return 解析后的语句对象
      * @throws JSQLParserException 解析异常
      */
     public Statement parse(String sql) throws JSQLParserException {
-        return CCJSqlParserUtil.parse(sql);
+        if (sql == null || sql.length() > maxSqlLength) {
+            return CCJSqlParserUtil.parse(sql);
+        }
+
+        ParseResult cached = parseCache.getIfPresent(sql);
+        if (cached != null && cached.error != null) {
+            throw new JSQLParserException(cached.error.getMessage(), cached.error);
+        }
+        try {
+            return CCJSqlParserUtil.parse(sql);
+        } catch (JSQLParserException e) {
+            parseCache.put(sql, new ParseResult(null, e));
+            throw e;
+        }
+    }
+
+    /**
+     * 解析 SQL 语句，返回缓存中共享的语句对象，未命中时解析并缓存。
+     * 返回的语句同时被其他调用方使用，只能读取，不能修改
+     * @param sql SQL 语句
+     * @return 解析后的语句对象
+     * @throws JSQLParserException 解析异常
+     */
+    public Statement parseReadOnly(String sql) throws JSQLParserException {
+        if (sql == null || sql.length() > maxSqlLength) {
+            return CCJSqlParserUtil.parse(sql);
+        }
+
+        ParseResult result = parseCache.get(sql, ParseResult::of);
+        if (result.error != null) {
+            throw new JSQLParserException(result.error.getMessage(), result.error);
+        }
+        return result.statement;
+    }
+
+    /**
+     * 获取解析缓存统计信息（命中数、未命中数、淘汰数等）
+     * @return 缓存统计
+     */
+    public CacheStats getParseCacheStats() {
+        return parseCache.stats();
+    }
+
+    /**
+     * 获取当前缓存的SQL条数
+     * @return 缓存条数
+     */
+    public long getParseCacheSize() {
+        return parseCache.estimatedSize();
+    }
+
+    /**
+     * 清空解析缓存
+     */
+    public void invalidateParseCache() {
+        parseCache.invalidateAll();
+    }
+
+    /**
+     * 设置各表的索引配置，处理写语句时据此计算索引记录
+     * @param configs 索引配置列表
+     */
+    public void setIndexConfigs(List<IndexConfig> configs) {
+        Map<String, IndexConfig> byTable = new ConcurrentHashMap<>();
+        if (configs != null) {
+            for (IndexConfig config : configs) {
+                byTable.put(config.getTableName(), config);
+            }
+        }
+        this.indexConfigs = byTable;
     }
-    
+
     /**
-     * 判断语句类型并执行相应处理
+     * 判断语句类型并执行相应处理，占位符的值视为未知
      * @param statement 解析后的语句对象
      * @return 处理结果
      */
-    public Object processStatement(Statement statement) {
+    public IndexEntries processStatement(Statement statement) {
+        return processStatement(statement, position -> IndexEntries.UNKNOWN);
+    }
+
+    /**
+     * 计算写语句写入的行的索引记录
+     * 插入：各索引字段的新值，插入语句中没有的字段按null处理；
+     * 更新：SET修改了索引字段或排序字段的索引，未修改的字段值未知；
+     * 删除：行不再属于任何索引
+     * @param statement 解析后的语句对象，多行插入须先拆分为单行
+     * @param parameterValues 按从0开始的位置取 ? 占位符的参数值
+     * @return 索引记录，表没有索引配置或语句是查询时返回null
+     */
+    public IndexEntries processStatement(Statement statement, IntFunction<Object> parameterValues) {
         if (statement instanceof Insert) {
-            return processInsert((Insert) statement);
+            return processInsert((Insert) statement, parameterValues);
         } else if (statement instanceof Select) {
             return processSelect((Select) statement);
         } else if (statement instanceof Update) {
-            return processUpdate((Update) statement);
+            return processUpdate((Update) statement, parameterValues);
         } else if (statement instanceof Delete) {
             return processDelete((Delete) statement);
         } else {
             throw new UnsupportedOperationException("不支持的 SQL 语句类型");
         }
     }
-    
-    private Object processInsert(Insert insert) {
-        // 实现插入语句的处理逻辑
-        return null;
+
+    private IndexEntries processInsert(Insert insert, IntFunction<Object> parameterValues) {
+        IndexConfig indexConfig = indexConfigs.get(insert.getTable().getName());
+        if (indexConfig == null) {
+            return null;
+        }
+
+        List<Column> columns = insert.getColumns();
+        if (columns == null || !(insert.getItemsList() instanceof ExpressionList)) {
+            // 没有字段列表或 INSERT ... SELECT 时各字段的值未知
+            return IndexEntries.derive(indexConfig, field -> IndexEntries.UNKNOWN, field -> true,
+                    System.currentTimeMillis());
+        }
+        List<Expression> expressions = ((ExpressionList) insert.getItemsList()).getExpressions();
+        Map<String, Object> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (int i = 0; i < columns.size() && i < expressions.size(); i++) {
+            values.put(columns.get(i).getColumnName(), valueOf(expressions.get(i), parameterValues));
+        }
+        return IndexEntries.derive(indexConfig, values::get, field -> true, System.currentTimeMillis());
     }
-    
-    private Object processSelect(Select select) {
-        // 实现查询语句的处理逻辑
+
+    private IndexEntries processSelect(Select select) {
+        // 查询语句不产生索引记录
         return null;
     }
-    
-    private Object processUpdate(Update update) {
-        // 实现更新语句的处理逻辑
-        return null;
+
+    private IndexEntries processUpdate(Update update, IntFunction<Object> parameterValues) {
+        IndexConfig indexConfig = indexConfigs.get(update.getTable().getName());
+        if (indexConfig == null) {
+            return null;
+        }
+
+        Map<String, Object> values = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        for (UpdateSet updateSet : update.getUpdateSets()) {
+            List<Column> columns = updateSet.getColumns();
+            List<Expression> expressions = updateSet.getExpressions();
+            for (int i = 0; i < columns.size(); i++) {
+                // SET (a, b) = (SELECT ...) 的值未知
+                values.put(columns.get(i).getColumnName(), columns.size() == expressions.size()
+                        ? valueOf(expressions.get(i), parameterValues) : IndexEntries.UNKNOWN);
+            }
+        }
+        return IndexEntries.derive(indexConfig,
+                field -> values.containsKey(field) ? values.get(field) : IndexEntries.UNKNOWN,
+                values::containsKey, System.currentTimeMillis());
     }
-    
-    private Object processDelete(Delete delete) {
-        // 实现删除语句的处理逻辑
-        return null;
+
+    private IndexEntries processDelete(Delete delete) {
+        return indexConfigs.containsKey(delete.getTable().getName()) ? IndexEntries.empty() : null;
+    }
+
+    /**
+     * 值表达式的值：字面量取其值，占位符取参数值，其余表达式的值未知
+     */
+    private static Object valueOf(Expression expression, IntFunction<Object> parameterValues) {
+        if (expression instanceof NullValue) {
+            return null;
+        } else if (expression instanceof JdbcParameter) {
+            int position = ParameterValueResolver.positionOf((JdbcParameter) expression);
+            return position >= 0 ? parameterValues.apply(position) : IndexEntries.UNKNOWN;
+        } else if (expression instanceof StringValue) {
+            return ((StringValue) expression).getValue();
+        } else if (expression instanceof LongValue) {
+            return ((LongValue) expression).getValue();
+        } else if (expression instanceof DoubleValue) {
+            return ((DoubleValue) expression).getValue();
+        } else if (expression instanceof DateValue) {
+            return ((DateValue) expression).getValue();
+        } else if (expression instanceof TimeValue) {
+            return ((TimeValue) expression).getValue();
+        } else if (expression instanceof TimestampValue) {
+            return ((TimestampValue) expression).getValue();
+        } else if (expression instanceof SignedExpression
+                && ((SignedExpression) expression).getSign() == '-') {
+            Object value = valueOf(((SignedExpression) expression).getExpression(), parameterValues);
+            if (value instanceof Long) {
+                return -((Long) value);
+            } else if (value instanceof Double) {
+                return -((Double) value);
+            }
+        }
+        return IndexEntries.UNKNOWN;
+    }
+
+    /**
+     * 解析结果，解析失败的SQL同样缓存，避免重复解析
+     */
+    private static final class ParseResult {
+        private final Statement statement;
+        private final JSQLParserException error;
+
+        private ParseResult(Statement statement, JSQLParserException error) {
+            this.statement = statement;
+            this.error = error;
+        }
+
+        private static ParseResult of(String sql) {
+            try {
+                return new ParseResult(CCJSqlParserUtil.parse(sql), null);
+            } catch (JSQLParserException e) {
+                return new ParseResult(null, e);
+            }
+        }
     }
 }
@@ -11,6 +11,7 @@ import org.sqlfans.redisjql.cache.CacheOperationService;
 import org.sqlfans.redisjql.config.IndexConfig;
 import org.sqlfans.redisjql.parser.DeleteParser;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -130,8 +131,9 @@ public class DeleteParserImpl implements DeleteParser {
     @Override
     public int markForDeletion(String tableName, String primaryKey) {
         try {
-            // 标记删除记录（通过状态字段标记，10分钟后实际删除）
+            // 标记删除记录（通过状态字段标记，10分钟后实际删除），并从全部索引中移除
             redisOperationService.markForDeletion(tableName, primaryKey);
+            redisOperationService.replaceIndexMemberships(tableName, primaryKey, Collections.emptyMap(), -1);
             
             return 1;
         } catch (Exception e) {
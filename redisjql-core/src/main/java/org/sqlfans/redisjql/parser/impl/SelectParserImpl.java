@@ -1,12 +1,11 @@
 package org.sqlfans.redisjql.parser.impl;
 
 import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.ArrayConstructor;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.expression.StringValue;
 import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
-import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
-import net.sf.jsqlparser.expression.operators.relational.InExpression;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.schema.Column;
 import net.sf.jsqlparser.schema.Table;
@@ -18,10 +17,19 @@ import org.apache.ibatis.plugin.Invocation;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.ScoreRange;
 import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.dialect.RewriteDialect;
+import org.sqlfans.redisjql.dialect.RewriteDialects;
 import org.sqlfans.redisjql.parser.SelectParser;
+import org.sqlfans.redisjql.query.IndexCondition;
+import org.sqlfans.redisjql.query.IndexLookupResult;
+import org.sqlfans.redisjql.query.IndexQueryPlanner;
+import org.sqlfans.redisjql.query.ScoreOrder;
+import org.sqlfans.redisjql.query.ScoreRangePredicate;
 
 import java.util.*;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
 
 /**
@@ -32,10 +40,21 @@ public class SelectParserImpl implements SelectParser {
     
     private CacheOperationService redisOperationService;
     private List<IndexConfig> indexConfigs;
+    private IndexQueryPlanner indexQueryPlanner;
+    private RewriteDialect dialect = RewriteDialects.generic();
     
     public SelectParserImpl(CacheOperationService redisOperationService, List<IndexConfig> indexConfigs) {
         this.redisOperationService = redisOperationService;
         this.indexConfigs = indexConfigs;
+        this.indexQueryPlanner = new IndexQueryPlanner(redisOperationService);
+    }
+    
+    /**
+     * 设置SQL改写方言，默认使用通用方言
+     * @param dialect 改写方言
+     */
+    public void setDialect(RewriteDialect dialect) {
+        this.dialect = dialect != null ? dialect : RewriteDialects.generic();
     }
     
     @Override
@@ -146,6 +165,15 @@ public class SelectParserImpl implements SelectParser {
     public Object queryWithRedisIndex(String tableName, Expression whereCondition, 
                                      List<OrderByElement> orderByElements, 
                                      List<Expression> groupByExpressions) {
+        return queryWithRedisIndex(tableName, whereCondition, orderByElements, groupByExpressions,
+                Collections.emptyList());
+    }
+    
+    @Override
+    public Object queryWithRedisIndex(String tableName, Expression whereCondition, 
+                                     List<OrderByElement> orderByElements, 
+                                     List<Expression> groupByExpressions,
+                                     List<Object> parameterValues) {
         if (whereCondition == null) {
             return null;
         }
@@ -155,69 +183,42 @@ public class SelectParserImpl implements SelectParser {
             return null;
         }
         
-        // 查找匹配的索引字段
-        Map<String, String> indexFieldValues = extractIndexFieldValues(whereCondition, indexConfig);
-        if (indexFieldValues.isEmpty()) {
+        // 索引字段的等值、IN、OR条件整理为索引子句，子句内的索引键取并集，子句之间取交集
+        IndexCondition indexCondition = IndexCondition.collect(tableName, whereCondition, indexConfig);
+        if (indexCondition == null) {
             return null;
         }
-        
-        // 构建Redis索引键并查询
-        List<String> primaryKeys = new ArrayList<>();
-        Map<String, Set<String>> indexResults = new HashMap<>();
-        
-        for (Map.Entry<String, String> entry : indexFieldValues.entrySet()) {
-            String fieldName = entry.getKey();
-            String fieldValue = entry.getValue();
-            String indexKey = tableName + ":" + fieldName + ":" + fieldValue;
-            
-            // 查询索引
-            Set<String> keys = redisOperationService.queryPrimaryKeysByIndex(indexKey, 0, -1);
-            if (keys != null && !keys.isEmpty()) {
-                indexResults.put(fieldName, keys);
-            }
+        IntFunction<Object> parameterValue = position -> position < parameterValues.size()
+                ? parameterValues.get(position) : null;
+        List<List<String>> clauses = indexCondition.resolve(parameterValue);
+        if (clauses.isEmpty()) {
+            return null;
         }
         
-        // 如果有多个索引条件，取交集
-        if (!indexResults.isEmpty()) {
-            // 初始化结果集
-            primaryKeys = new ArrayList<>(indexResults.values().iterator().next());
-            
-            // 取所有索引结果的交集
-            for (Set<String> keys : indexResults.values()) {
-                primaryKeys.retainAll(keys);
-            }
-        }
+        // ORDER BY为sortField时按索引分数顺序返回
+        ScoreOrder scoreOrder = ScoreOrder.detect(orderByElements, indexCondition.getIndexes());
+        
+        // sortField上的范围条件换算为ZRANGEBYSCORE的分数区间
+        ScoreRangePredicate rangePredicate = ScoreRangePredicate.collect(whereCondition, indexCondition.getIndexes());
+        ScoreRange scoreRange = rangePredicate == null ? null : rangePredicate.resolve(parameterValue);
+        IndexLookupResult lookup = indexQueryPlanner.lookupClauses(clauses, scoreOrder, scoreRange);
+        logger.debug("Index lookup for table {}: {}", tableName, lookup);
+        List<String> primaryKeys = lookup.getPrimaryKeys();
         
         if (primaryKeys.isEmpty()) {
             return null;
         }
         
         // 处理排序
-        if (!orderByElements.isEmpty()) {
-            // 获取排序字段
-            final Map<String, Map<String, String>> sortFieldsData = new HashMap<>();
-            
-            // 对每个主键，获取排序字段的值
-            for (String primaryKey : primaryKeys) {
-                Map<String, String> rowData = new HashMap<>();
-                
-                // 获取每个排序字段的值
-                for (OrderByElement orderBy : orderByElements) {
-                    if (orderBy.getExpression() instanceof Column) {
-                        Column column = (Column) orderBy.getExpression();
-                        String fieldName = column.getColumnName();
-                        
-                        // 这里应该从Redis获取该字段的值
-                        // 简化实现，实际应该查询Redis
-                        String dataKey = tableName + ":data:" + primaryKey;
-                        // 从Redis获取排序字段的值
-                        String fieldValue = redisOperationService.getFieldValue(dataKey, fieldName);
-                        rowData.put(fieldName, fieldValue);
-                    }
+        if ((scoreOrder == null || !lookup.isScoreOrdered()) && !orderByElements.isEmpty()) {
+            // 获取排序字段，一次批量获取全部主键的排序字段值
+            List<String> fieldNames = new ArrayList<>();
+            for (OrderByElement orderBy : orderByElements) {
+                if (orderBy.getExpression() instanceof Column) {
+                    fieldNames.add(((Column) orderBy.getExpression()).getColumnName());
                 }
-                
-                sortFieldsData.put(primaryKey, rowData);
             }
+            final Map<String, Map<String, String>> sortFieldsData = fetchFieldValues(tableName, primaryKeys, fieldNames);
             
             // 根据排序字段对主键进行排序
             primaryKeys.sort((pk1, pk2) -> {
@@ -226,8 +227,14 @@ public class SelectParserImpl implements SelectParser {
                         Column column = (Column) orderBy.getExpression();
                         String fieldName = column.getColumnName();
                         
-                        String value1 = sortFieldsData.get(pk1).get(fieldName);
-                        String value2 = sortFieldsData.get(pk2).get(fieldName);
+                        Map<String, String> values1 = sortFieldsData.get(pk1);
+                        Map<String, String> values2 = sortFieldsData.get(pk2);
+                        if (values1 == null || values2 == null) {
+                            continue;
+                        }
+                        
+                        String value1 = values1.get(fieldName);
+                        String value2 = values2.get(fieldName);
                         
                         if (value1 == null || value2 == null) {
                             continue;
@@ -255,20 +262,22 @@ public class SelectParserImpl implements SelectParser {
         
         // 处理分组
         if (!groupByExpressions.isEmpty()) {
-            // 获取分组字段
-            Map<String, Set<String>> groupedKeys = new HashMap<>();
+            // 获取分组字段，一次批量获取全部主键的分组字段值
+            List<String> fieldNames = new ArrayList<>();
+            for (Expression groupExpr : groupByExpressions) {
+                if (groupExpr instanceof Column) {
+                    fieldNames.add(((Column) groupExpr).getColumnName());
+                }
+            }
+            Map<String, Map<String, String>> groupFieldsData = fetchFieldValues(tableName, primaryKeys, fieldNames);
+            Map<String, Set<String>> groupedKeys = new LinkedHashMap<>();
             
             for (String primaryKey : primaryKeys) {
                 StringBuilder groupKey = new StringBuilder();
+                Map<String, String> rowData = groupFieldsData.get(primaryKey);
                 
-                for (Expression groupExpr : groupByExpressions) {
-                    if (groupExpr instanceof Column) {
-                        Column column = (Column) groupExpr;
-                        String fieldName = column.getColumnName();
-                        String dataKey = tableName + ":data:" + primaryKey;
-                        String fieldValue = redisOperationService.getFieldValue(dataKey, fieldName);
-                        groupKey.append(fieldValue).append(":");
-                    }
+                for (String fieldName : fieldNames) {
+                    groupKey.append(rowData != null ? rowData.get(fieldName) : null).append(":");
                 }
                 
                 groupedKeys.computeIfAbsent(groupKey.toString(), k -> new LinkedHashSet<>())
@@ -310,23 +319,15 @@ public class SelectParserImpl implements SelectParser {
             
             String primaryKeyColumn = indexConfig.getPrimaryKey();
             
-            // Build IN condition
-            StringBuilder inValues = new StringBuilder();
-            for (int i = 0; i < primaryKeys.size(); i++) {
-                if (i > 0) {
-                    inValues.append(",");
-                }
-                inValues.append("'").append(primaryKeys.get(i)).append("'");
-            }
-            
-            // Create IN expression
+            // Create primary key condition in the dialect's shape
             Column primaryKeyCol = new Column(table, primaryKeyColumn);
-            InExpression inExpression = new InExpression(
-                primaryKeyCol,
-                new ExpressionList(primaryKeys.stream()
-                    .map(pk -> new StringValue(pk))
-                    .collect(Collectors.toList()))
-            );
+            List<Expression> keys = primaryKeys.stream()
+                .map(pk -> (Expression) new StringValue(pk))
+                .collect(Collectors.toList());
+            if (dialect.isArrayBinding()) {
+                keys = Collections.singletonList(new ArrayConstructor(keys, true));
+            }
+            Expression inExpression = dialect.primaryKeyCondition(primaryKeyCol, keys);
             
             // Replace WHERE condition
             Expression whereExpression = plainSelect.getWhere();
@@ -338,17 +339,20 @@ public class SelectParserImpl implements SelectParser {
             
             // If has ORDER BY, ensure ordering by primary key list order
             if (!primaryKeys.isEmpty() && plainSelect.getOrderByElements() != null) {
-                // Build CASE expression for sorting
-                StringBuilder caseWhen = new StringBuilder();
-                caseWhen.append("CASE ").append(primaryKeyColumn);
-                for (int i = 0; i < primaryKeys.size(); i++) {
-                    caseWhen.append(" WHEN '").append(primaryKeys.get(i))
-                           .append("' THEN ").append(i);
+                Expression caseExpression = dialect.primaryKeyOrder(primaryKeyCol, keys);
+                if (caseExpression == null) {
+                    // Build CASE expression for sorting
+                    StringBuilder caseWhen = new StringBuilder();
+                    caseWhen.append("CASE ").append(primaryKeyColumn);
+                    for (int i = 0; i < primaryKeys.size(); i++) {
+                        caseWhen.append(" WHEN '").append(primaryKeys.get(i))
+                               .append("' THEN ").append(i);
+                    }
+                    caseWhen.append(" END");
+                    caseExpression = CCJSqlParserUtil.parseExpression(caseWhen.toString());
                 }
-                caseWhen.append(" END");
                 
                 // Add CASE expression as first sort condition
-                Expression caseExpression = CCJSqlParserUtil.parseExpression(caseWhen.toString());
                 OrderByElement orderByCase = new OrderByElement();
                 orderByCase.setExpression(caseExpression);
                 orderByCase.setAsc(true);
@@ -368,6 +372,31 @@ public class SelectParserImpl implements SelectParser {
         }
     }
     
+    /**
+     * 批量获取主键对应数据的字段值
+     * @param tableName 表名
+     * @param primaryKeys 主键列表
+     * @param fieldNames 字段名列表
+     * @return 主键到字段值的映射
+     */
+    private Map<String, Map<String, String>> fetchFieldValues(String tableName, List<String> primaryKeys,
+                                                              List<String> fieldNames) {
+        Map<String, Map<String, String>> result = new HashMap<>();
+        if (fieldNames.isEmpty()) {
+            return result;
+        }
+        
+        List<String> dataKeys = new ArrayList<>(primaryKeys.size());
+        for (String primaryKey : primaryKeys) {
+            dataKeys.add(tableName + ":" + primaryKey);
+        }
+        Map<String, Map<String, String>> fieldValues = redisOperationService.getFieldValues(dataKeys, fieldNames);
+        for (String primaryKey : primaryKeys) {
+            result.put(primaryKey, fieldValues.get(tableName + ":" + primaryKey));
+        }
+        return result;
+    }
+    
     /**
      * 查找表的索引配置
      * @param tableName 表名
@@ -380,64 +409,6 @@ public class SelectParserImpl implements SelectParser {
                 .orElse(null);
     }
     
-    /**
-     * 从WHERE条件中提取索引字段和值
-     * @param expression WHERE条件表达式
-     * @param indexConfig 索引配置
-     * @return 索引字段和值的映射
-     */
-    private Map<String, String> extractIndexFieldValues(Expression expression, IndexConfig indexConfig) {
-        Map<String, String> fieldValues = new HashMap<>();
-        
-        if (expression instanceof EqualsTo) {
-            EqualsTo equalsTo = (EqualsTo) expression;
-            if (equalsTo.getLeftExpression() instanceof Column) {
-                Column column = (Column) equalsTo.getLeftExpression();
-                String fieldName = column.getColumnName();
-                
-                // 检查字段是否在任何索引中
-                for (IndexConfig.IndexDefinition index : indexConfig.getIndexes()) {
-                    if (index.getFields().contains(fieldName)) {
-                        String value = extractValueFromExpression(equalsTo.getRightExpression());
-                        if (value != null) {
-                            fieldValues.put(fieldName, value);
-                        }
-                        break;
-                    }
-                }
-            }
-        } else if (expression instanceof AndExpression) {
-            AndExpression andExpr = (AndExpression) expression;
-            // 递归处理AND条件的两边
-            fieldValues.putAll(extractIndexFieldValues(andExpr.getLeftExpression(), indexConfig));
-            fieldValues.putAll(extractIndexFieldValues(andExpr.getRightExpression(), indexConfig));
-        }
-        
-        return fieldValues;
-    }
-    
-    /**
-     * 从表达式中提取值
-     * @param expression 表达式
-     * @return 值
-     */
-    private String extractValueFromExpression(Expression expression) {
-        if (expression instanceof StringValue) {
-            return ((StringValue) expression).getValue();
-        } else if (expression instanceof net.sf.jsqlparser.expression.LongValue) {
-            return String.valueOf(((net.sf.jsqlparser.expression.LongValue) expression).getValue());
-        } else if (expression instanceof net.sf.jsqlparser.expression.DoubleValue) {
-            return String.valueOf(((net.sf.jsqlparser.expression.DoubleValue) expression).getValue());
-        } else if (expression instanceof net.sf.jsqlparser.expression.DateValue) {
-            return ((net.sf.jsqlparser.expression.DateValue) expression).getValue().toString();
-        } else if (expression instanceof net.sf.jsqlparser.expression.TimeValue) {
-            return ((net.sf.jsqlparser.expression.TimeValue) expression).getValue().toString();
-        } else if (expression instanceof net.sf.jsqlparser.expression.TimestampValue) {
-            return ((net.sf.jsqlparser.expression.TimestampValue) expression).getValue().toString();
-        }
-        return null;
-    }
-
     /**
      * 判断是否是单值查询（静态方法，可供拦截器调用）
      * @param whereExpr WHERE条件表达式
@@ -0,0 +1,298 @@
+package org.sqlfans.redisjql.query;
+
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.DateValue;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.TimeValue;
+import net.sf.jsqlparser.expression.TimestampValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
+import net.sf.jsqlparser.expression.operators.relational.ExpressionList;
+import net.sf.jsqlparser.expression.operators.relational.InExpression;
+import net.sf.jsqlparser.schema.Column;
+import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * 索引条件
+ * 将WHERE中由索引字段的等值、IN和OR组成的条件整理为合取范式：每个子句内的索引键取并集（ZUNION），
+ * 子句之间取交集，例如 {@code tenant = ? AND status IN ('NEW', 'PAID')} 对应两个子句
+ * [tenant:?] 与 [status:NEW, status:PAID]
+ *
+ * <p>AND中无法使用索引的条件直接忽略，OR中任一分支无法使用索引时整个OR被忽略，
+ * 得到的主键是结果的超集，改写后的SQL仍保留原条件，由数据库保证结果正确；
+ * 只有完整索引上能完全转换的条件才可以从改写后的SQL中去掉。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class IndexCondition {
+
+    /**
+     * OR展开为合取范式时子句数量的上限，超过时忽略该OR条件
+     */
+    static final int MAX_CLAUSES = 16;
+
+    private final String tableName;
+    private final List<List<Term>> clauses;
+    private final Collection<IndexConfig.IndexDefinition> indexes;
+
+    private IndexCondition(String tableName, List<List<Term>> clauses,
+                           Collection<IndexConfig.IndexDefinition> indexes) {
+        this.tableName = tableName;
+        this.clauses = clauses;
+        this.indexes = Collections.unmodifiableCollection(indexes);
+    }
+
+    /**
+     * 从WHERE条件中收集索引条件
+     * @param tableName 表名
+     * @param where WHERE条件
+     * @param indexConfig 表的索引配置
+     * @return 索引条件，没有可用的索引条件时返回null
+     */
+    public static IndexCondition collect(String tableName, Expression where, IndexConfig indexConfig) {
+        Map<String, IndexConfig.IndexDefinition> indexes = new LinkedHashMap<>();
+        List<List<Term>> clauses = toClauses(where, indexConfig, indexes);
+        if (clauses == null || clauses.isEmpty()) {
+            return null;
+        }
+        return new IndexCondition(tableName, clauses, indexes.values());
+    }
+
+    /**
+     * 按当前参数值生成索引键子句
+     * @param parameterValues 按占位符位置（从0开始）取参数值
+     * @return 子句列表，每个子句为需要取并集的索引键；参数值为null的子句被忽略
+     */
+    public List<List<String>> resolve(IntFunction<Object> parameterValues) {
+        List<List<String>> indexKeys = new ArrayList<>(clauses.size());
+        for (List<Term> clause : clauses) {
+            Set<String> keys = new LinkedHashSet<>();
+            for (Term term : clause) {
+                String value = term.value != null ? term.value : toValue(parameterValues.apply(term.position));
+                if (value == null) {
+                    keys = null;
+                    break;
+                }
+                keys.add(tableName + ":" + term.fieldName + ":" + value);
+            }
+            if (keys != null) {
+                indexKeys.add(new ArrayList<>(keys));
+            }
+        }
+        return indexKeys;
+    }
+
+    /**
+     * 判断条件能否由索引完全回答：只由完整索引（{@link IndexConfig.IndexDefinition#isComplete()}）字段的
+     * 等值、IN条件经AND、OR组合而成，且每个分支都能转换为索引条件项，查询得到的主键恰好是满足条件的行
+     * @param expression WHERE中的一个条件
+     * @param indexConfig 表的索引配置
+     * @return 是否完全由索引回答
+     */
+    public static boolean isCovered(Expression expression, IndexConfig indexConfig) {
+        Map<String, IndexConfig.IndexDefinition> indexes = new LinkedHashMap<>();
+        if (!isIndexedExpression(expression, indexConfig, indexes)
+                || toClauses(expression, indexConfig, indexes) == null) {
+            return false;
+        }
+        for (IndexConfig.IndexDefinition index : indexes.values()) {
+            if (!index.isComplete()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 子句数量，执行时解析出的子句少于该数量说明有条件因参数值为null被忽略
+     */
+    public int getClauseCount() {
+        return clauses.size();
+    }
+
+    /**
+     * @return 条件中出现的索引定义
+     */
+    public Collection<IndexConfig.IndexDefinition> getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * 是否只有一个索引字段的等值条件
+     */
+    public boolean isSingleTerm() {
+        return clauses.size() == 1 && clauses.get(0).size() == 1;
+    }
+
+    private static List<List<Term>> toClauses(Expression expression, IndexConfig indexConfig,
+                                              Map<String, IndexConfig.IndexDefinition> indexes) {
+        if (expression instanceof Parenthesis) {
+            return toClauses(((Parenthesis) expression).getExpression(), indexConfig, indexes);
+        } else if (expression instanceof EqualsTo) {
+            EqualsTo equalsTo = (EqualsTo) expression;
+            Term term = toTerm(equalsTo.getLeftExpression(), equalsTo.getRightExpression(), indexConfig, indexes);
+            return term != null ? singleClause(Collections.singletonList(term)) : null;
+        } else if (expression instanceof InExpression) {
+            InExpression in = (InExpression) expression;
+            if (in.isNot() || !(in.getRightItemsList() instanceof ExpressionList)) {
+                return null;
+            }
+            List<Expression> values = ((ExpressionList) in.getRightItemsList()).getExpressions();
+            if (values == null || values.isEmpty()) {
+                return null;
+            }
+            List<Term> terms = new ArrayList<>(values.size());
+            for (Expression value : values) {
+                Term term = toTerm(in.getLeftExpression(), value, indexConfig, indexes);
+                if (term == null) {
+                    return null;
+                }
+                terms.add(term);
+            }
+            return singleClause(terms);
+        } else if (expression instanceof AndExpression) {
+            // AND中无法使用索引的一侧直接忽略
+            AndExpression and = (AndExpression) expression;
+            List<List<Term>> left = toClauses(and.getLeftExpression(), indexConfig, indexes);
+            List<List<Term>> right = toClauses(and.getRightExpression(), indexConfig, indexes);
+            if (left == null) {
+                return right;
+            }
+            if (right != null) {
+                left.addAll(right);
+            }
+            return left;
+        } else if (expression instanceof OrExpression) {
+            // (A1 AND A2) OR (B1 AND B2) 展开为 (A1 OR B1) AND (A1 OR B2) AND (A2 OR B1) AND (A2 OR B2)
+            OrExpression or = (OrExpression) expression;
+            Map<String, IndexConfig.IndexDefinition> orIndexes = new LinkedHashMap<>();
+            List<List<Term>> left = toClauses(or.getLeftExpression(), indexConfig, orIndexes);
+            List<List<Term>> right = toClauses(or.getRightExpression(), indexConfig, orIndexes);
+            if (left == null || right == null || left.size() * right.size() > MAX_CLAUSES) {
+                return null;
+            }
+            List<List<Term>> clauses = new ArrayList<>(left.size() * right.size());
+            for (List<Term> leftClause : left) {
+                for (List<Term> rightClause : right) {
+                    List<Term> clause = new ArrayList<>(leftClause);
+                    clause.addAll(rightClause);
+                    clauses.add(clause);
+                }
+            }
+            indexes.putAll(orIndexes);
+            return clauses;
+        }
+        return null;
+    }
+
+    /**
+     * AND、OR的每个分支都必须能转换为索引条件项，toClauses会忽略AND中无法使用索引的一侧
+     */
+    private static boolean isIndexedExpression(Expression expression, IndexConfig indexConfig,
+                                               Map<String, IndexConfig.IndexDefinition> indexes) {
+        if (expression instanceof Parenthesis) {
+            return isIndexedExpression(((Parenthesis) expression).getExpression(), indexConfig, indexes);
+        } else if (expression instanceof AndExpression || expression instanceof OrExpression) {
+            BinaryExpression binary = (BinaryExpression) expression;
+            return isIndexedExpression(binary.getLeftExpression(), indexConfig, indexes)
+                    && isIndexedExpression(binary.getRightExpression(), indexConfig, indexes);
+        } else if (expression instanceof EqualsTo || expression instanceof InExpression) {
+            return toClauses(expression, indexConfig, indexes) != null;
+        }
+        return false;
+    }
+
+    private static List<List<Term>> singleClause(List<Term> terms) {
+        List<List<Term>> clauses = new ArrayList<>();
+        clauses.add(new ArrayList<>(terms));
+        return clauses;
+    }
+
+    /**
+     * 索引字段与值组成的条件项，值不是字面量或占位符时返回null
+     */
+    private static Term toTerm(Expression column, Expression value, IndexConfig indexConfig,
+                               Map<String, IndexConfig.IndexDefinition> indexes) {
+        if (!(column instanceof Column)) {
+            return null;
+        }
+        String fieldName = ((Column) column).getColumnName();
+        IndexConfig.IndexDefinition index = null;
+        for (IndexConfig.IndexDefinition candidate : indexConfig.getIndexes()) {
+            if (candidate.getFields().contains(fieldName)) {
+                index = candidate;
+                break;
+            }
+        }
+        if (index == null) {
+            return null;
+        }
+
+        Term term;
+        if (value instanceof JdbcParameter) {
+            int position = ParameterValueResolver.positionOf((JdbcParameter) value);
+            term = position >= 0 ? new Term(fieldName, null, position) : null;
+        } else {
+            String literal = literal(value);
+            term = literal != null ? new Term(fieldName, literal, -1) : null;
+        }
+        if (term != null) {
+            indexes.put(index.getName() != null ? index.getName() : fieldName, index);
+        }
+        return term;
+    }
+
+    private static String literal(Expression expression) {
+        if (expression instanceof StringValue) {
+            return ((StringValue) expression).getValue();
+        } else if (expression instanceof LongValue) {
+            return String.valueOf(((LongValue) expression).getValue());
+        } else if (expression instanceof DoubleValue) {
+            return String.valueOf(((DoubleValue) expression).getValue());
+        } else if (expression instanceof DateValue) {
+            return ((DateValue) expression).getValue().toString();
+        } else if (expression instanceof TimeValue) {
+            return ((TimeValue) expression).getValue().toString();
+        } else if (expression instanceof TimestampValue) {
+            return ((TimestampValue) expression).getValue().toString();
+        }
+        return null;
+    }
+
+    private static String toValue(Object parameterValue) {
+        return parameterValue != null ? String.valueOf(parameterValue) : null;
+    }
+
+    /**
+     * 索引字段的等值条件项：字面量值或占位符位置
+     */
+    private static final class Term {
+        private final String fieldName;
+        private final String value;
+        private final int position;
+
+        private Term(String fieldName, String value, int position) {
+            this.fieldName = fieldName;
+            this.value = value;
+            this.position = position;
+        }
+    }
+}
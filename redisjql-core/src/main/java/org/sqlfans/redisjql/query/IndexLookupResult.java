@@ -0,0 +1,88 @@
+package org.sqlfans.redisjql.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 索引查询结果
+ * 包含命中的主键列表、各索引键的成员数量以及实际采用的求交策略，便于记录查询计划
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class IndexLookupResult {
+
+    /**
+     * 求交策略
+     */
+    public enum Strategy {
+        /**
+         * 没有索引键，或某个索引为空，无需读取成员
+         */
+        EMPTY,
+        /**
+         * 只有一个索引键，直接读取其全部成员
+         */
+        SINGLE,
+        /**
+         * 只有一个由多个索引键组成的子句，由缓存服务端求并集（ZUNION/ZUNIONSTORE）
+         */
+        UNION,
+        /**
+         * 读取最小的索引，再用ZMSCORE探测其余索引
+         */
+        PROBE,
+        /**
+         * 由缓存服务端求交集（ZINTER/ZINTERSTORE）
+         */
+        SERVER_INTERSECT
+    }
+
+    private final List<String> primaryKeys;
+    private final Map<String, Long> cardinalities;
+    private final Strategy strategy;
+    private final boolean scoreOrdered;
+
+    IndexLookupResult(List<String> primaryKeys, Map<String, Long> cardinalities, Strategy strategy) {
+        this(primaryKeys, cardinalities, strategy, true);
+    }
+
+    IndexLookupResult(List<String> primaryKeys, Map<String, Long> cardinalities, Strategy strategy,
+                      boolean scoreOrdered) {
+        this.primaryKeys = primaryKeys;
+        this.cardinalities = Collections.unmodifiableMap(cardinalities);
+        this.strategy = strategy;
+        this.scoreOrdered = scoreOrdered;
+    }
+
+    /**
+     * @return 同时满足全部索引条件的主键
+     */
+    public List<String> getPrimaryKeys() {
+        return primaryKeys;
+    }
+
+    /**
+     * @return 各索引键的成员数量（ZCARD），按从小到大排列；只有一个子句时不查询成员数量，为空
+     */
+    public Map<String, Long> getCardinalities() {
+        return cardinalities;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    /**
+     * @return 指定分数顺序时，主键是否已按该顺序排列
+     */
+    public boolean isScoreOrdered() {
+        return scoreOrdered;
+    }
+
+    @Override
+    public String toString() {
+        return strategy + " " + cardinalities + " -> " + primaryKeys.size() + " keys";
+    }
+}
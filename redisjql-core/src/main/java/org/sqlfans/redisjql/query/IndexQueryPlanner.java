@@ -0,0 +1,197 @@
+package org.sqlfans.redisjql.query;
+
+import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.cache.ScoreRange;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 索引查询计划器
+ * 有多个子句时先通过一次批量ZCARD获取各索引键的成员数量，再按从小到大的顺序选择求交策略：
+ * 最小的索引足够小时只读取该索引并探测其余索引，否则交给缓存服务端求交集；
+ * 只有一个子句时没有可选择的策略，直接读取，不发起ZCARD
+ *
+ * <p>例如 5 行的条件与 200 万行的条件组合时，只会下载 5 个主键并对大索引发起一次ZMSCORE。</p>
+ *
+ * <p>指定分数顺序时，单个索引按ZRANGE/ZREVRANGE读取，探测策略保持最小索引的读取顺序，
+ * 服务端求交的结果按分数之和升序返回，逆序时反转即可。</p>
+ *
+ * <p>指定分数区间时，最小的索引按ZRANGEBYSCORE只读取区间内的主键，其余索引总是通过探测过滤：
+ * 服务端求交无法再按区间筛选。</p>
+ *
+ * <p>IN、OR条件对应的子句是多个索引键的并集，读取时使用ZUNION，探测时主键存在于任一索引键即可。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public class IndexQueryPlanner {
+
+    /**
+     * 默认探测阈值：最小索引的成员数量不超过该值时采用探测策略
+     */
+    public static final long DEFAULT_PROBE_THRESHOLD = 1000;
+
+    private final CacheOperationService redisOperationService;
+    private final long probeThreshold;
+
+    public IndexQueryPlanner(CacheOperationService redisOperationService) {
+        this(redisOperationService, DEFAULT_PROBE_THRESHOLD);
+    }
+
+    /**
+     * @param redisOperationService 缓存操作服务
+     * @param probeThreshold 探测阈值
+     */
+    public IndexQueryPlanner(CacheOperationService redisOperationService, long probeThreshold) {
+        this.redisOperationService = redisOperationService;
+        this.probeThreshold = probeThreshold;
+    }
+
+    /**
+     * 查询同时存在于全部索引键中的主键
+     * @param indexKeys 索引键列表
+     * @return 查询结果
+     */
+    public IndexLookupResult lookup(List<String> indexKeys) {
+        return lookup(indexKeys, null);
+    }
+
+    /**
+     * 查询同时存在于全部索引键中的主键，并按索引分数排序
+     * @param indexKeys 索引键列表
+     * @param order 分数顺序，为null时不保证顺序；调用方需保证全部索引的sortField相同
+     * @return 查询结果
+     */
+    public IndexLookupResult lookup(List<String> indexKeys, ScoreOrder order) {
+        return lookup(indexKeys, order, null);
+    }
+
+    /**
+     * 查询同时存在于全部索引键中且分数在区间内的主键
+     * @param indexKeys 索引键列表
+     * @param order 分数顺序，为null时不保证顺序；调用方需保证全部索引的sortField相同
+     * @param scoreRange 分数区间，为null时不限制；调用方需保证全部索引的sortField相同
+     * @return 查询结果
+     */
+    public IndexLookupResult lookup(List<String> indexKeys, ScoreOrder order, ScoreRange scoreRange) {
+        List<List<String>> clauses = new ArrayList<>(indexKeys.size());
+        for (String indexKey : indexKeys) {
+            clauses.add(Collections.singletonList(indexKey));
+        }
+        return lookupClauses(clauses, order, scoreRange);
+    }
+
+    /**
+     * 按合取范式查询主键：每个子句内的索引键取并集，子句之间取交集
+     * @param clauses 子句列表，每个子句为需要取并集的索引键
+     * @param order 分数顺序，为null时不保证顺序；调用方需保证全部索引的sortField相同
+     * @param scoreRange 分数区间，为null时不限制；调用方需保证全部索引的sortField相同
+     * @return 查询结果
+     */
+    public IndexLookupResult lookupClauses(List<List<String>> clauses, ScoreOrder order, ScoreRange scoreRange) {
+        if (clauses.isEmpty() || (scoreRange != null && scoreRange.isEmpty())) {
+            return new IndexLookupResult(new ArrayList<>(), new LinkedHashMap<>(), IndexLookupResult.Strategy.EMPTY);
+        }
+
+        // 只有一个子句时没有可选择的策略，直接读取，省去一次ZCARD往返
+        if (clauses.size() == 1) {
+            List<String> clause = clauses.get(0);
+            return new IndexLookupResult(readClause(clause, order, scoreRange), new LinkedHashMap<>(),
+                    clause.size() == 1 ? IndexLookupResult.Strategy.SINGLE : IndexLookupResult.Strategy.UNION,
+                    clause.size() == 1 || scoreRange == null);
+        }
+
+        Set<String> indexKeys = new LinkedHashSet<>();
+        clauses.forEach(indexKeys::addAll);
+        Map<String, Long> cardinalities = sortByCardinality(
+                redisOperationService.countPrimaryKeysByIndexes(new ArrayList<>(indexKeys)));
+
+        // 子句的成员数量取各索引键之和，即并集大小的上界
+        List<List<String>> orderedClauses = new ArrayList<>(clauses);
+        orderedClauses.sort(Comparator.comparingLong(clause -> clauseSize(clause, cardinalities)));
+        List<String> smallest = orderedClauses.get(0);
+        long smallestCount = clauseSize(smallest, cardinalities);
+
+        if (smallestCount == 0) {
+            return new IndexLookupResult(new ArrayList<>(), cardinalities, IndexLookupResult.Strategy.EMPTY);
+        }
+
+        // 并集按区间逐个读取时无法保持分数顺序
+        boolean scoreOrdered = smallest.size() == 1 || scoreRange == null;
+
+        // 含并集的子句无法交给ZINTER，同样通过探测过滤
+        boolean hasUnion = orderedClauses.stream().anyMatch(clause -> clause.size() > 1);
+        if (smallestCount <= probeThreshold || scoreRange != null || hasUnion) {
+            List<String> candidates = readClause(smallest, order, scoreRange);
+            List<String> primaryKeys = redisOperationService.filterPrimaryKeysByIndexUnions(
+                    candidates, orderedClauses.subList(1, orderedClauses.size()));
+            return new IndexLookupResult(primaryKeys, cardinalities, IndexLookupResult.Strategy.PROBE, scoreOrdered);
+        }
+
+        List<String> orderedKeys = new ArrayList<>(orderedClauses.size());
+        for (List<String> clause : orderedClauses) {
+            orderedKeys.add(clause.get(0));
+        }
+        List<String> primaryKeys = redisOperationService.intersectPrimaryKeys(orderedKeys);
+        if (order != null && order.isDescending()) {
+            Collections.reverse(primaryKeys);
+        }
+        return new IndexLookupResult(primaryKeys, cardinalities, IndexLookupResult.Strategy.SERVER_INTERSECT);
+    }
+
+    private List<String> readClause(List<String> clause, ScoreOrder order, ScoreRange scoreRange) {
+        if (clause.size() == 1) {
+            return read(clause.get(0), order, scoreRange);
+        }
+        if (scoreRange != null) {
+            Set<String> primaryKeys = new LinkedHashSet<>();
+            for (String indexKey : clause) {
+                primaryKeys.addAll(read(indexKey, order, scoreRange));
+            }
+            return new ArrayList<>(primaryKeys);
+        }
+
+        // ZUNION按分数升序返回
+        List<String> primaryKeys = redisOperationService.unionPrimaryKeys(clause);
+        if (order != null && order.isDescending()) {
+            Collections.reverse(primaryKeys);
+        }
+        return primaryKeys;
+    }
+
+    private static long clauseSize(List<String> clause, Map<String, Long> cardinalities) {
+        long size = 0;
+        for (String indexKey : clause) {
+            size += cardinalities.getOrDefault(indexKey, 0L);
+        }
+        return size;
+    }
+
+    private List<String> read(String indexKey, ScoreOrder order, ScoreRange scoreRange) {
+        if (scoreRange != null) {
+            return redisOperationService.queryPrimaryKeysByScore(indexKey, scoreRange,
+                    order != null && order.isDescending());
+        }
+        IndexRange range = order != null && order.isDescending()
+                ? IndexRange.reverse(indexKey, 0, -1) : IndexRange.all(indexKey);
+        List<String> keys = redisOperationService.queryPrimaryKeysByIndexes(Collections.singletonList(range))
+                .get(indexKey);
+        return keys != null ? keys : new ArrayList<>();
+    }
+
+    private static Map<String, Long> sortByCardinality(Map<String, Long> counts) {
+        Map<String, Long> sorted = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.comparingByValue(Comparator.nullsFirst(Comparator.naturalOrder())))
+                .forEach(entry -> sorted.put(entry.getKey(), entry.getValue() != null ? entry.getValue() : 0L));
+        return sorted;
+    }
+}
@@ -0,0 +1,54 @@
+package org.sqlfans.redisjql.query;
+
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.OrderByElement;
+import org.sqlfans.redisjql.config.IndexConfig;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 索引分数顺序
+ * 索引的分数即sortField的值，ORDER BY只有该字段时，按ZRANGE/ZREVRANGE的顺序读取主键即为结果顺序，
+ * 不需要再读取数据字段在客户端排序
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public enum ScoreOrder {
+    /**
+     * 按分数从小到大，对应ZRANGE
+     */
+    ASC,
+    /**
+     * 按分数从大到小，对应ZREVRANGE
+     */
+    DESC;
+
+    public boolean isDescending() {
+        return this == DESC;
+    }
+
+    /**
+     * 判断ORDER BY能否直接使用索引分数顺序
+     * @param orderByElements ORDER BY子句
+     * @param indexes 查询命中的索引定义
+     * @return 分数顺序，ORDER BY不是全部命中索引共同的sortField时返回null
+     */
+    public static ScoreOrder detect(List<OrderByElement> orderByElements,
+                                    Collection<IndexConfig.IndexDefinition> indexes) {
+        if (orderByElements == null || orderByElements.size() != 1 || indexes.isEmpty()
+                || !(orderByElements.get(0).getExpression() instanceof Column)) {
+            return null;
+        }
+
+        // 多个索引求交时分数相加，只有sortField相同才能保持顺序
+        String fieldName = ((Column) orderByElements.get(0).getExpression()).getColumnName();
+        for (IndexConfig.IndexDefinition index : indexes) {
+            if (index == null || !fieldName.equals(index.getSortField())) {
+                return null;
+            }
+        }
+        return orderByElements.get(0).isAsc() ? ASC : DESC;
+    }
+}
@@ -0,0 +1,203 @@
+package org.sqlfans.redisjql.query;
+
+import net.sf.jsqlparser.expression.DateValue;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.TimestampValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.relational.Between;
+import net.sf.jsqlparser.expression.operators.relational.ComparisonOperator;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThan;
+import net.sf.jsqlparser.expression.operators.relational.GreaterThanEquals;
+import net.sf.jsqlparser.expression.operators.relational.MinorThan;
+import net.sf.jsqlparser.expression.operators.relational.MinorThanEquals;
+import net.sf.jsqlparser.schema.Column;
+import org.sqlfans.redisjql.cache.ScoreRange;
+import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.parser.IndexEntries;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+
+/**
+ * 索引排序字段上的范围条件
+ * 收集WHERE中与索引条件AND连接的 BETWEEN、&lt;、&lt;=、&gt;、&gt;= 条件，
+ * 当字段为全部命中索引共同的sortField时，可换算为ZRANGEBYSCORE的分数区间，只读取区间内的主键
+ *
+ * <p>索引分数取排序字段的值（见 {@link IndexEntries#score(Object)}），条件值按相同规则换算：
+ * 数值取其值，日期时间取毫秒时间戳。条件值可以是数值、日期时间字面量或 ? 占位符，占位符在执行时按位置取参数值。
+ * 无法换算为分数的条件被忽略，改写后的SQL仍保留原条件，由数据库保证结果正确。</p>
+ *
+ * @author vincentruan
+ * @version 1.0.0
+ */
+public final class ScoreRangePredicate {
+    private final String fieldName;
+    private final List<Bound> bounds;
+
+    private ScoreRangePredicate(String fieldName, List<Bound> bounds) {
+        this.fieldName = fieldName;
+        this.bounds = Collections.unmodifiableList(bounds);
+    }
+
+    /**
+     * 从WHERE条件中收集索引排序字段上的范围条件
+     * @param where WHERE条件
+     * @param indexes 查询命中的索引定义
+     * @return 范围条件，没有可用条件或各索引sortField不同时返回null
+     */
+    public static ScoreRangePredicate collect(Expression where, Collection<IndexConfig.IndexDefinition> indexes) {
+        String sortField = null;
+        for (IndexConfig.IndexDefinition index : indexes) {
+            if (index == null || index.getSortField() == null
+                    || (sortField != null && !sortField.equals(index.getSortField()))) {
+                return null;
+            }
+            sortField = index.getSortField();
+        }
+        if (sortField == null || where == null) {
+            return null;
+        }
+
+        List<Bound> bounds = new ArrayList<>();
+        collectBounds(where, sortField, bounds);
+        return bounds.isEmpty() ? null : new ScoreRangePredicate(sortField, bounds);
+    }
+
+    /**
+     * 按当前参数值计算分数区间
+     * @param parameterValues 按占位符位置（从0开始）取参数值
+     * @return 分数区间，全部条件都无法取值时返回null
+     */
+    public ScoreRange resolve(IntFunction<Object> parameterValues) {
+        ScoreRange range = null;
+        for (Bound bound : bounds) {
+            Double value = bound.literal != null ? bound.literal
+                    : toScore(parameterValues.apply(bound.position));
+            if (value == null) {
+                continue;
+            }
+            ScoreRange boundRange = bound.lower
+                    ? ScoreRange.of(value, bound.exclusive, Double.POSITIVE_INFINITY, false)
+                    : ScoreRange.of(Double.NEGATIVE_INFINITY, false, value, bound.exclusive);
+            range = range == null ? boundRange : range.intersect(boundRange);
+        }
+        return range;
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    private static void collectBounds(Expression expression, String sortField, List<Bound> bounds) {
+        if (expression instanceof AndExpression) {
+            collectBounds(((AndExpression) expression).getLeftExpression(), sortField, bounds);
+            collectBounds(((AndExpression) expression).getRightExpression(), sortField, bounds);
+        } else if (expression instanceof Between) {
+            Between between = (Between) expression;
+            if (!between.isNot() && isColumn(between.getLeftExpression(), sortField)) {
+                addBound(bounds, between.getBetweenExpressionStart(), true, false);
+                addBound(bounds, between.getBetweenExpressionEnd(), false, false);
+            }
+        } else if (expression instanceof ComparisonOperator) {
+            ComparisonOperator comparison = (ComparisonOperator) expression;
+            boolean lower = expression instanceof GreaterThan || expression instanceof GreaterThanEquals;
+            boolean upper = expression instanceof MinorThan || expression instanceof MinorThanEquals;
+            boolean exclusive = expression instanceof GreaterThan || expression instanceof MinorThan;
+            if (!lower && !upper) {
+                return;
+            }
+            if (isColumn(comparison.getLeftExpression(), sortField)) {
+                addBound(bounds, comparison.getRightExpression(), lower, exclusive);
+            } else if (isColumn(comparison.getRightExpression(), sortField)) {
+                // 值在左侧时方向相反，如 ? < amount
+                addBound(bounds, comparison.getLeftExpression(), upper, exclusive);
+            }
+        }
+    }
+
+    private static boolean isColumn(Expression expression, String fieldName) {
+        return expression instanceof Column && fieldName.equals(((Column) expression).getColumnName());
+    }
+
+    private static void addBound(List<Bound> bounds, Expression value, boolean lower, boolean exclusive) {
+        if (value instanceof JdbcParameter) {
+            int position = ParameterValueResolver.positionOf((JdbcParameter) value);
+            if (position >= 0) {
+                bounds.add(new Bound(null, position, lower, exclusive));
+            }
+            return;
+        }
+        Double literal = literal(value);
+        if (literal != null) {
+            bounds.add(new Bound(literal, -1, lower, exclusive));
+        }
+    }
+
+    private static Double literal(Expression expression) {
+        if (expression instanceof LongValue) {
+            return (double) ((LongValue) expression).getValue();
+        } else if (expression instanceof DoubleValue) {
+            return ((DoubleValue) expression).getValue();
+        } else if (expression instanceof StringValue) {
+            return toScore(((StringValue) expression).getValue());
+        } else if (expression instanceof DateValue) {
+            return toScore(((DateValue) expression).getValue());
+        } else if (expression instanceof TimestampValue) {
+            return toScore(((TimestampValue) expression).getValue());
+        } else if (expression instanceof SignedExpression) {
+            Double value = literal(((SignedExpression) expression).getExpression());
+            return value != null && ((SignedExpression) expression).getSign() == '-' ? -value : value;
+        }
+        return null;
+    }
+
+    private static Double toScore(Object value) {
+        if (value instanceof String) {
+            String text = ((String) value).trim();
+            Double score = IndexEntries.score(text);
+            if (score == null) {
+                // 日期时间字符串，如 '2023-01-21' 或 '2023-01-21 08:00:00'
+                score = IndexEntries.score(parseDateTime(text));
+            }
+            return score == null || Double.isNaN(score) ? null : score;
+        }
+        Double score = IndexEntries.score(value);
+        return score == null || Double.isNaN(score) ? null : score;
+    }
+
+    private static Object parseDateTime(String text) {
+        try {
+            return text.length() <= 10 ? Date.valueOf(text) : Timestamp.valueOf(text);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 单个边界：字面量或占位符位置
+     */
+    private static final class Bound {
+        private final Double literal;
+        private final int position;
+        private final boolean lower;
+        private final boolean exclusive;
+
+        private Bound(Double literal, int position, boolean lower, boolean exclusive) {
+            this.literal = literal;
+            this.position = position;
+            this.lower = lower;
+            this.exclusive = exclusive;
+        }
+    }
+}
@@ -3,10 +3,15 @@ package org.sqlfans.redisjql.sync;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.ExecutorAsyncCacheOperationService;
 import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.parser.IndexEntries;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -19,9 +24,16 @@ import java.time.format.DateTimeFormatter;
  */
 public class DataSyncService {
     private static final Logger logger = LoggerFactory.getLogger(DataSyncService.class);
+    
+    /**
+     * 未指定异步缓存操作服务时，写入索引和行哈希使用的线程数
+     */
+    public static final int DEFAULT_WRITE_PARALLELISM = 8;
 
     private JdbcTemplate jdbcTemplate;
     private CacheOperationService redisOperationService;
+    private AsyncCacheOperationService asyncOperationService; // 写入索引和行哈希，每批记录的命令同时发出
+    private ExecutorAsyncCacheOperationService ownedAsyncOperationService; // 本服务创建的异步服务，停止时关闭
     private List<IndexConfig> indexConfigs;
     private ScheduledExecutorService scheduler;
     private int syncIntervalMinutes = 10;
@@ -30,9 +42,29 @@ public class DataSyncService {
     private int batchSize = 1000; // 批处理大小
     private Map<String, LocalDateTime> lastSyncTimeMap = new HashMap<>(); // 记录每个表最后同步时间
     
+    /**
+     * 写入在本服务创建的线程池中执行，线程数为DEFAULT_WRITE_PARALLELISM，不应超过连接池的最大连接数
+     * @param jdbcTemplate 数据库访问模板
+     * @param redisOperationService 缓存操作服务
+     * @param indexConfigs 索引配置
+     */
     public DataSyncService(JdbcTemplate jdbcTemplate, CacheOperationService redisOperationService, List<IndexConfig> indexConfigs) {
+        this(jdbcTemplate, redisOperationService,
+                new ExecutorAsyncCacheOperationService(redisOperationService, DEFAULT_WRITE_PARALLELISM), indexConfigs);
+        this.ownedAsyncOperationService = (ExecutorAsyncCacheOperationService) this.asyncOperationService;
+    }
+    
+    /**
+     * @param jdbcTemplate 数据库访问模板
+     * @param redisOperationService 缓存操作服务，用于读取Redis中已有的键
+     * @param asyncOperationService 异步缓存操作服务，用于写入索引和行哈希
+     * @param indexConfigs 索引配置
+     */
+    public DataSyncService(JdbcTemplate jdbcTemplate, CacheOperationService redisOperationService,
+                           AsyncCacheOperationService asyncOperationService, List<IndexConfig> indexConfigs) {
         this.jdbcTemplate = jdbcTemplate;
         this.redisOperationService = redisOperationService;
+        this.asyncOperationService = asyncOperationService;
         this.indexConfigs = indexConfigs;
         this.scheduler = Executors.newScheduledThreadPool(2); // 增加线程池大小，支持增量和全量同步
     }
@@ -62,6 +94,9 @@ public class DataSyncService {
             scheduler.shutdownNow();
             Thread.currentThread().interrupt();
         }
+        if (ownedAsyncOperationService != null) {
+            ownedAsyncOperationService.close();
+        }
     }
     
     /**
@@ -372,10 +407,12 @@ public class DataSyncService {
                 String sql = "SELECT * FROM " + tableName + " WHERE " + primaryKey + " IN (" + inClause + ")";
                 List<Map<String, Object>> records = jdbcTemplate.queryForList(sql);
                 
-                // 更新Redis索引
+                // 更新Redis索引：一批记录的命令全部发出后再等待应答
+                List<CompletableFuture<Void>> pending = new ArrayList<>();
                 for (Map<String, Object> record : records) {
-                    updateRedisIndices(config, record);
+                    updateRedisIndices(config, record, pending);
                 }
+                awaitAll(pending, tableName);
                 
                 // 重置IN子句
                 inClause = new StringBuilder();
@@ -396,9 +433,28 @@ public class DataSyncService {
         
         logger.info("Removing {} extra records for table {}", extraKeys.size(), tableName);
         
-        // 标记删除
+        // 标记删除，并从全部索引中移除，索引查询和分页计数不再包含这些记录
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
         for (String key : extraKeys) {
-            redisOperationService.markForDeletion(tableName, key);
+            pending.add(asyncOperationService.markForDeletion(tableName, key).toCompletableFuture());
+            pending.add(asyncOperationService.replaceIndexMemberships(tableName, key, Collections.emptyMap(), -1)
+                    .<Void>thenApply(replaced -> null).toCompletableFuture());
+        }
+        awaitAll(pending, tableName);
+    }
+    
+    /**
+     * 等待已发出的异步命令全部完成，失败的命令只记录日志，相关记录在下次同步时重新写入
+     * @param pending 已发出的异步命令
+     * @param tableName 表名
+     */
+    private void awaitAll(List<CompletableFuture<Void>> pending, String tableName) {
+        try {
+            CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        } catch (CompletionException e) {
+            long failed = pending.stream().filter(CompletableFuture::isCompletedExceptionally).count();
+            logger.warn("{} of {} Redis commands failed for table {}: {}", failed, pending.size(), tableName,
+                       e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
         }
     }
     
@@ -406,8 +462,10 @@ public class DataSyncService {
      * 更新Redis索引
      * @param config 索引配置
      * @param record 记录数据
+     * @param pending 收集已发出的异步命令
      */
-    private void updateRedisIndices(IndexConfig config, Map<String, Object> record) {
+    private void updateRedisIndices(IndexConfig config, Map<String, Object> record,
+                                    List<CompletableFuture<Void>> pending) {
         String tableName = config.getTableName();
         String primaryKey = config.getPrimaryKey();
         
@@ -424,111 +482,16 @@ public class DataSyncService {
         String dataKey = tableName + ":" + pkStr;
         for (Map.Entry<String, Object> entry : record.entrySet()) {
             if (entry.getValue() != null) {
-                redisOperationService.addDataField(dataKey, entry.getKey(), entry.getValue().toString());
+                pending.add(asyncOperationService.addDataField(dataKey, entry.getKey(), entry.getValue().toString())
+                        .toCompletableFuture());
             }
         }
         
-        // 2. 更新所有索引
-        for (IndexConfig.IndexDefinition indexDef : config.getIndexes()) {
-            // 处理索引字段
-            List<String> fields = indexDef.getFields();
-            if (fields == null || fields.isEmpty()) {
-                continue;
-            }
-            
-            // 处理复合索引
-            if (fields.size() > 1) {
-                boolean allFieldsExist = true;
-                for (String field : fields) {
-                    if (!record.containsKey(field) || record.get(field) == null) {
-                        allFieldsExist = false;
-                        break;
-                    }
-                }
-                
-                if (allFieldsExist) {
-                    // 构建复合索引键
-                    StringBuilder indexKeyBuilder = new StringBuilder(tableName);
-                    for (String field : fields) {
-                        Object fieldValue = record.get(field);
-                        indexKeyBuilder.append(":").append(field).append(":").append(fieldValue);
-                    }
-                    String indexKey = indexKeyBuilder.toString();
-                    
-                    // 添加到索引
-                    double score = 0;
-                    String sortField = indexDef.getSortField();
-                    if (sortField != null && record.containsKey(sortField) && record.get(sortField) != null) {
-                        try {
-                            Object sortValue = record.get(sortField);
-                            if (sortValue instanceof Number) {
-                                score = ((Number) sortValue).doubleValue();
-                            } else {
-                                score = Double.parseDouble(sortValue.toString());
-                            }
-                        } catch (NumberFormatException e) {
-                            logger.warn("Sort field {} value is not a number: {}", sortField, record.get(sortField));
-                        }
-                    }
-                    
-                    redisOperationService.addIndexRecord(indexKey, pkStr, score);
-                    redisOperationService.addPrimaryKeyToIndexMapping(tableName, pkStr, indexKey);
-                }
-            } else {
-                // 处理单字段索引
-                String fieldName = fields.get(0);
-                if (record.containsKey(fieldName) && record.get(fieldName) != null) {
-                    Object fieldValue = record.get(fieldName);
-                    
-                    // 处理多值索引
-                    if (fieldValue instanceof String && ((String) fieldValue).contains(",")) {
-                        String[] values = ((String) fieldValue).split(",");
-                        for (String value : values) {
-                            String indexKey = tableName + ":" + fieldName + ":" + value.trim();
-                            
-                            // 添加到索引
-                            double score = 0;
-                            String sortField = indexDef.getSortField();
-                            if (sortField != null && record.containsKey(sortField) && record.get(sortField) != null) {
-                                try {
-                                    Object sortValue = record.get(sortField);
-                                    if (sortValue instanceof Number) {
-                                        score = ((Number) sortValue).doubleValue();
-                                    } else {
-                                        score = Double.parseDouble(sortValue.toString());
-                                    }
-                                } catch (NumberFormatException e) {
-                                    logger.warn("Sort field {} value is not a number: {}", sortField, record.get(sortField));
-                                }
-                            }
-                            
-                            redisOperationService.addIndexRecord(indexKey, pkStr, score);
-                            redisOperationService.addPrimaryKeyToIndexMapping(tableName, pkStr, indexKey);
-                        }
-                    } else {
-                        String indexKey = tableName + ":" + fieldName + ":" + fieldValue;
-                        
-                        // 添加到索引
-                        double score = 0;
-                        String sortField = indexDef.getSortField();
-                        if (sortField != null && record.containsKey(sortField) && record.get(sortField) != null) {
-                            try {
-                                Object sortValue = record.get(sortField);
-                                if (sortValue instanceof Number) {
-                                    score = ((Number) sortValue).doubleValue();
-                                } else {
-                                    score = Double.parseDouble(sortValue.toString());
-                                }
-                            } catch (NumberFormatException e) {
-                                logger.warn("Sort field {} value is not a number: {}", sortField, record.get(sortField));
-                            }
-                        }
-                        
-                        redisOperationService.addIndexRecord(indexKey, pkStr, score);
-                        redisOperationService.addPrimaryKeyToIndexMapping(tableName, pkStr, indexKey);
-                    }
-                }
-            }
+        // 2. 更新所有索引，索引键和分数与拦截器写入时的计算规则相同（日期时间排序字段取毫秒时间戳）
+        for (Map.Entry<String, Double> entry : IndexEntries.of(config, record, 0).getEntries().entrySet()) {
+            String indexKey = entry.getKey();
+            pending.add(asyncOperationService.addIndexRecord(indexKey, pkStr, entry.getValue()).toCompletableFuture());
+            pending.add(asyncOperationService.addPrimaryKeyToIndexMapping(tableName, pkStr, indexKey).toCompletableFuture());
         }
         
         // 3. 添加版本字段索引
@@ -538,8 +501,8 @@ public class DataSyncService {
             Object versionValue = record.get(versionField);
             String versionIndexKey = tableName + ":" + versionField + ":" + versionValue;
             
-            redisOperationService.addIndexRecord(versionIndexKey, pkStr, 0);
-            redisOperationService.addPrimaryKeyToIndexMapping(tableName, pkStr, versionIndexKey);
+            pending.add(asyncOperationService.addIndexRecord(versionIndexKey, pkStr, 0).toCompletableFuture());
+            pending.add(asyncOperationService.addPrimaryKeyToIndexMapping(tableName, pkStr, versionIndexKey).toCompletableFuture());
         }
     }
 }
\ No newline at end of file
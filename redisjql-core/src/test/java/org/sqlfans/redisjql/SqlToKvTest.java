@@ -1,11 +1,17 @@
 package org.sqlfans.redisjql;
 
 import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
 import net.sf.jsqlparser.statement.insert.Insert;
+import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
 import net.sf.jsqlparser.statement.update.Update;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.session.Configuration;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -13,23 +19,48 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.IndexRange;
+import org.sqlfans.redisjql.cache.ScoreRange;
 import org.sqlfans.redisjql.cache.caffine.CaffeineCacheOperationService;
+import org.sqlfans.redisjql.cache.tiered.InvalidationChannel;
+import org.sqlfans.redisjql.cache.tiered.TieredCacheOperationService;
 import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.dialect.RewriteDialects;
+import org.sqlfans.redisjql.parser.IndexEntries;
+import org.sqlfans.redisjql.parser.ParameterValueResolver;
 import org.sqlfans.redisjql.parser.SelectParser;
+import org.sqlfans.redisjql.parser.StatementParser;
 import org.sqlfans.redisjql.parser.impl.SelectParserImpl;
 import org.sqlfans.redisjql.parser.InsertParser;
 import org.sqlfans.redisjql.parser.impl.InsertParserImpl;
 import org.sqlfans.redisjql.parser.UpdateParser;
 import org.sqlfans.redisjql.parser.impl.UpdateParserImpl;
+import org.sqlfans.redisjql.query.IndexCondition;
+import org.sqlfans.redisjql.query.IndexLookupResult;
+import org.sqlfans.redisjql.query.IndexQueryPlanner;
+import org.sqlfans.redisjql.query.ScoreOrder;
 import org.sqlfans.redisjql.sync.DataSyncService;
 
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 @RunWith(MockitoJUnitRunner.class)
 public class SqlToKvTest {
@@ -103,9 +134,9 @@ public class SqlToKvTest {
         redisOperationService.addIndexRecord(statusIndexKey, "CASE003", 1674432000000L); // 2023-01-23
         
         // 为了支持复合查询，添加记录的create_time属性数据
-        redisOperationService.addDataField("tm_case_main:data:CASE001", "create_time", "2023-01-21");
-        redisOperationService.addDataField("tm_case_main:data:CASE002", "create_time", "2023-01-22");
-        redisOperationService.addDataField("tm_case_main:data:CASE003", "create_time", "2023-01-23");
+        redisOperationService.addDataField("tm_case_main:CASE001", "create_time", "2023-01-21");
+        redisOperationService.addDataField("tm_case_main:CASE002", "create_time", "2023-01-22");
+        redisOperationService.addDataField("tm_case_main:CASE003", "create_time", "2023-01-23");
     }
 
     @Test
@@ -236,4 +267,438 @@ public class SqlToKvTest {
         // 唯一索引查询应直接走数据库，不走Redis缓存
         assertFalse("唯一索引查询不应使用Redis缓存", selectParser.canUseRedisCache(selectStatement));
     }
+
+    @Test
+    public void testStatementParseCache() throws JSQLParserException {
+        StatementParser statementParser = new StatementParser();
+        String selectSql = "SELECT * FROM tm_case_main WHERE name = ?";
+        
+        Statement shared = statementParser.parseReadOnly(selectSql);
+        assertSame("第二次只读解析应返回缓存中的语句", shared, statementParser.parseReadOnly(selectSql));
+        assertEquals("第二次解析应命中缓存", 1, statementParser.getParseCacheStats().hitCount());
+        assertEquals(1, statementParser.getParseCacheStats().missCount());
+        
+        Select first = (Select) statementParser.parse(selectSql);
+        assertNotSame("可改写的语句与缓存中的语句不共享", shared, first);
+        // 模拟改写SQL时替换WHERE条件
+        ((PlainSelect) first.getSelectBody()).setWhere(null);
+        
+        Select second = (Select) statementParser.parseReadOnly(selectSql);
+        assertNotNull("缓存中的语句不应被改写污染", ((PlainSelect) second.getSelectBody()).getWhere());
+        
+        // 更新语句的深层表达式同样不与缓存共享
+        String updateSql = "UPDATE tm_case_main SET name = 'A' WHERE case_no = 'CASE001'";
+        Update update = (Update) statementParser.parse(updateSql);
+        ((StringValue) update.getUpdateSets().get(0).getExpressions().get(0)).setValue("B");
+        ((EqualsTo) update.getWhere()).setRightExpression(new StringValue("CASE002"));
+        assertEquals(updateSql, statementParser.parse(updateSql).toString());
+        
+        // 缓存的解析失败每次抛出新的异常实例
+        JSQLParserException firstError = null;
+        JSQLParserException secondError = null;
+        try {
+            statementParser.parse("SELECT FROM WHERE");
+        } catch (JSQLParserException e) {
+            firstError = e;
+        }
+        try {
+            statementParser.parse("SELECT FROM WHERE");
+        } catch (JSQLParserException e) {
+            secondError = e;
+        }
+        assertNotNull(firstError);
+        assertNotNull(secondError);
+        assertNotSame(firstError, secondError);
+        try {
+            statementParser.parseReadOnly("SELECT FROM WHERE");
+            fail("缓存的解析失败同样应抛出异常");
+        } catch (JSQLParserException e) {
+            assertNotSame(firstError, e);
+        }
+    }
+    
+    @Test
+    public void testStatementIndexEntries() throws JSQLParserException {
+        StatementParser statementParser = new StatementParser();
+        statementParser.setIndexConfigs(indexConfigs);
+        Timestamp createTime = new Timestamp(1674259200000L);
+        
+        // 插入：按各字段的值计算全部索引记录，多值字段拆分，分数取排序字段的时间戳
+        IndexEntries inserted = statementParser.processStatement(statementParser.parse(
+                "INSERT INTO tm_case_main (case_no, name, status, create_time, case_code, jpa_version) "
+                        + "VALUES ('CASE040', 'A,B', 'OPEN', ?, NULL, 1)"), position -> createTime);
+        assertTrue(inserted.isComplete());
+        Map<String, Double> expected = new HashMap<>();
+        expected.put("tm_case_main:name:A", 1674259200000d);
+        expected.put("tm_case_main:name:B", 1674259200000d);
+        expected.put("tm_case_main:status:OPEN:create_time:" + createTime, 1674259200000d);
+        assertEquals(expected, inserted.getEntries());
+        
+        // 更新只修改了name，排序字段和其他索引未知，需要读取更新后的行
+        IndexEntries renamed = statementParser.processStatement(statementParser.parse(
+                "UPDATE tm_case_main SET name = ?, jpa_version = jpa_version + 1 WHERE case_no = 'CASE040'"),
+                position -> "C");
+        assertTrue(renamed.isAffected());
+        assertFalse(renamed.isComplete());
+        assertTrue(renamed.getEntries().isEmpty());
+        
+        // SET给出全部索引字段和排序字段时可以直接替换
+        IndexEntries replaced = statementParser.processStatement(statementParser.parse(
+                "UPDATE tm_case_main SET name = 'C', status = 'CLOSED', create_time = ?, case_code = 'X1' "
+                        + "WHERE case_no = 'CASE040'"), position -> createTime);
+        assertTrue(replaced.isComplete());
+        assertEquals(Double.valueOf(1674259200000d), replaced.getEntries().get("tm_case_main:name:C"));
+        assertTrue(replaced.getEntries().containsKey("tm_case_main:case_code:X1"));
+        
+        // 不修改索引字段和排序字段的更新不影响索引
+        assertFalse(statementParser.processStatement(statementParser.parse(
+                "UPDATE tm_case_main SET remark = 'x' WHERE case_no = 'CASE040'")).isAffected());
+        assertNull(statementParser.processStatement(statementParser.parse(
+                "UPDATE tm_other SET name = 'x' WHERE id = 1")));
+    }
+    
+    @Test
+    public void testSortFieldScore() {
+        // 分数取排序字段的值：日期时间为毫秒时间戳，与拦截器和同步服务写入的分数相同
+        LocalDateTime createTime = LocalDateTime.of(2023, 1, 21, 0, 0);
+        long millis = createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        Map<String, Object> row = new HashMap<>();
+        row.put("case_no", "CASE050");
+        row.put("name", "Scored");
+        row.put("case_code", "C50");
+        row.put("create_time", createTime);
+        Map<String, Double> entries = IndexEntries.of(indexConfigs.get(0), row, 7).getEntries();
+        assertEquals(Double.valueOf(millis), entries.get("tm_case_main:name:Scored"));
+        assertEquals("没有排序字段的索引使用默认分数", Double.valueOf(7), entries.get("tm_case_main:case_code:C50"));
+        
+        assertEquals(Double.valueOf(5), IndexEntries.score("5"));
+        assertEquals(Double.valueOf(millis), IndexEntries.score(Timestamp.valueOf(createTime)));
+        assertNull(IndexEntries.score("2023-01-21"));
+    }
+    
+    @Test
+    public void testParameterBinding() throws JSQLParserException {
+        // 模拟MyBatis将 #{name} 解析为 ? 占位符后的BoundSql
+        String selectSql = "SELECT * FROM tm_case_main WHERE name = ?";
+        Configuration configuration = new Configuration();
+        List<ParameterMapping> parameterMappings = new ArrayList<>();
+        parameterMappings.add(new ParameterMapping.Builder(configuration, "name", String.class).build());
+        Map<String, Object> parameterObject = new HashMap<>();
+        parameterObject.put("name", "Test Case");
+        BoundSql boundSql = new BoundSql(configuration, selectSql, parameterMappings, parameterObject);
+        
+        List<Object> parameterValues = ParameterValueResolver.resolveAll(configuration, boundSql);
+        assertEquals(Arrays.asList((Object) "Test Case"), parameterValues);
+        
+        PlainSelect plainSelect = (PlainSelect) ((Select) CCJSqlParserUtil.parse(selectSql)).getSelectBody();
+        Object result = selectParser.queryWithRedisIndex("tm_case_main", plainSelect.getWhere(),
+                Collections.emptyList(), Collections.emptyList(), parameterValues);
+        
+        assertEquals("占位符参数应命中索引", 3, ((List<?>) result).size());
+    }
+    
+    @Test
+    public void testBatchIndexQuery() {
+        Map<String, List<String>> result = redisOperationService.queryPrimaryKeysByIndexes(Arrays.asList(
+                IndexRange.all("tm_case_main:status:OPEN"),
+                IndexRange.of("tm_case_main:name:Test Case", 0, 0),
+                IndexRange.all("tm_case_main:name:Missing")));
+        
+        assertEquals("按分数顺序返回全部成员", Arrays.asList("CASE001", "CASE002", "CASE003"),
+                result.get("tm_case_main:status:OPEN"));
+        assertEquals("应按位置区间截取", 1, result.get("tm_case_main:name:Test Case").size());
+        assertTrue("不存在的索引应返回空列表", result.get("tm_case_main:name:Missing").isEmpty());
+    }
+    
+    @Test
+    public void testIndexIntersection() {
+        redisOperationService.addIndexRecord("tm_case_main:status:CLOSED", "CASE002", 0);
+        // 重复添加时只更新分数，不产生重复成员
+        redisOperationService.addIndexRecord("tm_case_main:status:CLOSED", "CASE002", 1);
+        
+        assertEquals(Arrays.asList("CASE002"), redisOperationService.intersectPrimaryKeys(
+                Arrays.asList("tm_case_main:name:Test Case", "tm_case_main:status:CLOSED")));
+        assertTrue("任一索引不存在时交集为空", redisOperationService.intersectPrimaryKeys(
+                Arrays.asList("tm_case_main:name:Test Case", "tm_case_main:status:MISSING")).isEmpty());
+    }
+    
+    @Test
+    public void testIndexQueryPlanner() {
+        for (int i = 0; i < 20; i++) {
+            redisOperationService.addIndexRecord("tm_case_main:status:ACTIVE", "CASE" + (100 + i), i);
+        }
+        redisOperationService.addIndexRecord("tm_case_main:status:ACTIVE", "CASE001", 100);
+        
+        List<String> indexKeys = Arrays.asList("tm_case_main:status:ACTIVE", "tm_case_main:name:Test Case");
+        IndexLookupResult probe = new IndexQueryPlanner(redisOperationService, 5).lookup(indexKeys);
+        assertEquals(IndexLookupResult.Strategy.PROBE, probe.getStrategy());
+        assertEquals(Arrays.asList("CASE001"), probe.getPrimaryKeys());
+        assertEquals("成员数量应按从小到大排列", Arrays.asList("tm_case_main:name:Test Case", "tm_case_main:status:ACTIVE"),
+                new ArrayList<>(probe.getCardinalities().keySet()));
+        
+        IndexLookupResult intersect = new IndexQueryPlanner(redisOperationService, 1).lookup(indexKeys);
+        assertEquals(IndexLookupResult.Strategy.SERVER_INTERSECT, intersect.getStrategy());
+        assertEquals(Arrays.asList("CASE001"), intersect.getPrimaryKeys());
+        
+        // 只有一个索引时直接读取，不查询成员数量
+        CacheOperationService counted = spy(redisOperationService);
+        IndexLookupResult single = new IndexQueryPlanner(counted)
+                .lookup(Collections.singletonList("tm_case_main:status:ACTIVE"));
+        assertEquals(IndexLookupResult.Strategy.SINGLE, single.getStrategy());
+        assertEquals(21, single.getPrimaryKeys().size());
+        verify(counted, never()).countPrimaryKeysByIndexes(any());
+    }
+    
+    @Test
+    public void testScoreOrderLookup() throws JSQLParserException {
+        redisOperationService.addIndexRecord("tm_case_main:status:PENDING", "CASE003", 30);
+        redisOperationService.addIndexRecord("tm_case_main:status:PENDING", "CASE001", 10);
+        redisOperationService.addIndexRecord("tm_case_main:status:PENDING", "CASE002", 20);
+        redisOperationService.addIndexRecord("tm_case_main:name:Pending", "CASE002", 20);
+        redisOperationService.addIndexRecord("tm_case_main:name:Pending", "CASE003", 30);
+        
+        PlainSelect plainSelect = (PlainSelect) ((Select) CCJSqlParserUtil.parse(
+                "SELECT * FROM tm_case_main WHERE status = 'PENDING' ORDER BY create_time DESC")).getSelectBody();
+        ScoreOrder order = ScoreOrder.detect(plainSelect.getOrderByElements(), indexConfigs.get(0).getIndexes().subList(0, 2));
+        assertEquals(ScoreOrder.DESC, order);
+        assertNull("排序字段不是sortField时不能使用索引顺序", ScoreOrder.detect(plainSelect.getOrderByElements(),
+                indexConfigs.get(0).getIndexes()));
+        
+        IndexQueryPlanner planner = new IndexQueryPlanner(redisOperationService);
+        assertEquals(Arrays.asList("CASE003", "CASE002", "CASE001"),
+                planner.lookup(Collections.singletonList("tm_case_main:status:PENDING"), order).getPrimaryKeys());
+        
+        List<String> indexKeys = Arrays.asList("tm_case_main:status:PENDING", "tm_case_main:name:Pending");
+        assertEquals(Arrays.asList("CASE003", "CASE002"), planner.lookup(indexKeys, order).getPrimaryKeys());
+        assertEquals(Arrays.asList("CASE003", "CASE002"),
+                new IndexQueryPlanner(redisOperationService, 1).lookup(indexKeys, order).getPrimaryKeys());
+        assertEquals(Arrays.asList("CASE002", "CASE003"), planner.lookup(indexKeys, ScoreOrder.ASC).getPrimaryKeys());
+    }
+    
+    @Test
+    public void testScoreRangeQuery() throws JSQLParserException {
+        assertEquals(Arrays.asList("CASE002", "CASE003"), redisOperationService.queryPrimaryKeysByScore(
+                "tm_case_main:status:OPEN", ScoreRange.of(1674259200000L, true, Double.POSITIVE_INFINITY, false), false));
+        assertEquals(Arrays.asList("CASE002", "CASE001"), redisOperationService.queryPrimaryKeysByScore(
+                "tm_case_main:status:OPEN", ScoreRange.of(Double.NEGATIVE_INFINITY, false, 1674432000000L, true), true));
+        assertEquals("(1674259200000", ScoreRange.of(1674259200000L, true, 0, false).minArgument());
+        
+        PlainSelect plainSelect = (PlainSelect) ((Select) CCJSqlParserUtil.parse(
+                "SELECT * FROM tm_case_main WHERE status = ? AND create_time BETWEEN ? AND ?")).getSelectBody();
+        List<Object> parameterValues = Arrays.asList("OPEN", 1674259200000L, 1674345600000L);
+        Object result = selectParser.queryWithRedisIndex("tm_case_main", plainSelect.getWhere(),
+                Collections.emptyList(), Collections.emptyList(), parameterValues);
+        assertEquals(Arrays.asList("CASE001", "CASE002"), result);
+        
+        // 日期时间参数与索引分数相同，换算为毫秒时间戳
+        parameterValues = Arrays.asList("OPEN", new Timestamp(1674345600000L), new Timestamp(1674432000000L));
+        result = selectParser.queryWithRedisIndex("tm_case_main", plainSelect.getWhere(),
+                Collections.emptyList(), Collections.emptyList(), parameterValues);
+        assertEquals(Arrays.asList("CASE002", "CASE003"), result);
+        
+        plainSelect = (PlainSelect) ((Select) CCJSqlParserUtil.parse(
+                "SELECT * FROM tm_case_main WHERE status = 'OPEN' AND create_time > 1674259200000 "
+                        + "AND create_time <= 1674432000000 ORDER BY create_time DESC")).getSelectBody();
+        result = selectParser.queryWithRedisIndex("tm_case_main", plainSelect.getWhere(),
+                plainSelect.getOrderByElements(), Collections.emptyList());
+        assertEquals(Arrays.asList("CASE003", "CASE002"), result);
+    }
+    
+    @Test
+    public void testIndexUnion() throws JSQLParserException {
+        redisOperationService.addIndexRecord("tm_case_main:status:CLOSED", "CASE004", 5);
+        redisOperationService.addIndexRecord("tm_case_main:name:Other", "CASE004", 5);
+        
+        assertEquals("并集按分数从小到大返回", Arrays.asList("CASE004", "CASE001", "CASE002", "CASE003"),
+                redisOperationService.unionPrimaryKeys(Arrays.asList("tm_case_main:status:OPEN", "tm_case_main:status:CLOSED")));
+        
+        PlainSelect plainSelect = (PlainSelect) ((Select) CCJSqlParserUtil.parse(
+                "SELECT * FROM tm_case_main WHERE status IN ('OPEN', 'CLOSED') AND name = ?")).getSelectBody();
+        Object result = selectParser.queryWithRedisIndex("tm_case_main", plainSelect.getWhere(),
+                Collections.emptyList(), Collections.emptyList(), Collections.singletonList("Test Case"));
+        assertEquals(new HashSet<>(Arrays.asList("CASE001", "CASE002", "CASE003")), new HashSet<>((List<?>) result));
+        
+        plainSelect = (PlainSelect) ((Select) CCJSqlParserUtil.parse(
+                "SELECT * FROM tm_case_main WHERE (name = 'Other' OR status = 'CLOSED') AND remark LIKE '%x%'")).getSelectBody();
+        result = selectParser.queryWithRedisIndex("tm_case_main", plainSelect.getWhere(),
+                Collections.emptyList(), Collections.emptyList());
+        assertEquals(Arrays.asList("CASE004"), result);
+        
+        plainSelect = (PlainSelect) ((Select) CCJSqlParserUtil.parse(
+                "SELECT * FROM tm_case_main WHERE name = 'Other' OR remark = 'x'")).getSelectBody();
+        assertNull("OR中有非索引条件时不能使用索引",
+                IndexCondition.collect("tm_case_main", plainSelect.getWhere(), indexConfigs.get(0)));
+    }
+    
+    @Test
+    public void testRewriteDialects() {
+        assertEquals("mysql", RewriteDialects.forProductName("MySQL").getName());
+        assertEquals("postgresql", RewriteDialects.forProductName("PostgreSQL").getName());
+        assertEquals("generic", RewriteDialects.forProductName("Apache Derby").getName());
+        
+        String selectSql = "SELECT * FROM tm_case_main WHERE name = 'Test Case' ORDER BY priority";
+        List<String> primaryKeys = Arrays.asList("CASE002", "CASE001");
+        SelectParserImpl parser = new SelectParserImpl(redisOperationService, indexConfigs);
+        parser.setDialect(RewriteDialects.forName("mysql"));
+        String mysqlSql = parser.rewriteSelectSql(selectSql, primaryKeys);
+        assertTrue(mysqlSql, mysqlSql.contains("IN ('CASE002', 'CASE001')"));
+        assertTrue(mysqlSql, mysqlSql.contains("ORDER BY FIELD(tm_case_main.case_no, 'CASE002', 'CASE001')"));
+        
+        parser.setDialect(RewriteDialects.forName("postgresql"));
+        String postgresSql = parser.rewriteSelectSql(selectSql, primaryKeys);
+        assertTrue(postgresSql, postgresSql.contains("case_no = ANY(ARRAY['CASE002', 'CASE001'])"));
+        assertTrue(postgresSql, postgresSql.contains("ORDER BY array_position(ARRAY['CASE002', 'CASE001'], tm_case_main.case_no)"));
+    }
+    
+    @Test
+    public void testTieredCache() {
+        CacheOperationService remote = spy(new CaffeineCacheOperationService());
+        remote.addIndexRecord("tm_case_main:status:OPEN", "CASE001", 1);
+        remote.addDataField("tm_case_main:CASE001", "status", "OPEN");
+        List<InvalidationChannel.Listener> listeners = new ArrayList<>();
+        InvalidationChannel channel = new InvalidationChannel() {
+            @Override
+            public void publish(String message) {
+                listeners.forEach(listener -> listener.onMessage(message));
+            }
+            
+            @Override
+            public void subscribe(Listener listener) {
+                listeners.add(listener);
+            }
+        };
+        TieredCacheOperationService nodeA = new TieredCacheOperationService(remote, channel);
+        TieredCacheOperationService nodeB = new TieredCacheOperationService(remote, channel);
+        
+        List<IndexRange> ranges = Collections.singletonList(IndexRange.all("tm_case_main:status:OPEN"));
+        assertEquals(Arrays.asList("CASE001"), nodeA.queryPrimaryKeysByIndexes(ranges).get("tm_case_main:status:OPEN"));
+        assertEquals(Arrays.asList("CASE001"), nodeA.queryPrimaryKeysByIndexes(ranges).get("tm_case_main:status:OPEN"));
+        assertEquals("OPEN", nodeA.getFieldValue("tm_case_main:CASE001", "status"));
+        assertEquals("OPEN", nodeA.getFieldValue("tm_case_main:CASE001", "status"));
+        verify(remote, times(1)).queryScoredPrimaryKeys(any());
+        verify(remote, never()).queryPrimaryKeysByIndexes(any());
+        verify(remote, times(1)).getAllFieldValues(any());
+        
+        // 节点B的写入通过失效通道删除节点A的本地缓存
+        nodeB.addIndexRecord("tm_case_main:status:OPEN", "CASE002", 0);
+        nodeB.addDataField("tm_case_main:CASE001", "status", "CLOSED");
+        assertEquals(Arrays.asList("CASE002", "CASE001"),
+                nodeA.unionPrimaryKeys(Collections.singletonList("tm_case_main:status:OPEN")));
+        assertEquals("CLOSED", nodeA.getFieldValue("tm_case_main:CASE001", "status"));
+        verify(remote, times(2)).queryScoredPrimaryKeys(any());
+        verify(remote, times(2)).getAllFieldValues(any());
+        
+        // 整体替换成员关系时不读取替换前的索引键，节点A删除本地缓存中包含该主键的索引键
+        remote.addPrimaryKeyToIndexMapping("tm_case_main", "CASE001", "tm_case_main:status:OPEN");
+        assertTrue(nodeB.replaceIndexMemberships("tm_case_main", "CASE001",
+                Collections.singletonMap("tm_case_main:status:CLOSED", 1.0), -1));
+        assertEquals(Arrays.asList("CASE002"),
+                nodeA.unionPrimaryKeys(Collections.singletonList("tm_case_main:status:OPEN")));
+        verify(remote, times(3)).queryScoredPrimaryKeys(any());
+        verify(remote, never()).getPrimaryKeyMappings(any(), any());
+        
+        // 标记删除同样失效行哈希
+        nodeB.markForDeletion("tm_case_main", "CASE001");
+        assertEquals("CLOSED", nodeA.getFieldValue("tm_case_main:CASE001", "status"));
+        verify(remote, times(3)).getAllFieldValues(any());
+    }
+    
+    @Test
+    public void testTieredCacheEvictionRaces() {
+        CacheOperationService remote = spy(new CaffeineCacheOperationService());
+        remote.addIndexRecord("tm_case_main:status:OPEN", "CASE001", 1);
+        remote.addPrimaryKeyToIndexMapping("tm_case_main", "CASE001", "tm_case_main:status:OPEN");
+        remote.addDataField("tm_case_main:CASE001", "status", "OPEN");
+        List<InvalidationChannel.Listener> listeners = new ArrayList<>();
+        InvalidationChannel channel = new InvalidationChannel() {
+            @Override
+            public void publish(String message) {
+                listeners.forEach(listener -> listener.onMessage(message));
+            }
+            
+            @Override
+            public void subscribe(Listener listener) {
+                listeners.add(listener);
+            }
+        };
+        TieredCacheOperationService nodeA = new TieredCacheOperationService(remote, channel);
+        TieredCacheOperationService nodeB = new TieredCacheOperationService(remote, channel);
+        List<String> open = Collections.singletonList("tm_case_main:status:OPEN");
+        
+        // 节点A加载索引期间节点B写入：加载结果只用于本次读取，不写入本地缓存，下次读取重新加载
+        AtomicBoolean indexRace = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            Object loaded = invocation.callRealMethod();
+            if (indexRace.getAndSet(false)) {
+                nodeB.addIndexRecord("tm_case_main:status:OPEN", "CASE002", 0);
+            }
+            return loaded;
+        }).when(remote).queryScoredPrimaryKeys(any());
+        assertEquals(Arrays.asList("CASE001"), nodeA.unionPrimaryKeys(open));
+        assertEquals(Arrays.asList("CASE002", "CASE001"), nodeA.unionPrimaryKeys(open));
+        assertEquals(Arrays.asList("CASE002", "CASE001"), nodeA.unionPrimaryKeys(open));
+        verify(remote, times(2)).queryScoredPrimaryKeys(any());
+        
+        // 行哈希的加载同样如此
+        AtomicBoolean hashRace = new AtomicBoolean(true);
+        doAnswer(invocation -> {
+            Object loaded = invocation.callRealMethod();
+            if (hashRace.getAndSet(false)) {
+                nodeB.addDataField("tm_case_main:CASE001", "status", "CLOSED");
+            }
+            return loaded;
+        }).when(remote).getAllFieldValues(any());
+        assertEquals("OPEN", nodeA.getFieldValue("tm_case_main:CASE001", "status"));
+        assertEquals("CLOSED", nodeA.getFieldValue("tm_case_main:CASE001", "status"));
+        assertEquals("CLOSED", nodeA.getFieldValue("tm_case_main:CASE001", "status"));
+        verify(remote, times(2)).getAllFieldValues(any());
+        
+        // 替换一行的成员关系时，节点A只删除本地缓存中包含该主键的同表索引键
+        remote.addIndexRecord("tm_case_main:name:A", "CASE002", 0);
+        remote.addIndexRecord("tm_case_other:status:OPEN", "CASE001", 0);
+        List<String> nameA = Collections.singletonList("tm_case_main:name:A");
+        List<String> otherOpen = Collections.singletonList("tm_case_other:status:OPEN");
+        assertEquals(Arrays.asList("CASE002"), nodeA.unionPrimaryKeys(nameA));
+        assertEquals(Arrays.asList("CASE001"), nodeA.unionPrimaryKeys(otherOpen));
+        verify(remote, times(4)).queryScoredPrimaryKeys(any());
+        assertTrue(nodeB.replaceIndexMemberships("tm_case_main", "CASE001",
+                Collections.singletonMap("tm_case_main:status:CLOSED", 1.0), -1));
+        assertEquals(Arrays.asList("CASE002"), nodeA.unionPrimaryKeys(nameA));
+        assertEquals(Arrays.asList("CASE001"), nodeA.unionPrimaryKeys(otherOpen));
+        verify(remote, times(4)).queryScoredPrimaryKeys(any());
+        assertEquals(Arrays.asList("CASE002"), nodeA.unionPrimaryKeys(open));
+        verify(remote, times(5)).queryScoredPrimaryKeys(any());
+    }
+    
+    @Test
+    public void testReplaceIndexMemberships() {
+        redisOperationService.addIndexRecord("tm_case_main:name:Old", "CASE010", 1);
+        redisOperationService.addIndexRecord("tm_case_main:status:OPEN", "CASE010", 1);
+        redisOperationService.addPrimaryKeyToIndexMapping("tm_case_main", "CASE010", "tm_case_main:name:Old");
+        redisOperationService.addPrimaryKeyToIndexMapping("tm_case_main", "CASE010", "tm_case_main:status:OPEN");
+        
+        // 不再属于的索引中移除主键，仍然属于的索引保留，并重建主键到索引的映射
+        Map<String, Double> indexScores = new HashMap<>();
+        indexScores.put("tm_case_main:name:New", 2.0);
+        indexScores.put("tm_case_main:status:OPEN", 2.0);
+        assertTrue(redisOperationService.replaceIndexMemberships("tm_case_main", "CASE010", indexScores, 2));
+        assertTrue(redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Old", 0, -1).isEmpty());
+        assertEquals(Collections.singleton("CASE010"),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:New", 0, -1));
+        assertTrue(redisOperationService.queryPrimaryKeysByIndex("tm_case_main:status:OPEN", 0, -1)
+                .contains("CASE010"));
+        assertEquals(indexScores.keySet(), redisOperationService.getPrimaryKeyMappings("tm_case_main", "CASE010"));
+        
+        // 版本较旧的写入不生效
+        assertFalse(redisOperationService.replaceIndexMemberships("tm_case_main", "CASE010",
+                Collections.singletonMap("tm_case_main:name:Stale", 1.0), 1));
+        assertTrue(redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Stale", 0, -1).isEmpty());
+        assertEquals(indexScores.keySet(), redisOperationService.getPrimaryKeyMappings("tm_case_main", "CASE010"));
+        
+        // 不带版本号时不比较
+        assertTrue(redisOperationService.replaceIndexMemberships("tm_case_main", "CASE010",
+                Collections.singletonMap("tm_case_main:name:Latest", 3.0), -1));
+        assertEquals(Collections.singleton("tm_case_main:name:Latest"),
+                redisOperationService.getPrimaryKeyMappings("tm_case_main", "CASE010"));
+    }
 }
@@ -0,0 +1,1140 @@
+package org.sqlfans.redisjql.interceptor;
+
+import org.apache.ibatis.builder.StaticSqlSource;
+import org.apache.ibatis.executor.BatchExecutor;
+import org.apache.ibatis.executor.Executor;
+import org.apache.ibatis.executor.SimpleExecutor;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultFlag;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.ResultHandler;
+import org.apache.ibatis.session.RowBounds;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.transaction.Transaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransaction;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.apache.ibatis.type.JdbcType;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
+import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.ExecutorAsyncCacheOperationService;
+import org.sqlfans.redisjql.cache.caffine.CaffeineCacheOperationService;
+import org.sqlfans.redisjql.cache.tiered.InvalidationChannel;
+import org.sqlfans.redisjql.config.IndexConfig;
+import org.sqlfans.redisjql.dialect.RewriteDialects;
+import org.sqlfans.redisjql.parser.StatementParser;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import javax.sql.DataSource;
+
+import static org.junit.Assert.*;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * RedisJqlInterceptor的查询改写和索引维护测试，Executor使用mock，缓存使用CaffeineCacheOperationService
+ */
+@RunWith(MockitoJUnitRunner.class)
+public class RedisJqlInterceptorTest {
+
+    private static final Method QUERY = executorMethod("query", MappedStatement.class, Object.class,
+            RowBounds.class, ResultHandler.class);
+    private static final Method UPDATE = executorMethod("update", MappedStatement.class, Object.class);
+    private static final Method FLUSH_STATEMENTS = executorMethod("flushStatements");
+    private static final Method COMMIT = executorMethod("commit", boolean.class);
+    private static final Method ROLLBACK = executorMethod("rollback", boolean.class);
+
+    private CacheOperationService redisOperationService;
+    private List<IndexConfig> indexConfigs;
+    private Configuration configuration;
+
+    @Before
+    public void setup() {
+        redisOperationService = new CaffeineCacheOperationService();
+        configuration = new Configuration();
+
+        IndexConfig indexConfig = new IndexConfig();
+        indexConfig.setTableName("tm_case_main");
+        indexConfig.setPrimaryKey("case_no");
+        indexConfig.setVersionField("jpa_version");
+
+        IndexConfig.IndexDefinition nameIndex = new IndexConfig.IndexDefinition();
+        nameIndex.setName("name_idx");
+        nameIndex.addField("name");
+        nameIndex.setSortField("create_time");
+        indexConfig.addIndex(nameIndex);
+
+        IndexConfig.IndexDefinition statusTimeIndex = new IndexConfig.IndexDefinition();
+        statusTimeIndex.setName("status_time_idx");
+        statusTimeIndex.addField("status");
+        statusTimeIndex.addField("create_time");
+        statusTimeIndex.setSortField("create_time");
+        indexConfig.addIndex(statusTimeIndex);
+
+        IndexConfig.IndexDefinition codeIndex = new IndexConfig.IndexDefinition();
+        codeIndex.setName("code_idx");
+        codeIndex.addField("case_code");
+        codeIndex.setUnique(true);
+        indexConfig.addIndex(codeIndex);
+
+        indexConfigs = new ArrayList<>();
+        indexConfigs.add(indexConfig);
+
+        redisOperationService.addIndexRecord("tm_case_main:name:Test Case", "CASE001", 0);
+        redisOperationService.addIndexRecord("tm_case_main:name:Test Case", "CASE002", 0);
+        redisOperationService.addIndexRecord("tm_case_main:name:Test Case", "CASE003", 0);
+    }
+
+    @Test
+    public void testPageWindowPushdown() throws Throwable {
+        for (int i = 1; i <= 30; i++) {
+            redisOperationService.addIndexRecord("tm_case_main:name:Paged", String.format("P%02d", i), i);
+        }
+
+        MappedStatement ms = statement("test.CaseMapper.page",
+                "SELECT * FROM tm_case_main WHERE name = ? ORDER BY create_time DESC LIMIT ? OFFSET ?",
+                SqlCommandType.SELECT, "name", "size", "offset");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("name", "Paged");
+        parameter.put("size", 5);
+        parameter.put("offset", 10);
+
+        Executor executor = mock(Executor.class);
+        query(newInterceptor(), executor, ms, parameter);
+        BoundSql rewritten = executedQuery(executor, parameter);
+
+        // 倒序第11~15条：P20..P16，OFFSET已由索引处理；主键以占位符绑定并补齐到8个
+        assertTrue(rewritten.getSql(), rewritten.getSql().contains("IN (?, ?, ?, ?, ?, ?, ?, ?)"));
+        assertFalse(rewritten.getSql(), rewritten.getSql().contains("OFFSET"));
+        List<ParameterMapping> mappings = rewritten.getParameterMappings();
+        assertEquals(10, mappings.size());
+        assertEquals("name", mappings.get(0).getProperty());
+        assertEquals("LIMIT的参数应排在主键参数之后", "size", mappings.get(9).getProperty());
+        List<Object> primaryKeys = new ArrayList<>();
+        for (ParameterMapping mapping : mappings.subList(1, 9)) {
+            primaryKeys.add(rewritten.getAdditionalParameter(mapping.getProperty()));
+        }
+        assertEquals(Arrays.asList("P20", "P19", "P18", "P17", "P16", "P16", "P16", "P16"), primaryKeys);
+    }
+
+    @Test
+    public void testPageWindowAfterDelete() throws Throwable {
+        MappedStatement insert = statement("test.CaseMapper.insert",
+                "INSERT INTO tm_case_main (case_no, name, create_time, jpa_version) VALUES (?, ?, ?, 1)",
+                SqlCommandType.INSERT, "caseNo", "name", "createTime");
+        MappedStatement delete = statement("test.CaseMapper.delete",
+                "DELETE FROM tm_case_main WHERE case_no = ?", SqlCommandType.DELETE, "caseNo");
+        MappedStatement page = statement("test.CaseMapper.page",
+                "SELECT * FROM tm_case_main WHERE name = ? ORDER BY create_time DESC LIMIT ? OFFSET ?",
+                SqlCommandType.SELECT, "name", "size", "offset");
+
+        Executor executor = mock(Executor.class);
+        doReturn(1).when(executor).update(any(MappedStatement.class), any());
+        RedisJqlInterceptor interceptor = newInterceptor()
+                .setAsyncCacheOperationService(new ExecutorAsyncCacheOperationService(redisOperationService));
+
+        // 经拦截器插入的行按create_time计分，删除的行从索引中移除，不再占用分页窗口
+        for (int i = 1; i <= 4; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("caseNo", "P0" + i);
+            row.put("name", "Paged");
+            row.put("createTime", new Timestamp(1674259200000L + i * 1000L));
+            update(interceptor, executor, insert, row);
+        }
+        update(interceptor, executor, delete, Collections.singletonMap("caseNo", "P03"));
+        assertEquals(new HashSet<>(Arrays.asList("P01", "P02", "P04")),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Paged", 0, -1));
+
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("name", "Paged");
+        parameter.put("size", 2);
+        parameter.put("offset", 1);
+        query(interceptor, executor, page, parameter);
+        BoundSql rewritten = executedQuery(executor, parameter);
+        Set<Object> primaryKeys = new LinkedHashSet<>();
+        for (ParameterMapping mapping : rewritten.getParameterMappings()) {
+            if (rewritten.hasAdditionalParameter(mapping.getProperty())) {
+                primaryKeys.add(rewritten.getAdditionalParameter(mapping.getProperty()));
+            }
+        }
+        assertEquals("倒序跳过1条后的2条", new ArrayList<>(Arrays.asList("P02", "P01")), new ArrayList<>(primaryKeys));
+    }
+
+    @Test
+    public void testApplicationOrdering() throws Throwable {
+        // 排序字段从同步服务写入的行哈希（表名:主键）中读取
+        redisOperationService.addDataField("tm_case_main:CASE001", "priority", "3");
+        redisOperationService.addDataField("tm_case_main:CASE002", "priority", "1");
+        redisOperationService.addDataField("tm_case_main:CASE003", "priority", "2");
+
+        MappedStatement ms = selectStatement("test.CaseMapper.byName",
+                "SELECT * FROM tm_case_main WHERE name = ? ORDER BY priority", caseRowMap(false), "name");
+
+        Executor executor = mock(Executor.class);
+        doReturn(Arrays.asList(new CaseRow("CASE001"), new CaseRow("CASE002"), new CaseRow("CASE003")))
+                .when(executor).query(any(MappedStatement.class), any(), any(RowBounds.class), isNull());
+        Object result = query(newInterceptor().setApplicationOrdering(true), executor, ms, "Test Case");
+
+        String rewrittenSql = executedQuery(executor, "Test Case").getSql();
+        assertFalse("排序应由应用端完成", rewrittenSql.contains("ORDER BY"));
+        assertEquals(Arrays.asList("CASE002", "CASE003", "CASE001"), caseNos(result));
+
+        // 默认关闭，仍由数据库按主键顺序排序
+        Executor defaultExecutor = mock(Executor.class);
+        query(newInterceptor(), defaultExecutor, ms, "Test Case");
+        assertTrue("默认由数据库排序", executedQuery(defaultExecutor, "Test Case").getSql().contains("ORDER BY CASE"));
+    }
+
+    @Test
+    public void testArrayBindingDialect() throws Throwable {
+        // 带LIMIT时不能在应用端排序，主键数组同时绑定到条件和排序表达式
+        redisOperationService.addDataField("tm_case_main:CASE001", "priority", "2");
+        redisOperationService.addDataField("tm_case_main:CASE002", "priority", "1");
+        redisOperationService.addDataField("tm_case_main:CASE003", "priority", "3");
+        MappedStatement ms = statement("test.CaseMapper.top",
+                "SELECT * FROM tm_case_main WHERE name = ? ORDER BY priority LIMIT ?", SqlCommandType.SELECT,
+                "name", "size");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("name", "Test Case");
+        parameter.put("size", 2);
+
+        Executor executor = mock(Executor.class);
+        query(newInterceptor().setDialect(RewriteDialects.forName("postgresql")), executor, ms, parameter);
+
+        BoundSql rewritten = executedQuery(executor, parameter);
+        assertTrue(rewritten.getSql(), rewritten.getSql().contains("case_no = ANY(?)"));
+        assertTrue(rewritten.getSql(), rewritten.getSql().contains("ORDER BY array_position(?, tm_case_main.case_no)"));
+        List<ParameterMapping> mappings = rewritten.getParameterMappings();
+        assertEquals(4, mappings.size());
+        assertEquals("name", mappings.get(0).getProperty());
+        assertEquals(mappings.get(1).getProperty(), mappings.get(2).getProperty());
+        assertEquals("size", mappings.get(3).getProperty());
+        assertArrayEquals(new String[]{"CASE002", "CASE001", "CASE003"},
+                (Object[]) rewritten.getAdditionalParameter(mappings.get(1).getProperty()));
+    }
+
+    @Test
+    public void testCaseWhenOrderBinding() throws Throwable {
+        // resultType映射的语句没有主键列的ResultMapping，主键类型从数据库的列元数据读取
+        redisOperationService.addIndexRecord("tm_case_main:name:Numbered", "101", 0);
+        redisOperationService.addIndexRecord("tm_case_main:name:Numbered", "102", 0);
+        redisOperationService.addIndexRecord("tm_case_main:name:Numbered", "103", 0);
+        redisOperationService.addDataField("tm_case_main:101", "priority", "2");
+        redisOperationService.addDataField("tm_case_main:102", "priority", "1");
+        redisOperationService.addDataField("tm_case_main:103", "priority", "3");
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        ResultSet columns = mock(ResultSet.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.getMetaData()).thenReturn(metaData);
+        when(metaData.getColumns(null, null, "tm_case_main", "case_no")).thenReturn(columns);
+        when(columns.next()).thenReturn(true);
+        when(columns.getInt("DATA_TYPE")).thenReturn(Types.BIGINT);
+        configuration.setEnvironment(new Environment("test", new JdbcTransactionFactory(), dataSource));
+
+        MappedStatement ms = statement("test.CaseMapper.topNumbered",
+                "SELECT * FROM tm_case_main WHERE name = ? ORDER BY priority LIMIT ?", SqlCommandType.SELECT,
+                "name", "size");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("name", "Numbered");
+        parameter.put("size", 2);
+
+        Executor executor = mock(Executor.class);
+        query(newInterceptor().setDialect(RewriteDialects.forName("generic")), executor, ms, parameter);
+
+        // 通用方言的CASE WHEN排序表达式同样以占位符绑定主键，不内联字面量
+        BoundSql rewritten = executedQuery(executor, parameter);
+        assertTrue(rewritten.getSql(), rewritten.getSql().contains(
+                "ORDER BY CASE tm_case_main.case_no WHEN ? THEN 0 WHEN ? THEN 1"));
+        assertFalse(rewritten.getSql(), rewritten.getSql().contains("102"));
+        List<ParameterMapping> mappings = rewritten.getParameterMappings();
+        assertEquals(1 + 8 + 8 + 1, mappings.size());
+        assertEquals("name", mappings.get(0).getProperty());
+        assertEquals(mappings.get(1).getProperty(), mappings.get(9).getProperty());
+        assertEquals("size", mappings.get(17).getProperty());
+        assertEquals(JdbcType.BIGINT, mappings.get(1).getJdbcType());
+        assertEquals(102L, rewritten.getAdditionalParameter(mappings.get(1).getProperty()));
+        assertEquals(101L, rewritten.getAdditionalParameter(mappings.get(2).getProperty()));
+    }
+
+    @Test
+    public void testCoveredPredicatesRemoved() throws Throwable {
+        indexConfigs.get(0).getIndexes().get(0).setComplete(true);
+
+        MappedStatement ms = statement("test.CaseMapper.byNameAndPriority",
+                "SELECT * FROM tm_case_main WHERE name = ? AND priority > ?", SqlCommandType.SELECT,
+                "name", "priority");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("name", "Test Case");
+        parameter.put("priority", 1);
+
+        // 默认不信任完整索引，name条件仍由数据库判断
+        Executor executor = mock(Executor.class);
+        query(newInterceptor(), executor, ms, parameter);
+        BoundSql kept = executedQuery(executor, parameter);
+        assertTrue(kept.getSql(), kept.getSql().contains("WHERE name = ? AND priority > ? AND tm_case_main.case_no IN"));
+        assertEquals("name", kept.getParameterMappings().get(0).getProperty());
+
+        executor = mock(Executor.class);
+        query(newInterceptor().setTrustCompleteIndexes(true), executor, ms, parameter);
+        BoundSql rewritten = executedQuery(executor, parameter);
+
+        // name条件已由完整索引回答，只保留priority条件和主键条件
+        assertFalse(rewritten.getSql(), rewritten.getSql().contains("name ="));
+        assertTrue(rewritten.getSql(), rewritten.getSql().contains("WHERE priority > ? AND tm_case_main.case_no IN"));
+        List<ParameterMapping> mappings = rewritten.getParameterMappings();
+        assertEquals(9, mappings.size());
+        assertEquals("priority", mappings.get(0).getProperty());
+    }
+
+    @Test
+    public void testCoveringRead() throws Throwable {
+        indexConfigs.get(0).getIndexes().get(0).setComplete(true);
+        redisOperationService.addDataField("tm_case_main:CASE001", "case_no", "CASE001");
+        redisOperationService.addDataField("tm_case_main:CASE001", "priority", "3");
+        redisOperationService.addDataField("tm_case_main:CASE001", "jpa_version", "1");
+        redisOperationService.addDataField("tm_case_main:CASE002", "case_no", "CASE002");
+        redisOperationService.addDataField("tm_case_main:CASE002", "priority", "1");
+        redisOperationService.addDataField("tm_case_main:CASE002", "jpa_version", "1");
+        redisOperationService.addDataField("tm_case_main:CASE003", "case_no", "CASE003");
+        redisOperationService.addDataField("tm_case_main:CASE003", "priority", "9");
+
+        MappedStatement ms = selectStatement("test.CaseMapper.listByName",
+                "SELECT case_no, priority FROM tm_case_main WHERE name = ?", caseRowMap(true), "name");
+        RedisJqlInterceptor interceptor = newInterceptor().setCoveringReads(true).setTrustCompleteIndexes(true);
+
+        // CASE003的行哈希没有版本号，视为未缓存，通过一次主键查询从数据库补齐
+        Executor executor = mock(Executor.class);
+        doReturn(Collections.singletonList(new CaseRow("CASE003")))
+                .when(executor).query(any(MappedStatement.class), any(), any(RowBounds.class), isNull());
+        Object result = query(interceptor, executor, ms, "Test Case");
+
+        BoundSql rewritten = executedQuery(executor, "Test Case");
+        assertFalse(rewritten.getSql(), rewritten.getSql().contains("name ="));
+        assertEquals("CASE003", rewritten.getAdditionalParameter(rewritten.getParameterMappings().get(0).getProperty()));
+
+        Map<String, Integer> priorities = new HashMap<>();
+        for (Object row : (List<?>) result) {
+            priorities.put(((CaseRow) row).getCaseNo(), ((CaseRow) row).getPriority());
+        }
+        assertEquals(3, priorities.size());
+        assertEquals(Integer.valueOf(3), priorities.get("CASE001"));
+        assertEquals(Integer.valueOf(1), priorities.get("CASE002"));
+        assertTrue(priorities.containsKey("CASE003"));
+
+        // 标记删除的行同样从数据库读取
+        redisOperationService.markForDeletion("tm_case_main", "CASE002");
+        executor = mock(Executor.class);
+        query(interceptor, executor, ms, "Test Case");
+        rewritten = executedQuery(executor, "Test Case");
+        List<ParameterMapping> mappings = rewritten.getParameterMappings();
+        assertEquals(8, mappings.size());
+        assertEquals("CASE002", rewritten.getAdditionalParameter(mappings.get(0).getProperty()));
+        assertEquals("CASE003", rewritten.getAdditionalParameter(mappings.get(1).getProperty()));
+    }
+
+    @Test
+    public void testRowCache() throws Throwable {
+        redisOperationService.addIndexRecord("tm_case_main:case_code:C10", "CASE010", 0);
+        redisOperationService.addDataField("tm_case_main:CASE010", "case_no", "CASE010");
+        redisOperationService.addDataField("tm_case_main:CASE010", "case_code", "C10");
+        redisOperationService.addDataField("tm_case_main:CASE010", "priority", "5");
+        redisOperationService.addDataField("tm_case_main:CASE010", "jpa_version", "1");
+
+        MappedStatement select = selectStatement("test.CaseMapper.getByCode",
+                "SELECT case_no, priority FROM tm_case_main WHERE case_code = ?", caseRowMap(true), "caseCode");
+        MappedStatement update = statement("test.CaseMapper.updatePriority",
+                "UPDATE tm_case_main SET priority = ?, jpa_version = jpa_version + 1 WHERE case_no = ?",
+                SqlCommandType.UPDATE, "priority", "caseNo");
+
+        Executor executor = mock(Executor.class);
+        doReturn(1).when(executor).update(any(MappedStatement.class), any());
+        RedisJqlInterceptor interceptor = newInterceptor().setRowCache(true);
+
+        // 唯一索引映射到主键，结果由行哈希构造
+        Object result = query(interceptor, executor, select, "C10");
+        assertEquals(1, ((List<?>) result).size());
+        assertEquals("CASE010", ((CaseRow) ((List<?>) result).get(0)).getCaseNo());
+        assertEquals(Integer.valueOf(5), ((CaseRow) ((List<?>) result).get(0)).getPriority());
+        verify(executor, never()).query(any(MappedStatement.class), any(), any(RowBounds.class), any());
+
+        // 按主键更新后行哈希的版本号被删除，再次查询访问数据库
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("priority", 7);
+        parameter.put("caseNo", "CASE010");
+        update(interceptor, executor, update, parameter);
+        assertNull(redisOperationService.getFieldValue("tm_case_main:CASE010", "jpa_version"));
+
+        query(interceptor, executor, select, "C10");
+        verify(executor).query(eq(select), eq("C10"), eq(RowBounds.DEFAULT), isNull());
+    }
+
+    @Test
+    public void testRowCacheInvalidationAcrossNodes() throws Throwable {
+        redisOperationService.addDataField("tm_case_main:CASE010", "case_no", "CASE010");
+        redisOperationService.addDataField("tm_case_main:CASE010", "priority", "5");
+        redisOperationService.addDataField("tm_case_main:CASE010", "jpa_version", "1");
+
+        List<InvalidationChannel.Listener> listeners = new ArrayList<>();
+        InvalidationChannel channel = new InvalidationChannel() {
+            @Override
+            public void publish(String message) {
+                listeners.forEach(listener -> listener.onMessage(message));
+            }
+
+            @Override
+            public void subscribe(Listener listener) {
+                listeners.add(listener);
+            }
+        };
+        RedisJqlInterceptor nodeA = newInterceptor().setRowCache(true).setInvalidationChannel(channel);
+        RedisJqlInterceptor nodeB = newInterceptor().setRowCache(true).setInvalidationChannel(channel);
+
+        MappedStatement select = selectStatement("test.CaseMapper.getByNo",
+                "SELECT case_no, priority FROM tm_case_main WHERE case_no = ?", caseRowMap(true), "caseNo");
+        MappedStatement update = statement("test.CaseMapper.updatePriority",
+                "UPDATE tm_case_main SET priority = ?, jpa_version = jpa_version + 1 WHERE case_no = ?",
+                SqlCommandType.UPDATE, "priority", "caseNo");
+        Executor executor = mock(Executor.class);
+        doReturn(1).when(executor).update(any(MappedStatement.class), any());
+        Object cached = query(nodeA, executor, select, "CASE010");
+        assertEquals(Integer.valueOf(5), ((CaseRow) ((List<?>) cached).get(0)).getPriority());
+
+        // 节点B更新后通知节点A删除一级缓存，同步服务重新写入的行哈希随后被节点A读取
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("priority", 7);
+        parameter.put("caseNo", "CASE010");
+        update(nodeB, executor, update, parameter);
+        redisOperationService.addDataField("tm_case_main:CASE010", "priority", "7");
+        redisOperationService.addDataField("tm_case_main:CASE010", "jpa_version", "2");
+
+        Object reloaded = query(nodeA, executor, select, "CASE010");
+        assertEquals(Integer.valueOf(7), ((CaseRow) ((List<?>) reloaded).get(0)).getPriority());
+        verify(executor, never()).query(any(MappedStatement.class), any(), any(RowBounds.class), any());
+    }
+
+    @Test
+    public void testChunkedExecution() throws Throwable {
+        for (int i = 1; i <= 12; i++) {
+            redisOperationService.addIndexRecord("tm_case_main:name:Bulk", String.format("B%02d", i), i);
+        }
+
+        Connection connection = mock(Connection.class);
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        // 没有结果集时getUpdateCount为-1，否则MyBatis会一直调用getMoreResults
+        when(preparedStatement.getUpdateCount()).thenReturn(-1);
+        SqlSession session = mock(SqlSession.class);
+        when(session.getConnection()).thenReturn(connection);
+        SqlSessionFactory sqlSessionFactory = mock(SqlSessionFactory.class);
+        when(sqlSessionFactory.openSession(true)).thenReturn(session);
+
+        MappedStatement ms = statement("test.CaseMapper.export", "SELECT * FROM tm_case_main WHERE name = ?",
+                SqlCommandType.SELECT, "name");
+
+        // 调用方的连接开启了自动提交，不在事务中，各分块在独立连接上并行执行
+        Executor executor = callerExecutor(true);
+        RedisJqlInterceptor interceptor = newInterceptor()
+                .setSqlSessionFactory(sqlSessionFactory)
+                .setChunkSize(5);
+        Object result = query(interceptor, executor, ms, "Bulk");
+
+        assertTrue(((List<?>) result).isEmpty());
+        verify(executor, never()).query(any(MappedStatement.class), any(), any(RowBounds.class), any());
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        verify(connection, times(3)).prepareStatement(sqlCaptor.capture());
+        assertTrue(sqlCaptor.getValue(), sqlCaptor.getValue().contains("IN (?, ?, ?, ?, ?, ?, ?, ?)"));
+        verify(session, times(3)).close();
+        // 每块绑定名称参数和8个主键参数：12个主键分为5、5、2
+        verify(preparedStatement, times(3 * 9)).setString(anyInt(), anyString());
+        verify(preparedStatement).setString(2, "B01");
+        verify(preparedStatement).setString(2, "B11");
+    }
+
+    @Test
+    public void testChunkedExecutionInTransaction() throws Throwable {
+        for (int i = 1; i <= 12; i++) {
+            redisOperationService.addIndexRecord("tm_case_main:name:Bulk", String.format("B%02d", i), i);
+        }
+        SqlSessionFactory sqlSessionFactory = mock(SqlSessionFactory.class);
+        MappedStatement ms = statement("test.CaseMapper.export", "SELECT * FROM tm_case_main WHERE name = ?",
+                SqlCommandType.SELECT, "name");
+
+        // 独立连接看不到事务中未提交的修改，各分块依次在调用方的Executor上执行
+        Executor executor = callerExecutor(false);
+        doReturn(Collections.singletonList(new CaseRow("B01")))
+                .when(executor).query(any(MappedStatement.class), eq("Bulk"), eq(RowBounds.DEFAULT), isNull());
+        RedisJqlInterceptor interceptor = newInterceptor()
+                .setSqlSessionFactory(sqlSessionFactory)
+                .setChunkSize(5);
+        Object result = query(interceptor, executor, ms, "Bulk");
+
+        assertEquals(3, ((List<?>) result).size());
+        ArgumentCaptor<MappedStatement> captor = ArgumentCaptor.forClass(MappedStatement.class);
+        verify(executor, times(3)).query(captor.capture(), eq("Bulk"), eq(RowBounds.DEFAULT), isNull());
+        BoundSql lastChunk = captor.getValue().getBoundSql("Bulk");
+        assertTrue(lastChunk.getSql(), lastChunk.getSql().contains("IN (?, ?, ?, ?, ?, ?, ?, ?)"));
+        assertEquals("B11", lastChunk.getAdditionalParameter(lastChunk.getParameterMappings().get(1).getProperty()));
+        verify(sqlSessionFactory, never()).openSession(anyBoolean());
+    }
+
+    @Test
+    public void testFailedWriteExecutedOnce() throws Throwable {
+        MappedStatement updatePriority = statement("test.CaseMapper.updatePriority",
+                "UPDATE tm_case_main SET priority = ?, jpa_version = jpa_version + 1 WHERE case_no = ?",
+                SqlCommandType.UPDATE, "priority", "caseNo");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("priority", 7);
+        parameter.put("caseNo", "CASE010");
+
+        // 语句执行失败时异常直接抛给调用方，不再按原SQL重复执行
+        Executor executor = mock(Executor.class);
+        doThrow(new SQLException("lock wait timeout")).when(executor).update(any(MappedStatement.class), any());
+        try {
+            update(newInterceptor(), executor, updatePriority, parameter);
+            fail("写语句的异常应抛给调用方");
+        } catch (InvocationTargetException e) {
+            assertTrue(e.getCause() instanceof SQLException);
+        }
+        verify(executor, times(1)).update(any(MappedStatement.class), any());
+    }
+
+    @Test
+    public void testAsyncIndexUpdate() throws Throwable {
+        MappedStatement delete = statement("test.CaseMapper.delete",
+                "DELETE FROM tm_case_main WHERE case_no = 'CASE010'", SqlCommandType.DELETE);
+
+        AsyncCacheOperationService asyncOperationService = mock(AsyncCacheOperationService.class);
+        CompletableFuture<Boolean> removal = new CompletableFuture<>();
+        when(asyncOperationService.replaceIndexMemberships("tm_case_main", "CASE010", Collections.emptyMap(), -1L))
+                .thenReturn(removal);
+        when(asyncOperationService.markForDeletion("tm_case_main", "CASE010"))
+                .thenReturn(CompletableFuture.<Void>completedFuture(null));
+        Executor executor = mock(Executor.class);
+        doReturn(1).when(executor).update(any(MappedStatement.class), any());
+        RedisJqlInterceptor interceptor = newInterceptor().setAsyncCacheOperationService(asyncOperationService);
+
+        // 语句执行后发出命令即返回，不等待索引记录移除完成；移除在服务端原子完成，不再单独读取索引键
+        assertEquals(1, update(interceptor, executor, delete, null));
+        verify(asyncOperationService).markForDeletion("tm_case_main", "CASE010");
+        verify(asyncOperationService).replaceIndexMemberships("tm_case_main", "CASE010", Collections.emptyMap(), -1L);
+        verify(asyncOperationService, never()).getPrimaryKeyMappings(anyString(), anyString());
+        // 行缓存和覆盖读取都关闭时不读取行哈希，不做失效
+        verify(asyncOperationService, never()).removeDataField(anyString(), anyString());
+        removal.complete(true);
+    }
+
+    @Test
+    public void testWriteBehind() throws Throwable {
+        MappedStatement delete = statement("test.CaseMapper.delete",
+                "DELETE FROM tm_case_main WHERE case_no = 'CASE010'", SqlCommandType.DELETE);
+
+        AsyncCacheOperationService asyncOperationService = mock(AsyncCacheOperationService.class);
+        when(asyncOperationService.replaceIndexMemberships("tm_case_main", "CASE010", Collections.emptyMap(), -1L))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(asyncOperationService.markForDeletion("tm_case_main", "CASE010"))
+                .thenReturn(CompletableFuture.<Void>completedFuture(null));
+        when(asyncOperationService.removeDataField("tm_case_main:CASE010", "jpa_version"))
+                .thenReturn(CompletableFuture.<Void>completedFuture(null));
+        Executor executor = mock(Executor.class);
+        doReturn(1).when(executor).update(any(MappedStatement.class), any());
+        RedisJqlInterceptor interceptor = newInterceptor()
+                .setAsyncCacheOperationService(asyncOperationService)
+                .setRowCache(true)
+                .setWriteBehind(true);
+
+        try {
+            // 回滚的事务不发出索引命令和行哈希的失效
+            update(interceptor, executor, delete, null);
+            interceptor.intercept(new Invocation(executor, ROLLBACK, new Object[]{true}));
+            verify(executor).rollback(true);
+
+            // 提交后由后台线程发出
+            update(interceptor, executor, delete, null);
+            verify(asyncOperationService, never()).markForDeletion(anyString(), anyString());
+            verify(asyncOperationService, never()).removeDataField(anyString(), anyString());
+            interceptor.intercept(new Invocation(executor, COMMIT, new Object[]{true}));
+            verify(asyncOperationService, timeout(1000)).markForDeletion("tm_case_main", "CASE010");
+            verify(asyncOperationService, timeout(1000)).removeDataField("tm_case_main:CASE010", "jpa_version");
+        } finally {
+            interceptor.shutdown();
+        }
+        verify(asyncOperationService, times(1)).markForDeletion("tm_case_main", "CASE010");
+    }
+
+    @Test
+    public void testTrustCompleteIndexesRejectsWriteBehind() {
+        // 后写队列提交前索引落后于事务中的写入，两者不能同时开启
+        try {
+            newInterceptor().setTrustCompleteIndexes(true).setWriteBehind(true);
+            fail("信任完整索引时不能开启后写队列");
+        } catch (IllegalArgumentException expected) {
+            // 预期异常
+        }
+        RedisJqlInterceptor interceptor = newInterceptor().setWriteBehind(true);
+        try {
+            interceptor.setTrustCompleteIndexes(true);
+            fail("开启后写队列时不能信任完整索引");
+        } catch (IllegalArgumentException expected) {
+            // 预期异常
+        } finally {
+            interceptor.shutdown();
+        }
+    }
+
+    @Test
+    public void testWriteBehindCoalescing() throws Throwable {
+        redisOperationService.addIndexRecord("tm_case_main:name:Old", "CASE010", 1);
+        redisOperationService.addPrimaryKeyToIndexMapping("tm_case_main", "CASE010", "tm_case_main:name:Old");
+
+        MappedStatement renameToA = statement("test.CaseMapper.renameToA",
+                "UPDATE tm_case_main SET name = 'A', jpa_version = jpa_version + 1 WHERE case_no = 'CASE010'",
+                SqlCommandType.UPDATE);
+        MappedStatement renameToB = statement("test.CaseMapper.renameToB",
+                "UPDATE tm_case_main SET name = 'B', jpa_version = jpa_version + 1 WHERE case_no = 'CASE010'",
+                SqlCommandType.UPDATE);
+
+        // SET没有给出排序字段，每次更新后读取更新后的行计算索引记录
+        AsyncCacheOperationService asyncOperationService = spy(new ExecutorAsyncCacheOperationService(redisOperationService));
+        Executor executor = mock(Executor.class);
+        doReturn(1).when(executor).update(any(MappedStatement.class), any());
+        doReturn(Collections.singletonList(caseRow("CASE010", "A", 2)))
+                .doReturn(Collections.singletonList(caseRow("CASE010", "B", 3)))
+                .when(executor).query(any(MappedStatement.class), any(), eq(RowBounds.DEFAULT), isNull());
+        RedisJqlInterceptor interceptor = newInterceptor()
+                .setAsyncCacheOperationService(asyncOperationService)
+                .setWriteBehind(true);
+
+        try {
+            // 同一事务中先改为A再改为B，提交后只写入B
+            update(interceptor, executor, renameToA, null);
+            update(interceptor, executor, renameToB, null);
+            interceptor.intercept(new Invocation(executor, COMMIT, new Object[]{true}));
+            verify(asyncOperationService, timeout(1000))
+                    .replaceIndexMemberships(eq("tm_case_main"), eq("CASE010"), anyMap(), eq(3L));
+        } finally {
+            interceptor.shutdown();
+        }
+        verify(asyncOperationService, times(1))
+                .replaceIndexMemberships(eq("tm_case_main"), eq("CASE010"), anyMap(), anyLong());
+        assertTrue(redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:A", 0, -1).isEmpty());
+        assertTrue(redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Old", 0, -1).isEmpty());
+        assertEquals(Collections.singleton("CASE010"),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:B", 0, -1));
+    }
+
+    @Test
+    public void testBatchInsertIndexing() throws Throwable {
+        MappedStatement insertRows = statement("test.CaseMapper.insertRows",
+                "INSERT INTO tm_case_main (case_no, name, jpa_version) VALUES ('CASE020', 'A', 1), ('CASE021', 'B', 1)",
+                SqlCommandType.INSERT);
+        MappedStatement insertRow = new MappedStatement.Builder(configuration, "test.CaseMapper.insertRow",
+                new StaticSqlSource(configuration, "INSERT INTO tm_case_main (name, jpa_version) VALUES ('C', 1)"),
+                SqlCommandType.INSERT).keyProperty("caseNo").build();
+
+        AsyncCacheOperationService asyncOperationService = spy(new ExecutorAsyncCacheOperationService(redisOperationService));
+        Executor executor = mock(Executor.class);
+        doReturn(2).when(executor).update(eq(insertRows), any());
+        doReturn(BatchExecutor.BATCH_UPDATE_RETURN_VALUE).when(executor).update(eq(insertRow), any());
+        RedisJqlInterceptor interceptor = newInterceptor().setAsyncCacheOperationService(asyncOperationService);
+
+        // 多行插入的每一行按各自的值建立索引，合并为一次批量写入
+        update(interceptor, executor, insertRows, null);
+        verify(asyncOperationService, times(1)).addIndexRecords(eq("tm_case_main"), anyMap());
+        assertEquals(Collections.singleton("CASE020"),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:A", 0, -1));
+        assertEquals(Collections.singleton("CASE021"),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:B", 0, -1));
+
+        // 批量执行器刷新时回填生成的主键，刷新后一次写入全部插入行的索引
+        CaseRow first = new CaseRow();
+        CaseRow second = new CaseRow();
+        doAnswer(invocation -> {
+            first.setCaseNo("CASE030");
+            second.setCaseNo("CASE031");
+            return Collections.emptyList();
+        }).when(executor).flushStatements();
+        update(interceptor, executor, insertRow, first);
+        update(interceptor, executor, insertRow, second);
+        verify(asyncOperationService, times(1)).addIndexRecords(eq("tm_case_main"), anyMap());
+
+        interceptor.intercept(new Invocation(executor, FLUSH_STATEMENTS, new Object[0]));
+        verify(asyncOperationService, times(2)).addIndexRecords(eq("tm_case_main"), anyMap());
+        assertEquals(new HashSet<>(Arrays.asList("CASE030", "CASE031")),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:C", 0, -1));
+    }
+
+    @Test
+    public void testBulkWriteIndexMaintenance() throws Throwable {
+        indexConfigs.get(0).getIndexes().get(0).setComplete(true);
+        for (String caseNo : Arrays.asList("CASE001", "CASE002", "CASE003")) {
+            redisOperationService.addPrimaryKeyToIndexMapping("tm_case_main", caseNo, "tm_case_main:name:Test Case");
+            redisOperationService.addDataField("tm_case_main:" + caseNo, "jpa_version", "1");
+        }
+
+        MappedStatement renameByPriority = statement("test.CaseMapper.renameByPriority",
+                "UPDATE tm_case_main SET name = ?, jpa_version = jpa_version + 1 "
+                        + "WHERE name = 'Test Case' AND priority > ?", SqlCommandType.UPDATE, "name", "priority");
+        MappedStatement deleteByName = statement("test.CaseMapper.deleteByName",
+                "DELETE FROM tm_case_main WHERE name = ?", SqlCommandType.DELETE, "name");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("priority", 1);
+        parameter.put("name", "Renamed");
+
+        // 先查询受影响的主键，执行后再读取更新后的行计算索引记录
+        AsyncCacheOperationService asyncOperationService = spy(new ExecutorAsyncCacheOperationService(redisOperationService));
+        Executor executor = mock(Executor.class);
+        doReturn(2).when(executor).update(any(MappedStatement.class), any());
+        doReturn(Arrays.asList("CASE001", "CASE003"))
+                .doReturn(Arrays.asList(caseRow("CASE001", "Renamed", 2), caseRow("CASE003", "Renamed", 2)))
+                .when(executor).query(any(MappedStatement.class), any(), eq(RowBounds.DEFAULT), isNull());
+        RedisJqlInterceptor interceptor = newInterceptor().setAsyncCacheOperationService(asyncOperationService)
+                .setCoveringReads(true).setTrustCompleteIndexes(true);
+
+        // priority不在索引中，索引查得的候选主键再由数据库按原条件筛选，执行后替换筛选出的行的索引
+        update(interceptor, executor, renameByPriority, parameter);
+        ArgumentCaptor<MappedStatement> captor = ArgumentCaptor.forClass(MappedStatement.class);
+        verify(executor, times(2)).query(captor.capture(), eq(parameter), eq(RowBounds.DEFAULT), isNull());
+        BoundSql keyQuery = captor.getAllValues().get(0).getBoundSql(parameter);
+        assertTrue(keyQuery.getSql(), keyQuery.getSql().startsWith("SELECT case_no FROM tm_case_main WHERE"));
+        assertTrue(keyQuery.getSql(), keyQuery.getSql().contains("tm_case_main.case_no IN"));
+        // 筛选查询只绑定WHERE中的占位符，SET中的占位符不在其中
+        assertEquals("priority", keyQuery.getParameterMappings().get(0).getProperty());
+        BoundSql rowQuery = captor.getAllValues().get(1).getBoundSql(parameter);
+        assertTrue(rowQuery.getSql(), rowQuery.getSql().startsWith("SELECT * FROM tm_case_main WHERE tm_case_main.case_no IN"));
+        assertEquals(new HashSet<>(Arrays.asList("CASE001", "CASE003")),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Renamed", 0, -1));
+        assertEquals(Collections.singleton("CASE002"),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Test Case", 0, -1));
+        assertNull("受影响行的行哈希失效", redisOperationService.getFieldValue("tm_case_main:CASE001", "jpa_version"));
+        assertEquals("1", redisOperationService.getFieldValue("tm_case_main:CASE002", "jpa_version"));
+
+        // 条件全部由完整索引回答时，索引查得的主键就是删除的行，不再查询数据库
+        update(interceptor, executor, deleteByName, parameter);
+        verify(executor, times(2)).query(any(MappedStatement.class), any(), any(RowBounds.class), any());
+        verify(asyncOperationService).markForDeletion("tm_case_main", "CASE001");
+        verify(asyncOperationService).markForDeletion("tm_case_main", "CASE003");
+        verify(asyncOperationService, never()).markForDeletion("tm_case_main", "CASE002");
+        assertTrue("删除的行从索引中移除",
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Renamed", 0, -1).isEmpty());
+    }
+
+    @Test
+    public void testBulkWriteLimitInvalidatesIndexes() throws Throwable {
+        redisOperationService.addIndexRecord("tm_case_main:status:OPEN:create_time:1", "CASE001", 0);
+        redisOperationService.addIndexRecord("tm_case_main:case_code:C001", "CASE001", 0);
+
+        MappedStatement renameByName = statement("test.CaseMapper.renameByName",
+                "UPDATE tm_case_main SET name = ?, jpa_version = jpa_version + 1 WHERE name = ?",
+                SqlCommandType.UPDATE, "newName", "name");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("newName", "Renamed");
+        parameter.put("name", "Test Case");
+        Executor executor = mock(Executor.class);
+        doReturn(3).when(executor).update(any(MappedStatement.class), any());
+        RedisJqlInterceptor interceptor = newInterceptor().setBulkWriteLimit(2);
+
+        // 候选主键超过上限时不逐行维护，删除被修改的索引，相关查询回退到数据库，未修改的索引保留
+        update(interceptor, executor, renameByName, parameter);
+        verify(executor).update(renameByName, parameter);
+        verify(executor, never()).query(any(MappedStatement.class), any(), any(RowBounds.class), any());
+        assertTrue(redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Test Case", 0, -1).isEmpty());
+        assertTrue(redisOperationService.queryPrimaryKeysByIndex("tm_case_main:name:Renamed", 0, -1).isEmpty());
+        assertEquals(Collections.singleton("CASE001"),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:status:OPEN:create_time:1", 0, -1));
+        assertEquals(Collections.singleton("CASE001"),
+                redisOperationService.queryPrimaryKeysByIndex("tm_case_main:case_code:C001", 0, -1));
+    }
+
+    @Test
+    public void testArrayBindingExecution() throws Throwable {
+        // PostgreSQL方言经MyBatis真实执行：主键数组通过createArrayOf绑定到ANY(?)和array_position(?, ...)
+        redisOperationService.addDataField("tm_case_main:CASE001", "priority", "2");
+        redisOperationService.addDataField("tm_case_main:CASE002", "priority", "1");
+        redisOperationService.addDataField("tm_case_main:CASE003", "priority", "3");
+        MappedStatement ms = statement("test.CaseMapper.top",
+                "SELECT * FROM tm_case_main WHERE name = ? ORDER BY priority LIMIT ?", SqlCommandType.SELECT,
+                "name", "size");
+        Map<String, Object> parameter = new HashMap<>();
+        parameter.put("name", "Test Case");
+        parameter.put("size", 2);
+
+        Connection connection = mock(Connection.class);
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        java.sql.Array sqlArray = mock(java.sql.Array.class);
+        when(connection.prepareStatement(anyString())).thenReturn(preparedStatement);
+        when(preparedStatement.getConnection()).thenReturn(connection);
+        when(connection.createArrayOf(anyString(), any())).thenReturn(sqlArray);
+        when(preparedStatement.getUpdateCount()).thenReturn(-1);
+        Executor executor = new SimpleExecutor(configuration, new JdbcTransaction(connection));
+
+        Object result = query(newInterceptor().setDialect(RewriteDialects.forName("postgresql")), executor, ms,
+                parameter);
+
+        assertTrue(((List<?>) result).isEmpty());
+        ArgumentCaptor<String> sqlCaptor = ArgumentCaptor.forClass(String.class);
+        verify(connection).prepareStatement(sqlCaptor.capture());
+        assertTrue(sqlCaptor.getValue(), sqlCaptor.getValue().contains("case_no = ANY(?)"));
+        assertTrue(sqlCaptor.getValue(),
+                sqlCaptor.getValue().contains("ORDER BY array_position(?, tm_case_main.case_no)"));
+        // 数组不补齐档位，条件和排序表达式各绑定一次同样的主键
+        verify(connection, times(2)).createArrayOf(eq("VARCHAR"),
+                aryEq(new Object[]{"CASE002", "CASE001", "CASE003"}));
+        verify(preparedStatement).setString(1, "Test Case");
+        verify(preparedStatement).setArray(2, sqlArray);
+        verify(preparedStatement).setArray(3, sqlArray);
+        verify(preparedStatement).setInt(4, 2);
+    }
+
+    @Test
+    public void testPrimaryKeyBucketPadding() {
+        // 占位符数量取不小于主键数的2的幂，至少为8
+        assertEquals(8, PrimaryKeyParameters.bucketSize(1));
+        assertEquals(8, PrimaryKeyParameters.bucketSize(8));
+        assertEquals(16, PrimaryKeyParameters.bucketSize(9));
+        assertEquals(64, PrimaryKeyParameters.bucketSize(33));
+
+        // 不足部分重复最后一个主键，并按配置的主键类型转换
+        IndexConfig indexConfig = indexConfigs.get(0);
+        indexConfig.setPrimaryKeyType(JdbcType.BIGINT);
+        PrimaryKeyParameters parameters = PrimaryKeyParameters.of(Arrays.asList("101", "102", "103"), indexConfig,
+                JdbcType.UNDEFINED, null, false);
+        assertEquals(8, parameters.toExpressions().size());
+        BoundSql boundSql = new BoundSql(configuration, "SELECT 1", new ArrayList<>(), null);
+        parameters.bind(boundSql);
+        assertEquals(101L, boundSql.getAdditionalParameter(PrimaryKeyParameters.PROPERTY_PREFIX + "0"));
+        assertEquals(102L, boundSql.getAdditionalParameter(PrimaryKeyParameters.PROPERTY_PREFIX + "1"));
+        for (int i = 2; i < 8; i++) {
+            assertEquals(103L, boundSql.getAdditionalParameter(PrimaryKeyParameters.PROPERTY_PREFIX + i));
+        }
+        List<ParameterMapping> mappings = parameters.insertInto(parameterMappings("name"), configuration);
+        assertEquals(9, mappings.size());
+        assertEquals(JdbcType.BIGINT, mappings.get(8).getJdbcType());
+
+        // 9个主键进入下一档，数组绑定时不补齐
+        assertEquals(16, PrimaryKeyParameters.of(Arrays.asList("1", "2", "3", "4", "5", "6", "7", "8", "9"),
+                indexConfig, JdbcType.UNDEFINED, null, false).toExpressions().size());
+        PrimaryKeyParameters array = PrimaryKeyParameters.of(Arrays.asList("101", "102", "103"), indexConfig,
+                JdbcType.UNDEFINED, null, true);
+        assertEquals(1, array.toExpressions().size());
+        array.bind(boundSql);
+        assertArrayEquals(new Long[]{101L, 102L, 103L},
+                (Object[]) boundSql.getAdditionalParameter(PrimaryKeyParameters.PROPERTY_PREFIX + "0"));
+    }
+
+    @Test
+    public void testIndexMutationCoalescing() {
+        Map<String, Double> oldScores = Collections.singletonMap("tm_case_main:name:Old", 1.0);
+        Map<String, Double> newScores = Collections.singletonMap("tm_case_main:name:New", 2.0);
+        Map<String, Double> staleScores = Collections.singletonMap("tm_case_main:name:Stale", 1.0);
+
+        // 插入后更新：该行此前不在索引中，直接添加最终的索引记录
+        assertEquals("ADD tm_case_main:CASE001 -> [tm_case_main:name:New]",
+                IndexMutation.add("tm_case_main", "CASE001", oldScores)
+                        .coalesce(IndexMutation.move("tm_case_main", "CASE001", newScores, 2)).toString());
+        // 两次更新按顺序到达时取后一次，乱序到达时保留版本较新的一次，后一次版本未知时取后一次
+        assertEquals("MOVE tm_case_main:CASE002 -> [tm_case_main:name:New] @3",
+                IndexMutation.move("tm_case_main", "CASE002", staleScores, 2)
+                        .coalesce(IndexMutation.move("tm_case_main", "CASE002", newScores, 3)).toString());
+        assertEquals("MOVE tm_case_main:CASE002 -> [tm_case_main:name:New] @3",
+                IndexMutation.move("tm_case_main", "CASE002", newScores, 3)
+                        .coalesce(IndexMutation.move("tm_case_main", "CASE002", staleScores, 2)).toString());
+        assertEquals("MOVE tm_case_main:CASE002 -> [tm_case_main:name:Stale]",
+                IndexMutation.move("tm_case_main", "CASE002", newScores, 3)
+                        .coalesce(IndexMutation.move("tm_case_main", "CASE002", staleScores, -1)).toString());
+        // 删除后重新插入时替换已有的索引记录
+        assertEquals("MOVE tm_case_main:CASE003 -> [tm_case_main:name:New]",
+                IndexMutation.delete("tm_case_main", "CASE003")
+                        .coalesce(IndexMutation.add("tm_case_main", "CASE003", newScores)).toString());
+        // 行哈希的失效与同一行的索引变更分开合并
+        assertNotEquals(IndexMutation.delete("tm_case_main", "CASE003").mergeKey(),
+                IndexMutation.invalidate("tm_case_main", "CASE003", "jpa_version").mergeKey());
+
+        // 一批变更按行合并后发出：插入后更新合并为一次批量添加，乱序的更新只发出版本较新的一次
+        AsyncCacheOperationService operations = mock(AsyncCacheOperationService.class);
+        when(operations.addIndexRecords(eq("tm_case_main"), anyMap()))
+                .thenReturn(CompletableFuture.<Void>completedFuture(null));
+        when(operations.replaceIndexMemberships(eq("tm_case_main"), eq("CASE002"), anyMap(), anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        IndexMutation.applyAll(Arrays.asList(
+                IndexMutation.add("tm_case_main", "CASE001", oldScores),
+                IndexMutation.move("tm_case_main", "CASE002", newScores, 3),
+                IndexMutation.move("tm_case_main", "CASE001", newScores, 2),
+                IndexMutation.move("tm_case_main", "CASE002", staleScores, 2)), operations)
+                .toCompletableFuture().join();
+        verify(operations).addIndexRecords("tm_case_main", Collections.singletonMap("tm_case_main:name:New",
+                Collections.singletonMap("CASE001", 2.0)));
+        verify(operations, times(1)).replaceIndexMemberships(eq("tm_case_main"), eq("CASE002"), anyMap(), anyLong());
+        verify(operations).replaceIndexMemberships("tm_case_main", "CASE002", newScores, 3L);
+        verify(operations, never()).replaceIndexMemberships(eq("tm_case_main"), eq("CASE001"), anyMap(), anyLong());
+    }
+
+    @Test
+    public void testWriteBehindRollback() {
+        AsyncCacheOperationService operations = mock(AsyncCacheOperationService.class);
+        when(operations.markForDeletion("tm_case_main", "CASE002"))
+                .thenReturn(CompletableFuture.<Void>completedFuture(null));
+        when(operations.replaceIndexMemberships("tm_case_main", "CASE002", Collections.emptyMap(), -1L))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        IndexWriteBehind queue = new IndexWriteBehind(operations, 10, 10, 1000);
+        Object session = new Object();
+        try {
+            // 回滚的Executor丢弃记录的变更，之后的提交不再发出
+            queue.record(session, IndexMutation.delete("tm_case_main", "CASE001"));
+            queue.rollback(session);
+            queue.commit(session);
+
+            // Spring事务回滚时同样丢弃，提交时发出
+            TransactionSynchronizationManager.initSynchronization();
+            try {
+                queue.record(session, IndexMutation.delete("tm_case_main", "CASE001"));
+                TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK);
+            } finally {
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+            TransactionSynchronizationManager.initSynchronization();
+            try {
+                queue.record(session, IndexMutation.delete("tm_case_main", "CASE002"));
+                TransactionSynchronizationUtils.triggerAfterCommit();
+                TransactionSynchronizationUtils.triggerAfterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+            } finally {
+                TransactionSynchronizationManager.clearSynchronization();
+            }
+            verify(operations, timeout(1000)).markForDeletion("tm_case_main", "CASE002");
+        } finally {
+            queue.close();
+        }
+        assertEquals(0, queue.pending());
+        verify(operations, never()).markForDeletion("tm_case_main", "CASE001");
+        verify(operations, never()).replaceIndexMemberships(eq("tm_case_main"), eq("CASE001"), anyMap(), anyLong());
+    }
+
+    @Test
+    public void testWriteBehindOverflow() throws Exception {
+        // 第一批的命令未完成时后台线程阻塞，容量为1的队列再放入一条即满
+        AsyncCacheOperationService operations = mock(AsyncCacheOperationService.class);
+        CompletableFuture<Boolean> blocked = new CompletableFuture<>();
+        when(operations.replaceIndexMemberships(eq("tm_case_main"), eq("CASE001"), anyMap(), anyLong()))
+                .thenReturn(blocked);
+        when(operations.replaceIndexMemberships(eq("tm_case_main"), eq("CASE002"), anyMap(), anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(operations.replaceIndexMemberships(eq("tm_case_main"), eq("CASE003"), anyMap(), anyLong()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        Map<String, Double> scores = Collections.singletonMap("tm_case_main:name:New", 1.0);
+        IndexWriteBehind queue = new IndexWriteBehind(operations, 1, 1, 1000);
+        try {
+            Object first = new Object();
+            queue.record(first, IndexMutation.move("tm_case_main", "CASE001", scores, 1));
+            queue.commit(first);
+            verify(operations, timeout(1000)).replaceIndexMemberships("tm_case_main", "CASE001", scores, 1L);
+            Object second = new Object();
+            queue.record(second, IndexMutation.move("tm_case_main", "CASE002", scores, 1));
+            queue.commit(second);
+            assertEquals(1, queue.pending());
+
+            // 队列已满时提交的线程等待后台线程腾出空间，不丢弃变更
+            Thread committer = new Thread(() -> {
+                Object third = new Object();
+                queue.record(third, IndexMutation.move("tm_case_main", "CASE003", scores, 1));
+                queue.commit(third);
+            });
+            committer.start();
+            long deadline = System.currentTimeMillis() + 1000;
+            while (committer.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.WAITING, committer.getState());
+            verify(operations, never()).replaceIndexMemberships(eq("tm_case_main"), eq("CASE003"), anyMap(),
+                    anyLong());
+
+            blocked.complete(true);
+            committer.join(1000);
+            assertFalse(committer.isAlive());
+            verify(operations, timeout(1000)).replaceIndexMemberships("tm_case_main", "CASE002", scores, 1L);
+            verify(operations, timeout(1000)).replaceIndexMemberships("tm_case_main", "CASE003", scores, 1L);
+        } finally {
+            blocked.complete(true);
+            queue.close();
+        }
+    }
+
+    /**
+     * 调用方的Executor，其连接的自动提交状态决定是否处于事务中
+     */
+    private static Executor callerExecutor(boolean autoCommit) throws Exception {
+        Connection connection = mock(Connection.class);
+        when(connection.getAutoCommit()).thenReturn(autoCommit);
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getConnection()).thenReturn(connection);
+        Executor executor = mock(Executor.class);
+        when(executor.getTransaction()).thenReturn(transaction);
+        return executor;
+    }
+
+    private RedisJqlInterceptor newInterceptor() {
+        return new RedisJqlInterceptor(new StatementParser(), redisOperationService).setIndexConfigs(indexConfigs);
+    }
+
+    /**
+     * 静态SQL语句，占位符按顺序对应参数对象的属性
+     */
+    private MappedStatement statement(String id, String sql, SqlCommandType commandType, String... properties) {
+        return new MappedStatement.Builder(configuration, id,
+                new StaticSqlSource(configuration, sql, parameterMappings(properties)), commandType).build();
+    }
+
+    private MappedStatement selectStatement(String id, String sql, ResultMap resultMap, String... properties) {
+        return new MappedStatement.Builder(configuration, id,
+                new StaticSqlSource(configuration, sql, parameterMappings(properties)), SqlCommandType.SELECT)
+                .resultMaps(Collections.singletonList(resultMap)).build();
+    }
+
+    private List<ParameterMapping> parameterMappings(String... properties) {
+        List<ParameterMapping> mappings = new ArrayList<>();
+        for (String property : properties) {
+            mappings.add(new ParameterMapping.Builder(configuration, property, Object.class).build());
+        }
+        return mappings;
+    }
+
+    /**
+     * CaseRow的结果映射，case_no为ID列
+     */
+    private ResultMap caseRowMap(boolean withPriority) {
+        List<ResultMapping> mappings = new ArrayList<>();
+        mappings.add(new ResultMapping.Builder(configuration, "caseNo", "case_no", String.class)
+                .flags(Collections.singletonList(ResultFlag.ID)).build());
+        if (withPriority) {
+            mappings.add(new ResultMapping.Builder(configuration, "priority", "priority", Integer.class).build());
+        }
+        return new ResultMap.Builder(configuration, "test.CaseMapper.caseRow", CaseRow.class, mappings).build();
+    }
+
+    private static Object query(RedisJqlInterceptor interceptor, Executor executor, MappedStatement ms,
+                                Object parameter) throws Throwable {
+        return interceptor.intercept(new Invocation(executor, QUERY,
+                new Object[]{ms, parameter, RowBounds.DEFAULT, null}));
+    }
+
+    private static Object update(RedisJqlInterceptor interceptor, Executor executor, MappedStatement ms,
+                                 Object parameter) throws Throwable {
+        return interceptor.intercept(new Invocation(executor, UPDATE, new Object[]{ms, parameter}));
+    }
+
+    /**
+     * 拦截器交给Executor执行的唯一一次查询
+     */
+    private static BoundSql executedQuery(Executor executor, Object parameter) throws Exception {
+        ArgumentCaptor<MappedStatement> captor = ArgumentCaptor.forClass(MappedStatement.class);
+        verify(executor).query(captor.capture(), eq(parameter), eq(RowBounds.DEFAULT), isNull());
+        return captor.getValue().getBoundSql(parameter);
+    }
+
+    private static List<String> caseNos(Object result) {
+        List<String> caseNos = new ArrayList<>();
+        for (Object row : (List<?>) result) {
+            caseNos.add(((CaseRow) row).getCaseNo());
+        }
+        return caseNos;
+    }
+
+    /**
+     * 数据库中的一行，列名为大写，与部分驱动返回的列标签相同
+     */
+    private static Map<String, Object> caseRow(String caseNo, String name, long version) {
+        Map<String, Object> row = new HashMap<>();
+        row.put("CASE_NO", caseNo);
+        row.put("NAME", name);
+        row.put("CREATE_TIME", new Timestamp(1674259200000L));
+        row.put("JPA_VERSION", version);
+        return row;
+    }
+
+    private static Method executorMethod(String name, Class<?>... parameterTypes) {
+        try {
+            return Executor.class.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class CaseRow {
+        private String caseNo;
+        private Integer priority;
+
+        public CaseRow() {
+        }
+
+        CaseRow(String caseNo) {
+            this.caseNo = caseNo;
+        }
+
+        public String getCaseNo() {
+            return caseNo;
+        }
+
+        public void setCaseNo(String caseNo) {
+            this.caseNo = caseNo;
+        }
+
+        public Integer getPriority() {
+            return priority;
+        }
+
+        public void setPriority(Integer priority) {
+            this.priority = priority;
+        }
+    }
+}
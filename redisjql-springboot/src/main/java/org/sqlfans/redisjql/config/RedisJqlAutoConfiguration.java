@@ -1,5 +1,8 @@
 package org.sqlfans.redisjql.config;
 
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
@@ -10,16 +13,34 @@ import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
 import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
 import org.springframework.data.redis.core.ReactiveRedisTemplate;
 import org.springframework.data.redis.core.ReactiveStringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import io.lettuce.core.RedisClient;
+import io.lettuce.core.RedisURI;
+import io.lettuce.core.api.StatefulRedisConnection;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
 
+import org.sqlfans.redisjql.cache.AsyncCacheOperationService;
 import org.sqlfans.redisjql.cache.CacheOperationService;
+import org.sqlfans.redisjql.cache.ExecutorAsyncCacheOperationService;
 import org.sqlfans.redisjql.cache.caffine.CaffeineCacheOperationService;
 import org.sqlfans.redisjql.cache.redis.JedisCacheOperationService;
+import org.sqlfans.redisjql.cache.redis.JedisInvalidationChannel;
+import org.sqlfans.redisjql.cache.redis.LettuceAsyncCacheOperationService;
 import org.sqlfans.redisjql.cache.redis.LettuceCacheOperationService;
+import org.sqlfans.redisjql.cache.redis.LettuceInvalidationChannel;
+import org.sqlfans.redisjql.cache.tiered.InvalidationChannel;
+import org.sqlfans.redisjql.cache.tiered.TieredAsyncCacheOperationService;
+import org.sqlfans.redisjql.cache.tiered.TieredCacheOperationService;
+import org.sqlfans.redisjql.dialect.RewriteDialects;
+import org.sqlfans.redisjql.interceptor.RedisJqlInterceptor;
 import org.sqlfans.redisjql.parser.SelectParser;
+import org.sqlfans.redisjql.parser.StatementParser;
+import org.sqlfans.redisjql.sync.DataSyncService;
 import org.sqlfans.redisjql.parser.impl.SelectParserImpl;
 
+import java.time.Duration;
+
 /**
  * RedisJQL自动配置类
  * 负责根据配置自动创建和装配相关的Bean，包括Redis连接、缓存服务和解析器等
@@ -30,6 +51,7 @@ import org.sqlfans.redisjql.parser.impl.SelectParserImpl;
  */
 @Configuration
 @EnableConfigurationProperties(RedisJqlProperties.class)
+@AutoConfigureAfter(name = "org.springframework.boot.autoconfigure.jdbc.JdbcTemplateAutoConfiguration")
 public class RedisJqlAutoConfiguration {
     
     /**
@@ -144,32 +166,235 @@ public class RedisJqlAutoConfiguration {
         return new CaffeineCacheOperationService();
     }
     
+    /**
+     * 创建两级缓存的失效通道Bean
+     * 基于Redis发布订阅，两级缓存服务和拦截器的行缓存共用同一通道
+     * 当cache.tiered.enabled=true时创建，按redis.client选择Jedis或Lettuce实现
+     * 
+     * @param jedisPool Jedis连接池
+     * @param redisTemplate 反应式Redis模板
+     * @return InvalidationChannel实例
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "redisjql", name = "cache.tiered.enabled", havingValue = "true")
+    public InvalidationChannel invalidationChannel(ObjectProvider<JedisPool> jedisPool,
+                                                   ObjectProvider<ReactiveRedisTemplate<String, String>> redisTemplate) {
+        String channel = properties.getCache().getTiered().getChannel();
+        if ("lettuce".equals(properties.getCache().getRedisClient())) {
+            return new LettuceInvalidationChannel(redisTemplate.getObject(), channel);
+        }
+        return new JedisInvalidationChannel(jedisPool.getObject(), channel);
+    }
+    
     /**
      * 创建Jedis实现的CacheOperationService Bean
-     * 当cache.type=redis且redis.client=jedis时创建
+     * 当cache.type=redis且redis.client=jedis时创建，开启两级缓存时包装为TieredCacheOperationService
      * 
      * @param jedisPool Jedis连接池
-     * @return JedisCacheOperationService实例
+     * @param invalidationChannel 两级缓存的失效通道
+     * @return JedisCacheOperationService或TieredCacheOperationService实例
      */
     @Bean
     @ConditionalOnMissingBean(CacheOperationService.class)
     @ConditionalOnProperty(prefix = "redisjql", name = {"cache.type", "cache.redis-client"}, havingValue = "jedis", matchIfMissing = true)
-    public CacheOperationService jedisCacheOperationService(JedisPool jedisPool) {
-        return new JedisCacheOperationService(jedisPool);
+    public CacheOperationService jedisCacheOperationService(JedisPool jedisPool,
+                                                            ObjectProvider<InvalidationChannel> invalidationChannel) {
+        return tiered(new JedisCacheOperationService(jedisPool), invalidationChannel);
     }
     
     /**
      * 创建Lettuce实现的CacheOperationService Bean
-     * 当cache.type=redis且redis.client=lettuce时创建
+     * 当cache.type=redis且redis.client=lettuce时创建，开启两级缓存时包装为TieredCacheOperationService
      * 
      * @param redisTemplate 反应式Redis模板
-     * @return LettuceCacheOperationService实例
+     * @param invalidationChannel 两级缓存的失效通道
+     * @return LettuceCacheOperationService或TieredCacheOperationService实例
      */
     @Bean
     @ConditionalOnMissingBean(CacheOperationService.class)
     @ConditionalOnProperty(prefix = "redisjql", name = {"cache.type", "cache.redis-client"}, havingValue = "lettuce")
-    public CacheOperationService lettuceCacheOperationService(ReactiveRedisTemplate<String, String> redisTemplate) {
-        return new LettuceCacheOperationService(redisTemplate);
+    public CacheOperationService lettuceCacheOperationService(ReactiveRedisTemplate<String, String> redisTemplate,
+                                                              ObjectProvider<InvalidationChannel> invalidationChannel) {
+        return tiered(new LettuceCacheOperationService(redisTemplate), invalidationChannel);
+    }
+    
+    /**
+     * 开启两级缓存时在Redis实现前增加本地一级缓存
+     * @param remote Redis实现的缓存操作服务
+     * @param invalidationChannel 失效通道
+     * @return 两级缓存服务，未开启时返回remote
+     */
+    private CacheOperationService tiered(CacheOperationService remote,
+                                         ObjectProvider<InvalidationChannel> invalidationChannel) {
+        RedisJqlProperties.CacheConfig.TieredConfig tieredConfig = properties.getCache().getTiered();
+        InvalidationChannel channel = invalidationChannel.getIfAvailable();
+        if (!tieredConfig.isEnabled() || channel == null) {
+            return remote;
+        }
+        return new TieredCacheOperationService(remote, channel, tieredConfig.getMaximumWeight(),
+                tieredConfig.getMaximumIndexSize(), tieredConfig.getExpireSeconds());
+    }
+    
+    /**
+     * 创建Lettuce原生客户端Bean
+     * 用于异步缓存操作服务直接使用Lettuce的异步命令接口
+     * 仅当cache.type=redis且redis.client=lettuce时创建
+     * 
+     * @return RedisClient实例
+     */
+    @Bean(destroyMethod = "shutdown")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "redisjql", name = {"cache.type", "cache.redis-client"}, havingValue = "lettuce", matchIfMissing = false)
+    public RedisClient lettuceRedisClient() {
+        RedisJqlProperties.RedisConfig redisConfig = properties.getRedis();
+        
+        RedisURI.Builder builder = RedisURI.builder()
+                .withHost(redisConfig.getHost())
+                .withPort(redisConfig.getPort())
+                .withDatabase(redisConfig.getDatabase())
+                .withTimeout(Duration.ofMillis(redisConfig.getTimeout()));
+        
+        // 设置密码（如果有）
+        String password = redisConfig.getPassword();
+        if (password != null && !password.isEmpty()) {
+            builder.withPassword(password.toCharArray());
+        }
+        return RedisClient.create(builder.build());
+    }
+    
+    /**
+     * 创建Lettuce原生连接Bean
+     * 异步缓存操作服务的全部命令共用该连接，容器关闭时关闭连接
+     * 仅当cache.type=redis且redis.client=lettuce时创建
+     * 
+     * @param redisClient Lettuce原生客户端
+     * @return StatefulRedisConnection实例
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(prefix = "redisjql", name = {"cache.type", "cache.redis-client"}, havingValue = "lettuce", matchIfMissing = false)
+    public StatefulRedisConnection<String, String> lettuceConnection(RedisClient redisClient) {
+        return redisClient.connect();
+    }
+    
+    /**
+     * 创建Lettuce实现的AsyncCacheOperationService Bean
+     * 写路径的索引命令在同一连接上同时进行，开启两级缓存时命令完成后失效本地缓存
+     * 当cache.type=redis且redis.client=lettuce时创建
+     * 
+     * @param connection Lettuce原生连接
+     * @param cacheOperationService 缓存操作服务
+     * @return LettuceAsyncCacheOperationService或TieredAsyncCacheOperationService实例
+     */
+    @Bean
+    @ConditionalOnMissingBean(AsyncCacheOperationService.class)
+    @ConditionalOnProperty(prefix = "redisjql", name = {"cache.type", "cache.redis-client"}, havingValue = "lettuce")
+    public AsyncCacheOperationService lettuceAsyncCacheOperationService(StatefulRedisConnection<String, String> connection,
+                                                                        CacheOperationService cacheOperationService) {
+        AsyncCacheOperationService remote = new LettuceAsyncCacheOperationService(connection);
+        if (cacheOperationService instanceof TieredCacheOperationService) {
+            return new TieredAsyncCacheOperationService(remote, (TieredCacheOperationService) cacheOperationService);
+        }
+        return remote;
+    }
+    
+    /**
+     * 创建Jedis实现的AsyncCacheOperationService Bean
+     * Jedis没有异步接口，命令在线程池中执行，线程数与连接池最大连接数相同
+     * 当cache.type=redis且redis.client=jedis时创建
+     * 
+     * @param cacheOperationService 缓存操作服务
+     * @return ExecutorAsyncCacheOperationService实例
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnMissingBean(AsyncCacheOperationService.class)
+    @ConditionalOnProperty(prefix = "redisjql", name = {"cache.type", "cache.redis-client"}, havingValue = "jedis", matchIfMissing = true)
+    public AsyncCacheOperationService jedisAsyncCacheOperationService(CacheOperationService cacheOperationService) {
+        return new ExecutorAsyncCacheOperationService(cacheOperationService, properties.getRedis().getPool().getMaxTotal());
+    }
+    
+    /**
+     * 创建本地缓存实现的AsyncCacheOperationService Bean
+     * 本地缓存的操作在调用线程上直接完成
+     * 当cache.type=local时创建
+     * 
+     * @param cacheOperationService 缓存操作服务
+     * @return ExecutorAsyncCacheOperationService实例
+     */
+    @Bean
+    @ConditionalOnMissingBean(AsyncCacheOperationService.class)
+    @ConditionalOnProperty(prefix = "redisjql", name = "cache.type", havingValue = "local")
+    public AsyncCacheOperationService caffeineAsyncCacheOperationService(CacheOperationService cacheOperationService) {
+        return new ExecutorAsyncCacheOperationService(cacheOperationService);
+    }
+    
+    /**
+     * 创建StatementParser Bean
+     * 用于拦截器解析SQL语句
+     * 
+     * @return StatementParser实例
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public StatementParser statementParser() {
+        return new StatementParser();
+    }
+    
+    /**
+     * 创建RedisJqlInterceptor Bean
+     * 写路径的索引命令通过异步缓存操作服务发出；开启两级缓存时，拦截器的行缓存与两级缓存服务共用失效通道
+     * 
+     * @param statementParser SQL语句解析器
+     * @param cacheOperationService 缓存操作服务
+     * @param asyncCacheOperationService 异步缓存操作服务
+     * @param indexConfigLoader 索引配置加载器
+     * @param invalidationChannel 两级缓存的失效通道
+     * @return RedisJqlInterceptor实例
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public RedisJqlInterceptor redisJqlInterceptor(StatementParser statementParser,
+                                                   CacheOperationService cacheOperationService,
+                                                   ObjectProvider<AsyncCacheOperationService> asyncCacheOperationService,
+                                                   IndexConfigLoader indexConfigLoader,
+                                                   ObjectProvider<InvalidationChannel> invalidationChannel) {
+        RedisJqlInterceptor interceptor = new RedisJqlInterceptor(statementParser, cacheOperationService)
+                .setIndexConfigs(indexConfigLoader.loadIndexConfigs())
+                .setInvalidationChannel(invalidationChannel.getIfAvailable());
+        asyncCacheOperationService.ifAvailable(interceptor::setAsyncCacheOperationService);
+        String dialect = properties.getDialect();
+        if (dialect != null && !dialect.trim().isEmpty()) {
+            interceptor.setDialect(RewriteDialects.forName(dialect.trim()));
+        }
+        return interceptor;
+    }
+    
+    /**
+     * 创建DataSyncService Bean
+     * 同步写入的索引和行哈希通过异步缓存操作服务发出，每批记录的命令同时进行；
+     * 由应用调用start()启动同步，容器关闭时停止
+     * 存在JdbcTemplate时创建
+     * 
+     * @param jdbcTemplate 数据库访问模板
+     * @param cacheOperationService 缓存操作服务
+     * @param asyncCacheOperationService 异步缓存操作服务
+     * @param indexConfigLoader 索引配置加载器
+     * @return DataSyncService实例
+     */
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnMissingBean
+    @ConditionalOnBean(JdbcTemplate.class)
+    public DataSyncService dataSyncService(JdbcTemplate jdbcTemplate,
+                                           CacheOperationService cacheOperationService,
+                                           ObjectProvider<AsyncCacheOperationService> asyncCacheOperationService,
+                                           IndexConfigLoader indexConfigLoader) {
+        AsyncCacheOperationService asyncOperationService = asyncCacheOperationService.getIfAvailable();
+        if (asyncOperationService == null) {
+            return new DataSyncService(jdbcTemplate, cacheOperationService, indexConfigLoader.loadIndexConfigs());
+        }
+        return new DataSyncService(jdbcTemplate, cacheOperationService, asyncOperationService,
+                indexConfigLoader.loadIndexConfigs());
     }
     
     /**
@@ -184,6 +409,11 @@ public class RedisJqlAutoConfiguration {
     @ConditionalOnMissingBean
     public SelectParser selectParser(CacheOperationService cacheOperationService, 
                                    IndexConfigLoader indexConfigLoader) {
-        return new SelectParserImpl(cacheOperationService, indexConfigLoader.loadIndexConfigs());
+        SelectParserImpl selectParser = new SelectParserImpl(cacheOperationService, indexConfigLoader.loadIndexConfigs());
+        String dialect = properties.getDialect();
+        if (dialect != null && !dialect.trim().isEmpty()) {
+            selectParser.setDialect(RewriteDialects.forName(dialect.trim()));
+        }
+        return selectParser;
     }
 } 
\ No newline at end of file
@@ -28,6 +28,11 @@ public class RedisJqlProperties {
      */
     private RedisConfig redis = new RedisConfig();
     
+    /**
+     * SQL改写方言名称（generic、mysql、postgresql、h2）或实现类全限定名，为空时使用通用方言
+     */
+    private String dialect;
+    
     public String getBasePackage() {
         return basePackage;
     }
@@ -52,6 +57,14 @@ public class RedisJqlProperties {
         this.redis = redis;
     }
     
+    public String getDialect() {
+        return dialect;
+    }
+    
+    public void setDialect(String dialect) {
+        this.dialect = dialect;
+    }
+    
     /**
      * 缓存配置类
      * 包含缓存类型和Redis客户端类型的选择
@@ -71,6 +84,11 @@ public class RedisJqlProperties {
          */
         private String redisClient = "jedis";
         
+        /**
+         * 两级缓存配置，cache.type=redis时生效
+         */
+        private TieredConfig tiered = new TieredConfig();
+        
         public String getType() {
             return type;
         }
@@ -86,6 +104,85 @@ public class RedisJqlProperties {
         public void setRedisClient(String redisClient) {
             this.redisClient = redisClient;
         }
+        
+        public TieredConfig getTiered() {
+            return tiered;
+        }
+        
+        public void setTiered(TieredConfig tiered) {
+            this.tiered = tiered;
+        }
+        
+        /**
+         * 两级缓存配置类
+         * 开启后Redis实现前增加本地Caffeine一级缓存，写入通过Redis发布订阅通知各节点失效
+         */
+        public static class TieredConfig {
+            /**
+             * 是否开启两级缓存
+             */
+            private boolean enabled = false;
+            
+            /**
+             * 失效消息的发布订阅频道
+             */
+            private String channel = "redisjql:invalidation";
+            
+            /**
+             * 本地缓存的最大容量，按索引主键数和行哈希字段数计算
+             */
+            private long maximumWeight = 1_000_000L;
+            
+            /**
+             * 进入本地缓存的索引键的最大主键数
+             */
+            private int maximumIndexSize = 10000;
+            
+            /**
+             * 本地缓存写入后的过期秒数
+             */
+            private long expireSeconds = 600;
+            
+            public boolean isEnabled() {
+                return enabled;
+            }
+            
+            public void setEnabled(boolean enabled) {
+                this.enabled = enabled;
+            }
+            
+            public String getChannel() {
+                return channel;
+            }
+            
+            public void setChannel(String channel) {
+                this.channel = channel;
+            }
+            
+            public long getMaximumWeight() {
+                return maximumWeight;
+            }
+            
+            public void setMaximumWeight(long maximumWeight) {
+                this.maximumWeight = maximumWeight;
+            }
+            
+            public int getMaximumIndexSize() {
+                return maximumIndexSize;
+            }
+            
+            public void setMaximumIndexSize(int maximumIndexSize) {
+                this.maximumIndexSize = maximumIndexSize;
+            }
+            
+            public long getExpireSeconds() {
+                return expireSeconds;
+            }
+            
+            public void setExpireSeconds(long expireSeconds) {
+                this.expireSeconds = expireSeconds;
+            }
+        }
     }
     
     /**